@@ -5,8 +5,10 @@ import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.xored.javafx.packeteditor.guice.GuiceModule;
 import com.xored.javafx.packeteditor.scapy.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.*;
 import org.junit.rules.Timeout;
@@ -41,12 +43,12 @@ public class TestScapyClient {
                 ReconstructProtocol.pass("IP"),
                 ReconstructProtocol.modify("TCP", Arrays.asList(ReconstructField.setValue("sport", 888)))
         ));
-        assertNotNull(pd.binary);
-        assertEquals(pd.data.get(0).id, "Ether");
-        assertEquals(pd.data.get(1).id, "IP");
-        assertEquals(pd.data.get(2).id, "TCP");
+        assertTrue(pd.getPacketLength() > 0);
+        assertEquals(pd.getProtocols().get(0).id, "Ether");
+        assertEquals(pd.getProtocols().get(1).id, "IP");
+        assertEquals(pd.getProtocols().get(2).id, "TCP");
 
-        FieldData sport = pd.data.get(2).getFieldById("sport");
+        FieldData sport = pd.getProtocols().get(2).getFieldById("sport");
 
         assertEquals(sport.hvalue, "888");
         assertEquals(sport.getIntValue(), 888);
@@ -59,9 +61,9 @@ public class TestScapyClient {
                 ReconstructProtocol.pass("Ether"),
                 ReconstructProtocol.modify("IP", Arrays.asList(ReconstructField.setHumanValue("len", "123")))
         ));
-        assertNotNull(pd.binary);
-        assertEquals(pd.data.get(1).id, "IP");
-        assertEquals(pd.data.get(1).getFieldById("len").getIntValue(), 123);
+        assertTrue(pd.getPacketLength() > 0);
+        assertEquals(pd.getProtocols().get(1).id, "IP");
+        assertEquals(pd.getProtocols().get(1).getFieldById("len").getIntValue(), 123);
     }
 
     @Test
@@ -87,7 +89,7 @@ public class TestScapyClient {
                 ))
         ));
 
-        ProtocolData ether = new_pkt.data.get(0);
+        ProtocolData ether = new_pkt.getProtocols().get(0);
         assertEquals(ether.getFieldById("dst").getStringValue(), "aa:bb:cc:dd:ee:ff");
         assertNotEquals(ether.getFieldById("src").getStringValue(), origEtherSrc); // src was randomized. chance to get same value is almost 0
     }
@@ -103,4 +105,20 @@ public class TestScapyClient {
         assertTrue(!etherPayload.contains("Ether"));
         assertTrue(!etherPayload.contains("TCO"));
     }
+
+    @Test
+    public void should_pipeline_async_requests() {
+        List<CompletableFuture<PacketData>> requests = new ArrayList<>();
+        for (int sport = 1000; sport < 1010; sport++) {
+            requests.add(scapy.build_pkt_async(Arrays.asList(
+                    ReconstructProtocol.pass("Ether"),
+                    ReconstructProtocol.pass("IP"),
+                    ReconstructProtocol.modify("TCP", Arrays.asList(ReconstructField.setValue("sport", sport)))
+            )));
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            PacketData pd = requests.get(i).join();
+            assertEquals(pd.getProtocols().get(2).getFieldById("sport").getIntValue(), 1000 + i);
+        }
+    }
 }
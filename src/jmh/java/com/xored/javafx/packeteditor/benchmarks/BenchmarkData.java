@@ -0,0 +1,123 @@
+package com.xored.javafx.packeteditor.benchmarks;
+
+import com.google.gson.JsonPrimitive;
+import com.xored.javafx.packeteditor.data.user.Document;
+import com.xored.javafx.packeteditor.data.user.UserProtocol;
+import com.xored.javafx.packeteditor.metatdata.*;
+import com.xored.javafx.packeteditor.scapy.FieldData;
+import com.xored.javafx.packeteditor.scapy.PacketData;
+import com.xored.javafx.packeteditor.scapy.ProtocolData;
+import com.xored.javafx.packeteditor.service.IMetadataService;
+import com.xored.javafx.packeteditor.service.InstructionsTemplate;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * synthetic protocol stack for benchmarks, no Scapy server is needed.
+ * every layer has FIELDS_PER_LAYER 2-byte number fields
+ */
+public class BenchmarkData {
+    public static final int FIELDS_PER_LAYER = 16;
+
+    /** metadata service backed by a fixed protocol map */
+    public static class StaticMetadataService implements IMetadataService {
+        final Map<String, ProtocolMetadata> protocols = new HashMap<>();
+
+        @Override
+        public Map<String, ProtocolMetadata> getProtocols() { return protocols; }
+
+        @Override
+        public Map<String, FeParameterMeta> getFeParameters() { return Collections.emptyMap(); }
+
+        @Override
+        public Map<String, InstructionExpressionMeta> getFeInstructions() { return Collections.emptyMap(); }
+
+        @Override
+        public ProtocolMetadata getProtocolMetadata(ProtocolData protocol) { return protocols.get(protocol.id); }
+
+        @Override
+        public ProtocolMetadata getProtocolMetadataById(String protocolId) { return protocols.get(protocolId); }
+
+        @Override
+        public CompletableFuture<ProtocolMetadata> getProtocolMetadataByIdAsync(String protocolId) {
+            return CompletableFuture.completedFuture(protocols.get(protocolId));
+        }
+
+        @Override
+        public List<String> getAllowedPayloadForProtocol(String protocolId) { return Collections.emptyList(); }
+
+        @Override
+        public CompletableFuture<List<String>> getAllowedPayloadForProtocolAsync(String protocolId) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        @Override
+        public Map<String, FEInstructionParameterMeta> getFeInstructionParameters() { return Collections.emptyMap(); }
+
+        @Override
+        public List<InstructionsTemplate> getFeInstructionsTemplates() { return Collections.emptyList(); }
+    }
+
+    public static StaticMetadataService metadataService(int layers) {
+        StaticMetadataService service = new StaticMetadataService();
+        for (int layer = 0; layer < layers; layer++) {
+            List<FieldMetadata> fields = new ArrayList<>();
+            for (int field = 0; field < FIELDS_PER_LAYER; field++) {
+                fields.add(new FieldMetadata(fieldId(field), "Field " + field, FieldMetadata.FieldType.NUMBER, null, null, false));
+            }
+            String id = protocolId(layer);
+            service.protocols.put(id, new ProtocolMetadata(id, id, fields, null, null));
+        }
+        return service;
+    }
+
+    /** document with all layers, every other field is set by user */
+    public static Document document(IMetadataService metadataService, int layers) {
+        Document doc = new Document();
+        for (int layer = 0; layer < layers; layer++) {
+            doc.addProtocol(metadataService.getProtocolMetadataById(protocolId(layer)));
+            UserProtocol protocol = doc.getProtocolStack().peek();
+            for (int field = 0; field < FIELDS_PER_LAYER; field += 2) {
+                protocol.getField(fieldId(field)).setValue(new JsonPrimitive(layer * 100 + field));
+            }
+        }
+        return doc;
+    }
+
+    /** build_pkt like result matching the document */
+    public static PacketData packet(int layers, int payloadLength) {
+        int layerLength = FIELDS_PER_LAYER * 2;
+        byte[] bytes = new byte[layers * layerLength + payloadLength];
+        List<ProtocolData> protocols = new ArrayList<>();
+        for (int layer = 0; layer < layers; layer++) {
+            ProtocolData protocol = new ProtocolData();
+            protocol.id = protocolId(layer);
+            protocol.real_id = protocol.id;
+            protocol.name = protocol.id;
+            protocol.valid_structure = true;
+            protocol.offset = layer * layerLength;
+            protocol.fields = new ArrayList<>();
+            for (int field = 0; field < FIELDS_PER_LAYER; field++) {
+                FieldData fieldData = new FieldData();
+                fieldData.id = fieldId(field);
+                fieldData.value = new JsonPrimitive(layer * 100 + field);
+                fieldData.hvalue = String.valueOf(layer * 100 + field);
+                fieldData.offset = field * 2;
+                fieldData.length = 2;
+                protocol.fields.add(fieldData);
+                bytes[layer * layerLength + field * 2 + 1] = (byte) field;
+            }
+            protocols.add(protocol);
+        }
+        return new PacketData(protocols, bytes);
+    }
+
+    static String protocolId(int layer) {
+        return "Layer" + layer;
+    }
+
+    static String fieldId(int field) {
+        return "f" + field;
+    }
+}
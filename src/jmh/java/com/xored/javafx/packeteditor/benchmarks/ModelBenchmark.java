@@ -0,0 +1,65 @@
+package com.xored.javafx.packeteditor.benchmarks;
+
+import com.xored.javafx.packeteditor.data.combined.CombinedProtocolModel;
+import com.xored.javafx.packeteditor.data.user.Document;
+import com.xored.javafx.packeteditor.data.user.DocumentFile;
+import com.xored.javafx.packeteditor.scapy.PacketData;
+import com.xored.javafx.packeteditor.scapy.ReconstructProtocol;
+import com.xored.javafx.packeteditor.service.IMetadataService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** user model paths executed on every edit */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+
+    @Param({"3", "8"})
+    int layers;
+
+    IMetadataService metadataService;
+    Document document;
+    DocumentFile documentFile;
+    PacketData packet;
+
+    @Setup
+    public void setup() {
+        metadataService = BenchmarkData.metadataService(layers);
+        document = BenchmarkData.document(metadataService, layers);
+        documentFile = DocumentFile.toPOJO(document);
+        packet = BenchmarkData.packet(layers, 64);
+    }
+
+    @Benchmark
+    public List<ReconstructProtocol> buildScapyModel() {
+        return document.buildScapyModel();
+    }
+
+    @Benchmark
+    public DocumentFile toPOJO() {
+        return DocumentFile.toPOJO(document);
+    }
+
+    /** every layer is modified, so no snapshot can be reused */
+    @Benchmark
+    public DocumentFile toPOJOModified() {
+        document.getProtocolStack().forEach(protocol -> protocol.getField("f0").setValue(protocol.getField("f0").getValue()));
+        return DocumentFile.toPOJO(document);
+    }
+
+    @Benchmark
+    public Document fromPOJO() {
+        return DocumentFile.fromPOJO(documentFile, metadataService);
+    }
+
+    @Benchmark
+    public CombinedProtocolModel combinedModelFromUserModel() {
+        return CombinedProtocolModel.fromUserModel(metadataService, document, packet.getProtocols());
+    }
+}
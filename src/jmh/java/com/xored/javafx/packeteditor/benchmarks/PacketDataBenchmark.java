@@ -0,0 +1,51 @@
+package com.xored.javafx.packeteditor.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.xored.javafx.packeteditor.scapy.PacketData;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/** packet bytes access, done by binary editor and field views on each repaint/rebuild */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketDataBenchmark {
+
+    @Param({"64", "1500", "65536"})
+    int payloadLength;
+
+    final Gson gson = new Gson();
+    PacketData packet;
+    /** packet message with base64 binary only, as scapy_server sends it */
+    String received;
+
+    @Setup
+    public void setup() {
+        packet = BenchmarkData.packet(3, payloadLength);
+        JsonObject message = new JsonObject();
+        message.addProperty("binary", packet.getBinary());
+        received = message.toString();
+    }
+
+    @Benchmark
+    public byte[] getPacketBytes() {
+        return packet.getPacketBytes();
+    }
+
+    @Benchmark
+    public ByteBuffer getPacketBuffer() {
+        return packet.getPacketBuffer();
+    }
+
+    /** packet received from Scapy has only base64 binary until bytes are requested, includes parsing the message */
+    @Benchmark
+    public int decodeBinary() {
+        return gson.fromJson(received, PacketData.class).getPacketLength();
+    }
+}
@@ -0,0 +1,68 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.common.eventbus.EventBus;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.xored.javafx.packeteditor.benchmarks.BenchmarkData;
+import com.xored.javafx.packeteditor.data.user.Document;
+import com.xored.javafx.packeteditor.service.ConfigurationService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/** request encoding and build_pkt round trip against in-process mock server */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScapyClientBenchmark {
+    static final int TIMEOUT_MS = 5000;
+
+    @Param({"3", "8"})
+    int layers;
+
+    final Gson gson = new Gson();
+    MockScapyServer server;
+    ScapyServerClient client;
+    ScapyServerClient.Request request;
+    JsonElement model;
+
+    @Setup
+    public void setup() {
+        Document document = BenchmarkData.document(BenchmarkData.metadataService(layers), layers);
+        model = gson.toJsonTree(document.buildScapyModel());
+        request = new ScapyServerClient.Request();
+        request.id = "1";
+        request.method = "build_pkt";
+        request.params = model;
+
+        server = new MockScapyServer();
+        client = new ScapyServerClient();
+        client.configurationService = new ConfigurationService("127.0.0.1", String.valueOf(TIMEOUT_MS), String.valueOf(server.getPort()), "tcp", "", "1", "100", "64");
+        client.eventBus = new EventBus();
+        client.metrics = new ScapyClientMetrics();
+        client.connect(Collections.singletonList(server.getUrl()), TIMEOUT_MS);
+        if (!client.isConnected()) {
+            throw new IllegalStateException("Unable to connect to mock server at " + server.getUrl());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.closeConnection();
+        server.close();
+    }
+
+    @Benchmark
+    public String encodeRequest() {
+        return gson.toJson(request);
+    }
+
+    @Benchmark
+    public PacketData buildPacketRoundTrip() {
+        return client.build_pkt(model);
+    }
+}
@@ -2,6 +2,7 @@ package com.xored.javafx.packeteditor;
 
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.xored.javafx.packeteditor.cli.TemplateRenderer;
 import com.xored.javafx.packeteditor.controllers.AppController;
 import com.xored.javafx.packeteditor.guice.GuiceModule;
 import com.xored.javafx.packeteditor.scapy.ConnectionException;
@@ -19,6 +20,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import static com.xored.javafx.packeteditor.service.ConfigurationService.ApplicationMode.STANDALONE;
 
@@ -38,6 +40,10 @@ public class TRexPacketCraftingTool extends Application {
     }
 
     public static void main(String[] args) {
+        if (Arrays.asList(args).contains(TemplateRenderer.RENDER_OPTION)) {
+            // headless batch mode, JavaFX toolkit is not started
+            System.exit(TemplateRenderer.main(args));
+        }
         TRexPacketCraftingTool.launch(args);
     }
 
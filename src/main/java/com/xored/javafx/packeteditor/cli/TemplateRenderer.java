@@ -0,0 +1,297 @@
+package com.xored.javafx.packeteditor.cli;
+
+import com.google.common.eventbus.EventBus;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.xored.javafx.packeteditor.data.user.Document;
+import com.xored.javafx.packeteditor.data.user.DocumentFile;
+import com.xored.javafx.packeteditor.guice.GuiceModule;
+import com.xored.javafx.packeteditor.pcap.PcapWriter;
+import com.xored.javafx.packeteditor.scapy.PacketData;
+import com.xored.javafx.packeteditor.scapy.ScapyServerClient;
+import com.xored.javafx.packeteditor.service.ConfigurationService;
+import com.xored.javafx.packeteditor.service.IMetadataService;
+import com.xored.javafx.packeteditor.service.PacketDataService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * headless batch mode: builds .trp documents and Scapy templates concurrently and writes a pcap
+ * and field engine VM JSON for each of them. usage:
+ * <pre>
+ * --render [--out DIR] [--jobs N] [--pool N] [--server HOST:PORT] [--templates] [--template ID]... [FILE|DIR]...
+ * </pre>
+ */
+public class TemplateRenderer {
+    private static Logger logger = LoggerFactory.getLogger(TemplateRenderer.class);
+
+    public static final String RENDER_OPTION = "--render";
+    static final String VM_EXTENSION = ".vm.json";
+
+    @Inject
+    ConfigurationService configurationService;
+
+    @Inject
+    ScapyServerClient scapy;
+
+    @Inject
+    PacketDataService packetDataService;
+
+    @Inject
+    IMetadataService metadataService;
+
+    @Inject
+    EventBus eventBus;
+
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private PrintStream out = System.out;
+
+    /** single item to render: a document file or a Scapy template */
+    static class Job {
+        final String name;
+        final File file;
+        final String templateId;
+
+        Job(String name, File file, String templateId) {
+            this.name = name;
+            this.file = file;
+            this.templateId = templateId;
+        }
+    }
+
+    static class Options {
+        File outDir = new File(".");
+        int jobs = 0;
+        int pool = 0;
+        String serverHost;
+        String serverPort;
+        boolean allTemplates = false;
+        List<String> templates = new ArrayList<>();
+        List<File> inputs = new ArrayList<>();
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case RENDER_OPTION:
+                        break;
+                    case "--out":
+                        options.outDir = new File(value(args, ++i, arg));
+                        break;
+                    case "--jobs":
+                        options.jobs = Integer.parseInt(value(args, ++i, arg));
+                        break;
+                    case "--pool":
+                        options.pool = Integer.parseInt(value(args, ++i, arg));
+                        break;
+                    case "--server":
+                        options.server(value(args, ++i, arg));
+                        break;
+                    case "--templates":
+                        options.allTemplates = true;
+                        break;
+                    case "--template":
+                        options.templates.add(value(args, ++i, arg));
+                        break;
+                    default:
+                        if (arg.startsWith("--")) {
+                            throw new IllegalArgumentException("Unknown option " + arg);
+                        }
+                        options.inputs.add(new File(arg));
+                }
+            }
+            return options;
+        }
+
+        private void server(String server) {
+            int colon = server.lastIndexOf(':');
+            String port = colon < 0 ? "" : server.substring(colon + 1);
+            if (colon <= 0 || !port.matches("\\d{1,5}") || !isValidPort(Integer.parseInt(port))) {
+                throw new IllegalArgumentException("Invalid value of --server: " + server + ", expected HOST:PORT");
+            }
+            serverHost = server.substring(0, colon);
+            serverPort = port;
+        }
+
+        private static boolean isValidPort(int port) {
+            return port > 0 && port <= 65535;
+        }
+
+        private static String value(String[] args, int i, String option) {
+            if (i >= args.length) {
+                throw new IllegalArgumentException("Missing value of " + option);
+            }
+            return args[i];
+        }
+    }
+
+    /** entry point called from TRexPacketCraftingTool.main, returns process exit code */
+    public static int main(String[] args) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: " + RENDER_OPTION + " [--out DIR] [--jobs N] [--pool N] [--server HOST:PORT]"
+                    + " [--templates] [--template ID]... [FILE|DIR]...");
+            return 2;
+        }
+        TemplateRenderer renderer = Guice.createInjector(new GuiceModule()).getInstance(TemplateRenderer.class);
+        return renderer.run(options);
+    }
+
+    @Inject
+    public void initEventBus() {
+        // headless mode has no AppController, services are registered here
+        eventBus.register(packetDataService);
+        eventBus.register(metadataService);
+    }
+
+    int run(Options options) {
+        if (options.serverHost != null) {
+            configurationService.setConnectionHost(options.serverHost);
+            configurationService.setConnectionPort(options.serverPort);
+        }
+        if (options.pool > 0) {
+            configurationService.setConnectionPoolSize(options.pool);
+        }
+        int jobs = options.jobs > 0 ? options.jobs : Math.max(1, configurationService.getConnectionPoolSize() * configurationService.getConnectionUrls().size());
+
+        scapy.connect();
+        if (!scapy.isConnected()) {
+            System.err.println("Unable to connect to Scapy server at " + configurationService.getConnectionUrls());
+            return 1;
+        }
+
+        try {
+            List<Job> renderJobs = collectJobs(options);
+            long start = System.nanoTime();
+            int failed = render(renderJobs, options.outDir, jobs);
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            out.printf("Rendered %d of %d in %d ms using %d jobs%n", renderJobs.size() - failed, renderJobs.size(), millis, jobs);
+            return failed == 0 ? 0 : 1;
+        } catch (Exception e) {
+            System.err.println("Render failed: " + e.getMessage());
+            logger.error("render failed", e);
+            return 1;
+        } finally {
+            packetDataService.closeConnection();
+        }
+    }
+
+    List<Job> collectJobs(Options options) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        for (File input : options.inputs) {
+            if (input.isDirectory()) {
+                Path root = input.toPath();
+                try (Stream<Path> files = Files.walk(root)) {
+                    for (Path path : files.filter(p -> p.toString().endsWith(DocumentFile.FILE_EXTENSION)).sorted().collect(Collectors.toList())) {
+                        jobs.add(new Job(stripExtension(root.relativize(path).toString()), path.toFile(), null));
+                    }
+                }
+            } else {
+                jobs.add(new Job(stripExtension(input.getName()), input, null));
+            }
+        }
+        Set<String> templates = new LinkedHashSet<>(options.templates);
+        if (options.allTemplates) {
+            List<JsonObject> available = scapy.getTemplates();
+            if (available == null) {
+                throw new IOException("Unable to get templates list from Scapy server");
+            }
+            available.forEach(template -> templates.add(template.get("id").getAsString()));
+        }
+        templates.forEach(id -> jobs.add(new Job(id, null, id)));
+        return jobs;
+    }
+
+    /** renders jobs with the given parallelism, returns the number of failed ones */
+    int render(List<Job> jobs, File outDir, int parallelism) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "render");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger failed = new AtomicInteger();
+        try {
+            List<Future<?>> futures = jobs.stream()
+                    .map(job -> executor.submit(() -> {
+                        try {
+                            renderJob(job, outDir);
+                            out.println("OK   " + job.name);
+                        } catch (Exception e) {
+                            failed.incrementAndGet();
+                            out.println("FAIL " + job.name + ": " + e.getMessage());
+                            logger.debug("failed to render {}", job.name, e);
+                        }
+                    }))
+                    .collect(Collectors.toList());
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failed.incrementAndGet();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return failed.get();
+    }
+
+    void renderJob(Job job, File outDir) throws IOException {
+        Document doc = loadDocument(job);
+        PacketData pkt = ScapyServerClient.await(
+                packetDataService.buildPacketAsync(doc.buildScapyModel(), doc.getVmInstructionsModel()));
+        if (pkt.getFieldEngineError() != null) {
+            throw new IOException("field engine error: " + pkt.getFieldEngineError());
+        }
+
+        File pcapFile = new File(outDir, job.name + ".pcap");
+        File parent = pcapFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        try (PcapWriter writer = new PcapWriter(pcapFile)) {
+            writer.write(pkt, System.currentTimeMillis() * 1000000L);
+        }
+
+        JsonObject fieldEngine = pkt.getFieldEngine();
+        JsonElement vm = fieldEngine != null && fieldEngine.has("instructions")
+                ? fieldEngine.get("instructions") : new JsonObject();
+        Files.write(new File(outDir, job.name + VM_EXTENSION).toPath(), gson.toJson(vm).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Document loadDocument(Job job) throws IOException {
+        if (job.file != null) {
+            return DocumentFile.loadFromFile(job.file, metadataService);
+        }
+        JsonObject template = new JsonObject();
+        template.add("id", new JsonPrimitive(job.templateId));
+        String templateBase64 = ScapyServerClient.await(scapy.getTemplateAsync(template));
+        String json = new String(Base64.getDecoder().decode(templateBase64), StandardCharsets.UTF_8);
+        return DocumentFile.loadFromJSON(json, metadataService);
+    }
+
+    private static String stripExtension(String name) {
+        return name.endsWith(DocumentFile.FILE_EXTENSION) ? name.substring(0, name.length() - DocumentFile.FILE_EXTENSION.length()) : name;
+    }
+}
@@ -1,23 +1,24 @@
 package com.xored.javafx.packeteditor.controllers;
 
 import com.xored.javafx.packeteditor.data.BinaryData;
-import com.xored.javafx.packeteditor.data.PacketEditorModel;
 import com.xored.javafx.packeteditor.data.IBinaryData;
+import com.xored.javafx.packeteditor.data.PacketEditorModel;
 import com.xored.javafx.packeteditor.scapy.ScapyUtils;
-import javafx.beans.value.ChangeListener;
-import javafx.beans.value.ObservableValue;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
-import javafx.geometry.Bounds;
-import javafx.scene.Group;
-import javafx.scene.control.ScrollPane;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ScrollBar;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Pane;
 import javafx.scene.paint.Color;
-import javafx.scene.shape.Rectangle;
 import javafx.scene.text.Font;
 import javafx.scene.text.Text;
+import javafx.scene.text.TextAlignment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,389 +28,318 @@ import java.util.Observable;
 import java.util.Observer;
 import java.util.ResourceBundle;
 
+/**
+ * hex view of the packet drawn on a canvas.
+ * only visible rows are drawn, so memory and redraw cost don't depend on the packet size
+ */
 public class BinaryEditorController implements Initializable, Observer {
     private Logger logger = LoggerFactory.getLogger(BinaryEditorController.class);
 
-    @FXML private Group beGroup;
-    @FXML private ScrollPane beGroupScrollPane;
+    @FXML private Pane beCanvasPane;
+    @FXML private Canvas beCanvas;
+    @FXML private ScrollBar beVScrollBar;
+    @FXML private ScrollBar beHScrollBar;
+    /** not shown, picks up font from begrouptext css class */
+    @FXML private Text beFontProbe;
     @Inject private IBinaryData binaryData;
 
     @Inject
     PacketEditorModel model;
 
-    boolean updating = false;
+    static final String[] HEX_BYTES = new String[256];
+    static {
+        for (int i = 0; i < HEX_BYTES.length; i++) {
+            HEX_BYTES[i] = String.format("%02X", i);
+        }
+    }
 
-    private Text[][] texts;
-    private Text[] lineNums;
-    private Text[] lineHex;
-    private Rectangle[] selRect = new Rectangle[3];
-    private Rectangle[] selRectHex = new Rectangle[3];
-    private Rectangle editingRect = new Rectangle();
+    static final Color BACKGROUND_COLOR = Color.WHITE;
+    static final Color ADDRESS_BACKGROUND_COLOR = Color.WHITESMOKE;
+    static final Color ADDRESS_COLOR = Color.GREY;
+    static final Color TEXT_COLOR = Color.web("#3b3b3b");
+    static final Color SELECTION_COLOR = Color.web("#b7e1ff");
 
     final int maxByteColumns = 16;
-    final int maxByteRows = 64; // higher values may require display optimizations
 
-    final double yPadding = 0;
     final double xPadding = 5;      // Global padding
     final double xBytePadding = 50; // Padding for bytes column
     final double xHexPadding = 55;  // Padding for hex column (latest column)
-    final double xOffset = 0;
-    final double yOffset = 20;
-    final double numLineLength = 36.12; // Length of bytes number column
-    final double byteLength = 15;
-    final double byteLengthHex = 7.224375;  // 9.6325 for font-size=16; 7.224375 for font-size=12
-          double byteLengthHexScale = -1;
+    final double rowHeight = 20;
     final double byteGap = 5;      // Gap between bytes inside series
     final double byteWordGap = 25; // Gap between 4-bytes series
 
+    /** measured from the current font */
+    double charWidth = 8.4;
+    double byteLength = 15;
+
+    /** reused for ascii column, to avoid allocations per redraw */
+    private final char[] asciiRow = new char[maxByteColumns];
+
     int idxEditing = -1;
     int editingStep = 0;
 
     @Override
     public void initialize(URL location, ResourceBundle resources) {
-        reloadAll();
-        binaryData.getObservable().addObserver(this);
+        beCanvas.widthProperty().bind(beCanvasPane.widthProperty());
+        beCanvas.heightProperty().bind(beCanvasPane.heightProperty());
+        beCanvas.widthProperty().addListener((o, oldVal, newVal) -> updateScrollBars());
+        beCanvas.heightProperty().addListener((o, oldVal, newVal) -> updateScrollBars());
+        beFontProbe.fontProperty().addListener((o, oldVal, newVal) -> updateFontMetrics());
 
-        ChangeListener<Number> sizeListener = new ChangeListener<Number>() {
-            public void changed(ObservableValue<? extends Number> ov,
-                                Number old_val, Number new_val) {
-                Rectangle clip = new Rectangle(beGroupScrollPane.getLayoutBounds().getWidth() - 1
-                        , beGroupScrollPane.getLayoutBounds().getHeight() - 1);
-                clip.setLayoutX(0);
-                clip.setLayoutY(0);
-                beGroupScrollPane.setClip(clip);
-            }
-        };
+        beVScrollBar.valueProperty().addListener((o, oldVal, newVal) -> redraw());
+        beHScrollBar.valueProperty().addListener((o, oldVal, newVal) -> redraw());
 
-        beGroupScrollPane.widthProperty().addListener(sizeListener);
-        beGroupScrollPane.heightProperty().addListener(sizeListener);
-    }
+        beCanvas.setFocusTraversable(true);
+        beCanvas.setOnScroll(this::onScroll);
+        beCanvas.setOnMouseClicked(this::onMouseClicked);
+        beCanvas.setOnKeyPressed(this::onKeyPressed);
 
-    private int getDisplayedBytesLength() {
-        int maxBytesToDisplay =  maxByteRows * maxByteColumns;
-        return Math.min(binaryData.getLength(), maxBytesToDisplay);
+        binaryData.getObservable().addObserver(this);
+        updateFontMetrics();
     }
 
-    private void reloadAll() {
-        int displayedBytesLen = getDisplayedBytesLength();
-
-        final int w = maxByteColumns;
-        final int h = displayedBytesLen /w + ((0 < displayedBytesLen % w) ? 1 : 0);
-
-        texts = new Text[h][];
-        lineNums = new Text[h];
-        lineHex = new Text[h];
-
-        beGroup.getChildren().clear();
-        for (int i = 0; i < selRect.length; i++) {
-            selRect[i] = new Rectangle();
-            selRect[i].getStyleClass().add("be-selection-rectangle");
-            selRect[i].setTranslateZ(0);
-
-            beGroup.getChildren().add(selRect[i]);
-        }
-        for (int i = 0; i < selRectHex.length; i++) {
-            selRectHex[i] = new Rectangle();
-            selRectHex[i].getStyleClass().add("be-selection-rectangle");
-            selRectHex[i].setTranslateZ(0);
-
-            beGroup.getChildren().add(selRectHex[i]);
+    @Override
+    public void update(Observable o, Object arg) {
+        if (o != binaryData) {
+            return;
         }
-
-        Rectangle rect4lineNums = new Rectangle(0, 0);
-        rect4lineNums.getStyleClass().add("be-address-rectangle");
-        rect4lineNums.setTranslateZ(0);
-        beGroup.getChildren().add(rect4lineNums);
-
-        beGroup.getChildren().add(editingRect);
-        for (int i = 0; i < h; i++) {
-            texts[i] = new Text[w];
-            lineNums[i] = new Text(String.format("%04x", i * w));
-            lineHex[i] = new Text(convertHexToString(binaryData.getBytes(i * w, Math.min(w, displayedBytesLen - i * w))));
-
-            lineNums[i].setTranslateX(xOffset + xPadding);
-            lineNums[i].setTranslateY(yOffset * (i+1) + yPadding);
-            lineNums[i].setFont(Font.font("monospace"));
-            lineNums[i].setFill(Color.GREY);
-            lineNums[i].setTranslateZ(100);
-
-            Bounds b = lineNums[i].getBoundsInParent();
-            rect4lineNums.setTranslateX(Math.min(b.getMinX(), rect4lineNums.getX()));
-            rect4lineNums.setTranslateY(Math.min(b.getMinY(), rect4lineNums.getY()));
-            rect4lineNums.setWidth(Math.max(b.getMaxX() - rect4lineNums.getX() + xPadding, rect4lineNums.getWidth()));
-            rect4lineNums.setHeight(Math.max(b.getMaxY() - rect4lineNums.getY(), rect4lineNums.getHeight()));
-            rect4lineNums.setHeight(Math.max(beGroupScrollPane.getLayoutBounds().getHeight(), rect4lineNums.getHeight()));
-
-
-            lineHex[i].setTranslateX(numLineLength + xBytePadding + xOffset + w * byteLength + w * byteGap + (w/4 - 1) * byteWordGap + xOffset + xPadding + xHexPadding);
-            lineHex[i].setTranslateY(yOffset * (i+1) + yPadding);
-            lineHex[i].getStyleClass().add("begrouptext");
-
-            beGroup.getChildren().addAll(lineNums[i], lineHex[i]);
-
-            for (int j = 0; j < w && (i * w + j < displayedBytesLen); j++) {
-                final int f_i = i;
-                final int f_j = j;
-                final int idx = i * w + j;
-
-                final Text text = new Text();
-                byte currentByte = binaryData.getByte(idx);
-                String hexByte = String.format("%02X", currentByte);
-                text.setText(hexByte);
-
-
-                text.setTranslateX(numLineLength + xBytePadding + xOffset + j * byteGap + (j/4) * byteWordGap + byteLength * j + xPadding);
-                text.setTranslateY(yOffset * (i+1) + yPadding);
-                text.setTranslateZ(100);
-
-                text.getStyleClass().add("begrouptext");
-
-                texts[i][j] = text;
-
-                if (isEditingAllowed()) {
-                    text.setOnMouseClicked( (MouseEvent mouseEvent) -> {
-                        if(mouseEvent.getButton().equals(MouseButton.PRIMARY)){
-                            if(mouseEvent.getClickCount() == 2){
-                                startEditing(idx);
-                                beGroup.requestFocus();
-                            }
-                        }
-                    });
-                }
-
-                beGroup.getChildren().add(text);
-                beGroup.setFocusTraversable(true);
-            }
+        if (idxEditing >= binaryData.getLength()) {
+            stopEditing();
         }
-
-        if (displayedBytesLen < binaryData.getLength()) {
-            logger.info("payload is too large to display");
+        updateScrollBars();
+        if (BinaryData.OP.SELECTION.equals(arg)) {
+            scrollToSelection();
         }
+        redraw();
+    }
 
-        if (isEditingAllowed()) {
-            beGroup.setOnKeyPressed((KeyEvent ke) -> {
-                if (-1 != idxEditing) {
-                    try {
-                        Integer val = Integer.parseInt(ke.getText(), 16);
-
-                        int b = binaryData.getByte(idxEditing);
-                        if (0 == editingStep) {
-                            b &= 0x0FFFF0F;
-                        } else {
-                            b &= 0x0FFFFF0;
-                        }
-                        b |= val << (1 - editingStep) * 4;
-                        binaryData.setByte(idxEditing, (byte) b);
-                        byte[] newBytes = binaryData.getBytes(0, binaryData.getLength());
-                        model.editPacketBytes(newBytes);
-
-                        int i = idxEditing / texts[0].length;
-                        int j = idxEditing % texts[0].length;
-
-                        updating = true;
-                        //String.format("%02X", b).getChars(0, 2, symbols, 0);
-                        texts[i][j].setText(String.format("%02X", (byte) b));
-                        lineHex[i].setText(convertHexToString(binaryData.getBytes(i * texts[i].length, texts[i].length)));
-                        updating = false;
-
-
-                        editingStep++;
-                        if (editingStep == 2) {
-                            editingStep = 0;
-                            idxEditing = -1;
-                            editingRect.setWidth(0);
-                            editingRect.setHeight(0);
-                        }
-                    } catch (Exception e) {
-                        logger.error("binary editor error", e);
-                    }
-                }
-            });
-        }
+    private void updateFontMetrics() {
+        Text probe = new Text("00");
+        probe.setFont(getFont());
+        charWidth = probe.getLayoutBounds().getWidth() / 2;
+        byteLength = Math.max(15, charWidth * 2);
+        updateScrollBars();
+        redraw();
     }
 
-    private String convertHexToString(byte[] hex) {
-        StringBuilder sb = new StringBuilder();
-        for (byte decimal : hex) {
-            if (ScapyUtils.isPrintableChar(decimal)) {
-                sb.append((char) decimal);
-            } else {
-                sb.append('.');
-            }
-        }
-        return sb.toString();
+    private Font getFont() {
+        Font font = beFontProbe.getFont();
+        return Font.font(font.getFamily(), font.getSize());
     }
 
-    @Override
-    public void update(Observable o, Object arg) {
-        if ((o == binaryData) && (BinaryData.OP.SET_BYTES.equals(arg))) {
-            updating = true;
-            for (int i = 0; i < texts.length; i++) {
-                for (int j = 0; j < texts[i].length; j++) {
-                    int idx = i * texts[i].length + j;
-                    if (idx >= binaryData.getLength()) {
-                        break;
-                    }
-                    texts[i][j].setText(String.format("%02X", (byte) binaryData.getByte(idx)));
-                }
-                lineHex[i].setText(convertHexToString(binaryData.getBytes(i*texts[i].length,  texts[i].length)));
-            }
-            updating = false;
-        }
-        if ((o == binaryData) && (BinaryData.OP.SELECTION.equals(arg))) {
-            updateSelection();
-        }
-        if ((o == binaryData) && (BinaryData.OP.RELOAD.equals(arg))) {
-            reloadAll();
-        }
+    private int getRowCount() {
+        int len = binaryData.getLength();
+        return len / maxByteColumns + ((len % maxByteColumns > 0) ? 1 : 0);
     }
 
-    private void updateSelection() {
-        int startByteIdx = binaryData.getSelOffset();
-        int endByteIdx = startByteIdx + Math.max(0, binaryData.getSelLength() - 1);
-        int lastDispByte = Math.max(0, getDisplayedBytesLength() - 1);
+    private double getVisibleRows() {
+        return beCanvas.getHeight() / rowHeight;
+    }
 
-        int startIdx = Math.min(startByteIdx, lastDispByte);
-        int endIdx = Math.min(endByteIdx, lastDispByte);
+    /** width of the address column text, wider addresses for jumbo packets */
+    private int getAddressDigits() {
+        int lastOffset = Math.max(0, binaryData.getLength() - 1);
+        return Math.max(4, (Integer.toHexString(lastOffset).length() + 1) / 2 * 2);
+    }
 
-        int startRow = getByteCellRow(startIdx);
-        int endRow = getByteCellRow(endIdx);
+    private double getAddressWidth() {
+        return xPadding * 2 + getAddressDigits() * charWidth;
+    }
 
-        int startColumn = getByteCellColumn(startIdx);
-        int endColumn = getByteCellColumn(endIdx);
-        double startX = getByteCellX(startColumn);
-        double endX = getByteCellX(endColumn);
+    private double getByteCellX(int column) {
+        return getAddressWidth() + xBytePadding + column * (byteLength + byteGap) + (column / 4) * byteWordGap;
+    }
 
-        double lineStartX = getByteCellX(0);
-        double lineEndX = getByteCellX(texts[0].length - 1);
+    private double getAsciiX() {
+        return getByteCellX(maxByteColumns - 1) + byteLength + xHexPadding;
+    }
 
-        if (startRow == endRow) {
-            selRect[0].setTranslateX(startX);
-            selRect[0].setWidth(endX - startX + byteLength);
-            selRect[0].setHeight(yOffset);
-            selRect[0].setTranslateY(startRow * yOffset + 5 + yPadding);
+    private double getContentWidth() {
+        return getAsciiX() + maxByteColumns * charWidth + xPadding;
+    }
 
-            for (int i = 1; i < 3; i++) {
-                selRect[i].setWidth(0);
-                selRect[i].setHeight(0);
-            }
+    private void updateScrollBars() {
+        double visibleRows = getVisibleRows();
+        double maxRow = Math.max(0, getRowCount() - visibleRows + 1);
+        beVScrollBar.setMax(maxRow);
+        beVScrollBar.setVisibleAmount(Math.min(visibleRows, maxRow));
+        beVScrollBar.setBlockIncrement(Math.max(1, visibleRows - 1));
+        beVScrollBar.setUnitIncrement(1);
+        beVScrollBar.setValue(Math.min(beVScrollBar.getValue(), maxRow));
+        beVScrollBar.setVisible(maxRow > 0);
+        beVScrollBar.setManaged(maxRow > 0);
+
+        double maxX = Math.max(0, getContentWidth() - beCanvas.getWidth());
+        beHScrollBar.setMax(maxX);
+        beHScrollBar.setVisibleAmount(Math.min(beCanvas.getWidth(), maxX));
+        beHScrollBar.setUnitIncrement(charWidth);
+        beHScrollBar.setValue(Math.min(beHScrollBar.getValue(), maxX));
+        beHScrollBar.setVisible(maxX > 0);
+        beHScrollBar.setManaged(maxX > 0);
+        redraw();
+    }
 
-            selRectHex[0].setTranslateX(lineHex[startRow].getTranslateX() + startColumn * byteLengthHex * getWidthScale());
-            selRectHex[0].setWidth((endColumn - startColumn + 1) * byteLengthHex * getWidthScale());
-            selRectHex[0].setHeight(yOffset);
-            selRectHex[0].setTranslateY(startRow * yOffset + 5 + yPadding);
+    private void scrollToSelection() {
+        if (binaryData.getSelLength() <= 0) {
+            return;
+        }
+        int row = binaryData.getSelOffset() / maxByteColumns;
+        double first = beVScrollBar.getValue();
+        double visibleRows = Math.floor(getVisibleRows());
+        if (row < first) {
+            beVScrollBar.setValue(row);
+        } else if (row >= first + visibleRows) {
+            beVScrollBar.setValue(Math.min(beVScrollBar.getMax(), row - visibleRows + 1));
+        }
+    }
 
-            for (int i = 1; i < 3; i++) {
-                selRectHex[i].setWidth(0);
-                selRectHex[i].setHeight(0);
+    private void redraw() {
+        GraphicsContext gc = beCanvas.getGraphicsContext2D();
+        double width = beCanvas.getWidth();
+        double height = beCanvas.getHeight();
+        gc.setFill(BACKGROUND_COLOR);
+        gc.fillRect(0, 0, width, height);
+
+        double scrollX = beHScrollBar.getValue();
+        double scroll = beVScrollBar.getValue();
+        int firstRow = (int) Math.floor(scroll);
+        // fractional part of the scroll value gives smooth pixel scrolling
+        double yShift = (scroll - firstRow) * rowHeight;
+        int lastRow = Math.min(getRowCount() - 1, firstRow + (int) Math.ceil(height / rowHeight));
+        int length = binaryData.getLength();
+
+        gc.save();
+        gc.translate(-scrollX, -yShift);
+
+        gc.setFill(ADDRESS_BACKGROUND_COLOR);
+        gc.fillRect(0, 0, getAddressWidth(), height + rowHeight);
+
+        drawSelection(gc, firstRow, lastRow);
+
+        if (idxEditing >= 0) {
+            int row = idxEditing / maxByteColumns;
+            if (row >= firstRow && row <= lastRow) {
+                double x = getByteCellX(idxEditing % maxByteColumns) - byteGap / 2;
+                double y = (row - firstRow) * rowHeight;
+                gc.setFill(Color.WHITE);
+                gc.fillRect(x, y, byteLength + byteGap, rowHeight);
+                gc.setStroke(Color.BLACK);
+                gc.strokeRect(x, y, byteLength + byteGap, rowHeight);
             }
+        }
 
+        gc.setFont(getFont());
+        gc.setTextBaseline(VPos.CENTER);
+        gc.setTextAlign(TextAlignment.LEFT);
+        String addressFormat = "%0" + getAddressDigits() + "x";
+        double asciiX = getAsciiX();
+        for (int row = firstRow; row <= lastRow; row++) {
+            double y = (row - firstRow) * rowHeight + rowHeight / 2;
+            gc.setFill(ADDRESS_COLOR);
+            gc.fillText(String.format(addressFormat, row * maxByteColumns), xPadding, y);
+
+            gc.setFill(TEXT_COLOR);
+            int rowStart = row * maxByteColumns;
+            int rowLength = Math.min(maxByteColumns, length - rowStart);
+            for (int column = 0; column < rowLength; column++) {
+                byte b = binaryData.getByte(rowStart + column);
+                gc.fillText(HEX_BYTES[b & 0xFF], getByteCellX(column), y);
+                asciiRow[column] = ScapyUtils.isPrintableChar(b) ? (char) b : '.';
+            }
+            gc.fillText(new String(asciiRow, 0, rowLength), asciiX, y);
         }
-        else if (endRow == startRow + 1) {
-            selRect[0].setTranslateX(startX);
-            selRect[0].setWidth(lineEndX - startX + byteLength);
-            selRect[0].setHeight(yOffset);
-            selRect[0].setTranslateY(startRow * yOffset + 5 + yPadding);
-
-            selRect[1].setTranslateX(lineStartX);
-            selRect[1].setWidth(endX - lineStartX + byteLength);
-            selRect[1].setHeight(yOffset);
-            selRect[1].setTranslateY(endRow * yOffset + 5 + yPadding);
-
-            selRect[2].setWidth(0);
-            selRect[2].setHeight(0);
-
-            selRectHex[0].setTranslateX(lineHex[startRow].getTranslateX() + startColumn * byteLengthHex * getWidthScale());
-            selRectHex[0].setWidth((16 - startColumn) * byteLengthHex * getWidthScale());
-            selRectHex[0].setHeight(yOffset);
-            selRectHex[0].setTranslateY(startRow * yOffset + 5 + yPadding);
-
-            selRectHex[1].setTranslateX(lineHex[endRow].getTranslateX());
-            selRectHex[1].setWidth((endColumn + 1) * byteLengthHex * getWidthScale());
-            selRectHex[1].setHeight(yOffset);
-            selRectHex[1].setTranslateY(endRow * yOffset + 5 + yPadding);
-
-            selRectHex[2].setWidth(0);
-            selRectHex[2].setHeight(0);
+        gc.restore();
+    }
+
+    private void drawSelection(GraphicsContext gc, int firstRow, int lastRow) {
+        int selLength = Math.min(binaryData.getSelLength(), binaryData.getLength() - binaryData.getSelOffset());
+        if (selLength <= 0) {
+            return;
         }
-        else {
-            selRect[0].setTranslateX(startX);
-            selRect[0].setWidth(lineEndX - startX + byteLength);
-            selRect[0].setHeight(yOffset);
-            selRect[0].setTranslateY(startRow * yOffset + 5 + yPadding);
-
-            selRect[1].setTranslateX(lineStartX);
-            selRect[1].setWidth(endX - lineStartX + byteLength);
-            selRect[1].setHeight(yOffset);
-            selRect[1].setTranslateY(endRow * yOffset + 5 + yPadding);
-
-            selRect[2].setTranslateX(lineStartX);
-            selRect[2].setWidth(lineEndX - lineStartX + byteLength);
-            selRect[2].setHeight(yOffset * (endRow - startRow - 1));
-            selRect[2].setTranslateY((startRow + 1) * yOffset + 5 + yPadding);
-
-            selRectHex[0].setTranslateX(lineHex[startRow].getTranslateX() + startColumn * byteLengthHex * getWidthScale());
-            selRectHex[0].setWidth((16 - startColumn) * byteLengthHex * getWidthScale());
-            selRectHex[0].setHeight(yOffset);
-            selRectHex[0].setTranslateY(startRow * yOffset + 5 + yPadding);
-
-            selRectHex[1].setTranslateX(lineHex[endRow].getTranslateX());
-            selRectHex[1].setWidth((endColumn + 1) * byteLengthHex * getWidthScale());
-            selRectHex[1].setHeight(yOffset);
-            selRectHex[1].setTranslateY(endRow * yOffset + 5 + yPadding);
-
-            selRectHex[2].setTranslateX(lineHex[startRow + 1].getTranslateX());
-            selRectHex[2].setWidth(16 * byteLengthHex * getWidthScale());
-            selRectHex[2].setHeight(yOffset * (endRow - startRow - 1));
-            selRectHex[2].setTranslateY((startRow + 1) * yOffset + 5 + yPadding);
+        int start = binaryData.getSelOffset();
+        int end = start + selLength - 1;
+        int startRow = Math.max(firstRow, start / maxByteColumns);
+        int endRow = Math.min(lastRow, end / maxByteColumns);
+
+        gc.setFill(SELECTION_COLOR);
+        for (int row = startRow; row <= endRow; row++) {
+            int startColumn = row == start / maxByteColumns ? start % maxByteColumns : 0;
+            int endColumn = row == end / maxByteColumns ? end % maxByteColumns : maxByteColumns - 1;
+            double y = (row - firstRow) * rowHeight;
+            double x = getByteCellX(startColumn);
+            gc.fillRect(x, y, getByteCellX(endColumn) + byteLength - x, rowHeight);
+            gc.fillRect(getAsciiX() + startColumn * charWidth, y, (endColumn - startColumn + 1) * charWidth, rowHeight);
         }
     }
 
-    private void startEditing(int idx) {
-        idxEditing = idx;
-        int ty = getByteCellRow(idx);
-        int tx = getByteCellColumn(idx);
-
-        double x = getByteCellX(tx) - byteGap /2;
-
-        editingRect.setTranslateX(x);
-        editingRect.setWidth(byteLength + byteGap);
-        editingRect.setHeight(yOffset);
-        editingRect.setTranslateY(ty * yOffset + 5 + yPadding);
-        editingRect.setTranslateZ(0);
-
-        editingRect.setFill(Color.WHITE);
-        editingRect.setStroke(Color.BLACK);
+    private void onScroll(ScrollEvent e) {
+        double value = beVScrollBar.getValue() - e.getDeltaY() / rowHeight;
+        beVScrollBar.setValue(Math.max(0, Math.min(beVScrollBar.getMax(), value)));
+        double valueX = beHScrollBar.getValue() - e.getDeltaX();
+        beHScrollBar.setValue(Math.max(0, Math.min(beHScrollBar.getMax(), valueX)));
+        e.consume();
     }
 
-    private int getByteCellRow(int idx) {
-        return idx / texts[0].length;
+    private void onMouseClicked(MouseEvent mouseEvent) {
+        beCanvas.requestFocus();
+        if (!isEditingAllowed() || !mouseEvent.getButton().equals(MouseButton.PRIMARY) || mouseEvent.getClickCount() != 2) {
+            return;
+        }
+        int idx = getByteIndexAt(mouseEvent.getX() + beHScrollBar.getValue(), mouseEvent.getY());
+        if (idx >= 0) {
+            idxEditing = idx;
+            editingStep = 0;
+            redraw();
+        }
     }
 
-    private int getByteCellColumn(int idx) {
-        return idx % texts[0].length;
+    /** byte under the point in content coordinates or -1 */
+    private int getByteIndexAt(double x, double y) {
+        int row = (int) Math.floor(beVScrollBar.getValue() + y / rowHeight);
+        for (int column = 0; column < maxByteColumns; column++) {
+            double cellX = getByteCellX(column);
+            if (x >= cellX - byteGap / 2 && x < cellX + byteLength + byteGap / 2) {
+                int idx = row * maxByteColumns + column;
+                return idx < binaryData.getLength() ? idx : -1;
+            }
+        }
+        return -1;
     }
 
-    private double getByteCellX(int idx) {
-        int xi = getByteCellColumn(idx);
-        return numLineLength + xBytePadding + xOffset + xi * byteGap + (xi/4) * byteWordGap + byteLength * xi + xPadding;
-    }
+    private void onKeyPressed(KeyEvent ke) {
+        if (-1 == idxEditing) {
+            return;
+        }
+        try {
+            int val = Integer.parseInt(ke.getText(), 16);
 
-    private double getWidthScale() {
-        if (texts != null &&
-                texts.length > 0 &&
-                texts[0] != null &&
-                texts[0].length > 0 &&
-                texts[0][0] != null)
-        {
-            if (byteLengthHexScale == -1 ) {
-                byteLengthHexScale = (texts[0][0].getLayoutBounds().getWidth() / texts[0][0].getText().length()) / byteLengthHex;
+            int b = binaryData.getByte(idxEditing);
+            if (0 == editingStep) {
+                b &= 0x0FFFF0F;
+            } else {
+                b &= 0x0FFFFF0;
             }
+            b |= val << (1 - editingStep) * 4;
+            int editedIdx = idxEditing;
+            binaryData.setByte(idxEditing, (byte) b);
+
+            editingStep++;
+            if (editingStep == 2) {
+                stopEditing();
+            }
+            byte[] newBytes = binaryData.getBytes(0, binaryData.getLength());
+            model.editPacketBytes(newBytes, editedIdx, 1);
+        } catch (NumberFormatException e) {
+            // not a hex digit
+        } catch (Exception e) {
+            logger.error("binary editor error", e);
         }
-        else {
-            byteLengthHexScale = 1.0;
-        }
-        return byteLengthHexScale;
+        redraw();
+    }
+
+    private void stopEditing() {
+        idxEditing = -1;
+        editingStep = 0;
     }
 
     private boolean isEditingAllowed() {
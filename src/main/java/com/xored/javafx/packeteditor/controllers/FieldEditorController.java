@@ -3,7 +3,6 @@ package com.xored.javafx.packeteditor.controllers;
 import com.google.common.base.Strings;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
-import com.google.common.io.Files;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import com.google.inject.Inject;
@@ -12,6 +11,11 @@ import com.xored.javafx.packeteditor.data.PacketEditorModel;
 import com.xored.javafx.packeteditor.data.combined.CombinedField;
 import com.xored.javafx.packeteditor.data.user.DocumentFile;
 import com.xored.javafx.packeteditor.events.*;
+import com.xored.javafx.packeteditor.pcap.PcapFormat;
+import com.xored.javafx.packeteditor.pcap.PcapPacket;
+import com.xored.javafx.packeteditor.pcap.PcapReader;
+import com.xored.javafx.packeteditor.pcap.PcapWriter;
+import com.xored.javafx.packeteditor.scapy.ConnectionException;
 import com.xored.javafx.packeteditor.scapy.MethodNotFoundException;
 import com.xored.javafx.packeteditor.scapy.PacketData;
 import com.xored.javafx.packeteditor.scapy.ScapyServerClient;
@@ -21,16 +25,15 @@ import com.xored.javafx.packeteditor.service.PacketDataService;
 import com.xored.javafx.packeteditor.view.ConnectionErrorDialog;
 import com.xored.javafx.packeteditor.view.FieldEditorView;
 import com.xored.javafx.packeteditor.view.FieldEngineView;
+import com.xored.javafx.packeteditor.view.PcapBrowserDialog;
+import com.xored.javafx.packeteditor.vm.FieldEngineException;
+import com.xored.javafx.packeteditor.vm.FieldEngineSimulator;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
-import javafx.geometry.Insets;
 import javafx.geometry.Side;
 import javafx.scene.Scene;
-import javafx.scene.SnapshotParameters;
 import javafx.scene.control.*;
-import javafx.scene.image.ImageView;
-import javafx.scene.image.WritableImage;
 import javafx.scene.input.*;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.FlowPane;
@@ -47,6 +50,7 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -55,8 +59,8 @@ import java.util.stream.Collectors;
 
 public class FieldEditorController implements Initializable {
 
-    public static final int PCAP_MAX_FILESIZE = 1048576;
     static Logger logger = LoggerFactory.getLogger(FieldEditorController.class);
+    static final long EXPORT_PACKETS_DEFAULT = 1000;
 
     @FXML private BorderPane fieldEditorBorderPane;
     @FXML private FlowPane   fieldEditorTopPane;
@@ -199,73 +203,33 @@ public class FieldEditorController implements Initializable {
 
     @Subscribe
     public void handleProtocolExpandCollapseEvent(ProtocolExpandCollapseEvent event) {
-        List<TitledPane> panes = fieldEditorView.getProtocolTitledPanes();
-        if (panes.isEmpty())
-            return;
-        TitledPane lastPane = panes.get(panes.size() - 1);
-        panes.stream().filter(titledPane -> titledPane.isCollapsible()).forEach(titledPane -> {
-            switch(event.getAction()) {
-                case EXPAND_ALL:
-                    titledPane.setExpanded(true);
-                    break;
-                case COLLAPSE_ALL:
-                    titledPane.setExpanded(false);
-                    break;
-                case EXPAND_ONLY_LAST:
-                    titledPane.setExpanded(titledPane == lastPane);
-                    break;
-            }
+        fieldEditorView.expandCollapse(event.getAction());
+    }
+
+    @Subscribe
+    public void handlePacketBuildFailedEvent(PacketBuildFailedEvent event) {
+        if (event.getCause() instanceof ConnectionException) {
+            showConnectionErrorDialog();
+        } else {
+            showWarning("Failed to build packet: " + event.getCause().getMessage());
         }
-        );
     }
 
     @Subscribe
-    public void handleRebuildViewEvent(RebuildViewEvent event) {
-        if (fieldEditorScrollPane == null) {
+    public void handleCombinedModelChangedEvent(CombinedModelChangedEvent event) {
+        if (fieldEditorScrollPane == null || !packetController.isInitialized()) {
             return;
         }
 
-        if (viewOnly && packetController.isInitialized()) {
-            fieldEditorView.rebuild();
+        if (fieldEditorView.canApplyChanges()) {
+            fieldEditorView.applyChanges(event.getChanges());
             fieldEngineView.rebuild();
             return;
         }
-        
-        double val = fieldEditorScrollPane.getVvalue();
-
-        // Workaround for flickering and saving Vscroll:
-        // 1) take snapshot of top stackpane
-        // 2) create image view with paddings
-        // 3) add this image view to stackpane
-        //
-        // This image view hides scrollpane which is rebuilt
-        // Then call view rebuild
-        // And last, we set Vscroll and remove image view
-        WritableImage snapImage = fieldEditorBorderPane.snapshot(new SnapshotParameters(), null);
-        ImageView snapView = new ImageView();
-        snapView.setImage(snapImage);
-        Insets insets = fieldEditorBorderPane.getPadding();
-        snapView.setViewport(new javafx.geometry.Rectangle2D(insets.getLeft(),
-                insets.getTop(),
-                snapImage.getWidth() - insets.getLeft() - insets.getRight(),
-                snapImage.getHeight() - insets.getTop() - insets.getBottom()));
-        fieldEditorBorderPane.getChildren().add(snapView);
-
-        // Rebuild content
-        if (packetController.isInitialized()) {
-            fieldEditorView.rebuild();
-            fieldEngineView.rebuild();
-        }
 
-        Platform.runLater(()-> {
-            // Save scroll position workaround: runLater inside runLater :)
-            Platform.runLater(() -> {
-                Platform.runLater(() -> {
-                    fieldEditorScrollPane.setVvalue(val);
-                    fieldEditorBorderPane.getChildren().remove(snapView);
-                });
-            });
-        });
+        // the field list keeps its scroll position across rebuilds
+        fieldEditorView.rebuild();
+        fieldEngineView.rebuild();
     }
 
     public String createNewTemplateDialog() {
@@ -298,11 +262,7 @@ public class FieldEditorController implements Initializable {
 
         try {
             if (openFile != null) {
-                if (openFile.getName().endsWith(".pcap")
-                    && openFile.length() > PCAP_MAX_FILESIZE) {
-                    showError("Pcap file size should be less than 1MB");
-                    return;
-                } else if (openFile.getName().endsWith(DocumentFile.FILE_EXTENSION)) {
+                if (openFile.getName().endsWith(DocumentFile.FILE_EXTENSION)) {
                     model.loadDocumentFromFile(openFile);
                 } else {
                     loadPcapFile(openFile);
@@ -315,20 +275,41 @@ public class FieldEditorController implements Initializable {
     }
 
     public void loadPcapFile(File pcapfile) throws IOException {
-        byte[] bytes = Files.toByteArray(pcapfile);
+        PcapPacket packet;
+        try (PcapReader reader = new PcapReader(pcapfile)) {
+            long index = 0;
+            if (reader.hasPacket(1)) {
+                Optional<Long> selected = new PcapBrowserDialog(reader).showAndWait();
+                if (!selected.isPresent()) {
+                    return;
+                }
+                index = selected.get();
+            } else if (!reader.hasPacket(0)) {
+                throw new IOException("No packets in " + pcapfile.getName());
+            }
+            packet = reader.getPacket(index);
+        }
         model.setCurrentFile(pcapfile);
         refreshTitle();
-        model.loadDocumentFromPcapData(packetController.read_pcap_packet(bytes));
+        model.loadDocumentFromPcapData(dissectPcapPacket(packet.getLinkType(), packet.getData()));
         // Set window width to scene width
         fitSizeToScene();
     }
 
     public void loadPcapBinary(byte[] bytes) throws IOException {
         if (packetController.isInitialized()) {
-            model.loadDocumentFromPcapData(packetController.read_pcap_packet(writePcapPacket(bytes)));
+            model.loadDocumentFromPcapData(dissectPcapPacket(PcapFormat.LINKTYPE_ETHERNET, bytes));
         }
     }
 
+    /** Ethernet frames are dissected directly, other link types are passed to Scapy as a single packet pcap */
+    private PacketData dissectPcapPacket(int linkType, byte[] data) {
+        if (linkType == PcapFormat.LINKTYPE_ETHERNET) {
+            return packetController.reconstructPacketFromBinary(data);
+        }
+        return packetController.read_pcap_packet(PcapFormat.singlePacketPcap(linkType, data));
+    }
+
     public void loadVmRaw(String vmRaw) {
         if (packetController.isInitialized()) {
             try {
@@ -360,9 +341,16 @@ public class FieldEditorController implements Initializable {
     }
 
     public void writeToPcapFile(File file, PacketData pkt, boolean wantexception) throws Exception {
-        try {
-            byte[] pcap_bin = writePcapPacket(pkt.getPacketBytes());
-            Files.write(pcap_bin, file);
+        writeToPcapFile(file, Collections.singletonList(pkt), wantexception);
+    }
+
+    /** streams packets to pcap or pcapng file depending on the file extension */
+    public void writeToPcapFile(File file, Iterable<PacketData> packets, boolean wantexception) throws Exception {
+        try (PcapWriter writer = new PcapWriter(file)) {
+            long timestamp = System.currentTimeMillis() * 1000000L;
+            for (PacketData pkt : packets) {
+                writer.write(pkt, timestamp++);
+            }
         } catch (Exception e) {
             if (wantexception) {
                 throw e;
@@ -377,6 +365,49 @@ public class FieldEditorController implements Initializable {
         return packetController.write_pcap_packet(binaryData);
     }
 
+    /** expands field engine program of the current packet locally and writes generated packets to pcap */
+    public void showExportFieldEnginePacketsDialog() {
+        FieldEngineSimulator simulator;
+        try {
+            simulator = new FieldEngineSimulator(model.getPkt());
+        } catch (FieldEngineException e) {
+            showWarning("Unable to simulate field engine: " + e.getMessage());
+            return;
+        }
+        long cycle = simulator.getCycleLength();
+        TextInputDialog dialog = new TextInputDialog(String.valueOf(cycle > 0 ? Math.min(cycle, EXPORT_PACKETS_DEFAULT) : EXPORT_PACKETS_DEFAULT));
+        dialog.setTitle("Export field engine packets");
+        dialog.setHeaderText(cycle > 0 ? "Packets repeat after " + cycle + " variants" : "Packets don't repeat");
+        dialog.setContentText("Number of packets:");
+        Optional<String> result = dialog.showAndWait();
+        if (!result.isPresent()) {
+            return;
+        }
+        long count;
+        try {
+            count = Long.parseLong(result.get().trim());
+        } catch (NumberFormatException e) {
+            showWarning("Invalid number of packets: " + result.get());
+            return;
+        }
+
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Export field engine packets");
+        chooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Pcap Files", "*.pcap", "*.pcapng"),
+                new FileChooser.ExtensionFilter("All Files", "*.*"));
+        File file = chooser.showSaveDialog(fieldEditorCenterPane.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        try {
+            long written = simulator.writePcap(file, count);
+            logger.info("{} field engine packets written to {}", written, file);
+        } catch (Exception e) {
+            showError(resourceBundle.getString("SAVE_ERROR"), e);
+        }
+    }
+
     public void showError(String title) {
         showError(title, null);
     }
@@ -409,9 +440,9 @@ public class FieldEditorController implements Initializable {
     public void initFileChooser() {
         String docExt = "*"+DocumentFile.FILE_EXTENSION;
         fileChooser.getExtensionFilters().addAll(
-                new FileChooser.ExtensionFilter("TRex Packet editor Files", docExt, "*.pcap", "*.cap"),
+                new FileChooser.ExtensionFilter("TRex Packet editor Files", docExt, "*.pcap", "*.pcapng", "*.cap"),
                 new FileChooser.ExtensionFilter("Packet Editor Files", docExt),
-                new FileChooser.ExtensionFilter("Pcap Files", "*.pcap", "*.cap"),
+                new FileChooser.ExtensionFilter("Pcap Files", "*.pcap", "*.pcapng", "*.cap"),
                 new FileChooser.ExtensionFilter("All Files", "*.*"));
 
         File file = model.getCurrentFile();
@@ -490,7 +521,7 @@ public class FieldEditorController implements Initializable {
     }
 
     public String getBinaryPkt() {
-        return getModel().getPkt().binary;
+        return getModel().getPkt().getBinary();
     }
 
     public Map<String, Object> getPktVmInstructions() {
@@ -11,7 +11,9 @@ import com.xored.javafx.packeteditor.data.user.DocumentFile;
 import com.xored.javafx.packeteditor.events.NeedToUpdateTemplateMenu;
 import com.xored.javafx.packeteditor.events.ProtocolExpandCollapseEvent;
 import com.xored.javafx.packeteditor.metatdata.ProtocolMetadata;
+import com.xored.javafx.packeteditor.scapy.ScapyClientMetrics;
 import com.xored.javafx.packeteditor.service.ConfigurationService;
+import com.xored.javafx.packeteditor.view.ScapyMetricsDialog;
 import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
@@ -45,6 +47,9 @@ public class MenuControllerEditor implements Initializable {
     @Inject
     private EventBus eventBus;
 
+    @Inject
+    ScapyClientMetrics scapyMetrics;
+
     @FXML
     MenuBar applicationMenu;
 
@@ -158,6 +163,11 @@ public class MenuControllerEditor implements Initializable {
         controller.showSaveDialog();
     }
 
+    @FXML
+    public void handleExportFieldEnginePackets(ActionEvent event) {
+        controller.showExportFieldEnginePacketsDialog();
+    }
+
     @FXML
     void handleSaveTemplateAction(ActionEvent event) {
         if (controller.getModel().getUserModel().getProtocolStack().isEmpty()) {
@@ -230,6 +240,13 @@ public class MenuControllerEditor implements Initializable {
         getModel().setBinaryMode(false);
     }
 
+    @FXML
+    public void handleShowScapyMetrics(ActionEvent actionEvent) {
+        ScapyMetricsDialog dialog = new ScapyMetricsDialog(scapyMetrics);
+        dialog.initOwner(applicationMenu.getScene().getWindow());
+        dialog.show();
+    }
+
     @FXML
     public void handleCopyInstructions(ActionEvent event) {
         controller.copyInstructionsToClipboard();
@@ -0,0 +1,60 @@
+package com.xored.javafx.packeteditor.controls;
+
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import javafx.application.Platform;
+import javafx.scene.Node;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * released editor controls by their class, views take controls from here and rebind them to new data
+ * instead of creating new ones (and loading their FXML) on every rebuild
+ */
+public class ControlPool {
+    /** per class, controls beyond it are left to GC */
+    static final int MAX_POOLED = 64;
+
+    @Inject
+    private Injector injector;
+
+    private final Map<Class<?>, Deque<Node>> pools = new HashMap<>();
+
+    /** pooled control of exactly the given class or a new one, the caller binds it */
+    public <T extends Node> T acquire(Class<T> type) {
+        Deque<Node> pool = pools.get(type);
+        Node control = pool != null ? pool.poll() : null;
+        if (control == null) {
+            return injector.getInstance(type);
+        }
+        return type.cast(control);
+    }
+
+    /**
+     * control will be reused, the caller must not touch it afterwards.
+     * an edit in progress is finished first, after the current event or layout pass, since committing it changes the model
+     */
+    public void release(Node control) {
+        if (control instanceof EditableField && ((EditableField) control).isEditing()) {
+            Platform.runLater(() -> {
+                ((EditableField) control).finishEdit();
+                pool(control);
+            });
+            return;
+        }
+        pool(control);
+    }
+
+    private void pool(Node control) {
+        if (control == null) {
+            return;
+        }
+        Deque<Node> pool = pools.computeIfAbsent(control.getClass(), type -> new ArrayDeque<>());
+        if (pool.size() < MAX_POOLED && !pool.contains(control)) {
+            pool.push(control);
+        }
+    }
+}
@@ -50,6 +50,55 @@ public abstract class EditableField extends FlowPane {
 
     protected Logger logger = LoggerFactory.getLogger(EditableField.class);
 
+    /** true while the editable control is shown instead of the label */
+    public boolean isEditing() {
+        return editableControl != null && getChildren().contains(editableControl);
+    }
+
+    /** commits a valid pending edit and shows the label, invalid or unchanged input is dropped */
+    @SuppressWarnings("unchecked")
+    public void finishEdit() {
+        if (!isEditing()) {
+            return;
+        }
+        Node control = editableControl;
+        boolean commit = control instanceof TextField ? textChanged && isValid()
+                : control instanceof ComboBox && comboChanged;
+        // the focus listener must not commit it once more when the control is removed
+        textChanged = false;
+        comboChanged = false;
+        if (commit && control instanceof TextField) {
+            commitChanges((TextField) control);
+        } else if (commit) {
+            commitChanges((ComboBox<ComboBoxItem>) control);
+        }
+        if (isEditing()) {
+            showLabel();
+        }
+    }
+
+    /**
+     * drops controls of the previous binding before a pooled field is bound to new data.
+     * a pending edit is cancelled, {@link ControlPool} finishes edits before controls get here
+     */
+    protected void unbind() {
+        if (comboAutoCompleter != null) {
+            comboAutoCompleter.dispose();
+            comboAutoCompleter = null;
+        }
+        textChanged = false;
+        comboChanged = false;
+        if (isEditing()) {
+            showLabel();
+        }
+        // focus listeners of the old controls ignore them from now on
+        editableControl = null;
+        label = null;
+        getChildren().clear();
+        isValid = true;
+        focusControl = (v) -> editableControl.requestFocus();
+    }
+
     protected void showControl() {
         getChildren().clear();
         getChildren().add(editableControl);
@@ -90,6 +139,9 @@ public abstract class EditableField extends FlowPane {
         processDefaultAndSetItems(combo, items);
         
         combo.focusedProperty().addListener((observable, oldValue, newValue) -> {
+            if (combo != editableControl) {
+                return;
+            }
             // On lost focus
             if (!newValue) {
                 if (comboAutoCompleter!=null) {
@@ -184,7 +236,7 @@ public abstract class EditableField extends FlowPane {
         });
         tf.focusedProperty().addListener((observable, oldValue, newValue) -> {
             // On lost focus
-            if (!newValue) {
+            if (!newValue && tf == editableControl) {
                 if(textChanged && isValid()) {
                     commitChanges(tf);
                 } else {
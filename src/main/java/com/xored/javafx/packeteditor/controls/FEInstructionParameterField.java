@@ -47,6 +47,13 @@ public class FEInstructionParameterField extends EditableField {
         getChildren().addAll(label);
     }
 
+    /** binds a new or pooled control to a parameter of another instruction */
+    public void rebind(FEInstructionParameter2 option, InstructionExpression instruction) {
+        unbind();
+        init(option);
+        setInstruction(instruction);
+    }
+
     protected Node createLabel() {
         Label valueNode = (Label) super.createLabel();
 
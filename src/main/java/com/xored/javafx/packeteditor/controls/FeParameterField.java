@@ -27,6 +27,12 @@ public class FeParameterField extends EditableField {
 
         getChildren().addAll(label);
     }
+
+    /** binds a new or pooled control to another parameter */
+    public void rebind(FeParameter feParameter) {
+        unbind();
+        init(feParameter);
+    }
     
     @Override
     protected String getUniqueViewId() {
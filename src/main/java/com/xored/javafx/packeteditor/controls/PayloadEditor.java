@@ -3,6 +3,7 @@ package com.xored.javafx.packeteditor.controls;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import com.google.inject.Inject;
 import com.google.inject.Injector;
 import javafx.beans.property.StringProperty;
 import javafx.beans.value.ChangeListener;
@@ -181,6 +182,7 @@ public class PayloadEditor extends VBox {
         }
     };
 
+    @Inject
     public PayloadEditor(Injector injector) {
         FXMLLoader fxmlLoader = injector.getInstance(FXMLLoader.class);
 
@@ -361,6 +363,24 @@ public class PayloadEditor extends VBox {
     }
 
 
+    /** drops the payload and handlers, so a pooled editor can be given to another field */
+    public void recycle() {
+        handlerActionSaveExternal = null;
+        payloadButtonCancel.setOnAction(null);
+        type = PayloadType.UNKNOWN;
+        jsonData = null;
+        data = null;
+        file = null;
+        seed = 12345;
+        for (TextInputControl text : Arrays.asList(textText, textFilename, textPatternText, filePatternFilename, codePatternText, patternSize)) {
+            text.clear();
+            text.getStyleClass().remove("field-error");
+        }
+        patternSizeChoice.getSelectionModel().select(0);
+        getStyleClass().remove("field-error");
+        accessibleHelpProperty().setValue(null);
+    }
+
     public boolean reset() {
         if (jsonData != null) {
             return setJson(jsonData);
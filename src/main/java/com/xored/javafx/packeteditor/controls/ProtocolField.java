@@ -3,6 +3,7 @@ package com.xored.javafx.packeteditor.controls;
 import com.google.common.base.Strings;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonPrimitive;
+import com.google.inject.Inject;
 import com.xored.javafx.packeteditor.data.FieldRules;
 import com.xored.javafx.packeteditor.data.combined.CombinedField;
 import com.xored.javafx.packeteditor.metatdata.FieldMetadata;
@@ -34,8 +35,12 @@ import static com.xored.javafx.packeteditor.metatdata.FieldMetadata.FieldType.EN
 
 public class ProtocolField extends EditableField {
 
+    @Inject
+    private ControlPool controlPool;
+
     private CombinedField combinedField;
     private boolean readOnlyMode;
+    private PayloadEditor payloadEditor;
 
     public void init(CombinedField combinedField, boolean readOnlyMode) {
         this.combinedField = combinedField;
@@ -46,6 +51,23 @@ public class ProtocolField extends EditableField {
         getChildren().addAll(label);
     }
 
+    /** binds a new or pooled control to another field */
+    public void rebind(CombinedField combinedField, boolean readOnlyMode) {
+        unbind();
+        init(combinedField, readOnlyMode);
+    }
+
+    @Override
+    protected void unbind() {
+        super.unbind();
+        contextMenu = null;
+        if (payloadEditor != null) {
+            payloadEditor.recycle();
+            controlPool.release(payloadEditor);
+            payloadEditor = null;
+        }
+    }
+
     protected  Node createControl() {
         Node fieldControl;
 
@@ -229,6 +251,8 @@ public class ProtocolField extends EditableField {
         try {
             logger.info("Committing changes to {}", view.getUniqueIdFor(combinedField));
             controller.getModel().editField(combinedField, modify);
+            // unchanged values don't rebuild the row, so leave edit mode here
+            showLabel();
         } catch (Exception e) {
             logger.warn("Failed to build packet with new value of {}", combinedField.getId());
             if (e instanceof ConnectionException) {
@@ -303,7 +327,8 @@ public class ProtocolField extends EditableField {
     }
 
     private PayloadEditor createPayloadField() {
-        PayloadEditor pe = new PayloadEditor(injector);
+        PayloadEditor pe = controlPool.acquire(PayloadEditor.class);
+        payloadEditor = pe;
         if (combinedField.getValue() instanceof JsonPrimitive) {
             pe.setText(combinedField.getValue().getAsString());
         }
@@ -0,0 +1,211 @@
+package com.xored.javafx.packeteditor.data;
+
+import com.xored.javafx.packeteditor.scapy.ProtocolData;
+import com.xored.javafx.packeteditor.vm.Checksums;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+/**
+ * updates checksums of a dissected packet after its bytes were changed locally, so they are correct before Scapy build.
+ * only checksums which cover the changed range are touched, they are updated incrementally (RFC 1624)
+ * from the old and the new content of the changed words.
+ * if the edit changed a field which defines what a checksum covers (IP header length, total length, protocol),
+ * the checksum is recalculated over the whole range.
+ * length fields are left as is, local edits never resize the packet
+ */
+public class AutoFieldUpdater {
+
+    /** checksum field with its new value */
+    public static class Update {
+        public final ProtocolData protocol;
+        public final String fieldId;
+        public final int value;
+
+        Update(ProtocolData protocol, String fieldId, int value) {
+            this.protocol = protocol;
+            this.fieldId = fieldId;
+            this.value = value;
+        }
+    }
+
+    /** checksum of a protocol and byte ranges it covers */
+    private static class Checksum {
+        ProtocolData protocol;
+        String fieldId = "chksum";
+        int offset;
+        List<int[]> ranges = new ArrayList<>();
+        /** pseudo header protocol and length */
+        long initial;
+        /** covered ranges were changed, incremental update is not possible */
+        boolean full;
+        /** zero UDP checksum means there is no checksum */
+        boolean udp;
+    }
+
+    /**
+     * updates checksums in the "after" buffer, which differs from "before" in the given range.
+     * isAuto tells if the field is calculated, checksums set by the user are not changed
+     */
+    public static List<Update> update(List<ProtocolData> protocols, ByteBuffer before, ByteBuffer after, int from, int length,
+                                      BiPredicate<ProtocolData, String> isAuto) {
+        ByteBuffer oldBytes = before.duplicate().order(ByteOrder.BIG_ENDIAN);
+        ByteBuffer newBytes = after.duplicate().order(ByteOrder.BIG_ENDIAN);
+        int to = from + length;
+        List<Update> updates = new ArrayList<>();
+        if (oldBytes.limit() != newBytes.limit() || length <= 0) {
+            return updates;
+        }
+
+        List<Checksum> checksums = findChecksums(protocols, newBytes, from, to);
+        // the changed range and every updated checksum, outer checksums cover inner ones
+        List<int[]> changes = new ArrayList<>();
+        changes.add(new int[]{from, to});
+        for (int i = checksums.size() - 1; i >= 0; i--) {
+            Checksum checksum = checksums.get(i);
+            if (overlaps(from, to, checksum.offset, checksum.offset + 2) || !isAuto.test(checksum.protocol, checksum.fieldId)) {
+                continue;
+            }
+            int current = newBytes.getShort(checksum.offset) & 0xFFFF;
+            if (checksum.udp && current == 0) {
+                continue;
+            }
+            int value;
+            if (checksum.full) {
+                long sum = checksum.initial;
+                for (int[] range : checksum.ranges) {
+                    sum = Checksums.sum(newBytes, range[0], range[1] - range[0], sum);
+                }
+                // exclude the current checksum value from the sum
+                value = Checksums.finish(sum + (~current & 0xFFFF));
+            } else {
+                long oldSum = 0;
+                long newSum = 0;
+                boolean changed = false;
+                for (int[] range : checksum.ranges) {
+                    for (int[] words : changedWords(range, changes)) {
+                        oldSum = Checksums.sum(oldBytes, words[0], words[1] - words[0], oldSum);
+                        newSum = Checksums.sum(newBytes, words[0], words[1] - words[0], newSum);
+                        changed = true;
+                    }
+                }
+                if (!changed) {
+                    continue;
+                }
+                value = Checksums.update(current, oldSum, newSum);
+            }
+            if (checksum.udp && value == 0) {
+                value = 0xFFFF;
+            }
+            if (value != current) {
+                newBytes.putShort(checksum.offset, (short) value);
+                changes.add(new int[]{checksum.offset, checksum.offset + 2});
+                updates.add(new Update(checksum.protocol, checksum.fieldId, value));
+            }
+        }
+        return updates;
+    }
+
+    /** checksums of the protocol stack from the outer to the inner ones */
+    private static List<Checksum> findChecksums(List<ProtocolData> protocols, ByteBuffer bytes, int from, int to) {
+        List<Checksum> res = new ArrayList<>();
+        int limit = bytes.limit();
+        // the innermost network layer, TCP/UDP checksums include its pseudo header
+        int[] pseudoHeader = null;
+        int payloadEnd = limit;
+        boolean structureChanged = false;
+        for (ProtocolData protocol : protocols) {
+            int offset = protocol.offset.intValue();
+            Checksum checksum = new Checksum();
+            checksum.protocol = protocol;
+            switch (protocol.id) {
+                case "IP": {
+                    if (offset + 20 > limit) {
+                        return res;
+                    }
+                    int headerLength = (bytes.get(offset) & 0x0F) * 4;
+                    if (headerLength < 20 || offset + headerLength > limit) {
+                        return res;
+                    }
+                    pseudoHeader = new int[]{offset + 12, offset + 20};
+                    payloadEnd = Math.min(offset + (bytes.getShort(offset + 2) & 0xFFFF), limit);
+                    structureChanged = overlaps(from, to, offset, offset + 4) || overlaps(from, to, offset + 9, offset + 10);
+                    checksum.offset = offset + Checksums.IPV4_CHECKSUM_OFFSET;
+                    checksum.ranges.add(new int[]{offset, offset + headerLength});
+                    checksum.full = overlaps(from, to, offset, offset + 1);
+                    res.add(checksum);
+                    break;
+                }
+                case "IPv6":
+                    if (offset + 40 > limit) {
+                        return res;
+                    }
+                    pseudoHeader = new int[]{offset + 8, offset + 40};
+                    payloadEnd = Math.min(offset + 40 + (bytes.getShort(offset + 4) & 0xFFFF), limit);
+                    structureChanged = overlaps(from, to, offset + 4, offset + 7);
+                    break;
+                case "TCP":
+                case "UDP": {
+                    boolean tcp = protocol.id.equals("TCP");
+                    checksum.offset = offset + (tcp ? Checksums.TCP_CHECKSUM_OFFSET : Checksums.UDP_CHECKSUM_OFFSET);
+                    if (pseudoHeader == null || checksum.offset + 2 > payloadEnd) {
+                        return res;
+                    }
+                    checksum.ranges.add(pseudoHeader);
+                    checksum.ranges.add(new int[]{offset, payloadEnd});
+                    checksum.initial = (tcp ? Checksums.PROTO_TCP : Checksums.PROTO_UDP) + (payloadEnd - offset);
+                    checksum.full = structureChanged;
+                    checksum.udp = !tcp;
+                    res.add(checksum);
+                    break;
+                }
+                case "ICMP":
+                    checksum.offset = offset + Checksums.ICMP_CHECKSUM_OFFSET;
+                    if (pseudoHeader == null || checksum.offset + 2 > payloadEnd) {
+                        return res;
+                    }
+                    checksum.ranges.add(new int[]{offset, payloadEnd});
+                    checksum.full = structureChanged;
+                    res.add(checksum);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return res;
+    }
+
+    /** changed parts of the range, extended to whole 16-bit words counted from the range start */
+    private static List<int[]> changedWords(int[] range, List<int[]> changes) {
+        List<int[]> words = new ArrayList<>();
+        for (int[] change : changes) {
+            int start = Math.max(change[0], range[0]);
+            int end = Math.min(change[1], range[1]);
+            if (start >= end) {
+                continue;
+            }
+            start -= (start - range[0]) & 1;
+            end = Math.min(end + ((end - range[0]) & 1), range[1]);
+            words.add(new int[]{start, end});
+        }
+        // merge overlapping parts, so every word is counted once
+        words.sort((a, b) -> Integer.compare(a[0], b[0]));
+        List<int[]> merged = new ArrayList<>();
+        for (int[] part : words) {
+            int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && part[0] <= last[1]) {
+                last[1] = Math.max(last[1], part[1]);
+            } else {
+                merged.add(part);
+            }
+        }
+        return merged;
+    }
+
+    private static boolean overlaps(int from, int to, int start, int end) {
+        return from < end && start < to;
+    }
+}
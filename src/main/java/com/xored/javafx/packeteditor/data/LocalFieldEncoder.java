@@ -0,0 +1,188 @@
+package com.xored.javafx.packeteditor.data;
+
+import com.google.common.net.InetAddresses;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import com.xored.javafx.packeteditor.data.combined.CombinedField;
+import com.xored.javafx.packeteditor.metatdata.FieldMetadata;
+import com.xored.javafx.packeteditor.scapy.FieldData;
+import com.xored.javafx.packeteditor.scapy.PacketData;
+import com.xored.javafx.packeteditor.scapy.ProtocolData;
+import com.xored.javafx.packeteditor.scapy.ReconstructField;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.BiPredicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * encodes fixed-size field values locally and patches packet bytes, so edits are shown without Scapy round trip.
+ * only big-endian fields of well-known protocols are supported, everything else returns null and goes to Scapy.
+ * checksums covering the field are updated by AutoFieldUpdater, length fields are not changed.
+ * Scapy result replaces the patched packet later
+ */
+public class LocalFieldEncoder {
+    /** protocols with network byte order fields */
+    static final Set<String> SUPPORTED_PROTOCOLS = new HashSet<>(Arrays.asList(
+            "Ether", "Dot1Q", "Dot1AD", "MPLS", "ARP", "IP", "IPv6", "ICMP", "TCP", "UDP", "VXLAN"
+    ));
+
+    static final Pattern MAC_ADDRESS = Pattern.compile("^([0-9a-fA-F]{2})([:-][0-9a-fA-F]{2}){5}$");
+
+    /** bit fields have fractional offset or length, they share bytes with neighbour fields */
+    static boolean isWholeBytes(Number position) {
+        return position.doubleValue() == position.intValue();
+    }
+
+    /**
+     * returns copy of the packet with the new field value or null if the value can't be encoded locally.
+     * isAuto tells which checksums are calculated and should follow the new value
+     */
+    public static PacketData patch(PacketData packet, CombinedField field, ReconstructField newValue, BiPredicate<ProtocolData, String> isAuto) {
+        if (!(newValue.value instanceof JsonPrimitive) || newValue.isDeleted() || newValue.isRandom()) {
+            return null;
+        }
+        if (field.getProtocol().getScapyProtocol() == null || !SUPPORTED_PROTOCOLS.contains(field.getProtocol().getId())) {
+            return null;
+        }
+        FieldData fieldData = field.getScapyFieldData();
+        if (fieldData == null || !fieldData.hasPosition() || fieldData.isIgnored() || fieldData.getValueExpr() != null
+                || fieldData.getLength() <= 0 || !isWholeBytes(fieldData.offset) || !isWholeBytes(fieldData.length)) {
+            return null;
+        }
+
+        String hvalue = newValue.value.getAsString().trim();
+        JsonPrimitive value = parseValue(field.getMeta(), hvalue, fieldData.getLength());
+        if (value == null) {
+            return null;
+        }
+        byte[] encoded = encode(field.getMeta(), value, fieldData.getLength());
+        if (encoded == null) {
+            return null;
+        }
+
+        ProtocolData protocol = field.getProtocol().getScapyProtocol();
+        int absoluteOffset = protocol.offset.intValue() + fieldData.getOffset();
+        byte[] bytes = packet.getPacketBytes();
+        if (absoluteOffset < 0 || absoluteOffset + encoded.length > bytes.length) {
+            return null;
+        }
+        System.arraycopy(encoded, 0, bytes, absoluteOffset, encoded.length);
+
+        Map<FieldData, FieldData> replaced = new IdentityHashMap<>();
+        replaced.put(fieldData, copyField(fieldData, value, hvalue));
+        List<AutoFieldUpdater.Update> updates = AutoFieldUpdater.update(packet.getProtocols(), packet.getPacketBuffer(),
+                ByteBuffer.wrap(bytes), absoluteOffset, encoded.length, isAuto);
+        for (AutoFieldUpdater.Update update : updates) {
+            FieldData checksum = update.protocol.getFieldById(update.fieldId);
+            if (checksum != null) {
+                replaced.put(checksum, copyField(checksum, new JsonPrimitive(update.value), "0x" + Integer.toHexString(update.value)));
+            }
+        }
+
+        List<ProtocolData> protocols = packet.getProtocols().stream()
+                .map(p -> p.fields.stream().anyMatch(replaced::containsKey) ? replaceFields(p, replaced) : p)
+                .collect(Collectors.toList());
+        return packet.withProtocols(protocols, bytes);
+    }
+
+    private static FieldData copyField(FieldData fieldData, JsonPrimitive value, String hvalue) {
+        FieldData res = new FieldData();
+        res.id = fieldData.id;
+        res.value = value;
+        res.hvalue = hvalue;
+        res.offset = fieldData.offset;
+        res.length = fieldData.length;
+        res.ignored = fieldData.ignored;
+        return res;
+    }
+
+    private static ProtocolData replaceFields(ProtocolData protocol, Map<FieldData, FieldData> replaced) {
+        ProtocolData res = new ProtocolData();
+        res.id = protocol.id;
+        res.real_id = protocol.real_id;
+        res.valid_structure = protocol.valid_structure;
+        res.name = protocol.name;
+        res.offset = protocol.offset;
+        res.fields = protocol.fields.stream()
+                .map(f -> replaced.getOrDefault(f, f))
+                .collect(Collectors.toList());
+        return res;
+    }
+
+    /** converts human value to the Scapy value */
+    static JsonPrimitive parseValue(FieldMetadata meta, String hvalue, int length) {
+        switch (meta.getType()) {
+            case MAC_ADDRESS:
+                return length == 6 && MAC_ADDRESS.matcher(hvalue).matches() ? new JsonPrimitive(hvalue.toLowerCase()) : null;
+            case IP_ADDRESS:
+                return InetAddresses.isInetAddress(hvalue) ? new JsonPrimitive(hvalue) : null;
+            case ENUM:
+                Map<String, JsonElement> dictionary = meta.getDictionary();
+                if (dictionary != null && dictionary.containsKey(hvalue)) {
+                    JsonElement dictValue = dictionary.get(hvalue);
+                    if (dictValue.isJsonPrimitive() && dictValue.getAsJsonPrimitive().isNumber()) {
+                        return new JsonPrimitive(dictValue.getAsBigInteger());
+                    }
+                    return null;
+                }
+                return parseNumber(hvalue, length);
+            case NUMBER:
+                return parseNumber(hvalue, length);
+            default:
+                return null;
+        }
+    }
+
+    private static JsonPrimitive parseNumber(String hvalue, int length) {
+        BigInteger number;
+        try {
+            if (hvalue.startsWith("0x") || hvalue.startsWith("0X")) {
+                number = new BigInteger(hvalue.substring(2), 16);
+            } else {
+                number = new BigInteger(hvalue);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (number.signum() < 0 || number.bitLength() > length * 8) {
+            return null;
+        }
+        return new JsonPrimitive(number);
+    }
+
+    /** big-endian encoding of the value, null if it doesn't fit the field */
+    static byte[] encode(FieldMetadata meta, JsonPrimitive value, int length) {
+        switch (meta.getType()) {
+            case MAC_ADDRESS: {
+                String[] octets = value.getAsString().split("[:-]");
+                byte[] res = new byte[6];
+                for (int i = 0; i < octets.length; i++) {
+                    res[i] = (byte) Integer.parseInt(octets[i], 16);
+                }
+                return res;
+            }
+            case IP_ADDRESS: {
+                byte[] res = InetAddresses.forString(value.getAsString()).getAddress();
+                return res.length == length ? res : null;
+            }
+            case ENUM:
+            case NUMBER: {
+                BigInteger number = value.getAsBigInteger();
+                if (number.signum() < 0 || number.bitLength() > length * 8) {
+                    return null;
+                }
+                // two's complement bytes may have a leading zero sign byte, bitLength has checked the rest fits
+                byte[] bytes = number.toByteArray();
+                int count = Math.min(bytes.length, length);
+                byte[] res = new byte[length];
+                System.arraycopy(bytes, bytes.length - count, res, length - count, count);
+                return res;
+            }
+            default:
+                return null;
+        }
+    }
+}
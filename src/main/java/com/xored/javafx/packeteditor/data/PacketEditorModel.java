@@ -10,29 +10,40 @@ import com.google.gson.reflect.TypeToken;
 import com.google.inject.Inject;
 import com.xored.javafx.packeteditor.data.combined.CombinedField;
 import com.xored.javafx.packeteditor.data.combined.CombinedProtocolModel;
+import com.xored.javafx.packeteditor.data.combined.CombinedProtocolModelDiff;
 import com.xored.javafx.packeteditor.data.user.Document;
 import com.xored.javafx.packeteditor.data.user.DocumentFile;
+import com.xored.javafx.packeteditor.data.user.UserField;
 import com.xored.javafx.packeteditor.data.user.UserProtocol;
+import com.xored.javafx.packeteditor.events.CombinedModelChangedEvent;
 import com.xored.javafx.packeteditor.events.InitPacketEditorEvent;
-import com.xored.javafx.packeteditor.events.RebuildViewEvent;
+import com.xored.javafx.packeteditor.events.PacketBuildFailedEvent;
+import com.xored.javafx.packeteditor.events.ProtocolDefinitionsChangedEvent;
 import com.xored.javafx.packeteditor.events.UpdateEtherLayerEvent;
 import com.xored.javafx.packeteditor.metatdata.FEInstructionParameterMeta;
+import com.xored.javafx.packeteditor.metatdata.FieldMetadata;
 import com.xored.javafx.packeteditor.metatdata.InstructionExpressionMeta;
 import com.xored.javafx.packeteditor.metatdata.ProtocolMetadata;
 import com.xored.javafx.packeteditor.scapy.FieldData;
 import com.xored.javafx.packeteditor.scapy.InstructionExpressionData;
 import com.xored.javafx.packeteditor.scapy.PacketData;
+import com.xored.javafx.packeteditor.scapy.ProtocolData;
 import com.xored.javafx.packeteditor.scapy.ReconstructField;
+import com.xored.javafx.packeteditor.service.ConfigurationService;
 import com.xored.javafx.packeteditor.service.IMetadataService;
 import com.xored.javafx.packeteditor.service.InstructionsTemplate;
+import com.xored.javafx.packeteditor.service.PacketBuildCache;
+import com.xored.javafx.packeteditor.service.PacketBuildQueue;
 import com.xored.javafx.packeteditor.service.PacketDataService;
 import com.xored.javafx.packeteditor.service.PacketUndoController;
+import javafx.application.Platform;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -58,6 +69,9 @@ public class PacketEditorModel {
     @Inject
     HighLevelVmImporter hlvmImporter;
 
+    @Inject
+    ConfigurationService configurationService;
+
     /** abstract user model. contains field values */
     Document userModel = new Document();
 
@@ -98,7 +112,7 @@ public class PacketEditorModel {
     }
 
     public List<String> getVmInstructions() {
-        return packet.vm_instructions_expressions.stream().map(InstructionExpressionData::toString).collect(Collectors.toList());
+        return packet.getVmInstructionsExpressions().stream().map(InstructionExpressionData::toString).collect(Collectors.toList());
     }
 
     public List<InstructionExpression> getInstructionExpressions() {
@@ -138,7 +152,7 @@ public class PacketEditorModel {
     }
 
     public void setFieldEngineError(String fieldEngineError) {
-        this.packet.setFieldEngineError(fieldEngineError);
+        this.packet = this.packet.withFieldEngineError(fieldEngineError);
     }
 
     public void addFEInstructionsTemplate(CombinedField field, InstructionsTemplate template) {
@@ -183,7 +197,7 @@ public class PacketEditorModel {
      * @return
      */
     public int getPktSize() {
-        return getPkt().getPacketBytes().length + 4;
+        return getPkt().getPacketLength() + 4;
     }
 
     public void loadSimpleUserModel(String json) {
@@ -235,17 +249,37 @@ public class PacketEditorModel {
 
     public class DocState {
         public DocumentFile userModel;
+        /** packet shown with userModel, bytes are immutable and shared with it */
         public PacketData packet;
+        /** packet was patched locally and its build was still pending, it is rebuilt after undo */
+        boolean packetPending;
+        /** approximate size of the data not shared with the previous record */
+        long size;
     }
 
-    PacketUndoController<DocState> undoController = new PacketUndoController<>(this::loadUndoState);
+    PacketUndoController<DocState> undoController = new PacketUndoController<>(this::loadUndoState, docState -> docState.size);
+
+    /** last undo snapshot, to find out which protocols are shared with it */
+    DocumentFile lastUndoSnapshot;
+    PacketData lastUndoPacket;
+
+    @Inject
+    public void initUndoHistory() {
+        undoController.setLimits(configurationService.getUndoMaxDepth(), configurationService.getUndoMaxMemory());
+    }
 
     /** compatibility flag. to be removed later */
     boolean binaryMode = false;
 
+    /** rough size of undo record entry: protocol, field or FE instruction */
+    static final int UNDO_RECORD_WEIGHT = 256;
+
+    /** value edits are built in background, a burst of them results in one build */
+    PacketBuildQueue buildQueue = new PacketBuildQueue(Platform::runLater);
+
     public void deleteAllProtocols() {
+        buildQueue.cancel();
         userModel.clear();
-        model = new CombinedProtocolModel();
         fireUpdateViewEvent();
     }
 
@@ -341,16 +375,21 @@ public class PacketEditorModel {
 
     private void fireUpdateViewEvent() {
         binary.setBytes(packet.getPacketBytes());
+        CombinedProtocolModel updated;
         if (isBinaryMode()) {
-            model = CombinedProtocolModel.fromScapyData(metadataService, userModel, packet.getProtocols());
+            updated = CombinedProtocolModel.fromScapyData(metadataService, userModel, packet.getProtocols());
         } else {
-            model = CombinedProtocolModel.fromUserModel(metadataService, userModel, packet.getProtocols());
+            updated = CombinedProtocolModel.fromUserModel(metadataService, userModel, packet.getProtocols());
         }
-        logger.debug("Rebuilding UI model");
-        eventBus.post(new RebuildViewEvent());
+        // keep unchanged layers and fields, so the view rebuilds only what was changed
+        List<CombinedProtocolModelDiff.Change> changes = CombinedProtocolModelDiff.merge(model, updated);
+        logger.debug("Updating UI model: {}", changes);
+        eventBus.post(new CombinedModelChangedEvent(changes));
     }
 
     private void setPktAndReload(PacketData pkt) {
+        // the packet reflects the current user model, pending builds of earlier edits are not needed
+        buildQueue.cancel();
         this.packet = pkt;
         fireUpdateViewEvent();
     }
@@ -371,6 +410,7 @@ public class PacketEditorModel {
     }
 
     public void loadDocumentFromPcapData(PacketData pkt) {
+        buildQueue.cancel();
         beforeContentReplace();
         this.packet = pkt;
         importUserModelFromScapy(packet);
@@ -452,9 +492,7 @@ public class PacketEditorModel {
     public void setVmInstructionParameter(FEInstructionParameter2 instructionParameter, JsonElement value) {
         beforeContentReplace();
         userModel.setFEInstructionParameter(instructionParameter, value);
-        
-        PacketData newPkt = packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel());
-        setPktAndReload(newPkt);
+        scheduleBuild();
     }
     
     public void editField(CombinedField field, ReconstructField newValue) {
@@ -492,14 +530,20 @@ public class PacketEditorModel {
             }
         }
 
+        if (!isBinaryMode()) {
+            PacketData patched = LocalFieldEncoder.patch(packet, field, newValue, this::isAutoField);
+            if (patched != null) {
+                // show the new value right away, Scapy recalculates lengths in background
+                setPktAndReload(patched);
+            }
+            scheduleBuild();
+            return;
+        }
+
         PacketData newPkt;
         
         try {
-            if (isBinaryMode()) {
-                newPkt = packetDataService.reconstructPacketField(packet, field.getProtocol().getPath(), newValue);
-            } else {
-                newPkt = packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel());
-            }
+            newPkt = packetDataService.reconstructPacketField(packet, field.getProtocol().getPath(), newValue);
         } catch (Exception e) {
             logger.error("Fail to update field {} with new value: {} due to: \"{}\"", field.getId(), newValue.value, e.getMessage());
             userModel.revertLastChanges();
@@ -510,6 +554,36 @@ public class PacketEditorModel {
         setPktAndReload(newPkt);
     }
 
+    /**
+     * builds the user model in background after a value edit, locally patched packet is replaced with the result.
+     * if the build fails, the latest edit is reverted while the edits coalesced with it are kept
+     */
+    private void scheduleBuild() {
+        scheduleBuild(lastUndoSnapshot);
+    }
+
+    private void scheduleBuild(DocumentFile beforeEdit) {
+        buildQueue.submit(
+                () -> packetDataService.buildPacketAsync(userModel.buildScapyModel(), userModel.getVmInstructionsModel()),
+                this::setPktAndReload,
+                cause -> revertFailedEdit(beforeEdit, cause));
+    }
+
+    private void revertFailedEdit(DocumentFile beforeEdit, Throwable cause) {
+        logger.error("Fail to build packet after edit due to: \"{}\"", cause.getMessage());
+        if (beforeEdit == null) {
+            // the state before the failed edit can't be built either, it is reported already
+            return;
+        }
+        eventBus.post(new PacketBuildFailedEvent(cause));
+        // the reverted edit leaves no trace in the history, next undo goes to the edit before it
+        undoController.discardLast(state -> state.userModel == beforeEdit);
+        File currentFile = userModel.getCurrentFile();
+        userModel = DocumentFile.fromPOJO(beforeEdit, metadataService);
+        userModel.setCurrentFile(currentFile);
+        scheduleBuild(null);
+    }
+
     /** sets text value */
     public void editField(CombinedField field, String newValue) {
         if (field.getScapyFieldData() != null && field.getScapyFieldData().getValueExpr() != null) {
@@ -524,9 +598,32 @@ public class PacketEditorModel {
         }
     }
 
-    /** packet bytes were changed with the binary editor */
-    public void editPacketBytes(byte[] newBytes) {
-        importUserModelFromScapy(packetDataService.reconstructPacketFromBinary(newBytes));
+    /** packet bytes were changed with the binary editor, checksums which cover the changed range follow the change */
+    public void editPacketBytes(byte[] newBytes, int from, int length) {
+        AutoFieldUpdater.update(packet.getProtocols(), packet.getPacketBuffer(), ByteBuffer.wrap(newBytes), from, length, this::isAutoField);
+        PacketData newPkt = packetDataService.reconstructPacketFromBinary(newBytes);
+        importUserModelFromScapy(newPkt);
+        setPktAndReload(newPkt);
+    }
+
+    /** true if the field is calculated by Scapy and the user didn't set its value */
+    private boolean isAutoField(ProtocolData protocol, String fieldId) {
+        ProtocolMetadata meta = metadataService.getProtocolMetadataById(protocol.id);
+        FieldMetadata fieldMeta = meta != null ? meta.getMetaForFieldOrNull(fieldId) : null;
+        if (fieldMeta == null || !fieldMeta.isAuto()) {
+            return false;
+        }
+        if (isBinaryMode()) {
+            // user model is imported from the packet, it has values for all fields
+            return true;
+        }
+        int idx = packet.getProtocols().indexOf(protocol);
+        Stack<UserProtocol> protocolStack = userModel.getProtocolStack();
+        if (idx < 0 || idx >= protocolStack.size() || !protocolStack.get(idx).getId().equals(protocol.id)) {
+            return true;
+        }
+        UserField userField = protocolStack.get(idx).getField(fieldId);
+        return userField == null || userField.getValue() == null;
     }
 
     public void setSelected(CombinedField field) {
@@ -582,17 +679,42 @@ public class PacketEditorModel {
     /** should be called before changing data in this class. it writes UNDO records */
     private void beforeContentReplace() {
         DocState ds = new DocState();
-        ds.packet = packet;
         ds.userModel = toPOJO(userModel);
+        ds.packet = packet;
+        ds.packetPending = buildQueue.isPending();
+        ds.size = estimateUndoSize(ds);
+        lastUndoSnapshot = ds.userModel;
+        lastUndoPacket = ds.packet;
         undoController.beforeContentReplace(ds);
     }
 
+    private long estimateUndoSize(DocState ds) {
+        Set<DocumentFile.DocumentProtocol> shared = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (lastUndoSnapshot != null) {
+            shared.addAll(lastUndoSnapshot.packet);
+        }
+        long size = UNDO_RECORD_WEIGHT * (1 + ds.userModel.feInstructions.size() + ds.userModel.fePrarameters.size());
+        for (DocumentFile.DocumentProtocol protocol : ds.userModel.packet) {
+            if (!shared.contains(protocol)) {
+                size += UNDO_RECORD_WEIGHT * (1 + protocol.fields.size());
+            }
+        }
+        if (ds.packet != null && ds.packet != lastUndoPacket) {
+            size += PacketBuildCache.estimateSize(ds.packet);
+        }
+        return size;
+    }
+
     /** called by undoController to restore state from undo records */
     private void loadUndoState(DocState docState) {
+        Document restored = DocumentFile.fromPOJO(docState.userModel, metadataService);
         beforeContentReplace(); // save data for reverse undo/redo while processing undo/redo
-        packet = docState.packet;
-        userModel = DocumentFile.fromPOJO(docState.userModel, metadataService);
-        fireUpdateViewEvent();
+        userModel = restored;
+        setPktAndReload(docState.packet);
+        if (docState.packetPending) {
+            // locally patched packet, lengths and checksums are refreshed in background
+            scheduleBuild(null);
+        }
     }
 
     public Document getUserModel() {
@@ -606,9 +728,7 @@ public class PacketEditorModel {
     public void setFeParameterValue(String feParameterId, String value) {
         beforeContentReplace();
         userModel.setFePrarameterValue(feParameterId, value);
-        
-        PacketData newPkt = packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel());
-        setPktAndReload(newPkt);
+        scheduleBuild();
     }
 
     public String getFieldEngineError() {
@@ -620,4 +740,18 @@ public class PacketEditorModel {
     public void handlePacketUpdatedEvent(InitPacketEditorEvent event) {
         fireUpdateViewEvent();
     }
+
+    @Subscribe
+    public void handleDefinitionsChangedEvent(ProtocolDefinitionsChangedEvent event) {
+        // posted from the metadata loader thread
+        Platform.runLater(this::rebindUserModel);
+    }
+
+    /** recreates user protocols with the current metadata, the packet stays the same */
+    private void rebindUserModel() {
+        File currentFile = userModel.getCurrentFile();
+        userModel = DocumentFile.fromPOJO(toPOJO(userModel), metadataService);
+        userModel.setCurrentFile(currentFile);
+        fireUpdateViewEvent();
+    }
 }
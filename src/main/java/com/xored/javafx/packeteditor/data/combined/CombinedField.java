@@ -19,6 +19,8 @@ public class CombinedField {
     FieldData scapyField;
     FieldMetadata meta;
     CombinedProtocol parent;
+    /** snapshot of the shown state, used to detect changed fields */
+    String signature;
 
     public String getId() { return meta.getId(); }
     /**
@@ -14,8 +14,19 @@ public class CombinedProtocol {
     List<CombinedField> fields = new ArrayList<>();
     UserProtocol userProtocol;
     ProtocolData scapyProtocol;
+    /** snapshot of the shown layer state, used to detect changed layers */
+    String signature;
 
     public List<CombinedField> getFields() { return fields; }
+
+    /** field by its index in the protocol metadata, fields are created in metadata order */
+    public CombinedField getField(int idx) { return fields.get(idx); }
+
+    /** field by id or null */
+    public CombinedField getField(String fieldId) {
+        int idx = meta.indexOf(fieldId);
+        return idx >= 0 ? fields.get(idx) : null;
+    }
     public UserProtocol getUserProtocol() { return userProtocol; }
     public ProtocolData getScapyProtocol() { return scapyProtocol; }
 
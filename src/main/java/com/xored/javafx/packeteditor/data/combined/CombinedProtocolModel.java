@@ -3,6 +3,7 @@ package com.xored.javafx.packeteditor.data.combined;
 import com.xored.javafx.packeteditor.data.user.Document;
 import com.xored.javafx.packeteditor.data.user.UserProtocol;
 import com.xored.javafx.packeteditor.metatdata.FieldMetadata;
+import com.xored.javafx.packeteditor.metatdata.ProtocolMetadata;
 import com.xored.javafx.packeteditor.scapy.ProtocolData;
 import com.xored.javafx.packeteditor.service.IMetadataService;
 
@@ -65,20 +66,31 @@ public class CombinedProtocolModel {
         return res;
     }
 
+    /** fields are resolved by metadata index, so the layer is built in linear time */
     private static void createFields(CombinedProtocol protocolObj) {
-        for (FieldMetadata fieldMeta : protocolObj.getMeta().getFields()) {
+        ProtocolMetadata meta = protocolObj.getMeta();
+        List<FieldMetadata> fieldMetas = meta.getFields();
+        protocolObj.fields = new ArrayList<>(fieldMetas.size());
+        // user protocol created before definitions were reloaded has a different index
+        UserProtocol userProtocol = protocolObj.userProtocol;
+        boolean userIndexed = userProtocol != null && userProtocol.getMeta() == meta;
+        for (int idx = 0; idx < fieldMetas.size(); idx++) {
             CombinedField field = new CombinedField();
             
             field.parent = protocolObj;
-            field.meta = fieldMeta;
+            field.meta = fieldMetas.get(idx);
             if (protocolObj.scapyProtocol != null) {
-                field.scapyField = protocolObj.scapyProtocol.getFieldById(fieldMeta.getId());
+                field.scapyField = protocolObj.scapyProtocol.getField(meta, idx);
             }
-            if (protocolObj.userProtocol != null) {
-                field.userField = protocolObj.userProtocol.getField(fieldMeta.getId());
+            if (userIndexed) {
+                field.userField = userProtocol.getField(idx);
+            } else if (userProtocol != null) {
+                field.userField = userProtocol.getField(field.meta.getId());
             }
+            field.signature = CombinedProtocolModelDiff.fieldSignature(field);
             protocolObj.fields.add(field);
         }
+        protocolObj.signature = CombinedProtocolModelDiff.protocolSignature(protocolObj);
     }
 
     static public ProtocolData getByPath(List<String> path, List<ProtocolData> stack) {
@@ -0,0 +1,143 @@
+package com.xored.javafx.packeteditor.data.combined;
+
+import com.xored.javafx.packeteditor.data.user.FEInstruction;
+import com.xored.javafx.packeteditor.data.user.UserProtocol;
+import com.xored.javafx.packeteditor.scapy.FieldData;
+import com.xored.javafx.packeteditor.scapy.ProtocolData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * merges a freshly built combined model into the current one and reports what has changed.
+ * layers are matched by path, unchanged layers and fields keep their objects, so UI controls bound to them stay valid
+ */
+public class CombinedProtocolModelDiff {
+
+    public enum ChangeType {
+        FIELD_VALUE_CHANGED,
+        LAYER_ADDED,
+        LAYER_REMOVED,
+        /** layer title, style or user protocol changed, whole layer has to be rebuilt */
+        LAYER_CHANGED
+    }
+
+    public static class Change {
+        private final ChangeType type;
+        private final int index;
+        private final CombinedProtocol protocol;
+        private final CombinedProtocol oldProtocol;
+        private final CombinedField field;
+
+        Change(ChangeType type, int index, CombinedProtocol protocol, CombinedProtocol oldProtocol, CombinedField field) {
+            this.type = type;
+            this.index = index;
+            this.protocol = protocol;
+            this.oldProtocol = oldProtocol;
+            this.field = field;
+        }
+
+        public ChangeType getType() { return type; }
+
+        /** index of the layer in the protocol stack at the moment the change is applied */
+        public int getIndex() { return index; }
+
+        /** new layer for added/changed, removed layer for LAYER_REMOVED */
+        public CombinedProtocol getProtocol() { return protocol; }
+
+        /** replaced layer for LAYER_CHANGED */
+        public CombinedProtocol getOldProtocol() { return oldProtocol; }
+
+        public CombinedField getField() { return field; }
+
+        public String toString() {
+            return type + ":" + index + (field != null ? ":" + field.getId() : "");
+        }
+    }
+
+    /**
+     * updates current model in place with the content of the updated one.
+     * changes are ordered so they can be applied one by one: changed layers, removed layers from the end, added layers
+     */
+    public static List<Change> merge(CombinedProtocolModel current, CombinedProtocolModel updated) {
+        List<Change> changes = new ArrayList<>();
+        List<CombinedProtocol> oldStack = current.protocolStack;
+        List<CombinedProtocol> newStack = updated.protocolStack;
+
+        // path contains all preceding layers, so the first mismatch invalidates the rest of the stack
+        int common = 0;
+        while (common < oldStack.size() && common < newStack.size()
+                && oldStack.get(common).getPath().equals(newStack.get(common).getPath())) {
+            common++;
+        }
+
+        for (int i = 0; i < common; i++) {
+            CombinedProtocol oldProtocol = oldStack.get(i);
+            CombinedProtocol newProtocol = newStack.get(i);
+            if (oldProtocol.meta != newProtocol.meta
+                    || oldProtocol.userProtocol != newProtocol.userProtocol
+                    || !oldProtocol.signature.equals(newProtocol.signature)) {
+                oldStack.set(i, newProtocol);
+                changes.add(new Change(ChangeType.LAYER_CHANGED, i, newProtocol, oldProtocol, null));
+                continue;
+            }
+            mergeFields(oldProtocol, newProtocol, i, changes);
+        }
+
+        for (int i = oldStack.size() - 1; i >= common; i--) {
+            changes.add(new Change(ChangeType.LAYER_REMOVED, i, oldStack.remove(i), null, null));
+        }
+
+        for (int i = common; i < newStack.size(); i++) {
+            CombinedProtocol newProtocol = newStack.get(i);
+            oldStack.add(newProtocol);
+            changes.add(new Change(ChangeType.LAYER_ADDED, i, newProtocol, null, null));
+        }
+        return changes;
+    }
+
+    private static void mergeFields(CombinedProtocol oldProtocol, CombinedProtocol newProtocol, int index, List<Change> changes) {
+        oldProtocol.scapyProtocol = newProtocol.scapyProtocol;
+        for (int i = 0; i < oldProtocol.fields.size(); i++) {
+            CombinedField oldField = oldProtocol.fields.get(i);
+            CombinedField newField = newProtocol.fields.get(i);
+            oldField.scapyField = newField.scapyField;
+            oldField.userField = newField.userField;
+            if (!oldField.signature.equals(newField.signature)) {
+                oldField.signature = newField.signature;
+                changes.add(new Change(ChangeType.FIELD_VALUE_CHANGED, index, oldProtocol, null, oldField));
+            }
+        }
+    }
+
+    /** everything shown in the layer title pane */
+    static String protocolSignature(CombinedProtocol protocol) {
+        ProtocolData scapy = protocol.scapyProtocol;
+        if (scapy == null) {
+            return "-";
+        }
+        return scapy.isInvalidStructure() + "|" + scapy.getRealId() + "|" + scapy.protocolRealIdDifferent();
+    }
+
+    /**
+     * everything shown in the field rows. user state is mutable, so it is captured when the field is created
+     */
+    static String fieldSignature(CombinedField field) {
+        StringBuilder sb = new StringBuilder();
+        FieldData scapy = field.scapyField;
+        if (scapy != null) {
+            sb.append(scapy.value).append('|').append(scapy.hvalue).append('|')
+                    .append(scapy.offset).append('|').append(scapy.length).append('|').append(scapy.isIgnored());
+            sb.append('|').append(field.parent.scapyProtocol.offset);
+        }
+        sb.append('|');
+        if (field.userField != null) {
+            sb.append(field.userField.getValue());
+        }
+        UserProtocol userProtocol = field.parent.userProtocol;
+        FEInstruction instruction = userProtocol != null ? userProtocol.getFieldInstruction(field.getId()) : null;
+        sb.append('|').append(instruction != null ? Objects.toString(instruction.getParameters()) : "");
+        return sb.toString();
+    }
+}
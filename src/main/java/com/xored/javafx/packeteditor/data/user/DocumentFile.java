@@ -73,12 +73,18 @@ public class DocumentFile {
         return data;
     }
     
+    /** unchanged protocols share the POJO with previous snapshots, so undo history grows only by changed layers */
     private static DocumentProtocol documentProtocolToPOJO(UserProtocol protocol) {
+        if (protocol.snapshot != null && protocol.snapshotModCount == protocol.modCount) {
+            return protocol.snapshot;
+        }
         List<DocumentField> documentFields = protocol.getSetFields().stream()
                 .map(DocumentField::new)
                 .collect(Collectors.toList());
 
-        return new DocumentProtocol(protocol.getId(), documentFields);
+        protocol.snapshot = new DocumentProtocol(protocol.getId(), documentFields);
+        protocol.snapshotModCount = protocol.modCount;
+        return protocol.snapshot;
     }
 
     public static Document fromPOJO(DocumentFile data, IMetadataService metadataService) {
@@ -105,6 +111,9 @@ public class DocumentFile {
                 doc.addProtocol(metadataService.getProtocolMetadataById(documentProtocol.id));
                 UserProtocol userProtocol = doc.getProtocolStack().peek();
                 documentProtocol.fields.forEach(field -> userProtocol.getField(field.id).setValue(field.value));
+                // restored protocol is equal to its POJO, so the next snapshot can share it
+                userProtocol.snapshot = documentProtocol;
+                userProtocol.snapshotModCount = userProtocol.modCount;
             }
         );
         return doc;
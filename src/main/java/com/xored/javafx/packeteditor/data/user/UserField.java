@@ -7,6 +7,8 @@ public class UserField {
     
     private String id;
     private JsonElement value;
+    /** protocol notified about value changes */
+    UserProtocol owner;
 
     public UserField(String id) {
         this.id = id;
@@ -16,7 +18,12 @@ public class UserField {
         setValue(new JsonPrimitive(value));
     }
 
-    public void setValue(JsonElement value) { this.value = value; }
+    public void setValue(JsonElement value) {
+        this.value = value;
+        if (owner != null) {
+            owner.modCount++;
+        }
+    }
 
     public String getId() {
         return id;
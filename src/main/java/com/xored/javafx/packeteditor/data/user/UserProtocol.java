@@ -14,33 +14,57 @@ public class UserProtocol {
     private ProtocolMetadata meta;
     private List<String> path = new ArrayList<>();
     private Map<String, UserField> fieldMap = new LinkedHashMap<>();
+    /** fields by index of the protocol metadata, the map keeps the rest and the order */
+    private UserField[] indexedFields;
     boolean collapsed = false;
 
+    /** incremented on each change of fields, undo snapshots are reused while it is unchanged */
+    int modCount = 0;
+    DocumentFile.DocumentProtocol snapshot;
+    int snapshotModCount = -1;
+
     // TODO: delete
     private Map<String, FEInstruction> fieldInstructions = new HashMap<>();
     
     public UserProtocol(ProtocolMetadata meta, List<String> path) {
         this.meta = meta;
         this.path.addAll(path);
+        this.indexedFields = new UserField[meta.getFieldCount()];
     }
     public void addField(UserField field) {
+        field.owner = this;
         fieldMap.put(field.getId(), field);
+        int idx = meta.indexOf(field.getId());
+        if (idx >= 0) {
+            indexedFields[idx] = field;
+        }
+        modCount++;
     }
 
     public void addField(String fieldId, String value) {
         UserField field = new UserField(fieldId);
         field.setValue(value);
-        fieldMap.put(field.getId(), field);
+        addField(field);
     }
 
     public UserField getField(String fieldId) {
-        return fieldMap.get(fieldId);
+        int idx = meta.indexOf(fieldId);
+        return idx >= 0 ? indexedFields[idx] : fieldMap.get(fieldId);
+    }
+
+    /** field by its index in the protocol metadata */
+    public UserField getField(int idx) {
+        return indexedFields[idx];
     }
 
     public String getId() {
         return meta.getId();
     }
 
+    public ProtocolMetadata getMeta() {
+        return meta;
+    }
+
     public String toString() {
         return " " + meta.getName() + " ";
     }
@@ -54,15 +78,22 @@ public class UserProtocol {
 
     public UserField createField(String fieldId) {
         UserField field = new UserField(fieldId);
-        fieldMap.put(fieldId, field);
+        addField(field);
         return field;
     }
 
     public void deleteField(String fieldId) {
-        fieldMap.remove(fieldId);
+        UserField removed = fieldMap.remove(fieldId);
+        if (removed != null) {
+            removed.owner = null;
+        }
         createField(fieldId);
     }
 
+    public int getModCount() {
+        return modCount;
+    }
+
     public boolean isCollapsed() {
         return collapsed;
     }
@@ -0,0 +1,20 @@
+package com.xored.javafx.packeteditor.events;
+
+import com.xored.javafx.packeteditor.data.combined.CombinedProtocolModelDiff.Change;
+
+import java.util.List;
+
+/**
+ * combined model was updated in place, only the listed layers and fields need to be rebuilt
+ */
+public class CombinedModelChangedEvent {
+    private List<Change> changes;
+
+    public CombinedModelChangedEvent(List<Change> changes) {
+        this.changes = changes;
+    }
+
+    public List<Change> getChanges() {
+        return changes;
+    }
+}
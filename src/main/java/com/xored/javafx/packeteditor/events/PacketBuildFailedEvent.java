@@ -0,0 +1,14 @@
+package com.xored.javafx.packeteditor.events;
+
+/** posted when asynchronous packet build failed and the edit was reverted */
+public class PacketBuildFailedEvent {
+    private Throwable cause;
+
+    public PacketBuildFailedEvent(Throwable cause) {
+        this.cause = cause;
+    }
+
+    public Throwable getCause() {
+        return cause;
+    }
+}
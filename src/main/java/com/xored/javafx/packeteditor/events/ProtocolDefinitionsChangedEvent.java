@@ -0,0 +1,6 @@
+package com.xored.javafx.packeteditor.events;
+
+/** posted when protocol metadata was replaced by changed Scapy definitions, open documents still refer to the old one */
+public class ProtocolDefinitionsChangedEvent {
+
+}
@@ -1,3 +0,0 @@
-package com.xored.javafx.packeteditor.events;
-
-public class RebuildViewEvent {}
@@ -6,6 +6,7 @@ import com.google.inject.Singleton;
 import com.google.inject.name.Names;
 import com.xored.javafx.packeteditor.TRexPacketCraftingTool;
 import com.xored.javafx.packeteditor.controllers.*;
+import com.xored.javafx.packeteditor.controls.ControlPool;
 import com.xored.javafx.packeteditor.data.BinaryData;
 import com.xored.javafx.packeteditor.data.HighLevelVmImporter;
 import com.xored.javafx.packeteditor.data.IBinaryData;
@@ -13,7 +14,9 @@ import com.xored.javafx.packeteditor.data.PacketEditorModel;
 import com.xored.javafx.packeteditor.guice.provider.FXMLLoaderProvider;
 import com.xored.javafx.packeteditor.scapy.ScapyServerClient;
 import com.xored.javafx.packeteditor.service.ConfigurationService;
+import com.xored.javafx.packeteditor.service.DefinitionsCache;
 import com.xored.javafx.packeteditor.service.IMetadataService;
+import com.xored.javafx.packeteditor.service.LocalDissector;
 import com.xored.javafx.packeteditor.service.MetadataService;
 import com.xored.javafx.packeteditor.service.PacketDataService;
 import com.xored.javafx.packeteditor.view.FieldEditorView;
@@ -47,6 +50,7 @@ public class GuiceModule extends AbstractModule {
         bind(ConfigurationService.class).in(Singleton.class);
         bind(ScapyServerClient.class).in(Singleton.class);
         bind(PacketDataService.class).in(Singleton.class);
+        bind(LocalDissector.class).in(Singleton.class);
         bind(PacketEditorModel.class).in(Singleton.class);
         bind(HighLevelVmImporter.class).in(Singleton.class);
         if (!embeddedMode) {
@@ -58,8 +62,10 @@ public class GuiceModule extends AbstractModule {
         bind(FieldEngineController.class).in(Singleton.class);
         bind(FieldEditorView.class).in(Singleton.class);
         bind(FieldEngineView.class).in(Singleton.class);
+        bind(ControlPool.class).in(Singleton.class);
         bind(AppController.class).in(Singleton.class);
         bind(IMetadataService.class).to(MetadataService.class).in(Singleton.class);
+        bind(DefinitionsCache.class).in(Singleton.class);
 
         bind(ResourceBundle.class)
                 .annotatedWith(Names.named("resources"))
@@ -1,15 +1,19 @@
 package com.xored.javafx.packeteditor.metatdata;
 
 import com.google.gson.internal.LinkedTreeMap;
+import com.xored.javafx.packeteditor.scapy.FieldIndex;
 
 import java.util.*;
 import java.util.stream.Collectors;
 
-public class ProtocolMetadata {
+public class ProtocolMetadata implements FieldIndex {
     private String id; // scapy class id
 
     private String name; // protocol name
     private LinkedTreeMap<String, FieldMetadata> fields = new LinkedTreeMap<>();
+    /** fields in definition order, field index is the position in this list */
+    private final List<FieldMetadata> fieldList;
+    private final Map<String, Integer> fieldIndices = new HashMap<>();
 
     private Map<String, FEInstructionParameterMeta> instructionParametersMetas = new LinkedHashMap<>();
     private List<String> fieldEngineAwareFields = new ArrayList<>();
@@ -28,6 +32,10 @@ public class ProtocolMetadata {
         for(FieldMetadata fieldMeta : fields) {
            this.fields.put(fieldMeta.getId(), fieldMeta);
         }
+        this.fieldList = Collections.unmodifiableList(new ArrayList<>(this.fields.values()));
+        for (int i = 0; i < fieldList.size(); i++) {
+            fieldIndices.put(fieldList.get(i).getId(), i);
+        }
     }
 
     public List<FEInstructionParameterMeta> getInstructionParametersMeta(String fieldId) {
@@ -56,7 +64,23 @@ public class ProtocolMetadata {
     }
 
     public List<FieldMetadata> getFields() {
-        return fields.entrySet().stream().map(Map.Entry::getValue).collect(Collectors.toList());
+        return fieldList;
+    }
+
+    @Override
+    public int indexOf(String fieldId) {
+        Integer idx = fieldIndices.get(fieldId);
+        return idx != null ? idx : -1;
+    }
+
+    @Override
+    public int getFieldCount() {
+        return fieldList.size();
+    }
+
+    /** field by its index */
+    public FieldMetadata getField(int idx) {
+        return fieldList.get(idx);
     }
 
     public FieldMetadata getMetaForField(String fieldId) {
@@ -0,0 +1,47 @@
+package com.xored.javafx.packeteditor.pcap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * constants of pcap and pcapng file formats
+ */
+public class PcapFormat {
+    /** pcap with microsecond timestamps */
+    public static final int PCAP_MAGIC_MICROS = 0xa1b2c3d4;
+    /** pcap with nanosecond timestamps */
+    public static final int PCAP_MAGIC_NANOS = 0xa1b23c4d;
+    public static final int PCAP_HEADER_LENGTH = 24;
+    public static final int PCAP_RECORD_HEADER_LENGTH = 16;
+
+    public static final int PCAPNG_SECTION_HEADER_BLOCK = 0x0A0D0D0A;
+    public static final int PCAPNG_INTERFACE_DESCRIPTION_BLOCK = 0x00000001;
+    public static final int PCAPNG_SIMPLE_PACKET_BLOCK = 0x00000003;
+    public static final int PCAPNG_ENHANCED_PACKET_BLOCK = 0x00000006;
+    public static final int PCAPNG_BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+    public static final int PCAPNG_OPTION_END = 0;
+    public static final int PCAPNG_OPTION_IF_TSRESOL = 9;
+
+    public static final int LINKTYPE_ETHERNET = 1;
+
+    public static final int MAX_SNAPLEN = 262144;
+
+    /** in-memory pcap file with a single packet, used to pass non-Ethernet packets to scapy_server */
+    public static byte[] singlePacketPcap(int linkType, byte[] packet) {
+        ByteBuffer buf = ByteBuffer.allocate(PCAP_HEADER_LENGTH + PCAP_RECORD_HEADER_LENGTH + packet.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(PCAP_MAGIC_MICROS);
+        buf.putShort((short) 2);
+        buf.putShort((short) 4);
+        buf.putInt(0); // thiszone
+        buf.putInt(0); // sigfigs
+        buf.putInt(MAX_SNAPLEN);
+        buf.putInt(linkType);
+        buf.putInt(0);
+        buf.putInt(0);
+        buf.putInt(packet.length);
+        buf.putInt(packet.length);
+        buf.put(packet);
+        return buf.array();
+    }
+}
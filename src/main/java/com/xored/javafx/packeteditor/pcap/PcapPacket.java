@@ -0,0 +1,36 @@
+package com.xored.javafx.packeteditor.pcap;
+
+/**
+ * single packet record of a capture file
+ */
+public class PcapPacket {
+    private final long index;
+    private final long timestampNanos;
+    private final int originalLength;
+    private final int linkType;
+    private final byte[] data;
+
+    public PcapPacket(long index, long timestampNanos, int originalLength, int linkType, byte[] data) {
+        this.index = index;
+        this.timestampNanos = timestampNanos;
+        this.originalLength = originalLength;
+        this.linkType = linkType;
+        this.data = data;
+    }
+
+    /** zero based number of the packet in the file */
+    public long getIndex() { return index; }
+
+    /** nanoseconds since epoch */
+    public long getTimestampNanos() { return timestampNanos; }
+
+    /** packet length on the wire, may be larger than captured data */
+    public int getOriginalLength() { return originalLength; }
+
+    public int getCapturedLength() { return data.length; }
+
+    /** LINKTYPE_* value of the interface the packet was captured on */
+    public int getLinkType() { return linkType; }
+
+    public byte[] getData() { return data; }
+}
@@ -0,0 +1,416 @@
+package com.xored.javafx.packeteditor.pcap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static com.xored.javafx.packeteditor.pcap.PcapFormat.*;
+
+/**
+ * random access reader of pcap and pcapng files.
+ * the file is memory-mapped window by window and packet offsets are indexed lazily:
+ * only every INDEX_INTERVAL-th offset is kept, so heap usage doesn't depend on the capture size
+ */
+public class PcapReader implements Closeable {
+    static final long WINDOW_SIZE = 64L * 1024 * 1024;
+    static final int INDEX_INTERVAL = 1024;
+    /** sanity limit for a single record, larger ones mean a corrupted file */
+    static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+    static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final File file;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final boolean pcapng;
+
+    /** sections of pcapng file, classic pcap is a single section */
+    private final List<Section> sections = new ArrayList<>();
+
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    /** offset of every INDEX_INTERVAL-th packet and section it belongs to */
+    private long[] checkpointOffsets = new long[16];
+    private int[] checkpointSections = new int[16];
+    private int checkpointCount = 0;
+
+    /** scan position: the next packet found from cursorOffset has cursorIndex */
+    private long cursorOffset;
+    private long cursorIndex;
+    private int cursorSection;
+
+    /** blocks before this offset were already parsed and registered in sections */
+    private long parsedUpTo = 0;
+    private long packetCount = -1;
+
+    private static class Section {
+        ByteOrder order;
+        List<Interface> interfaces = new ArrayList<>();
+    }
+
+    private static class Interface {
+        int linkType;
+        int snapLen;
+        /** timestamp ticks per second */
+        long resolution;
+    }
+
+    public PcapReader(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            this.fileSize = channel.size();
+            if (fileSize < 12) {
+                throw new IOException("Not a pcap file: " + file.getName());
+            }
+            ByteBuffer header = view(0, 12).order(ByteOrder.LITTLE_ENDIAN);
+            int magic = header.getInt();
+            if (magic == PCAPNG_SECTION_HEADER_BLOCK) {
+                pcapng = true;
+                addCheckpoint(0, -1);
+            } else {
+                pcapng = false;
+                readPcapHeader(magic);
+                addCheckpoint(PCAP_HEADER_LENGTH, 0);
+                parsedUpTo = fileSize;
+            }
+            cursorOffset = checkpointOffsets[0];
+            cursorSection = checkpointSections[0];
+            cursorIndex = 0;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean isPcapng() {
+        return pcapng;
+    }
+
+    /** true if the file has a packet with the given index, scans only up to that packet */
+    public synchronized boolean hasPacket(long index) throws IOException {
+        if (packetCount >= 0) {
+            return index < packetCount;
+        }
+        return seek(index);
+    }
+
+    /** total number of packets, scans the whole file on first call */
+    public long getPacketCount() throws IOException {
+        return countPackets(() -> false);
+    }
+
+    /** same as getPacketCount, returns -1 if cancelled. the lock is released between chunks so packets can be read meanwhile */
+    public long countPackets(BooleanSupplier cancelled) throws IOException {
+        while (true) {
+            synchronized (this) {
+                if (packetCount >= 0) {
+                    return packetCount;
+                }
+                seek((long) checkpointCount * INDEX_INTERVAL);
+            }
+            if (cancelled.getAsBoolean()) {
+                return -1;
+            }
+        }
+    }
+
+    /** reads packet by its zero based index */
+    public synchronized PcapPacket getPacket(long index) throws IOException {
+        if (index < 0 || !seek(index)) {
+            throw new IndexOutOfBoundsException("No packet " + index + " in " + file.getName());
+        }
+        long offset = cursorOffset;
+        PcapPacket packet = pcapng ? readBlockPacket(offset, index) : readRecordPacket(offset, index);
+        cursorOffset = offset + recordLength(offset);
+        cursorIndex = index + 1;
+        return packet;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    /**
+     * moves cursor to the packet with the given index.
+     * returns false and remembers the packet count if the file ends earlier
+     */
+    private boolean seek(long index) throws IOException {
+        int checkpoint = (int) Math.min(index / INDEX_INTERVAL, checkpointCount - 1);
+        long checkpointIndex = (long) checkpoint * INDEX_INTERVAL;
+        if (index < cursorIndex || checkpointIndex > cursorIndex) {
+            cursorOffset = checkpointOffsets[checkpoint];
+            cursorSection = checkpointSections[checkpoint];
+            cursorIndex = checkpointIndex;
+        }
+        while (true) {
+            long offset = findPacket(cursorOffset);
+            if (offset < 0) {
+                cursorOffset = fileSize;
+                packetCount = cursorIndex;
+                return false;
+            }
+            cursorOffset = offset;
+            if (cursorIndex % INDEX_INTERVAL == 0 && cursorIndex / INDEX_INTERVAL == checkpointCount) {
+                addCheckpoint(offset, cursorSection);
+            }
+            if (cursorIndex == index) {
+                return true;
+            }
+            cursorOffset = offset + recordLength(offset);
+            cursorIndex++;
+        }
+    }
+
+    private void addCheckpoint(long offset, int section) {
+        if (checkpointCount == checkpointOffsets.length) {
+            checkpointOffsets = Arrays.copyOf(checkpointOffsets, checkpointCount * 2);
+            checkpointSections = Arrays.copyOf(checkpointSections, checkpointCount * 2);
+        }
+        checkpointOffsets[checkpointCount] = offset;
+        checkpointSections[checkpointCount] = section;
+        checkpointCount++;
+    }
+
+    /** offset of the first packet record at or after the given offset, -1 at the end of file */
+    private long findPacket(long offset) throws IOException {
+        if (!pcapng) {
+            if (offset + PCAP_RECORD_HEADER_LENGTH > fileSize) {
+                return -1;
+            }
+            return offset;
+        }
+        while (offset + 12 <= fileSize) {
+            ByteBuffer header = view(offset, 12);
+            int type = header.order(ByteOrder.LITTLE_ENDIAN).getInt(header.position());
+            if (type == PCAPNG_SECTION_HEADER_BLOCK) {
+                cursorSection++;
+                if (offset >= parsedUpTo) {
+                    sections.add(readSectionHeader(offset));
+                }
+            }
+            Section section = getSection(cursorSection);
+            header.order(section.order);
+            type = header.getInt(header.position());
+            int length = blockLength(header, offset);
+            if (type == PCAPNG_ENHANCED_PACKET_BLOCK || type == PCAPNG_SIMPLE_PACKET_BLOCK) {
+                return offset;
+            }
+            if (type == PCAPNG_INTERFACE_DESCRIPTION_BLOCK && offset >= parsedUpTo) {
+                section.interfaces.add(readInterface(offset, length, section.order));
+            }
+            offset += length;
+            parsedUpTo = Math.max(parsedUpTo, offset);
+        }
+        return -1;
+    }
+
+    private long recordLength(long offset) throws IOException {
+        if (pcapng) {
+            ByteBuffer header = view(offset, 12).order(getSection(cursorSection).order);
+            return blockLength(header, offset);
+        }
+        ByteBuffer header = view(offset, PCAP_RECORD_HEADER_LENGTH).order(getSection(0).order);
+        return PCAP_RECORD_HEADER_LENGTH + capturedLength(header.getInt(header.position() + 8), offset + PCAP_RECORD_HEADER_LENGTH);
+    }
+
+    private int blockLength(ByteBuffer header, long offset) throws IOException {
+        int length = header.getInt(header.position() + 4);
+        if (length < 12 || length % 4 != 0 || length > MAX_RECORD_LENGTH || offset + length > fileSize) {
+            throw new IOException("Corrupted pcapng block at offset " + offset + " in " + file.getName());
+        }
+        return length;
+    }
+
+    private int capturedLength(int length, long dataOffset) throws IOException {
+        if (length < 0 || length > MAX_RECORD_LENGTH || dataOffset + length > fileSize) {
+            throw new IOException("Corrupted pcap record at offset " + (dataOffset - PCAP_RECORD_HEADER_LENGTH) + " in " + file.getName());
+        }
+        return length;
+    }
+
+    private void readPcapHeader(int magic) throws IOException {
+        if (fileSize < PCAP_HEADER_LENGTH) {
+            throw new IOException("Not a pcap file: " + file.getName());
+        }
+        Section section = new Section();
+        Interface iface = new Interface();
+        if (magic == PCAP_MAGIC_MICROS || magic == PCAP_MAGIC_NANOS) {
+            section.order = ByteOrder.LITTLE_ENDIAN;
+        } else if (magic == Integer.reverseBytes(PCAP_MAGIC_MICROS) || magic == Integer.reverseBytes(PCAP_MAGIC_NANOS)) {
+            section.order = ByteOrder.BIG_ENDIAN;
+            magic = Integer.reverseBytes(magic);
+        } else {
+            throw new IOException("Not a pcap file: " + file.getName());
+        }
+        iface.resolution = magic == PCAP_MAGIC_NANOS ? NANOS_PER_SECOND : 1000000L;
+        ByteBuffer header = view(0, PCAP_HEADER_LENGTH).order(section.order);
+        int start = header.position();
+        iface.snapLen = header.getInt(start + 16);
+        iface.linkType = header.getInt(start + 20) & 0x0FFFFFFF;
+        section.interfaces.add(iface);
+        sections.add(section);
+    }
+
+    private Section readSectionHeader(long offset) throws IOException {
+        ByteBuffer header = view(offset, 12).order(ByteOrder.LITTLE_ENDIAN);
+        int byteOrderMagic = header.getInt(header.position() + 8);
+        Section section = new Section();
+        if (byteOrderMagic == PCAPNG_BYTE_ORDER_MAGIC) {
+            section.order = ByteOrder.LITTLE_ENDIAN;
+        } else if (byteOrderMagic == Integer.reverseBytes(PCAPNG_BYTE_ORDER_MAGIC)) {
+            section.order = ByteOrder.BIG_ENDIAN;
+        } else {
+            throw new IOException("Corrupted pcapng section header at offset " + offset + " in " + file.getName());
+        }
+        return section;
+    }
+
+    private Interface readInterface(long offset, int length, ByteOrder order) throws IOException {
+        ByteBuffer block = view(offset, length).order(order);
+        int start = block.position();
+        Interface iface = new Interface();
+        iface.linkType = block.getShort(start + 8) & 0xFFFF;
+        iface.snapLen = block.getInt(start + 12);
+        iface.resolution = 1000000L;
+        // options up to the trailing block length
+        int pos = start + 16;
+        int end = start + length - 4;
+        while (pos + 4 <= end) {
+            int code = block.getShort(pos) & 0xFFFF;
+            int optionLength = block.getShort(pos + 2) & 0xFFFF;
+            if (code == PCAPNG_OPTION_END) {
+                break;
+            }
+            if (code == PCAPNG_OPTION_IF_TSRESOL && optionLength >= 1) {
+                int tsresol = block.get(pos + 4) & 0xFF;
+                iface.resolution = resolution(tsresol);
+            }
+            pos += 4 + (optionLength + 3) / 4 * 4;
+        }
+        return iface;
+    }
+
+    /** if_tsresol: power of 10 when MSB is 0, power of 2 otherwise */
+    static long resolution(int tsresol) {
+        int exponent = tsresol & 0x7F;
+        if ((tsresol & 0x80) == 0) {
+            return exponent > 18 ? Long.MAX_VALUE : BigInteger.TEN.pow(exponent).longValue();
+        }
+        return exponent > 62 ? Long.MAX_VALUE : 1L << exponent;
+    }
+
+    static long toNanos(long ticks, long resolution) {
+        if (resolution == NANOS_PER_SECOND) {
+            return ticks;
+        }
+        long seconds = ticks / resolution;
+        long rest = ticks % resolution;
+        long restNanos = resolution <= Long.MAX_VALUE / NANOS_PER_SECOND
+                ? rest * NANOS_PER_SECOND / resolution
+                : BigInteger.valueOf(rest).multiply(BigInteger.valueOf(NANOS_PER_SECOND)).divide(BigInteger.valueOf(resolution)).longValue();
+        return seconds * NANOS_PER_SECOND + restNanos;
+    }
+
+    private PcapPacket readRecordPacket(long offset, long index) throws IOException {
+        Section section = getSection(0);
+        Interface iface = section.interfaces.get(0);
+        ByteBuffer header = view(offset, PCAP_RECORD_HEADER_LENGTH).order(section.order);
+        int start = header.position();
+        long seconds = header.getInt(start) & 0xFFFFFFFFL;
+        long fraction = header.getInt(start + 4) & 0xFFFFFFFFL;
+        int capturedLength = capturedLength(header.getInt(start + 8), offset + PCAP_RECORD_HEADER_LENGTH);
+        int originalLength = header.getInt(start + 12);
+        long timestamp = seconds * NANOS_PER_SECOND + toNanos(fraction, iface.resolution);
+        byte[] data = readBytes(offset + PCAP_RECORD_HEADER_LENGTH, capturedLength);
+        return new PcapPacket(index, timestamp, originalLength, iface.linkType, data);
+    }
+
+    private PcapPacket readBlockPacket(long offset, long index) throws IOException {
+        Section section = getSection(cursorSection);
+        ByteBuffer header = view(offset, 12).order(section.order);
+        int type = header.getInt(header.position());
+        int length = blockLength(header, offset);
+        ByteBuffer block = view(offset, length).order(section.order);
+        int start = block.position();
+        if (type == PCAPNG_SIMPLE_PACKET_BLOCK) {
+            Interface iface = getInterface(section, 0, offset);
+            int originalLength = block.getInt(start + 8);
+            int capturedLength = Math.max(0, Math.min(originalLength, length - 16));
+            if (iface.snapLen > 0) {
+                capturedLength = Math.min(capturedLength, iface.snapLen);
+            }
+            return new PcapPacket(index, 0, originalLength, iface.linkType, copy(block, start + 12, capturedLength));
+        }
+        if (length < 32) {
+            throw new IOException("Corrupted pcapng block at offset " + offset + " in " + file.getName());
+        }
+        Interface iface = getInterface(section, block.getInt(start + 8), offset);
+        long ticks = ((block.getInt(start + 12) & 0xFFFFFFFFL) << 32) | (block.getInt(start + 16) & 0xFFFFFFFFL);
+        int capturedLength = block.getInt(start + 20);
+        int originalLength = block.getInt(start + 24);
+        if (capturedLength < 0 || capturedLength > length - 32) {
+            throw new IOException("Corrupted pcapng block at offset " + offset + " in " + file.getName());
+        }
+        return new PcapPacket(index, toNanos(ticks, iface.resolution), originalLength, iface.linkType, copy(block, start + 28, capturedLength));
+    }
+
+    private Section getSection(int index) throws IOException {
+        if (index < 0 || index >= sections.size()) {
+            throw new IOException("Missing pcapng section header in " + file.getName());
+        }
+        return sections.get(index);
+    }
+
+    private Interface getInterface(Section section, int id, long offset) throws IOException {
+        if (id < 0 || id >= section.interfaces.size()) {
+            throw new IOException("Unknown interface " + id + " at offset " + offset + " in " + file.getName());
+        }
+        return section.interfaces.get(id);
+    }
+
+    private byte[] readBytes(long offset, int length) throws IOException {
+        byte[] res = new byte[length];
+        view(offset, length).get(res);
+        return res;
+    }
+
+    private static byte[] copy(ByteBuffer buffer, int position, int length) {
+        byte[] res = new byte[length];
+        ByteBuffer src = buffer.duplicate();
+        src.position(position);
+        src.get(res);
+        return res;
+    }
+
+    /** buffer positioned at offset with at least length bytes remaining, remaps the window if needed */
+    private ByteBuffer view(long offset, int length) throws IOException {
+        if (offset < 0 || offset + length > fileSize) {
+            throw new IOException("Unexpected end of file " + file.getName());
+        }
+        if (window == null || offset < windowStart || offset + length > windowStart + window.capacity()) {
+            long size = Math.min(Math.max(WINDOW_SIZE, length), fileSize - offset);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+            windowStart = offset;
+        }
+        ByteBuffer res = window.duplicate();
+        res.position((int) (offset - windowStart));
+        return res;
+    }
+}
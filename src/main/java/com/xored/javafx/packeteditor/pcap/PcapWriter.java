@@ -0,0 +1,196 @@
+package com.xored.javafx.packeteditor.pcap;
+
+import com.xored.javafx.packeteditor.scapy.PacketData;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import static com.xored.javafx.packeteditor.pcap.PcapFormat.*;
+
+/**
+ * streams packets to a pcap (nanosecond timestamps) or pcapng file.
+ * records are staged in a direct buffer and flushed in large writes,
+ * packets that don't fit the buffer are written with a gather write without copying
+ */
+public class PcapWriter implements Closeable {
+    static final int BUFFER_SIZE = 1024 * 1024;
+    static final int PCAPNG_EPB_HEADER_LENGTH = 28;
+
+    public enum Format {
+        PCAP, PCAPNG;
+
+        /** pcapng for *.pcapng files, pcap otherwise */
+        public static Format forFile(File file) {
+            return file.getName().toLowerCase().endsWith(".pcapng") ? PCAPNG : PCAP;
+        }
+    }
+
+    private final FileChannel channel;
+    private final Format format;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer recordHeader = ByteBuffer.allocateDirect(PCAPNG_EPB_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer trailer = ByteBuffer.allocateDirect(8).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer[] gather = new ByteBuffer[3];
+    private long packetCount = 0;
+
+    public PcapWriter(File file) throws IOException {
+        this(file, Format.forFile(file), LINKTYPE_ETHERNET);
+    }
+
+    public PcapWriter(File file, Format format, int linkType) throws IOException {
+        this.format = format;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        if (format == Format.PCAP) {
+            buffer.putInt(PCAP_MAGIC_NANOS);
+            buffer.putShort((short) 2);
+            buffer.putShort((short) 4);
+            buffer.putInt(0); // thiszone
+            buffer.putInt(0); // sigfigs
+            buffer.putInt(MAX_SNAPLEN);
+            buffer.putInt(linkType);
+        } else {
+            buffer.putInt(PCAPNG_SECTION_HEADER_BLOCK);
+            buffer.putInt(28);
+            buffer.putInt(PCAPNG_BYTE_ORDER_MAGIC);
+            buffer.putShort((short) 1);
+            buffer.putShort((short) 0);
+            buffer.putLong(-1); // section length is unknown
+            buffer.putInt(28);
+
+            buffer.putInt(PCAPNG_INTERFACE_DESCRIPTION_BLOCK);
+            buffer.putInt(32);
+            buffer.putShort((short) linkType);
+            buffer.putShort((short) 0);
+            buffer.putInt(0); // no snaplen limit
+            buffer.putShort((short) PCAPNG_OPTION_IF_TSRESOL);
+            buffer.putShort((short) 1);
+            buffer.put((byte) 9);
+            buffer.put(new byte[3]);
+            buffer.putShort((short) PCAPNG_OPTION_END);
+            buffer.putShort((short) 0);
+            buffer.putInt(32);
+        }
+    }
+
+    public long getPacketCount() {
+        return packetCount;
+    }
+
+    public void write(PacketData packet, long timestampNanos) throws IOException {
+        write(packet.getPacketBuffer(), timestampNanos);
+    }
+
+    public void write(byte[] packet, long timestampNanos) throws IOException {
+        write(packet, 0, packet.length, timestampNanos);
+    }
+
+    /** the array is copied before return, so it may be reused by the caller */
+    public void write(byte[] packet, int offset, int length, long timestampNanos) throws IOException {
+        int recordLength = recordLength(length);
+        if (recordLength > buffer.remaining() && recordLength <= buffer.capacity() / 4) {
+            flush();
+        }
+        if (recordLength > buffer.remaining()) {
+            write(ByteBuffer.wrap(packet, offset, length), timestampNanos);
+            return;
+        }
+        putHeader(buffer, length, timestampNanos);
+        buffer.put(packet, offset, length);
+        putTrailer(buffer, padding(length), recordLength);
+        packetCount++;
+    }
+
+    /** writes remaining bytes of the packet, buffer position is not changed */
+    public void write(ByteBuffer packet, long timestampNanos) throws IOException {
+        int length = packet.remaining();
+        int padding = padding(length);
+        int recordLength = recordLength(length);
+
+        if (recordLength <= buffer.remaining()) {
+            putHeader(buffer, length, timestampNanos);
+            buffer.put(packet.duplicate());
+            putTrailer(buffer, padding, recordLength);
+        } else if (recordLength <= buffer.capacity() / 4) {
+            flush();
+            write(packet, timestampNanos);
+            return;
+        } else {
+            flush();
+            recordHeader.clear();
+            putHeader(recordHeader, length, timestampNanos);
+            recordHeader.flip();
+            trailer.clear();
+            putTrailer(trailer, padding, recordLength);
+            trailer.flip();
+            gather[0] = recordHeader;
+            gather[1] = packet.duplicate();
+            gather[2] = trailer;
+            long remaining = recordLength;
+            while (remaining > 0) {
+                remaining -= channel.write(gather);
+            }
+            gather[1] = null;
+        }
+        packetCount++;
+    }
+
+    private int padding(int length) {
+        return format == Format.PCAPNG ? (-length) & 3 : 0;
+    }
+
+    private int recordLength(int length) {
+        if (format == Format.PCAPNG) {
+            return PCAPNG_EPB_HEADER_LENGTH + length + padding(length) + 4;
+        }
+        return PCAP_RECORD_HEADER_LENGTH + length;
+    }
+
+    private void putHeader(ByteBuffer dst, int length, long timestampNanos) {
+        if (format == Format.PCAP) {
+            dst.putInt((int) (timestampNanos / 1000000000L));
+            dst.putInt((int) (timestampNanos % 1000000000L));
+            dst.putInt(length);
+            dst.putInt(length);
+        } else {
+            dst.putInt(PCAPNG_ENHANCED_PACKET_BLOCK);
+            dst.putInt(recordLength(length));
+            dst.putInt(0); // interface id
+            dst.putInt((int) (timestampNanos >>> 32));
+            dst.putInt((int) timestampNanos);
+            dst.putInt(length);
+            dst.putInt(length);
+        }
+    }
+
+    private void putTrailer(ByteBuffer dst, int padding, int recordLength) {
+        if (format == Format.PCAPNG) {
+            for (int i = 0; i < padding; i++) {
+                dst.put((byte) 0);
+            }
+            dst.putInt(recordLength);
+        }
+    }
+
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
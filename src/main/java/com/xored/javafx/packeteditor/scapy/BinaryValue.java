@@ -0,0 +1,34 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import java.util.Base64;
+
+/**
+ * binary request parameter. it is written as CBOR byte string or as base64 string in JSON,
+ * whichever form is already available is reused
+ */
+class BinaryValue {
+    private final byte[] bytes;
+    private final PacketData packet;
+
+    private BinaryValue(byte[] bytes, PacketData packet) {
+        this.bytes = bytes;
+        this.packet = packet;
+    }
+
+    static BinaryValue of(byte[] bytes) {
+        return new BinaryValue(bytes, null);
+    }
+
+    /** packet bytes, base64 form of the packet is reused if it exists */
+    static BinaryValue of(PacketData packet) {
+        return new BinaryValue(null, packet);
+    }
+
+    byte[] getBytes() {
+        return packet != null ? packet.getBytes() : bytes;
+    }
+
+    String getBase64() {
+        return packet != null ? packet.getBinary() : Base64.getEncoder().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,469 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Deque;
+
+import static com.xored.javafx.packeteditor.scapy.CborWriter.*;
+
+/**
+ * CBOR (RFC 7049) decoder behind the Gson JsonReader API, so any Gson type adapter can read CBOR.
+ * byte strings are reported as STRING tokens, base64 encoded for adapters which are not aware of them;
+ * aware ones check {@link #isBytes()} and read them with {@link #nextBytes()}.
+ * map keys must be text strings
+ */
+class CborReader extends JsonReader {
+    private final byte[] data;
+    private int pos;
+
+    /** open containers, remaining item count or -1 for indefinite length */
+    private static class Container {
+        final boolean map;
+        long remaining;
+        boolean expectName;
+
+        Container(boolean map, long remaining) {
+            this.map = map;
+            this.remaining = remaining;
+            this.expectName = map;
+        }
+    }
+
+    private final Deque<Container> stack = new ArrayDeque<>();
+
+    /** header of the peeked item, -1 if nothing is peeked */
+    private int peekedHeader = -1;
+    private JsonToken peeked;
+    private long peekedArgument;
+
+    CborReader(byte[] data) {
+        super(new StringReader(""));
+        this.data = data;
+        if (isCbor(data)) {
+            pos = SELF_DESCRIBE_TAG.length;
+        }
+    }
+
+    /** true if the message starts with CBOR self-describe tag */
+    static boolean isCbor(byte[] data) {
+        return data.length >= SELF_DESCRIBE_TAG.length && data[0] == SELF_DESCRIBE_TAG[0]
+                && data[1] == SELF_DESCRIBE_TAG[1] && data[2] == SELF_DESCRIBE_TAG[2];
+    }
+
+    @Override
+    public JsonToken peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+        Container top = stack.peek();
+        if (top != null) {
+            if (top.remaining == 0) {
+                peeked = top.map ? JsonToken.END_OBJECT : JsonToken.END_ARRAY;
+                return peeked;
+            }
+            if (top.remaining < 0 && pos < data.length && (data[pos] & 0xFF) == BREAK) {
+                peeked = top.map ? JsonToken.END_OBJECT : JsonToken.END_ARRAY;
+                return peeked;
+            }
+        } else if (pos >= data.length) {
+            peeked = JsonToken.END_DOCUMENT;
+            return peeked;
+        }
+
+        int header = readByte();
+        while (header >>> 5 == MAJOR_TAG) {
+            // tags are not used by the protocol, tagged value is read as is
+            readArgument(header & 0x1F);
+            header = readByte();
+        }
+        int major = header >>> 5;
+        int info = header & 0x1F;
+        peekedHeader = header;
+        peekedArgument = major == MAJOR_SIMPLE ? 0 : readArgument(info);
+
+        if (top != null && top.expectName) {
+            if (major != MAJOR_TEXT) {
+                throw syntaxError("map key must be a text string");
+            }
+            peeked = JsonToken.NAME;
+            return peeked;
+        }
+        switch (major) {
+            case MAJOR_UNSIGNED:
+            case MAJOR_NEGATIVE:
+                peeked = JsonToken.NUMBER;
+                break;
+            case MAJOR_BYTES:
+            case MAJOR_TEXT:
+                peeked = JsonToken.STRING;
+                break;
+            case MAJOR_ARRAY:
+                peeked = JsonToken.BEGIN_ARRAY;
+                break;
+            case MAJOR_MAP:
+                peeked = JsonToken.BEGIN_OBJECT;
+                break;
+            default:
+                if (header == FALSE || header == TRUE) {
+                    peeked = JsonToken.BOOLEAN;
+                } else if (header == NULL || header == UNDEFINED) {
+                    peeked = JsonToken.NULL;
+                } else if (header == HALF_FLOAT || header == FLOAT || header == DOUBLE) {
+                    peeked = JsonToken.NUMBER;
+                } else {
+                    throw syntaxError("unsupported simple value " + header);
+                }
+        }
+        return peeked;
+    }
+
+    /** true if the next value is a byte string */
+    boolean isBytes() throws IOException {
+        return peek() == JsonToken.STRING && peekedHeader >>> 5 == MAJOR_BYTES;
+    }
+
+    /** reads byte string, text strings are decoded as base64 */
+    byte[] nextBytes() throws IOException {
+        expect(JsonToken.STRING);
+        if (peekedHeader >>> 5 == MAJOR_TEXT) {
+            return Base64.getDecoder().decode(nextString());
+        }
+        byte[] res = readChunks();
+        consumed();
+        return res;
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        expect(JsonToken.BEGIN_ARRAY);
+        open(false);
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        expect(JsonToken.END_ARRAY);
+        closeContainer();
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        expect(JsonToken.BEGIN_OBJECT);
+        open(true);
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        expect(JsonToken.END_OBJECT);
+        closeContainer();
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        JsonToken token = peek();
+        return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        expect(JsonToken.NAME);
+        String name = new String(readChunks(), StandardCharsets.UTF_8);
+        peeked = null;
+        peekedHeader = -1;
+        stack.peek().expectName = false;
+        return name;
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        JsonToken token = peek();
+        if (token == JsonToken.NUMBER) {
+            return numberText();
+        }
+        expect(JsonToken.STRING);
+        byte[] bytes = readChunks();
+        String res = peekedHeader >>> 5 == MAJOR_BYTES
+                ? Base64.getEncoder().encodeToString(bytes)
+                : new String(bytes, StandardCharsets.UTF_8);
+        consumed();
+        return res;
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        expect(JsonToken.BOOLEAN);
+        boolean res = peekedHeader == TRUE;
+        consumed();
+        return res;
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+        expect(JsonToken.NULL);
+        consumed();
+    }
+
+    @Override
+    public double nextDouble() throws IOException {
+        JsonToken token = peek();
+        if (token == JsonToken.STRING && peekedHeader >>> 5 == MAJOR_TEXT) {
+            return Double.parseDouble(nextString());
+        }
+        expect(JsonToken.NUMBER);
+        double res;
+        switch (peekedHeader >>> 5) {
+            case MAJOR_UNSIGNED:
+                res = peekedArgument >= 0 ? peekedArgument : 0x1p64 + peekedArgument;
+                break;
+            case MAJOR_NEGATIVE:
+                res = -1.0 - (peekedArgument >= 0 ? peekedArgument : 0x1p64 + peekedArgument);
+                break;
+            default:
+                res = readFloat();
+        }
+        consumed();
+        return res;
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+        JsonToken token = peek();
+        if (token == JsonToken.STRING && peekedHeader >>> 5 == MAJOR_TEXT) {
+            return Long.parseLong(nextString());
+        }
+        expect(JsonToken.NUMBER);
+        int major = peekedHeader >>> 5;
+        if ((major == MAJOR_UNSIGNED || major == MAJOR_NEGATIVE) && peekedArgument >= 0) {
+            long res = major == MAJOR_UNSIGNED ? peekedArgument : -1 - peekedArgument;
+            consumed();
+            return res;
+        }
+        double value = nextDouble();
+        if (value != (long) value) {
+            throw new NumberFormatException("Expected a long but was " + value + " at " + getPath());
+        }
+        return (long) value;
+    }
+
+    @Override
+    public int nextInt() throws IOException {
+        long value = nextLong();
+        if (value != (int) value) {
+            throw new NumberFormatException("Expected an int but was " + value + " at " + getPath());
+        }
+        return (int) value;
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        JsonToken token = peek();
+        switch (token) {
+            case NAME:
+                nextName();
+                break;
+            case BEGIN_ARRAY:
+                beginArray();
+                while (hasNext()) {
+                    skipValue();
+                }
+                endArray();
+                break;
+            case BEGIN_OBJECT:
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+                break;
+            case END_ARRAY:
+            case END_OBJECT:
+            case END_DOCUMENT:
+                throw new IllegalStateException("Expected a value but was " + token + " at " + getPath());
+            case NUMBER:
+                nextDouble();
+                break;
+            case STRING:
+                readChunks();
+                consumed();
+                break;
+            default:
+                consumed();
+        }
+    }
+
+    @Override
+    public void close() {
+        peeked = JsonToken.END_DOCUMENT;
+        stack.clear();
+        pos = data.length;
+    }
+
+    @Override
+    public String getPath() {
+        return "$ at byte " + pos;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " at byte " + pos;
+    }
+
+    private void expect(JsonToken token) throws IOException {
+        JsonToken actual = peek();
+        if (actual != token) {
+            throw new IllegalStateException("Expected " + token + " but was " + actual + " at " + getPath());
+        }
+    }
+
+    private void open(boolean map) {
+        long remaining = (peekedHeader & 0x1F) == INDEFINITE ? -1 : peekedArgument;
+        consumed();
+        stack.push(new Container(map, remaining));
+    }
+
+    private void closeContainer() {
+        Container container = stack.pop();
+        if (container.remaining < 0) {
+            pos++; // break
+        }
+        peeked = null;
+        peekedHeader = -1;
+        itemRead();
+    }
+
+    /** peeked value is read completely */
+    private void consumed() {
+        peeked = null;
+        peekedHeader = -1;
+        itemRead();
+    }
+
+    private void itemRead() {
+        Container top = stack.peek();
+        if (top != null) {
+            if (top.map) {
+                top.expectName = true;
+            }
+            if (top.remaining > 0) {
+                top.remaining--;
+            }
+        }
+    }
+
+    /** string payload of the peeked byte or text string, indefinite length strings are joined */
+    private byte[] readChunks() throws IOException {
+        if ((peekedHeader & 0x1F) != INDEFINITE) {
+            return readBytes(peekedArgument);
+        }
+        int major = peekedHeader >>> 5;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (true) {
+            int header = readByte();
+            if (header == BREAK) {
+                return out.toByteArray();
+            }
+            if (header >>> 5 != major) {
+                throw syntaxError("invalid chunk of indefinite length string");
+            }
+            byte[] chunk = readBytes(readArgument(header & 0x1F));
+            out.write(chunk, 0, chunk.length);
+        }
+    }
+
+    private byte[] readBytes(long length) throws IOException {
+        if (length < 0 || length > data.length - pos) {
+            throw syntaxError("truncated message");
+        }
+        byte[] res = new byte[(int) length];
+        System.arraycopy(data, pos, res, 0, res.length);
+        pos += res.length;
+        return res;
+    }
+
+    private String numberText() throws IOException {
+        int major = peekedHeader >>> 5;
+        if (major == MAJOR_UNSIGNED && peekedArgument < 0) {
+            // above Long.MAX_VALUE
+            String res = Long.toUnsignedString(peekedArgument);
+            consumed();
+            return res;
+        }
+        if (major == MAJOR_UNSIGNED || major == MAJOR_NEGATIVE) {
+            return Long.toString(nextLong());
+        }
+        return Double.toString(nextDouble());
+    }
+
+    private double readFloat() throws IOException {
+        switch (peekedHeader) {
+            case HALF_FLOAT: {
+                int half = (int) readUnsigned(2);
+                int exponent = (half >>> 10) & 0x1F;
+                int mantissa = half & 0x3FF;
+                double value;
+                if (exponent == 0) {
+                    value = mantissa * 0x1p-24;
+                } else if (exponent == 31) {
+                    value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+                } else {
+                    value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+                }
+                return (half & 0x8000) != 0 ? -value : value;
+            }
+            case FLOAT:
+                return Float.intBitsToFloat((int) readUnsigned(4));
+            default:
+                return Double.longBitsToDouble(readUnsigned(8));
+        }
+    }
+
+    private long readArgument(int info) throws IOException {
+        if (info < 24) {
+            return info;
+        }
+        switch (info) {
+            case 24:
+                return readUnsigned(1);
+            case 25:
+                return readUnsigned(2);
+            case 26:
+                return readUnsigned(4);
+            case 27:
+                return readUnsigned(8);
+            case INDEFINITE:
+                return -1;
+            default:
+                throw syntaxError("invalid additional info " + info);
+        }
+    }
+
+    private long readUnsigned(int length) throws IOException {
+        if (length > data.length - pos) {
+            throw syntaxError("truncated message");
+        }
+        long res = 0;
+        for (int i = 0; i < length; i++) {
+            res = res << 8 | (data[pos++] & 0xFF);
+        }
+        return res;
+    }
+
+    private int readByte() throws IOException {
+        if (pos >= data.length) {
+            throw syntaxError("truncated message");
+        }
+        return data[pos++] & 0xFF;
+    }
+
+    private IOException syntaxError(String message) {
+        return new MalformedJsonException("Malformed CBOR: " + message + " at byte " + pos);
+    }
+}
@@ -0,0 +1,253 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * CBOR (RFC 7049) encoder behind the Gson JsonWriter API, so any Gson type adapter can write CBOR.
+ * arrays and maps use indefinite length, so values are streamed as they come.
+ * byte arrays are written natively with {@link #value(byte[])}
+ */
+class CborWriter extends JsonWriter {
+    /** self-describe CBOR tag 55799, lets the receiver tell CBOR from JSON by the first bytes */
+    static final byte[] SELF_DESCRIBE_TAG = {(byte) 0xd9, (byte) 0xd9, (byte) 0xf7};
+
+    static final int MAJOR_UNSIGNED = 0;
+    static final int MAJOR_NEGATIVE = 1;
+    static final int MAJOR_BYTES = 2;
+    static final int MAJOR_TEXT = 3;
+    static final int MAJOR_ARRAY = 4;
+    static final int MAJOR_MAP = 5;
+    static final int MAJOR_TAG = 6;
+    static final int MAJOR_SIMPLE = 7;
+
+    static final int FALSE = 0xf4;
+    static final int TRUE = 0xf5;
+    static final int NULL = 0xf6;
+    static final int UNDEFINED = 0xf7;
+    static final int HALF_FLOAT = 0xf9;
+    static final int FLOAT = 0xfa;
+    static final int DOUBLE = 0xfb;
+    static final int BREAK = 0xff;
+    static final int INDEFINITE = 31;
+
+    private byte[] buffer = new byte[256];
+    private int size = 0;
+    /** name is written only with its value, so null values can be omitted like JsonWriter does */
+    private String deferredName;
+
+    CborWriter() {
+        super(new StringWriter());
+        write(SELF_DESCRIBE_TAG, 0, SELF_DESCRIBE_TAG.length);
+    }
+
+    /** encoded message */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    @Override
+    public JsonWriter beginArray() throws IOException {
+        writeDeferredName();
+        writeByte(MAJOR_ARRAY << 5 | INDEFINITE);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() throws IOException {
+        writeByte(BREAK);
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginObject() throws IOException {
+        writeDeferredName();
+        writeByte(MAJOR_MAP << 5 | INDEFINITE);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() throws IOException {
+        if (deferredName != null) {
+            throw new IllegalStateException("name without value: " + deferredName);
+        }
+        writeByte(BREAK);
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(String name) throws IOException {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+        if (deferredName != null) {
+            throw new IllegalStateException("name without value: " + deferredName);
+        }
+        deferredName = name;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        writeDeferredName();
+        writeText(value);
+        return this;
+    }
+
+    /** writes CBOR byte string, JSON has no counterpart for it */
+    JsonWriter value(byte[] value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        writeDeferredName();
+        writeHeader(MAJOR_BYTES, value.length);
+        write(value, 0, value.length);
+        return this;
+    }
+
+    public JsonWriter jsonValue(String value) throws IOException {
+        throw new UnsupportedOperationException("raw JSON can't be written to CBOR");
+    }
+
+    @Override
+    public JsonWriter nullValue() throws IOException {
+        if (deferredName != null) {
+            if (!getSerializeNulls()) {
+                deferredName = null;
+                return this;
+            }
+            writeDeferredName();
+        }
+        writeByte(NULL);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) throws IOException {
+        writeDeferredName();
+        writeByte(value ? TRUE : FALSE);
+        return this;
+    }
+
+    public JsonWriter value(Boolean value) throws IOException {
+        return value == null ? nullValue() : value(value.booleanValue());
+    }
+
+    @Override
+    public JsonWriter value(double value) throws IOException {
+        writeDeferredName();
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 0x1p63 && (value != 0 || 1 / value > 0)) {
+            writeLong((long) value);
+        } else {
+            writeByte(DOUBLE);
+            long bits = Double.doubleToLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                writeByte((int) (bits >>> shift));
+            }
+        }
+        return this;
+    }
+
+    public JsonWriter value(float value) throws IOException {
+        return value((double) value);
+    }
+
+    @Override
+    public JsonWriter value(long value) throws IOException {
+        writeDeferredName();
+        writeLong(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Number value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return value(value.longValue());
+        }
+        // LazilyParsedNumber of JsonPrimitive keeps the original text
+        String text = value.toString();
+        try {
+            return value(Long.parseLong(text));
+        } catch (NumberFormatException e) {
+            return value(value.doubleValue());
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void writeDeferredName() {
+        if (deferredName != null) {
+            writeText(deferredName);
+            deferredName = null;
+        }
+    }
+
+    private void writeText(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeHeader(MAJOR_TEXT, bytes.length);
+        write(bytes, 0, bytes.length);
+    }
+
+    private void writeLong(long value) {
+        if (value >= 0) {
+            writeHeader(MAJOR_UNSIGNED, value);
+        } else {
+            writeHeader(MAJOR_NEGATIVE, -1 - value);
+        }
+    }
+
+    private void writeHeader(int major, long length) {
+        int type = major << 5;
+        if (length < 24) {
+            writeByte(type | (int) length);
+        } else if (length < 0x100) {
+            writeByte(type | 24);
+            writeByte((int) length);
+        } else if (length < 0x10000) {
+            writeByte(type | 25);
+            writeByte((int) (length >>> 8));
+            writeByte((int) length);
+        } else if (length < 0x100000000L) {
+            writeByte(type | 26);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                writeByte((int) (length >>> shift));
+            }
+        } else {
+            writeByte(type | 27);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                writeByte((int) (length >>> shift));
+            }
+        }
+    }
+
+    private void writeByte(int b) {
+        if (size == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[size++] = (byte) b;
+    }
+
+    private void write(byte[] bytes, int offset, int length) {
+        if (size + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+        }
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+    }
+}
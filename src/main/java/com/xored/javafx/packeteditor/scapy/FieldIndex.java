@@ -0,0 +1,12 @@
+package com.xored.javafx.packeteditor.scapy;
+
+/**
+ * maps field ids of a protocol to dense int indices, so fields can be kept in arrays instead of looked up by id
+ */
+public interface FieldIndex {
+    /** index of the field or -1 if the protocol has no such field */
+    int indexOf(String fieldId);
+
+    /** number of indexed fields, indices are below it */
+    int getFieldCount();
+}
@@ -1,32 +1,121 @@
 package com.xored.javafx.packeteditor.scapy;
 
 import com.google.gson.*;
+import com.google.gson.annotations.JsonAdapter;
 import com.google.gson.internal.LinkedTreeMap;
 import com.google.gson.reflect.TypeToken;
 
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
- * This is class is a result of build_pkt, reconstruct_pkt
+ * This is class is a result of build_pkt, reconstruct_pkt.
+ * packets are shared by the build cache and undo history, so they are not modified once created:
+ * changed packets are copies made by with* methods. protocols and fields of a packet must not be modified either.
+ * binary is (de)serialized by {@link ScapyGson.PacketDataAdapter} with any Gson
  */
+@JsonAdapter(ScapyGson.PacketDataAdapterFactory.class)
 public class PacketData {
     
-    public JsonObject field_engine;
+    private JsonObject field_engine;
     
-    public List<InstructionExpressionData> vm_instructions_expressions = new ArrayList<>();
+    private List<InstructionExpressionData> vm_instructions_expressions = Collections.emptyList();
     
-    public List<ProtocolData> data = new ArrayList<>();
-    public String binary = ""; // binary packet data in base64 encoding
+    private List<ProtocolData> data = Collections.emptyList();
+    /** binary packet data in base64 encoding, null until requested if the packet was set from raw bytes */
+    private String binary = "";
 
-    public byte[] getPacketBytes() { return Base64.getDecoder().decode(binary); }
+    /** decoded binary, decoded once and never modified */
+    private transient byte[] bytes;
+
+    /** empty packet */
+    public PacketData() {
+    }
+
+    /** packet without field engine, bytes are copied, base64 form is created only if it is requested */
+    public PacketData(List<ProtocolData> protocols, byte[] packetBytes) {
+        this(null, Collections.emptyList(), protocols);
+        setBytes(packetBytes.clone());
+    }
+
+    PacketData(JsonObject fieldEngine, List<InstructionExpressionData> expressions, List<ProtocolData> protocols) {
+        field_engine = fieldEngine;
+        vm_instructions_expressions = expressions != null ? Collections.unmodifiableList(new ArrayList<>(expressions)) : Collections.emptyList();
+        data = protocols != null ? Collections.unmodifiableList(new ArrayList<>(protocols)) : Collections.emptyList();
+    }
+
+    /** copy of the packet bytes, safe to modify */
+    public byte[] getPacketBytes() { return getBytes().clone(); }
+
+    /** read-only view of the packet bytes without copying */
+    public ByteBuffer getPacketBuffer() { return ByteBuffer.wrap(getBytes()).asReadOnlyBuffer(); }
+
+    public int getPacketLength() { return getBytes().length; }
+
+    /** base64 encoded packet, as it is passed to scapy_server */
+    public String getBinary() {
+        String res = binary;
+        if (res == null) {
+            res = Base64.getEncoder().encodeToString(getBytes());
+            binary = res;
+        }
+        return res;
+    }
+
+    /** sets base64 encoded packet, bytes are decoded once they are requested */
+    void setBinary(String base64) {
+        binary = base64;
+        bytes = null;
+    }
+
+    /** sets decoded packet bytes without copying, the array must not be modified afterwards */
+    void setBytes(byte[] packetBytes) {
+        bytes = packetBytes;
+        binary = null;
+    }
+
+    /** shared packet bytes, must not be modified */
+    byte[] getBytes() {
+        byte[] res = bytes;
+        if (res == null) {
+            res = binary != null ? Base64.getDecoder().decode(binary) : new byte[0];
+            bytes = res;
+        }
+        return res;
+    }
+
+    /** read-only protocol stack */
     public List<ProtocolData> getProtocols() { return data; }
 
+    /** field engine of build_pkt result or null, shared and must not be modified */
+    public JsonObject getFieldEngine() { return field_engine; }
+
+    /** read-only */
+    public List<InstructionExpressionData> getVmInstructionsExpressions() { return vm_instructions_expressions; }
+
     public String getFieldEngineError() {
         return field_engine != null && !(field_engine.get("error") instanceof JsonNull) ? field_engine.get("error").getAsString() : null;
     }
-    public void setFieldEngineError(String error) {
-        field_engine.add("error", new JsonPrimitive(error));
+
+    /** copy with field engine error set */
+    public PacketData withFieldEngineError(String error) {
+        JsonObject fieldEngine = new JsonObject();
+        if (field_engine != null) {
+            field_engine.entrySet().forEach(entry -> fieldEngine.add(entry.getKey(), entry.getValue()));
+        }
+        fieldEngine.add("error", new JsonPrimitive(error));
+        PacketData res = new PacketData(fieldEngine, vm_instructions_expressions, data);
+        res.binary = binary;
+        res.bytes = bytes;
+        return res;
+    }
+
+    /** copy with another protocol stack and bytes, field engine is kept */
+    public PacketData withProtocols(List<ProtocolData> protocols, byte[] packetBytes) {
+        PacketData res = new PacketData(field_engine, vm_instructions_expressions, protocols);
+        res.setBytes(packetBytes.clone());
+        return res;
     }
 
     private class MapDeserializerDoubleAsInt implements JsonDeserializer<Map<String, Object>>{
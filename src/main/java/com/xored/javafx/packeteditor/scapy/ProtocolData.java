@@ -15,11 +15,41 @@ public class ProtocolData {
 
     public List<FieldData> fields;
 
+    /** fields placed by their index, built on the first indexed lookup. packets are shared, so it is replaced as a whole */
+    private transient IndexedFields indexedFields;
+
+    private static class IndexedFields {
+        final FieldIndex index;
+        final FieldData[] fields;
+
+        IndexedFields(FieldIndex index, FieldData[] fields) {
+            this.index = index;
+            this.fields = fields;
+        }
+    }
+
     /** returns field by Id or null */
     public FieldData getFieldById(String fieldId) {
         return fields.stream().filter(f->f.getId().equals(fieldId)).findFirst().orElse(null);
     }
 
+    /** returns field by its index in the protocol metadata or null. all fields are indexed with one pass */
+    public FieldData getField(FieldIndex index, int idx) {
+        IndexedFields indexed = indexedFields;
+        if (indexed == null || indexed.index != index) {
+            FieldData[] res = new FieldData[index.getFieldCount()];
+            for (FieldData field : fields) {
+                int fieldIdx = index.indexOf(field.getId());
+                if (fieldIdx >= 0 && res[fieldIdx] == null) {
+                    res[fieldIdx] = field;
+                }
+            }
+            indexed = new IndexedFields(index, res);
+            indexedFields = indexed;
+        }
+        return idx >= 0 && idx < indexed.fields.length ? indexed.fields[idx] : null;
+    }
+
     public String getId() {
         return id;
     }
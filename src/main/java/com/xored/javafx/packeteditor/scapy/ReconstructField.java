@@ -6,6 +6,7 @@ import com.google.gson.JsonPrimitive;
 
 import java.util.Base64;
 
+import static com.xored.javafx.packeteditor.scapy.FieldValue.ObjectType.EXPRESSION;
 import static com.xored.javafx.packeteditor.scapy.FieldValue.ObjectType.RANDOM;
 import static com.xored.javafx.packeteditor.scapy.FieldValue.ObjectType.UNDEFINED;
 
@@ -70,4 +71,8 @@ public class ReconstructField {
     public boolean isRandom() {
         return RANDOM.equals(FieldValue.getObjectValueType(value));
     }
+
+    public boolean isExpression() {
+        return EXPRESSION.equals(FieldValue.getObjectValueType(value));
+    }
 }
@@ -0,0 +1,71 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.gson.Gson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeromq.ZMQ;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * N DEALER channels to one or more scapy_server endpoints.
+ * scapy_server handles requests one by one, so requests are spread over the endpoints
+ * and each request is checked out to the channel with the smallest queue.
+ * all endpoints are expected to run the same scapy_server version
+ */
+class ScapyChannelPool {
+    static Logger logger = LoggerFactory.getLogger(ScapyChannelPool.class);
+
+    private final List<ScapyTransport> channels;
+    private final AtomicInteger nextChannel = new AtomicInteger();
+
+    ScapyChannelPool(ZMQ.Context zmqContext, List<String> urls, int channelsPerEndpoint, int timeout, Gson gson, ScapyClientMetrics metrics) {
+        List<ScapyTransport> res = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, channelsPerEndpoint); i++) {
+            for (String url : urls) {
+                res.add(new ScapyTransport(zmqContext, url, timeout, gson, metrics));
+            }
+        }
+        channels = Collections.unmodifiableList(res);
+        logger.info("opened {} channel(s) to {}", channels.size(), urls);
+    }
+
+    /** least loaded channel, ties are resolved in round-robin order */
+    ScapyTransport checkout() {
+        int start = Math.floorMod(nextChannel.getAndIncrement(), channels.size());
+        ScapyTransport best = null;
+        int bestPending = Integer.MAX_VALUE;
+        for (int i = 0; i < channels.size(); i++) {
+            ScapyTransport channel = channels.get((start + i) % channels.size());
+            int pending = channel.getPendingCount();
+            if (pending == 0) {
+                return channel;
+            }
+            if (pending < bestPending) {
+                best = channel;
+                bestPending = pending;
+            }
+        }
+        return best;
+    }
+
+    void setEncoding(ScapyEncoding encoding) {
+        channels.forEach(channel -> channel.setEncoding(encoding));
+    }
+
+    /** requests queued or in flight on all channels */
+    int getPendingCount() {
+        return channels.stream().mapToInt(ScapyTransport::getPendingCount).sum();
+    }
+
+    int size() {
+        return channels.size();
+    }
+
+    void close() {
+        channels.forEach(ScapyTransport::close);
+    }
+}
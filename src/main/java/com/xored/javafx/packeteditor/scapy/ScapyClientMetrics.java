@@ -0,0 +1,275 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.inject.Singleton;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * per-method timings and sizes of Scapy server requests, plus local timings (e.g. view rebuild),
+ * so it can be seen whether time is spent in the server and the wire or in the UI.
+ * recording is lock-free, values are read with snapshots
+ */
+@Singleton
+public class ScapyClientMetrics {
+    /** latency bucket upper bounds, in nanoseconds */
+    static final long[] LATENCY_BUCKETS = buckets(TimeUnit.MICROSECONDS, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+            100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000);
+    /** payload size bucket upper bounds, in bytes */
+    static final long[] SIZE_BUCKETS = {256, 1024, 4096, 16384, 65536, 262144, 1048576, 4194304};
+
+    private final Map<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> localTimings = new ConcurrentHashMap<>();
+
+    /** fixed-bucket histogram, the last bucket counts values above all bounds */
+    public static class Histogram {
+        final long[] bounds;
+        final AtomicLongArray counts;
+        final LongAdder sum = new LongAdder();
+        final LongAdder count = new LongAdder();
+
+        Histogram(long[] bounds) {
+            this.bounds = bounds;
+            this.counts = new AtomicLongArray(bounds.length + 1);
+        }
+
+        void record(long value) {
+            int i = Arrays.binarySearch(bounds, value);
+            counts.incrementAndGet(i >= 0 ? i : -i - 1);
+            sum.add(value);
+            count.increment();
+        }
+
+        public long getCount() { return count.sum(); }
+
+        public long getSum() { return sum.sum(); }
+
+        public double getMean() {
+            long n = getCount();
+            return n > 0 ? (double) getSum() / n : 0;
+        }
+
+        /** upper bound of the bucket containing the quantile, Long.MAX_VALUE if it is above all bounds */
+        public long getQuantile(double quantile) {
+            long total = getCount();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return bounds[i];
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        /** largest bucket bound, values above it are counted in the overflow bucket */
+        public long getMaxBound() { return bounds[bounds.length - 1]; }
+
+        /** cumulative counts per bucket bound, as used by Prometheus */
+        long[] cumulativeCounts() {
+            long[] res = new long[counts.length()];
+            long seen = 0;
+            for (int i = 0; i < res.length; i++) {
+                seen += counts.get(i);
+                res[i] = seen;
+            }
+            return res;
+        }
+    }
+
+    public static class MethodMetrics {
+        public final String method;
+        public final Histogram latency = new Histogram(LATENCY_BUCKETS);
+        public final Histogram requestBytes = new Histogram(SIZE_BUCKETS);
+        public final Histogram responseBytes = new Histogram(SIZE_BUCKETS);
+        final LongAdder errors = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        MethodMetrics(String method) {
+            this.method = method;
+        }
+
+        public long getRequests() { return requestBytes.getCount(); }
+
+        public long getErrors() { return errors.sum(); }
+
+        public long getTimeouts() { return timeouts.sum(); }
+
+        public int getInFlight() { return inFlight.get(); }
+    }
+
+    private MethodMetrics method(String method) {
+        return methods.computeIfAbsent(method, MethodMetrics::new);
+    }
+
+    /** request is queued for sending */
+    void requestStarted(String method, int requestBytes) {
+        MethodMetrics metrics = method(method);
+        metrics.requestBytes.record(requestBytes);
+        metrics.inFlight.incrementAndGet();
+    }
+
+    /** response or error is received from the server */
+    void requestCompleted(String method, long latencyNanos, int responseBytes, boolean error) {
+        MethodMetrics metrics = method(method);
+        metrics.inFlight.decrementAndGet();
+        metrics.latency.record(latencyNanos);
+        metrics.responseBytes.record(responseBytes);
+        if (error) {
+            metrics.errors.increment();
+        }
+    }
+
+    void requestTimedOut(String method) {
+        MethodMetrics metrics = method(method);
+        metrics.inFlight.decrementAndGet();
+        metrics.timeouts.increment();
+    }
+
+    /** request is cancelled or failed without response, e.g. connection is closed */
+    void requestAborted(String method, boolean error) {
+        MethodMetrics metrics = method(method);
+        metrics.inFlight.decrementAndGet();
+        if (error) {
+            metrics.errors.increment();
+        }
+    }
+
+    /** records duration of local work, like view rebuild */
+    public void recordLocal(String name, long nanos) {
+        localTimings.computeIfAbsent(name, n -> new Histogram(LATENCY_BUCKETS)).record(nanos);
+    }
+
+    public List<MethodMetrics> getMethods() {
+        List<MethodMetrics> res = new ArrayList<>(methods.values());
+        res.sort(Comparator.comparing(m -> m.method));
+        return res;
+    }
+
+    public SortedMap<String, Histogram> getLocalTimings() {
+        return new TreeMap<>(localTimings);
+    }
+
+    /** clears recorded values, in-flight requests are still tracked */
+    public void reset() {
+        methods.replaceAll((method, m) -> {
+            MethodMetrics res = new MethodMetrics(method);
+            res.inFlight.set(m.getInFlight());
+            return res;
+        });
+        localTimings.clear();
+    }
+
+    public String toJson() {
+        JsonObject res = new JsonObject();
+        JsonObject methodsJson = new JsonObject();
+        for (MethodMetrics m : getMethods()) {
+            JsonObject json = new JsonObject();
+            json.addProperty("requests", m.getRequests());
+            json.addProperty("errors", m.getErrors());
+            json.addProperty("timeouts", m.getTimeouts());
+            json.addProperty("inFlight", m.getInFlight());
+            json.add("latencyNanos", toJson(m.latency));
+            json.add("requestBytes", toJson(m.requestBytes));
+            json.add("responseBytes", toJson(m.responseBytes));
+            methodsJson.add(m.method, json);
+        }
+        res.add("methods", methodsJson);
+        JsonObject localJson = new JsonObject();
+        getLocalTimings().forEach((name, histogram) -> localJson.add(name, toJson(histogram)));
+        res.add("local", localJson);
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        return gson.toJson(res);
+    }
+
+    private static JsonObject toJson(Histogram histogram) {
+        JsonObject json = new JsonObject();
+        json.addProperty("count", histogram.getCount());
+        json.addProperty("sum", histogram.getSum());
+        JsonArray buckets = new JsonArray();
+        long[] cumulative = histogram.cumulativeCounts();
+        for (int i = 0; i < cumulative.length; i++) {
+            JsonObject bucket = new JsonObject();
+            bucket.addProperty("le", i < histogram.bounds.length ? Long.toString(histogram.bounds[i]) : "+Inf");
+            bucket.addProperty("count", cumulative[i]);
+            buckets.add(bucket);
+        }
+        json.add("buckets", buckets);
+        return json;
+    }
+
+    /** Prometheus text exposition format, durations are in seconds */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        List<MethodMetrics> all = getMethods();
+
+        header(out, "scapy_client_request_duration_seconds", "histogram", "Scapy server request latency, from sending to the response");
+        all.forEach(m -> histogram(out, "scapy_client_request_duration_seconds", "method", m.method, m.latency, 1e-9));
+        header(out, "scapy_client_request_bytes", "histogram", "Scapy server request payload size");
+        all.forEach(m -> histogram(out, "scapy_client_request_bytes", "method", m.method, m.requestBytes, 1));
+        header(out, "scapy_client_response_bytes", "histogram", "Scapy server response payload size");
+        all.forEach(m -> histogram(out, "scapy_client_response_bytes", "method", m.method, m.responseBytes, 1));
+        header(out, "scapy_client_errors_total", "counter", "Scapy server requests completed with error");
+        all.forEach(m -> sample(out, "scapy_client_errors_total", "method", m.method, null, m.getErrors()));
+        header(out, "scapy_client_timeouts_total", "counter", "Scapy server requests without response in time");
+        all.forEach(m -> sample(out, "scapy_client_timeouts_total", "method", m.method, null, m.getTimeouts()));
+        header(out, "scapy_client_requests_in_flight", "gauge", "Scapy server requests waiting for the response");
+        all.forEach(m -> sample(out, "scapy_client_requests_in_flight", "method", m.method, null, m.getInFlight()));
+
+        SortedMap<String, Histogram> local = getLocalTimings();
+        if (!local.isEmpty()) {
+            header(out, "packet_editor_local_duration_seconds", "histogram", "Duration of local work, like view rebuild");
+            local.forEach((name, histogram) -> histogram(out, "packet_editor_local_duration_seconds", "name", name, histogram, 1e-9));
+        }
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void histogram(StringBuilder out, String name, String label, String value, Histogram histogram, double scale) {
+        long[] cumulative = histogram.cumulativeCounts();
+        for (int i = 0; i < cumulative.length; i++) {
+            String le = i < histogram.bounds.length ? number(histogram.bounds[i] * scale) : "+Inf";
+            sample(out, name + "_bucket", label, value, le, cumulative[i]);
+        }
+        out.append(name).append("_sum{").append(label).append("=\"").append(escape(value)).append("\"} ")
+                .append(number(histogram.getSum() * scale)).append('\n');
+        sample(out, name + "_count", label, value, null, histogram.getCount());
+    }
+
+    private static void sample(StringBuilder out, String name, String label, String value, String le, long sample) {
+        out.append(name).append('{').append(label).append("=\"").append(escape(value)).append('"');
+        if (le != null) {
+            out.append(",le=\"").append(le).append('"');
+        }
+        out.append("} ").append(sample).append('\n');
+    }
+
+    private static String number(double value) {
+        return value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static long[] buckets(TimeUnit unit, long... values) {
+        return Arrays.stream(values).map(unit::toNanos).toArray();
+    }
+}
@@ -0,0 +1,19 @@
+package com.xored.javafx.packeteditor.scapy;
+
+/** wire encoding of scapy_server messages, negotiated on connect */
+public enum ScapyEncoding {
+    /** JSON text, packet bytes are base64 strings. supported by every scapy_server */
+    JSON("json"),
+    /** CBOR with self-describe tag, packet bytes are native byte strings */
+    CBOR("cbor");
+
+    final String id;
+
+    ScapyEncoding(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+}
@@ -0,0 +1,168 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Gson for scapy_server messages. binary values are base64 strings in JSON and byte strings in CBOR,
+ * the adapters pick the form by the reader/writer type
+ */
+class ScapyGson {
+
+    static Gson create() {
+        return new GsonBuilder()
+                .registerTypeAdapter(byte[].class, new BytesAdapter())
+                .registerTypeAdapter(BinaryValue.class, new BinaryValueAdapter())
+                .create();
+    }
+
+    static class BytesAdapter extends TypeAdapter<byte[]> {
+        @Override
+        public void write(JsonWriter out, byte[] value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+            } else if (out instanceof CborWriter) {
+                ((CborWriter) out).value(value);
+            } else {
+                out.value(Base64.getEncoder().encodeToString(value));
+            }
+        }
+
+        @Override
+        public byte[] read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            if (in instanceof CborReader) {
+                return ((CborReader) in).nextBytes();
+            }
+            return Base64.getDecoder().decode(in.nextString());
+        }
+    }
+
+    static class BinaryValueAdapter extends TypeAdapter<BinaryValue> {
+        @Override
+        public void write(JsonWriter out, BinaryValue value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+            } else if (out instanceof CborWriter) {
+                ((CborWriter) out).value(value.getBytes());
+            } else {
+                out.value(value.getBase64());
+            }
+        }
+
+        @Override
+        public BinaryValue read(JsonReader in) throws IOException {
+            throw new UnsupportedOperationException("BinaryValue is a request parameter only");
+        }
+    }
+
+    /** PacketData with binary kept as raw bytes when it comes as CBOR byte string, bound by its @JsonAdapter */
+    static class PacketDataAdapterFactory implements TypeAdapterFactory {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            if (type.getRawType() != PacketData.class) {
+                return null;
+            }
+            return (TypeAdapter<T>) new PacketDataAdapter(gson);
+        }
+    }
+
+    static class PacketDataAdapter extends TypeAdapter<PacketData> {
+        private final TypeAdapter<JsonObject> fieldEngineAdapter;
+        private final TypeAdapter<List<InstructionExpressionData>> expressionsAdapter;
+        private final TypeAdapter<List<ProtocolData>> dataAdapter;
+
+        PacketDataAdapter(Gson gson) {
+            fieldEngineAdapter = gson.getAdapter(JsonObject.class);
+            expressionsAdapter = gson.getAdapter(new TypeToken<List<InstructionExpressionData>>() {});
+            dataAdapter = gson.getAdapter(new TypeToken<List<ProtocolData>>() {});
+        }
+
+        @Override
+        public void write(JsonWriter out, PacketData value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("field_engine");
+            fieldEngineAdapter.write(out, value.getFieldEngine());
+            out.name("vm_instructions_expressions");
+            expressionsAdapter.write(out, value.getVmInstructionsExpressions());
+            out.name("data");
+            dataAdapter.write(out, value.getProtocols());
+            out.name("binary");
+            if (out instanceof CborWriter) {
+                ((CborWriter) out).value(value.getBytes());
+            } else {
+                out.value(value.getBinary());
+            }
+            out.endObject();
+        }
+
+        @Override
+        public PacketData read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            JsonObject fieldEngine = null;
+            List<InstructionExpressionData> expressions = null;
+            List<ProtocolData> data = null;
+            byte[] bytes = null;
+            String binary = "";
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "field_engine":
+                        if (in.peek() == JsonToken.NULL) {
+                            in.nextNull();
+                            fieldEngine = null;
+                        } else {
+                            fieldEngine = fieldEngineAdapter.read(in);
+                        }
+                        break;
+                    case "vm_instructions_expressions":
+                        expressions = expressionsAdapter.read(in);
+                        break;
+                    case "data":
+                        data = dataAdapter.read(in);
+                        break;
+                    case "binary":
+                        if (in instanceof CborReader && ((CborReader) in).isBytes()) {
+                            bytes = ((CborReader) in).nextBytes();
+                        } else if (in.peek() == JsonToken.NULL) {
+                            in.nextNull();
+                            bytes = null;
+                            binary = null;
+                        } else {
+                            bytes = null;
+                            binary = in.nextString();
+                        }
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            PacketData res = new PacketData(fieldEngine, expressions, data);
+            if (bytes != null) {
+                res.setBytes(bytes);
+            } else {
+                res.setBinary(binary);
+            }
+            return res;
+        }
+    }
+}
@@ -9,52 +9,57 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.zeromq.ZMQ;
 
+import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
-/** binding to scapy server */
+/**
+ * binding to scapy server.
+ * wire encoding is negotiated after the version handler: CBOR if the server supports it, JSON otherwise
+ */
 public class ScapyServerClient {
     public static final int ZMQ_THREADS = 1;
     static Logger logger = LoggerFactory.getLogger(ScapyServerClient.class);
 
-    final Base64.Encoder base64Encoder = Base64.getEncoder();
-    final Base64.Decoder base64Decoder = Base64.getDecoder();
-    final Gson gson = new Gson();
+    /** environment variable to force wire encoding, e.g. json for debugging with a traffic sniffer */
+    public static final String ENCODING_ENV = "SCAPY_ENCODING";
+
+    final Gson gson = ScapyGson.create();
 
     ZMQ.Context zmqContext;
-    ZMQ.Socket zmqSocket;
-    String version_handler;
-    int last_id = 0;
+    ScapyChannelPool channels;
+    volatile String version_handler;
+    volatile String scapy_version;
+    volatile ScapyEncoding encoding = ScapyEncoding.JSON;
 
     @Inject
     ConfigurationService configurationService;
     
     @Inject
     EventBus eventBus;
+
+    @Inject
+    ScapyClientMetrics metrics;
     
-    private boolean lastRequestFailed = false;
+    private volatile boolean lastRequestFailed = false;
     
-    private boolean isConnected;
+    private volatile boolean isConnected;
     
-    private String connectionUrl;
+    private List<String> connectionUrls;
 
     static class Request {
         final String jsonrpc = "2.0";
         String id;
         String method;
-        JsonElement params;
-    }
-
-    static class Response {
-        String jsonrpc;
-        String id;
-        JsonElement result;
-        JsonObject error;
+        /** JSON tree or list of values, BinaryValue items are written in the form of the wire encoding */
+        Object params;
     }
 
     public void connect() {
-        connect(configurationService.getConnectionUrl(), configurationService.getReceiveTimeout());
+        connect(configurationService.getConnectionUrls(), configurationService.getReceiveTimeout());
     }
 
     public String getConnectionUrl() {
@@ -62,17 +67,21 @@ public class ScapyServerClient {
     }
 
     public void connect(String scapyUrl, Integer timeout) {
-        zmqContext = ZMQ.context(ZMQ_THREADS);
-        zmqSocket = createSocket();
-        zmqSocket.setReceiveTimeOut(timeout);
-        
-        connectionUrl = scapyUrl;
+        connect(Arrays.asList(scapyUrl), timeout);
+    }
+
+    /** connects to one or more scapy_server endpoints, requests are spread over them */
+    public synchronized void connect(List<String> scapyUrls, Integer timeout) {
+        zmqContext = ZMQ.context(Math.max(ZMQ_THREADS, scapyUrls.size()));
+        connectionUrls = scapyUrls;
         
-        logger.info("connecting to scapy_server at {}", connectionUrl);
-        zmqSocket.connect(connectionUrl);
+        logger.info("connecting to scapy_server at {}", connectionUrls);
+        channels = new ScapyChannelPool(zmqContext, connectionUrls, configurationService.getConnectionPoolSize(), timeout, gson, metrics);
 
         try {
-            version_handler = getVersionHandler();
+            version_handler = requestVersionHandler();
+            encoding = negotiateEncoding();
+            channels.setEncoding(encoding);
             isConnected = true;
             eventBus.post(new ScapyClientConnectedEvent());
         } catch (Exception e) {
@@ -84,6 +93,30 @@ public class ScapyServerClient {
         return isConnected;
     }
 
+    /** version of connected Scapy */
+    public String getScapyVersion() {
+        return scapy_version;
+    }
+
+    public String getVersionHandler() {
+        return version_handler;
+    }
+
+    /** wire encoding of the current connection */
+    public ScapyEncoding getEncoding() {
+        return encoding;
+    }
+
+    /** number of requests which are queued or waiting for the response */
+    public int getPendingRequestCount() {
+        ScapyChannelPool pool = channels;
+        return pool != null ? pool.getPendingCount() : 0;
+    }
+
+    public ScapyClientMetrics getMetrics() {
+        return metrics;
+    }
+
     private JsonArray getVersion() {
         JsonElement result = request("get_version", null);
         if (result == null) {
@@ -93,6 +126,7 @@ public class ScapyServerClient {
 
         String versionString = result.getAsJsonObject().get("version").getAsString();
         logger.info("Scapy version is {}", versionString);
+        scapy_version = versionString;
 
         JsonArray version = new JsonArray();
 
@@ -101,7 +135,7 @@ public class ScapyServerClient {
         return version;
     }
     
-    private String getVersionHandler() {
+    private String requestVersionHandler() {
         JsonElement versionHandler = request("get_version_handler", getVersion());
         if (versionHandler == null) {
             logger.error("get_version returned null");
@@ -110,17 +144,39 @@ public class ScapyServerClient {
         return versionHandler.getAsString();
     }
 
-    private void reconnect() {
+    /** picks binary encoding if the server supports it, older servers don't have get_supported_encodings */
+    private ScapyEncoding negotiateEncoding() {
+        String forced = System.getenv(ENCODING_ENV);
+        if (ScapyEncoding.JSON.getId().equalsIgnoreCase(forced)) {
+            logger.info("JSON encoding is forced by {}", ENCODING_ENV);
+            return ScapyEncoding.JSON;
+        }
+        try {
+            JsonArray payload = new JsonArray();
+            payload.add(version_handler);
+            String[] supported = await(requestAsync("get_supported_encodings", payload, String[].class));
+            if (supported != null && Arrays.asList(supported).contains(ScapyEncoding.CBOR.getId())) {
+                logger.info("using CBOR encoding");
+                return ScapyEncoding.CBOR;
+            }
+        } catch (MethodNotFoundException e) {
+            logger.info("Scapy server has no binary encoding support, using JSON");
+        } catch (Exception e) {
+            logger.warn("Unable to negotiate encoding, using JSON", e);
+        }
+        return ScapyEncoding.JSON;
+    }
+
+    private synchronized void reconnect() {
         closeConnection();
         connect();
     }
 
-    public void closeConnection() {
+    public synchronized void closeConnection() {
         logger.info("Closing ZMQ Socket. from thread: {}", Thread.currentThread().getName());
-        if (zmqSocket != null) {
-            zmqSocket.disconnect(connectionUrl);
-            zmqSocket.close();
-            zmqSocket = null;
+        if (channels != null) {
+            channels.close();
+            channels = null;
         }
 
         logger.info("Terminating ZMQ Context.");
@@ -132,145 +188,186 @@ public class ScapyServerClient {
 
         lastRequestFailed = false;
         isConnected = false;
+        encoding = ScapyEncoding.JSON;
     }
 
     /** makes request to Scapy server, returns Scapy server result */
     public JsonElement request(String method, JsonElement payload) {
-        if(lastRequestFailed) {
-            reconnect();
-            payload = rebuildPayload(payload);
-        }
-        Request reqs = new Request();
-        reqs.id = Integer.toString(++last_id);
-        reqs.method = method;
-        reqs.params = payload;
-
-        String request_json = gson.toJson(reqs);
-        logger.debug(" sending: {}", request_json);
-
-        zmqSocket.send(request_json.getBytes(), 0);
-
-        byte[] response_bytes = zmqSocket.recv(0);
-        if (response_bytes == null) {
-            lastRequestFailed = true;
-            logger.info("Received null response. Request method: '{}'. Errno: '{}'", zmqSocket.base().errno());
-            String message = "Unable to receive response for " + method;
-            throw new ConnectionException(message);
-        }
+        return await(requestAsync(method, payload));
+    }
 
-        String response_json = new String(response_bytes, java.nio.charset.StandardCharsets.UTF_8);
-        logger.debug("received: {}", response_json);
+    /** makes pipelined request to Scapy server, the future is completed when the result arrives */
+    public CompletableFuture<JsonElement> requestAsync(String method, JsonElement payload) {
+        return requestAsync(method, payload, JsonElement.class);
+    }
 
-        Response resp = gson.fromJson(response_json, Response.class);
+    /** makes pipelined request, the result is decoded right from the response bytes without intermediate JSON tree */
+    public <T> CompletableFuture<T> requestAsync(String method, JsonElement payload, Type resultType) {
+        return requestAsync(method, (Object) payload, resultType);
+    }
 
-        if (resp.error != null) {
-            String message = resp.error.get("message").getAsString();
-            if(message.equals("Method not found")) {
-                throw new MethodNotFoundException();
+    private <T> CompletableFuture<T> requestAsync(String method, Object payload, Type resultType) {
+        ScapyTransport channel;
+        synchronized (this) {
+            if (lastRequestFailed) {
+                reconnect();
+                payload = rebuildPayload(payload);
             }
-            logger.error("received error: {}", message);
-            throw new ScapyException(message);
+            channel = channels != null ? channels.checkout() : null;
         }
-
-        if (!resp.id.equals(reqs.id)) {
-            logger.error("received id:{}, expected:{}", resp.id, reqs.id);
-            throw new ScapyException("unexpected result id");
+        if (channel == null) {
+            CompletableFuture<T> res = new CompletableFuture<>();
+            res.completeExceptionally(new ConnectionException("Not connected to Scapy server"));
+            return res;
         }
+        // the transport future is returned as is, so cancelling it drops the request if it is not sent yet
+        CompletableFuture<T> request = channel.request(method, payload, resultType);
+        request.whenComplete((res, e) -> {
+            if (e instanceof ConnectionException) {
+                lastRequestFailed = true;
+            }
+        });
+        return request;
+    }
 
-        return resp.result;
+    /** waits for the async result, unwraps Scapy and connection errors */
+    public static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException("Interrupted while waiting for Scapy server");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ScapyException(e.getCause().getMessage());
+        }
     }
 
-    private JsonArray rebuildPayload(JsonElement payload) {
-        JsonArray parameters = ((JsonArray) payload).get(1).getAsJsonArray();
+    /** replaces version handler of the payload after reconnect */
+    private Object rebuildPayload(Object payload) {
+        if (payload instanceof List && !((List<?>) payload).isEmpty()) {
+            List<Object> newPayload = new ArrayList<>((List<?>) payload);
+            newPayload.set(0, version_handler);
+            return newPayload;
+        }
+        if (!(payload instanceof JsonArray) || ((JsonArray) payload).size() == 0) {
+            return payload;
+        }
         JsonArray newPayload = new JsonArray();
         newPayload.add(version_handler);
-        newPayload.add(parameters);
+        JsonArray oldPayload = (JsonArray) payload;
+        for (int i = 1; i < oldPayload.size(); i++) {
+            newPayload.add(oldPayload.get(i));
+        }
         return newPayload;
     }
 
-    private ZMQ.Socket createSocket() {
-        return zmqContext.socket(ZMQ.REQ);
-    }
-
     /** builds packet from JSON definition using scapy */
     public PacketData build_pkt(JsonElement params) {
+        return await(build_pkt_async(params));
+    }
+
+    public CompletableFuture<PacketData> build_pkt_async(JsonElement params) {
         JsonArray payload = new JsonArray();
         payload.add(version_handler);
         payload.add(params);
-        return packetFromJson(request("build_pkt", payload));
+        return requestAsync("build_pkt", payload, PacketData.class);
     }
 
     public PacketData build_pkt(List<ReconstructProtocol> protocols) {
         return build_pkt(gson.toJsonTree(protocols));
     }
 
+    public CompletableFuture<PacketData> build_pkt_async(List<ReconstructProtocol> protocols) {
+        return build_pkt_async(gson.toJsonTree(protocols));
+    }
+
     public PacketData build_pkt_ex(List<ReconstructProtocol> protocols, JsonElement extra_options) {
+        return await(build_pkt_ex_async(protocols, extra_options));
+    }
+
+    public CompletableFuture<PacketData> build_pkt_ex_async(List<ReconstructProtocol> protocols, JsonElement extra_options) {
         JsonArray payload = new JsonArray();
         payload.add(version_handler);
         payload.add(gson.toJsonTree(protocols));
         payload.add(extra_options);
-        return packetFromJson(request("build_pkt_ex", payload));
+        return requestAsync("build_pkt_ex", payload, PacketData.class);
     }
 
     public ScapyData loadInstructionParameterValues(List<ReconstructProtocol> pktStructure, JsonElement vmInstructionsModel, String parameterId) {
+        return await(loadInstructionParameterValuesAsync(pktStructure, vmInstructionsModel, parameterId));
+    }
+
+    public CompletableFuture<ScapyData> loadInstructionParameterValuesAsync(List<ReconstructProtocol> pktStructure, JsonElement vmInstructionsModel, String parameterId) {
         JsonArray payload = new JsonArray();
         payload.add(version_handler);
         payload.add(gson.toJsonTree(pktStructure));
         payload.add(vmInstructionsModel);
         payload.add(new JsonPrimitive(parameterId));
-        JsonObject res = (JsonObject) request("load_instruction_parameter_values", payload);
-        return gson.fromJson(res, ScapyData.class);
+        return requestAsync("load_instruction_parameter_values", payload, ScapyData.class);
     }
     
     public ScapyDefinitions get_definitions() {
+        return await(get_definitions_async());
+    }
+
+    public CompletableFuture<ScapyDefinitions> get_definitions_async() {
         JsonArray payload = new JsonArray();
         payload.add(version_handler);
         payload.add(JsonNull.INSTANCE);
-        JsonObject res = (JsonObject) request("get_definitions", payload);
-        return gson.fromJson(res, ScapyDefinitions.class);
+        return requestAsync("get_definitions", payload, ScapyDefinitions.class);
     }
     
     public List<String> get_payload_classes(List<ReconstructProtocol> protocols) {
+        return await(get_payload_classes_async(protocols));
+    }
+
+    public CompletableFuture<List<String>> get_payload_classes_async(List<ReconstructProtocol> protocols) {
         JsonArray payload = new JsonArray();
         payload.add(version_handler);
         payload.add(gson.toJsonTree(protocols));
-        JsonElement res = request("get_payload_classes", payload);
-        return Arrays.asList(gson.fromJson(res, String[].class));
+        return this.<String[]>requestAsync("get_payload_classes", payload, String[].class)
+                .thenApply(Arrays::asList);
     }
 
     public List<String> get_payload_classes(String protocolId) {
         return get_payload_classes(Arrays.asList(ReconstructProtocol.pass(protocolId)));
     }
 
+    public CompletableFuture<List<String>> get_payload_classes_async(String protocolId) {
+        return get_payload_classes_async(Arrays.asList(ReconstructProtocol.pass(protocolId)));
+    }
+
     /** reads first packet from binary pcap file */
     public PacketData read_pcap_packet(byte[] pcap_binary) {
-        JsonArray payload = new JsonArray();
-        String payload_b64 = base64Encoder.encodeToString(pcap_binary);
-        payload.add(version_handler);
-        payload.add(payload_b64);
-        JsonArray pcap_packets = (JsonArray)request("read_pcap", payload);
-        JsonElement first_packet = pcap_packets.get(0);
-        return packetFromJson(first_packet);
+        return await(read_pcap_packet_async(pcap_binary));
+    }
+
+    public CompletableFuture<PacketData> read_pcap_packet_async(byte[] pcap_binary) {
+        List<Object> payload = Arrays.asList(version_handler, BinaryValue.of(pcap_binary));
+        return this.<PacketData[]>requestAsync("read_pcap", payload, PacketData[].class)
+                .thenApply(pcap_packets -> pcap_packets[0]);
     }
 
     public String decompile_vm_raw(byte[] packet_binary, String vmRaw) {
-        JsonArray payload = new JsonArray();
-        payload.add(version_handler);
-        payload.add(base64Encoder.encodeToString(packet_binary));
-        payload.add(new Gson().fromJson(vmRaw, JsonElement.class));
-        return request("decompile_vm_raw", payload).toString();
+        return await(decompile_vm_raw_async(packet_binary, vmRaw));
+    }
+
+    public CompletableFuture<String> decompile_vm_raw_async(byte[] packet_binary, String vmRaw) {
+        List<Object> payload = Arrays.asList(version_handler, BinaryValue.of(packet_binary), gson.fromJson(vmRaw, JsonElement.class));
+        return this.<JsonElement>requestAsync("decompile_vm_raw", payload, JsonElement.class).thenApply(JsonElement::toString);
     }
 
     /** write single pcap packet to a file, returns result binary pcap file content */
     public byte[] write_pcap_packet(byte[] packet_binary) {
-        JsonArray packets = new JsonArray();
-        packets.add(base64Encoder.encodeToString(packet_binary));
+        return await(write_pcap_packet_async(packet_binary));
+    }
 
-        JsonArray payload = new JsonArray();
-        payload.add(version_handler);
-        payload.add(packets);
-        String pcap_base64 = request("write_pcap", payload).getAsString();
-        return base64Decoder.decode(pcap_base64);
+    public CompletableFuture<byte[]> write_pcap_packet_async(byte[] packet_binary) {
+        List<Object> payload = Arrays.asList(version_handler, Arrays.asList(BinaryValue.of(packet_binary)));
+        return requestAsync("write_pcap", payload, byte[].class);
     }
 
     public JsonElement get_tree() {
@@ -281,55 +378,72 @@ public class ScapyServerClient {
 
     /** builds packet from bytes */
     public PacketData reconstruct_pkt(byte[] packet_binary) {
-        JsonObject result = reconstruct_pkt(packet_binary, new JsonArray());
-        return gson.fromJson(result, PacketData.class);
+        return await(reconstruct_pkt_async(packet_binary));
+    }
+
+    public CompletableFuture<PacketData> reconstruct_pkt_async(byte[] packet_binary) {
+        return reconstruct_pkt_async(BinaryValue.of(packet_binary), new JsonArray(), PacketData.class);
     }
 
     /** builds packet from bytes, modifies fields */
     public PacketData reconstruct_pkt(byte[] packet_binary, List<ReconstructProtocol> protocols) {
-        JsonObject result = reconstruct_pkt(packet_binary, gson.toJsonTree(protocols));
-        return gson.fromJson(result, PacketData.class);
+        return await(reconstruct_pkt_async(packet_binary, protocols));
+    }
+
+    public CompletableFuture<PacketData> reconstruct_pkt_async(byte[] packet_binary, List<ReconstructProtocol> protocols) {
+        return reconstruct_pkt_async(BinaryValue.of(packet_binary), gson.toJsonTree(protocols), PacketData.class);
     }
 
     /** builds packet from bytes, modifies fields */
     public JsonObject reconstruct_pkt (byte[] packet_binary, JsonElement modify) {
-        JsonArray param = new JsonArray();
-        param.add(version_handler);
-        param.add(Base64.getEncoder().encodeToString(packet_binary));
-        param.add(modify);
-        JsonElement result = request("reconstruct_pkt", param);
-        return result.getAsJsonObject();
+        return await(reconstruct_pkt_async(packet_binary, modify));
+    }
+
+    public CompletableFuture<JsonObject> reconstruct_pkt_async(byte[] packet_binary, JsonElement modify) {
+        return reconstruct_pkt_async(BinaryValue.of(packet_binary), modify, JsonObject.class);
+    }
+
+    /** builds packet from the current one, its bytes or base64 form are reused as is */
+    public CompletableFuture<PacketData> reconstruct_pkt_async(PacketData packet, List<ReconstructProtocol> protocols) {
+        return reconstruct_pkt_async(BinaryValue.of(packet), gson.toJsonTree(protocols), PacketData.class);
     }
 
-    private PacketData packetFromJson(JsonElement packet) {
-        return gson.fromJson(packet, PacketData.class);
+    private <T> CompletableFuture<T> reconstruct_pkt_async(BinaryValue packet, JsonElement modify, Type resultType) {
+        List<Object> param = Arrays.asList(version_handler, packet, modify);
+        return requestAsync("reconstruct_pkt", param, resultType);
     }
 
     public List<JsonObject> getTemplates() {
         try {
-            JsonArray params = new JsonArray();
-            params.add(version_handler);
-            JsonElement res = request("get_templates", params);
-            JsonObject[] arra = gson.fromJson(res, JsonObject[].class);
-            return Arrays.asList(arra);
+            return await(getTemplatesAsync());
         }
         catch (Exception e) {
             return null;
         }
     }
 
+    public CompletableFuture<List<JsonObject>> getTemplatesAsync() {
+        JsonArray params = new JsonArray();
+        params.add(version_handler);
+        return this.<JsonObject[]>requestAsync("get_templates", params, JsonObject[].class)
+                .thenApply(Arrays::asList);
+    }
+
     public String getTemplate(JsonObject t) {
         try {
-            JsonArray params = new JsonArray();
-            params.add(version_handler);
-            params.add(t);
-            JsonElement res = request("get_template", params);
-            return gson.fromJson(res, String.class);
+            return await(getTemplateAsync(t));
         }
         catch (Exception e) {
             return null;
         }
     }
 
+    public CompletableFuture<String> getTemplateAsync(JsonObject t) {
+        JsonArray params = new JsonArray();
+        params.add(version_handler);
+        params.add(t);
+        return requestAsync("get_template", params, String.class);
+    }
+
 }
 
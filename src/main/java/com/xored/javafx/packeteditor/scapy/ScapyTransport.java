@@ -0,0 +1,374 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeromq.ZMQ;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * pipelined JSON-RPC channel to scapy_server over a DEALER socket.
+ * the socket is owned by a single I/O thread, callers only enqueue requests and get a future back.
+ * responses are matched to requests by id, so any number of requests can be in flight.
+ * results are decoded with a streaming reader right from the received bytes into the requested type.
+ * messages are JSON or CBOR, depending on the negotiated encoding; responses are told apart by CBOR self-describe tag.
+ * futures are completed on a callback thread, so dependent stages may send requests or reconnect
+ */
+class ScapyTransport {
+    static Logger logger = LoggerFactory.getLogger(ScapyTransport.class);
+
+    /** max time the I/O thread sleeps in poll, bounds the timeout detection delay */
+    static final long POLL_INTERVAL = 100;
+    static final byte[] EMPTY_FRAME = new byte[0];
+
+    private static final AtomicInteger channelCounter = new AtomicInteger();
+    private static final AtomicInteger callbackCounter = new AtomicInteger();
+
+    /** runs completions of request futures, a stage blocked on another request doesn't hold the others */
+    private static final ExecutorService callbacks = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "scapy-callback-" + callbackCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Gson gson;
+    private final ScapyClientMetrics metrics;
+    private final ZMQ.Context zmqContext;
+    private final String url;
+    private final int timeout;
+    private final String wakeupUrl;
+
+    private final AtomicInteger last_id = new AtomicInteger();
+    private final Queue<PendingRequest> outgoing = new ConcurrentLinkedQueue<>();
+    private final Map<String, PendingRequest> inFlight = new ConcurrentHashMap<>();
+
+    private final ZMQ.Socket wakeupSender;
+    private final ZMQ.Socket wakeupReceiver;
+    private final Thread ioThread;
+    private volatile boolean closed = false;
+    private volatile ScapyEncoding encoding = ScapyEncoding.JSON;
+
+    static class PendingRequest {
+        final String id;
+        final String method;
+        final byte[] frame;
+        final Type resultType;
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+        final AtomicBoolean recorded = new AtomicBoolean();
+        long deadline;
+        long sentNanos;
+
+        PendingRequest(String id, String method, byte[] frame, Type resultType) {
+            this.id = id;
+            this.method = method;
+            this.frame = frame;
+            this.resultType = resultType;
+        }
+
+        /** true only for the first call, so each request is recorded to metrics once */
+        boolean finish() {
+            return recorded.compareAndSet(false, true);
+        }
+    }
+
+    ScapyTransport(ZMQ.Context zmqContext, String url, int timeout, Gson gson, ScapyClientMetrics metrics) {
+        this.zmqContext = zmqContext;
+        this.url = url;
+        this.timeout = timeout;
+        this.gson = gson;
+        this.metrics = metrics;
+
+        int channelId = channelCounter.incrementAndGet();
+        wakeupUrl = "inproc://scapy-transport-" + channelId;
+        // inproc requires bind before connect
+        wakeupReceiver = zmqContext.socket(ZMQ.PAIR);
+        wakeupReceiver.bind(wakeupUrl);
+        wakeupSender = zmqContext.socket(ZMQ.PAIR);
+        wakeupSender.connect(wakeupUrl);
+
+        ioThread = new Thread(this::run, "scapy-transport-" + channelId);
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    void setEncoding(ScapyEncoding encoding) {
+        this.encoding = encoding;
+    }
+
+    /** number of requests which are queued or waiting for the response */
+    int getPendingCount() {
+        return outgoing.size() + inFlight.size();
+    }
+
+    /** sends request, the future is completed from a callback thread with the result decoded to resultType */
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> request(String method, Object params, Type resultType) {
+        ScapyServerClient.Request reqs = new ScapyServerClient.Request();
+        reqs.id = Integer.toString(last_id.incrementAndGet());
+        reqs.method = method;
+        reqs.params = params;
+
+        byte[] frame;
+        if (encoding == ScapyEncoding.CBOR) {
+            CborWriter writer = new CborWriter();
+            gson.toJson(reqs, ScapyServerClient.Request.class, writer);
+            frame = writer.toByteArray();
+            logger.debug(" sending: {} id:{}, {} bytes of CBOR", method, reqs.id, frame.length);
+        } else {
+            String request_json = gson.toJson(reqs);
+            logger.debug(" sending: {}", request_json);
+            frame = request_json.getBytes(StandardCharsets.UTF_8);
+        }
+
+        PendingRequest pending = new PendingRequest(reqs.id, method, frame, resultType);
+        CompletableFuture<T> future = (CompletableFuture<T>) pending.future;
+        if (closed) {
+            fail(pending, new ConnectionException("Connection to Scapy server is closed"));
+            return future;
+        }
+        metrics.requestStarted(method, pending.frame.length);
+        outgoing.add(pending);
+        if (closed) {
+            // closed concurrently, I/O thread may be already gone
+            failAll("Connection to Scapy server is closed");
+        }
+        wakeup();
+        return future;
+    }
+
+    /** stops I/O thread, all pending requests are failed. called from the I/O thread, it only lets the thread stop itself */
+    void close() {
+        synchronized (wakeupSender) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            wakeupSender.send(EMPTY_FRAME, ZMQ.DONTWAIT);
+        }
+        if (Thread.currentThread() == ioThread) {
+            return;
+        }
+        try {
+            ioThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void wakeup() {
+        synchronized (wakeupSender) {
+            if (!closed) {
+                wakeupSender.send(EMPTY_FRAME, ZMQ.DONTWAIT);
+            }
+        }
+    }
+
+    private void run() {
+        ZMQ.Socket socket = zmqContext.socket(ZMQ.DEALER);
+        socket.setLinger(0);
+        socket.connect(url);
+
+        ZMQ.Poller poller = zmqContext.poller(2);
+        poller.register(socket, ZMQ.Poller.POLLIN);
+        poller.register(wakeupReceiver, ZMQ.Poller.POLLIN);
+
+        try {
+            while (!closed) {
+                poller.poll(POLL_INTERVAL);
+                if (poller.pollin(1)) {
+                    while (wakeupReceiver.recv(ZMQ.DONTWAIT) != null) {
+                        // drain wakeup signals
+                    }
+                }
+                sendOutgoing(socket);
+                if (poller.pollin(0)) {
+                    receiveResponses(socket);
+                }
+                expireRequests();
+            }
+        } catch (Exception e) {
+            logger.error("Scapy transport I/O thread failed", e);
+        } finally {
+            socket.close();
+            wakeupReceiver.close();
+            synchronized (wakeupSender) {
+                closed = true;
+                wakeupSender.close();
+            }
+            failAll("Connection to Scapy server closed");
+        }
+    }
+
+    private void sendOutgoing(ZMQ.Socket socket) {
+        PendingRequest pending;
+        while ((pending = outgoing.poll()) != null) {
+            if (pending.future.isDone()) {
+                // cancelled by the caller before it was sent
+                if (pending.finish()) {
+                    metrics.requestAborted(pending.method, false);
+                }
+                continue;
+            }
+            pending.deadline = System.currentTimeMillis() + timeout;
+            pending.sentNanos = System.nanoTime();
+            inFlight.put(pending.id, pending);
+            // scapy_server uses REP socket, so each message needs an empty delimiter frame
+            socket.sendMore(EMPTY_FRAME);
+            socket.send(pending.frame, 0);
+        }
+    }
+
+    private void receiveResponses(ZMQ.Socket socket) {
+        byte[] frame;
+        while ((frame = socket.recv(ZMQ.DONTWAIT)) != null) {
+            if (frame.length == 0 && socket.hasReceiveMore()) {
+                frame = socket.recv(0);
+            }
+            handleResponse(frame);
+        }
+    }
+
+    private void handleResponse(byte[] response_bytes) {
+        long receivedNanos = System.nanoTime();
+        boolean cbor = CborReader.isCbor(response_bytes);
+        if (logger.isDebugEnabled()) {
+            logger.debug("received: {}", cbor ? response_bytes.length + " bytes of CBOR" : new String(response_bytes, StandardCharsets.UTF_8));
+        }
+
+        PendingRequest pending = null;
+        String id = null;
+        Object result = null;
+        JsonElement earlyResult = null;
+        JsonObject error = null;
+        try (JsonReader reader = cbor ? new CborReader(response_bytes)
+                : new JsonReader(new InputStreamReader(new ByteArrayInputStream(response_bytes), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "id":
+                        if (reader.peek() == JsonToken.NULL) {
+                            reader.nextNull();
+                        } else {
+                            id = reader.nextString();
+                            pending = inFlight.remove(id);
+                        }
+                        break;
+                    case "result":
+                        if (pending != null) {
+                            result = gson.fromJson(reader, pending.resultType);
+                        } else {
+                            // result goes before id, its type is not known yet
+                            earlyResult = gson.fromJson(reader, JsonElement.class);
+                        }
+                        break;
+                    case "error":
+                        error = gson.fromJson(reader, JsonObject.class);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (pending != null && earlyResult != null) {
+                result = gson.fromJson(earlyResult, pending.resultType);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("malformed response: {}", e.getMessage());
+            if (pending != null) {
+                if (pending.finish()) {
+                    metrics.requestCompleted(pending.method, receivedNanos - pending.sentNanos, response_bytes.length, true);
+                }
+                fail(pending, new ScapyException("Malformed response to " + pending.method + ": " + e.getMessage()));
+            }
+            return;
+        }
+
+        if (pending == null) {
+            logger.warn("received unexpected result id:{}", id);
+            return;
+        }
+        if (pending.finish()) {
+            metrics.requestCompleted(pending.method, receivedNanos - pending.sentNanos, response_bytes.length, error != null);
+        }
+
+        if (error != null) {
+            String message = error.get("message").getAsString();
+            if (message.equals("Method not found")) {
+                fail(pending, new MethodNotFoundException());
+                return;
+            }
+            logger.error("received error: {}", message);
+            fail(pending, new ScapyException(message));
+            return;
+        }
+        complete(pending, result);
+    }
+
+    private void expireRequests() {
+        long now = System.currentTimeMillis();
+        Iterator<PendingRequest> it = inFlight.values().iterator();
+        while (it.hasNext()) {
+            PendingRequest pending = it.next();
+            if (pending.future.isDone()) {
+                it.remove();
+                if (pending.finish()) {
+                    metrics.requestAborted(pending.method, false);
+                }
+            } else if (pending.deadline <= now) {
+                it.remove();
+                if (pending.finish()) {
+                    metrics.requestTimedOut(pending.method);
+                }
+                logger.info("Request timed out. Request method: '{}'", pending.method);
+                fail(pending, new ConnectionException("Unable to receive response for " + pending.method));
+            }
+        }
+    }
+
+    private void failAll(String message) {
+        PendingRequest pending;
+        while ((pending = outgoing.poll()) != null) {
+            abort(pending, message);
+        }
+        inFlight.values().forEach(p -> abort(p, message));
+        inFlight.clear();
+    }
+
+    private void abort(PendingRequest pending, String message) {
+        if (pending.finish()) {
+            metrics.requestAborted(pending.method, true);
+        }
+        fail(pending, new ConnectionException(message));
+    }
+
+    private static void complete(PendingRequest pending, Object result) {
+        callbacks.execute(() -> pending.future.complete(result));
+    }
+
+    private static void fail(PendingRequest pending, Throwable error) {
+        callbacks.execute(() -> pending.future.completeExceptionally(error));
+    }
+}
@@ -4,6 +4,10 @@ import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
 
 public class ConfigurationService {
     
@@ -14,6 +18,16 @@ public class ConfigurationService {
     private Integer receiveTimeout;
 
     private String connectionPort;
+
+    /** host:port of scapy_server instances in addition to the main one */
+    private List<String> additionalServers = new ArrayList<>();
+
+    private int connectionPoolSize;
+
+    private int undoMaxDepth;
+
+    /** approximate memory limit of undo history in bytes */
+    private long undoMaxMemory;
     
     private ApplicationMode applicationMode = ApplicationMode.EMBEDDED;
 
@@ -23,6 +37,8 @@ public class ConfigurationService {
 
     private String templatesLocation = null;
 
+    private String cacheLocation = null;
+
     public boolean isStandaloneMode() {
         return ApplicationMode.STANDALONE.equals(applicationMode);
     }
@@ -34,6 +50,7 @@ public class ConfigurationService {
 
     private static final String  APP_DATA_PATH = File.separator + "TRex" + File.separator + "trex" + File.separator;
     private static final String  TEMPLATES_PATH = "templates" + File.separator;
+    private static final String  CACHE_PATH = "cache" + File.separator;
     private static final boolean OS_IS_WINDOWS = System.getProperty("os.name").toLowerCase().contains("win");
 
     public static boolean isNullOrEmpty(String data) {
@@ -44,23 +61,74 @@ public class ConfigurationService {
     public ConfigurationService(@Named("SCAPY_CONNECTION_HOST") String defaultConnectionHost,
                                 @Named("SCAPY_RECEIVE_TIMEOUT") String defaultRecieveTimeout,
                                 @Named("SCAPY_CONNECTION_PORT") String defaultConnectionPort,
-                                @Named("SCAPY_CONNECTION_PROTOCOL") String defaultConnectionProtocol) {
+                                @Named("SCAPY_CONNECTION_PROTOCOL") String defaultConnectionProtocol,
+                                @Named("SCAPY_ADDITIONAL_SERVERS") String defaultAdditionalServers,
+                                @Named("SCAPY_CONNECTION_POOL_SIZE") String defaultConnectionPoolSize,
+                                @Named("UNDO_MAX_DEPTH") String defaultUndoMaxDepth,
+                                @Named("UNDO_MAX_MEMORY_MB") String defaultUndoMaxMemory) {
         this.receiveTimeout = Integer.valueOf(defaultRecieveTimeout);
         this.host = defaultConnectionHost;
         this.connectionPort = defaultConnectionPort;
         this.protocol = defaultConnectionProtocol;
+        this.connectionPoolSize = Integer.valueOf(defaultConnectionPoolSize);
+        this.additionalServers = parseServerList(defaultAdditionalServers);
+        this.undoMaxDepth = Integer.valueOf(defaultUndoMaxDepth);
+        this.undoMaxMemory = Long.valueOf(defaultUndoMaxMemory) * 1024 * 1024;
         String scapyServerEnv = System.getenv("SCAPY_SERVER");
         if (scapyServerEnv != null && scapyServerEnv.contains(":")) {
             String[] parts = scapyServerEnv.split(":");
             host = parts[0];
             connectionPort = parts[1];
         }
+        // comma separated host:port list, the first one is the main server
+        List<String> scapyServersEnv = parseServerList(System.getenv("SCAPY_SERVERS"));
+        if (!scapyServersEnv.isEmpty()) {
+            String[] parts = scapyServersEnv.get(0).split(":");
+            host = parts[0];
+            connectionPort = parts[1];
+            additionalServers = scapyServersEnv.subList(1, scapyServersEnv.size());
+        }
+    }
+
+    private static List<String> parseServerList(String servers) {
+        if (isNullOrEmpty(servers)) {
+            return new ArrayList<>();
+        }
+        return Arrays.stream(servers.split(","))
+                .map(String::trim)
+                .filter(server -> server.contains(":"))
+                .collect(Collectors.toList());
     }
     
     public String getConnectionUrl() {
         return protocol + "://" + host + ":" + connectionPort;
     }
 
+    /** main server url followed by the additional ones */
+    public List<String> getConnectionUrls() {
+        List<String> urls = new ArrayList<>();
+        urls.add(getConnectionUrl());
+        additionalServers.forEach(server -> urls.add(protocol + "://" + server));
+        return urls;
+    }
+
+    public List<String> getAdditionalServers() {
+        return additionalServers;
+    }
+
+    public void setAdditionalServers(List<String> additionalServers) {
+        this.additionalServers = additionalServers;
+    }
+
+    /** number of channels opened to each scapy_server */
+    public int getConnectionPoolSize() {
+        return connectionPoolSize;
+    }
+
+    public void setConnectionPoolSize(int connectionPoolSize) {
+        this.connectionPoolSize = connectionPoolSize;
+    }
+
     /** deprecated, use setConnectionHost */
     public void setConnectionIP(String ip) {
         this.host = ip;
@@ -125,4 +193,37 @@ public class ConfigurationService {
         this.templatesLocation = templatesLocation;
     }
 
+    /** directory for local caches, like scapy definitions */
+    public String getCacheLocation() {
+        if (isNullOrEmpty(cacheLocation)) {
+            String path = System.getProperty("user.home");
+            if (OS_IS_WINDOWS && !isNullOrEmpty(System.getenv("LOCALAPPDATA"))) {
+                path = System.getenv("LOCALAPPDATA");
+            }
+            cacheLocation = path + APP_DATA_PATH + CACHE_PATH;
+        }
+        return cacheLocation;
+    }
+
+    public void setCacheLocation(String cacheLocation) {
+        this.cacheLocation = cacheLocation;
+    }
+
+    /** max number of undo records */
+    public int getUndoMaxDepth() {
+        return undoMaxDepth;
+    }
+
+    public void setUndoMaxDepth(int undoMaxDepth) {
+        this.undoMaxDepth = undoMaxDepth;
+    }
+
+    public long getUndoMaxMemory() {
+        return undoMaxMemory;
+    }
+
+    public void setUndoMaxMemory(long undoMaxMemory) {
+        this.undoMaxMemory = undoMaxMemory;
+    }
+
 }
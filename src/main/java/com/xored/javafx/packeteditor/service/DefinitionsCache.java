@@ -0,0 +1,91 @@
+package com.xored.javafx.packeteditor.service;
+
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.inject.Inject;
+import com.xored.javafx.packeteditor.scapy.ScapyDefinitions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * local copy of get_definitions result.
+ * one file per scapy version and version handler, so an upgraded scapy_server never gets stale definitions
+ */
+public class DefinitionsCache {
+    private static Logger logger = LoggerFactory.getLogger(DefinitionsCache.class);
+
+    /** bump when file layout changes */
+    static final int FORMAT_VERSION = 2;
+
+    @Inject
+    ConfigurationService configurationService;
+
+    private final Gson gson = new Gson();
+
+    public static class CachedDefinitions {
+        int format;
+        String scapyVersion;
+        String versionHandler;
+        public String hash;
+        public ScapyDefinitions definitions;
+    }
+
+    public String hash(ScapyDefinitions definitions) {
+        return Hashing.sha256().hashString(gson.toJson(definitions), StandardCharsets.UTF_8).toString();
+    }
+
+    /** returns cached definitions or null if there is no valid cache */
+    public CachedDefinitions load(String scapyVersion, String versionHandler) {
+        File file = getCacheFile(scapyVersion, versionHandler);
+        if (!file.exists()) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            CachedDefinitions cached = gson.fromJson(reader, CachedDefinitions.class);
+            if (cached == null || cached.format != FORMAT_VERSION || cached.definitions == null
+                    || !scapyVersion.equals(cached.scapyVersion) || !versionHandler.equals(cached.versionHandler)) {
+                logger.info("ignoring incompatible definitions cache {}", file);
+                return null;
+            }
+            return cached;
+        } catch (Exception e) {
+            logger.warn("failed to read definitions cache {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    public void save(String scapyVersion, String versionHandler, ScapyDefinitions definitions, String hash) {
+        File file = getCacheFile(scapyVersion, versionHandler);
+        JsonObject cached = new JsonObject();
+        cached.addProperty("format", FORMAT_VERSION);
+        cached.addProperty("scapyVersion", scapyVersion);
+        cached.addProperty("versionHandler", versionHandler);
+        cached.addProperty("hash", hash);
+        cached.add("definitions", gson.toJsonTree(definitions));
+        try {
+            file.getParentFile().mkdirs();
+            // write to temp file first, so a crash never leaves truncated cache
+            File tmp = new File(file.getPath() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+                gson.toJson(cached, writer);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("failed to write definitions cache {}: {}", file, e.getMessage());
+        }
+    }
+
+    private File getCacheFile(String scapyVersion, String versionHandler) {
+        String key = Hashing.sha256().hashString(scapyVersion + "|" + versionHandler, StandardCharsets.UTF_8).toString();
+        return new File(configurationService.getCacheLocation(), "definitions-" + key.substring(0, 16) + ".json");
+    }
+}
@@ -0,0 +1,613 @@
+package com.xored.javafx.packeteditor.service;
+
+import com.google.common.net.InetAddresses;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import com.google.inject.Inject;
+import com.xored.javafx.packeteditor.metatdata.FieldMetadata;
+import com.xored.javafx.packeteditor.metatdata.ProtocolMetadata;
+import com.xored.javafx.packeteditor.scapy.FieldData;
+import com.xored.javafx.packeteditor.scapy.FieldValue;
+import com.xored.javafx.packeteditor.scapy.PacketData;
+import com.xored.javafx.packeteditor.scapy.ProtocolData;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.*;
+
+/**
+ * dissects common protocol stacks (Ether, 802.1Q/802.1AD, MPLS, IPv4, IPv6, ARP, ICMP echo, TCP, UDP, VXLAN) in Java,
+ * so opening a pcap or editing packet bytes doesn't need a reconstruct_pkt round trip.
+ * the result mimics Scapy 2.3 dissection: field values, human values, offsets relative to the protocol.
+ * bit fields have fractional byte offset and length.
+ * if any layer is not supported or looks malformed, the whole packet is left to Scapy and null is returned
+ */
+public class LocalDissector {
+    /** UDP ports Scapy binds to its own layers, payload of such packets is not Raw */
+    static final Set<Integer> SCAPY_UDP_PORTS = new HashSet<>(Arrays.asList(
+            53, 67, 68, 69, 123, 137, 138, 161, 162, 500, 514, 520, 521, 546, 547,
+            1701, 1812, 1813, 2123, 2152, 3784, 4500, 5353, 5355, 6081
+    ));
+    static final Set<Integer> SCAPY_TCP_PORTS = new HashSet<>(Arrays.asList(53, 2000));
+
+    static final int VXLAN_PORT = 4789;
+
+    enum Format { DEC, HEX, ENUM, XENUM, FLAGS, MAC, IPV4, IPV6 }
+
+    static class Field {
+        final String id;
+        final int bits;
+        final Format format;
+        final String[] flagNames;
+        /** multi-character flag names are joined with '+' */
+        final boolean multiFlags;
+
+        Field(String id, int bits, Format format, String[] flagNames, boolean multiFlags) {
+            this.id = id;
+            this.bits = bits;
+            this.format = format;
+            this.flagNames = flagNames;
+            this.multiFlags = multiFlags;
+        }
+    }
+
+    static Field field(String id, int bits, Format format) {
+        return new Field(id, bits, format, null, false);
+    }
+
+    static Field flags(String id, int bits, String names) {
+        return new Field(id, bits, Format.FLAGS, names.split(""), false);
+    }
+
+    static Field flags(String id, int bits, String... names) {
+        return new Field(id, bits, Format.FLAGS, names, true);
+    }
+
+    static final Field[] ETHER = {
+            field("dst", 48, Format.MAC), field("src", 48, Format.MAC), field("type", 16, Format.XENUM)
+    };
+    static final Field[] DOT1Q = {
+            field("prio", 3, Format.DEC), field("id", 1, Format.DEC), field("vlan", 12, Format.DEC), field("type", 16, Format.XENUM)
+    };
+    static final Field[] MPLS = {
+            field("label", 20, Format.DEC), field("cos", 3, Format.DEC), field("s", 1, Format.DEC), field("ttl", 8, Format.DEC)
+    };
+    static final Field[] IP = {
+            field("version", 4, Format.DEC), field("ihl", 4, Format.DEC), field("tos", 8, Format.HEX),
+            field("len", 16, Format.DEC), field("id", 16, Format.DEC), flags("flags", 3, "MF", "DF", "evil"),
+            field("frag", 13, Format.DEC), field("ttl", 8, Format.DEC), field("proto", 8, Format.ENUM),
+            field("chksum", 16, Format.HEX), field("src", 32, Format.IPV4), field("dst", 32, Format.IPV4)
+    };
+    static final Field[] IPV6 = {
+            field("version", 4, Format.DEC), field("tc", 8, Format.DEC), field("fl", 20, Format.DEC),
+            field("plen", 16, Format.DEC), field("nh", 8, Format.ENUM), field("hlim", 8, Format.DEC),
+            field("src", 128, Format.IPV6), field("dst", 128, Format.IPV6)
+    };
+    static final Field[] ARP = {
+            field("hwtype", 16, Format.HEX), field("ptype", 16, Format.XENUM), field("hwlen", 8, Format.DEC),
+            field("plen", 8, Format.DEC), field("op", 16, Format.ENUM), field("hwsrc", 48, Format.MAC),
+            field("psrc", 32, Format.IPV4), field("hwdst", 48, Format.MAC), field("pdst", 32, Format.IPV4)
+    };
+    static final Field[] ICMP_ECHO = {
+            field("type", 8, Format.ENUM), field("code", 8, Format.ENUM), field("chksum", 16, Format.HEX),
+            field("id", 16, Format.HEX), field("seq", 16, Format.HEX)
+    };
+    static final Field[] TCP = {
+            field("sport", 16, Format.ENUM), field("dport", 16, Format.ENUM), field("seq", 32, Format.DEC),
+            field("ack", 32, Format.DEC), field("dataofs", 4, Format.DEC), field("reserved", 4, Format.DEC),
+            flags("flags", 8, "FSRPAUEC"), field("window", 16, Format.DEC), field("chksum", 16, Format.HEX),
+            field("urgptr", 16, Format.DEC)
+    };
+    static final Field[] UDP = {
+            field("sport", 16, Format.ENUM), field("dport", 16, Format.ENUM), field("len", 16, Format.DEC),
+            field("chksum", 16, Format.HEX)
+    };
+    static final Field[] VXLAN = {
+            flags("flags", 8, "R", "R", "R", "I", "R", "R", "R", "R"), field("reserved1", 24, Format.HEX),
+            field("vni", 24, Format.DEC), field("reserved2", 8, Format.HEX)
+    };
+
+    private final IMetadataService metadataService;
+
+    /** reverse enum dictionaries, built on first use for every field metadata */
+    private final Map<FieldMetadata, Map<Long, String>> enumNames = Collections.synchronizedMap(new WeakHashMap<>());
+
+    @Inject
+    public LocalDissector(IMetadataService metadataService) {
+        this.metadataService = metadataService;
+    }
+
+    /** returns dissected Ethernet frame or null if it should be dissected by Scapy */
+    public PacketData dissect(byte[] bytes) {
+        try {
+            List<ProtocolData> protocols = new Dissection(bytes).run();
+            return new PacketData(protocols, bytes);
+        } catch (UnsupportedLayer e) {
+            return null;
+        }
+    }
+
+    /** thrown when the packet needs Scapy, stack trace is not needed */
+    static class UnsupportedLayer extends RuntimeException {
+        UnsupportedLayer(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /** state of a single packet dissection */
+    private class Dissection {
+        final byte[] bytes;
+        final List<ProtocolData> protocols = new ArrayList<>();
+        /** Padding layers are appended after the whole stack, the innermost first */
+        final Deque<int[]> paddings = new ArrayDeque<>();
+        int offset = 0;
+        /** end of the current protocol payload, bytes after it are padding */
+        int end;
+
+        Dissection(byte[] bytes) {
+            this.bytes = bytes;
+            this.end = bytes.length;
+        }
+
+        List<ProtocolData> run() {
+            String next = "Ether";
+            while (next != null) {
+                switch (next) {
+                    case "Ether":
+                        next = ether();
+                        break;
+                    case "Dot1Q":
+                    case "Dot1AD":
+                        next = dot1q(next);
+                        break;
+                    case "MPLS":
+                        next = mpls();
+                        break;
+                    case "IP":
+                        next = ip();
+                        break;
+                    case "IPv6":
+                        next = ipv6();
+                        break;
+                    case "ARP":
+                        next = arp();
+                        break;
+                    case "ICMP":
+                        next = icmp();
+                        break;
+                    case "TCP":
+                        next = tcp();
+                        break;
+                    case "UDP":
+                        next = udp();
+                        break;
+                    case "VXLAN":
+                        next = vxlan();
+                        break;
+                    case "Raw":
+                        next = raw("Raw", offset, end);
+                        break;
+                    default:
+                        throw new UnsupportedLayer(next);
+                }
+            }
+            while (!paddings.isEmpty()) {
+                int[] padding = paddings.pop();
+                raw("Padding", padding[0], padding[1]);
+            }
+            return protocols;
+        }
+
+        String ether() {
+            long type = fields("Ether", ETHER, 14).get("type");
+            return etherPayload(type);
+        }
+
+        String dot1q(String id) {
+            long type = fields(id, DOT1Q, 4).get("type");
+            return etherPayload(type);
+        }
+
+        String etherPayload(long type) {
+            if (type < 0x600) {
+                // 802.3 length, LLC follows
+                throw new UnsupportedLayer("802.3");
+            }
+            if (offset == end) {
+                return null;
+            }
+            switch ((int) type) {
+                case 0x0800: return "IP";
+                case 0x86dd: return "IPv6";
+                case 0x0806: return "ARP";
+                case 0x8100: return "Dot1Q";
+                case 0x88a8: return "Dot1AD";
+                case 0x8847: return "MPLS";
+                default: throw new UnsupportedLayer("ether type " + type);
+            }
+        }
+
+        String mpls() {
+            long bottom = fields("MPLS", MPLS, 4).get("s");
+            if (offset == end) {
+                return null;
+            }
+            if (bottom == 0) {
+                return "MPLS";
+            }
+            switch ((bytes[offset] & 0xf0) >> 4) {
+                case 4: return "IP";
+                case 6: return "IPv6";
+                default: throw new UnsupportedLayer("MPLS payload");
+            }
+        }
+
+        String ip() {
+            require(20);
+            int start = offset;
+            Map<String, Long> values = fields("IP", IP, 20);
+            if (values.get("version") != 4 || values.get("ihl") != 5) {
+                // ip options are left to Scapy
+                throw new UnsupportedLayer("IP header");
+            }
+            if ((values.get("flags") & 1) != 0 || values.get("frag") != 0) {
+                throw new UnsupportedLayer("IP fragment");
+            }
+            limitPayload(start, values.get("len"), 20);
+            if (offset == end) {
+                return null;
+            }
+            switch (values.get("proto").intValue()) {
+                case 1: return "ICMP";
+                case 6: return "TCP";
+                case 17: return "UDP";
+                default: throw new UnsupportedLayer("IP proto " + values.get("proto"));
+            }
+        }
+
+        String ipv6() {
+            require(40);
+            Map<String, Long> values = fields("IPv6", IPV6, 40);
+            if (values.get("version") != 6 || values.get("plen") == 0) {
+                // jumbograms are left to Scapy
+                throw new UnsupportedLayer("IPv6 header");
+            }
+            limitPayload(offset, values.get("plen"), 0);
+            if (offset == end) {
+                return null;
+            }
+            switch (values.get("nh").intValue()) {
+                case 6: return "TCP";
+                case 17: return "UDP";
+                default: throw new UnsupportedLayer("IPv6 next header " + values.get("nh"));
+            }
+        }
+
+        String arp() {
+            require(8);
+            if ((bytes[offset + 4] & 0xff) != 6 || (bytes[offset + 5] & 0xff) != 4) {
+                throw new UnsupportedLayer("ARP address length");
+            }
+            fields("ARP", ARP, 28);
+            // Scapy treats everything after ARP as padding
+            if (offset < end) {
+                paddings.push(new int[]{offset, end});
+            }
+            return null;
+        }
+
+        String icmp() {
+            require(1);
+            int type = bytes[offset] & 0xff;
+            if (type != 0 && type != 8) {
+                throw new UnsupportedLayer("ICMP type " + type);
+            }
+            fields("ICMP", ICMP_ECHO, 8);
+            return offset == end ? null : "Raw";
+        }
+
+        String tcp() {
+            require(20);
+            int start = offset;
+            int headerLength = ((bytes[offset + 12] & 0xf0) >> 4) * 4;
+            if (headerLength < 20 || start + headerLength > end) {
+                throw new UnsupportedLayer("TCP header");
+            }
+            Map<String, Long> values = fields("TCP", TCP, 20);
+            String options = tcpOptions(offset, start + headerLength);
+            addField(last(), "options", FieldValue.create(FieldValue.ObjectType.EXPRESSION, "expr", options), options, 20, headerLength - 20);
+            offset = start + headerLength;
+            if (offset == end) {
+                return null;
+            }
+            if (SCAPY_TCP_PORTS.contains(values.get("sport").intValue()) || SCAPY_TCP_PORTS.contains(values.get("dport").intValue())) {
+                throw new UnsupportedLayer("TCP port");
+            }
+            return "Raw";
+        }
+
+        String udp() {
+            int start = offset;
+            Map<String, Long> values = fields("UDP", UDP, 8);
+            if (values.get("len") < 8) {
+                throw new UnsupportedLayer("UDP length");
+            }
+            limitPayload(start, values.get("len"), 8);
+            int dport = values.get("dport").intValue();
+            if (SCAPY_UDP_PORTS.contains(values.get("sport").intValue()) || SCAPY_UDP_PORTS.contains(dport)) {
+                throw new UnsupportedLayer("UDP port");
+            }
+            if (offset == end) {
+                return null;
+            }
+            return dport == VXLAN_PORT ? "VXLAN" : "Raw";
+        }
+
+        String vxlan() {
+            fields("VXLAN", VXLAN, 8);
+            return offset == end ? null : "Ether";
+        }
+
+        /** sets the payload end by a length field, the rest is padding */
+        void limitPayload(int start, long length, int headerLength) {
+            long payloadEnd = start + length;
+            if (length < headerLength || payloadEnd < offset) {
+                throw new UnsupportedLayer("length field");
+            }
+            if (payloadEnd < end) {
+                paddings.push(new int[]{(int) payloadEnd, end});
+                end = (int) payloadEnd;
+            }
+        }
+
+        String raw(String id, int from, int to) {
+            ProtocolData protocol = addProtocol(id, from);
+            byte[] load = Arrays.copyOfRange(bytes, from, to);
+            addField(protocol, "load", FieldValue.create(FieldValue.ObjectType.BYTES, "base64", Base64.getEncoder().encodeToString(load)), pythonRepr(load), 0, load.length);
+            offset = to;
+            return null;
+        }
+
+        /** reads fixed size header, returns numeric field values */
+        Map<String, Long> fields(String protocolId, Field[] fields, int length) {
+            require(length);
+            ProtocolData protocol = addProtocol(protocolId, offset);
+            ProtocolMetadata meta = metadataService.getProtocolMetadataById(protocolId);
+            Map<String, Long> values = new HashMap<>();
+            int bitOffset = 0;
+            for (Field field : fields) {
+                FieldMetadata fieldMeta = meta.getMetaForFieldOrNull(field.id);
+                if (fieldMeta == null) {
+                    // different Scapy version
+                    throw new UnsupportedLayer(protocolId + "." + field.id);
+                }
+                int fieldOffset = offset + bitOffset / 8;
+                JsonElement value;
+                String hvalue;
+                switch (field.format) {
+                    case MAC:
+                        hvalue = macAddress(fieldOffset);
+                        value = new JsonPrimitive(hvalue);
+                        break;
+                    case IPV4:
+                    case IPV6:
+                        hvalue = ipAddress(fieldOffset, field.bits / 8);
+                        value = new JsonPrimitive(hvalue);
+                        break;
+                    default:
+                        long number = readBits(offset * 8 + bitOffset, field.bits);
+                        values.put(field.id, number);
+                        value = new JsonPrimitive(number);
+                        hvalue = humanValue(field, fieldMeta, number);
+                }
+                addField(protocol, field.id, value, hvalue, position(bitOffset), position(field.bits));
+                bitOffset += field.bits;
+            }
+            offset += length;
+            return values;
+        }
+
+        ProtocolData addProtocol(String protocolId, int protocolOffset) {
+            ProtocolMetadata meta = metadataService.getProtocolMetadataById(protocolId);
+            if (meta == null) {
+                throw new UnsupportedLayer(protocolId);
+            }
+            ProtocolData protocol = new ProtocolData();
+            protocol.id = protocolId;
+            protocol.name = meta.getName();
+            protocol.offset = protocolOffset;
+            protocol.fields = new ArrayList<>();
+            protocols.add(protocol);
+            return protocol;
+        }
+
+        ProtocolData last() {
+            return protocols.get(protocols.size() - 1);
+        }
+
+        void require(int length) {
+            if (offset + length > end) {
+                throw new UnsupportedLayer("truncated");
+            }
+        }
+
+        long readBits(int bitOffset, int bits) {
+            long res = 0;
+            for (int bit = bitOffset; bit < bitOffset + bits; bit++) {
+                res = res << 1 | ((bytes[bit / 8] >> (7 - bit % 8)) & 1);
+            }
+            return res;
+        }
+
+        String macAddress(int from) {
+            StringBuilder res = new StringBuilder();
+            for (int i = from; i < from + 6; i++) {
+                if (res.length() > 0) {
+                    res.append(':');
+                }
+                res.append(String.format("%02x", bytes[i] & 0xff));
+            }
+            return res.toString();
+        }
+
+        String ipAddress(int from, int length) {
+            try {
+                return InetAddresses.toAddrString(InetAddress.getByAddress(Arrays.copyOfRange(bytes, from, from + length)));
+            } catch (UnknownHostException e) {
+                throw new UnsupportedLayer("address");
+            }
+        }
+
+        /** python repr of the option list, the same as TCPOptionsField gives */
+        String tcpOptions(int from, int to) {
+            List<String> options = new ArrayList<>();
+            int pos = from;
+            while (pos < to) {
+                int kind = bytes[pos] & 0xff;
+                if (kind == 0) {
+                    options.add("('EOL', None)");
+                    break;
+                }
+                if (kind == 1) {
+                    options.add("('NOP', None)");
+                    pos++;
+                    continue;
+                }
+                if (pos + 1 >= to) {
+                    throw new UnsupportedLayer("TCP option");
+                }
+                int length = bytes[pos + 1] & 0xff;
+                if (length < 2 || pos + length > to) {
+                    throw new UnsupportedLayer("TCP option");
+                }
+                int data = pos + 2;
+                switch (kind) {
+                    case 2:
+                        expectLength(length, 4);
+                        options.add("('MSS', " + readBits(data * 8, 16) + ")");
+                        break;
+                    case 3:
+                        expectLength(length, 3);
+                        options.add("('WScale', " + (bytes[data] & 0xff) + ")");
+                        break;
+                    case 4:
+                        expectLength(length, 2);
+                        options.add("('SAckOK', '')");
+                        break;
+                    case 5:
+                        if ((length - 2) % 4 != 0 || length == 2) {
+                            throw new UnsupportedLayer("TCP option");
+                        }
+                        List<String> blocks = new ArrayList<>();
+                        for (int i = data; i < pos + length; i += 4) {
+                            blocks.add(String.valueOf(readBits(i * 8, 32)));
+                        }
+                        options.add("('SAck', (" + String.join(", ", blocks) + (blocks.size() == 1 ? ",))" : "))"));
+                        break;
+                    case 8:
+                        expectLength(length, 10);
+                        options.add("('Timestamp', (" + readBits(data * 8, 32) + ", " + readBits((data + 4) * 8, 32) + "))");
+                        break;
+                    default:
+                        throw new UnsupportedLayer("TCP option " + kind);
+                }
+                pos += length;
+            }
+            return "[" + String.join(", ", options) + "]";
+        }
+
+        void expectLength(int length, int expected) {
+            if (length != expected) {
+                throw new UnsupportedLayer("TCP option length");
+            }
+        }
+    }
+
+    void addField(ProtocolData protocol, String id, JsonElement value, String hvalue, Number offset, Number length) {
+        ProtocolMetadata meta = metadataService.getProtocolMetadataById(protocol.id);
+        if (meta.getMetaForFieldOrNull(id) == null) {
+            throw new UnsupportedLayer(protocol.id + "." + id);
+        }
+        FieldData field = new FieldData();
+        field.id = id;
+        field.value = value;
+        field.hvalue = hvalue;
+        field.offset = offset;
+        field.length = length;
+        protocol.fields.add(field);
+    }
+
+    /** byte position of a bit count, fractional for bit fields */
+    static Number position(int bits) {
+        return bits % 8 == 0 ? (Number) (bits / 8) : (Number) (bits / 8.0);
+    }
+
+    String humanValue(Field field, FieldMetadata meta, long value) {
+        switch (field.format) {
+            case HEX:
+                return "0x" + Long.toHexString(value);
+            case ENUM:
+            case XENUM:
+                String name = enumName(meta, value);
+                if (name != null) {
+                    return name;
+                }
+                return field.format == Format.XENUM ? "0x" + Long.toHexString(value) : String.valueOf(value);
+            case FLAGS:
+                List<String> names = new ArrayList<>();
+                for (int bit = 0; bit < field.flagNames.length; bit++) {
+                    if ((value >> bit & 1) != 0) {
+                        names.add(field.flagNames[bit]);
+                    }
+                }
+                return String.join(field.multiFlags ? "+" : "", names);
+            default:
+                return String.valueOf(value);
+        }
+    }
+
+    String enumName(FieldMetadata meta, long value) {
+        Map<String, JsonElement> dictionary = meta.getDictionary();
+        if (dictionary == null) {
+            return null;
+        }
+        return enumNames.computeIfAbsent(meta, m -> {
+            Map<Long, String> names = new HashMap<>();
+            dictionary.forEach((name, dictValue) -> {
+                if (dictValue.isJsonPrimitive() && dictValue.getAsJsonPrimitive().isNumber()) {
+                    names.putIfAbsent(dictValue.getAsLong(), name);
+                }
+            });
+            return names;
+        }).get(value);
+    }
+
+    /** python 2 repr of a byte string, the human value of Scapy string fields */
+    static String pythonRepr(byte[] bytes) {
+        boolean hasSingle = false;
+        boolean hasDouble = false;
+        for (byte b : bytes) {
+            hasSingle |= b == '\'';
+            hasDouble |= b == '"';
+        }
+        char quote = hasSingle && !hasDouble ? '"' : '\'';
+        StringBuilder res = new StringBuilder().append(quote);
+        for (byte b : bytes) {
+            int c = b & 0xff;
+            if (c == quote || c == '\\') {
+                res.append('\\').append((char) c);
+            } else if (c == '\t') {
+                res.append("\\t");
+            } else if (c == '\n') {
+                res.append("\\n");
+            } else if (c == '\r') {
+                res.append("\\r");
+            } else if (c < 0x20 || c >= 0x7f) {
+                res.append(String.format("\\x%02x", c));
+            } else {
+                res.append((char) c);
+            }
+        }
+        return res.append(quote).toString();
+    }
+}
@@ -1,5 +1,6 @@
 package com.xored.javafx.packeteditor.service;
 
+import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -7,6 +8,7 @@ import com.google.gson.JsonObject;
 import com.google.gson.internal.LinkedTreeMap;
 import com.google.inject.Inject;
 import com.xored.javafx.packeteditor.data.FieldRules;
+import com.xored.javafx.packeteditor.events.ProtocolDefinitionsChangedEvent;
 import com.xored.javafx.packeteditor.events.ScapyClientConnectedEvent;
 import com.xored.javafx.packeteditor.metatdata.*;
 import com.xored.javafx.packeteditor.scapy.*;
@@ -14,25 +16,55 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 /** provides protocol metadata based on hand-crafted protocol definition file or Scapy definitions */
 public class MetadataService implements IMetadataService {
     private static Logger logger = LoggerFactory.getLogger(IMetadataService.class);
 
+    /** prefetch sleeps while interactive requests are pending, scapy_server answers them one by one */
+    static final long PAYLOAD_PREFETCH_IDLE_WAIT_MS = 20;
+
     @Inject
     ScapyServerClient scapy;
 
-    Map<String, ProtocolMetadata> protocols = new HashMap<>();
-    Map<String, List<String>> payload_classes_cache = new HashMap<>();
-    Map<String, FeParameterMeta> feParametersMeta = new HashMap<>();
-    Map<String, InstructionExpressionMeta> feInstructionMetas = new HashMap<>();
-    Map<String, FEInstructionParameterMeta> feInstructionParameterMetas = new LinkedTreeMap<>();
-    List<InstructionsTemplate> feTemplates = new ArrayList<>();
+    @Inject
+    DefinitionsCache definitionsCache;
+
+    @Inject
+    EventBus eventBus;
+
+    /** metadata maps are replaced as a whole when definitions are (re)loaded */
+    volatile Map<String, ProtocolMetadata> protocols = new ConcurrentHashMap<>();
+    Map<String, List<String>> payload_classes_cache = new ConcurrentHashMap<>();
+    /** version handler the payload classes cache was filled for */
+    private volatile String payloadClassesHandler;
+    private final Map<String, CompletableFuture<List<String>>> payload_classes_requests = new ConcurrentHashMap<>();
+    volatile Map<String, FeParameterMeta> feParametersMeta = new HashMap<>();
+    volatile Map<String, InstructionExpressionMeta> feInstructionMetas = new HashMap<>();
+    volatile Map<String, FEInstructionParameterMeta> feInstructionParameterMetas = new LinkedTreeMap<>();
+    volatile List<InstructionsTemplate> feTemplates = new ArrayList<>();
+
+    private final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "metadata-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
     
     @Subscribe
     public void handleScapyConnectedEvent(ScapyClientConnectedEvent event) {
+        // reconnects after timeouts keep the cache, it is dropped only for another server version
+        String versionHandler = scapy.getVersionHandler();
+        if (!Objects.equals(versionHandler, payloadClassesHandler)) {
+            payload_classes_cache.clear();
+            payloadClassesHandler = versionHandler;
+        }
         loadDefinitions();
+        prefetchPayloadClasses(protocols.keySet());
     }
 
     public Map<String, ProtocolMetadata> getProtocols() {
@@ -61,57 +93,106 @@ public class MetadataService implements IMetadataService {
 
     private void loadDefinitions() {
         try {
-            ScapyDefinitions definitions = null;
-            if (scapy.isConnected()) {
-                definitions = scapy.get_definitions();
+            if (!scapy.isConnected()) {
+                return;
             }
-
-            if (definitions.feInstructionParameters != null) {
-                definitions.feInstructionParameters.stream()
-                        .filter(param -> param.id != null)
-                        .forEach(param -> feInstructionParameterMetas.put(param.id, new FEInstructionParameterMeta(param.type, param.id, param.name, param.defaultValue, param.dict, param.required, param.editable)));
+            String scapyVersion = scapy.getScapyVersion();
+            String versionHandler = scapy.getVersionHandler();
+            DefinitionsCache.CachedDefinitions cached = definitionsCache.load(scapyVersion, versionHandler);
+            if (cached != null) {
+                logger.info("loaded definitions for Scapy {} from the local cache", scapyVersion);
+                applyDefinitions(cached.definitions);
+                revalidateDefinitions(scapyVersion, versionHandler, cached.hash);
+            } else {
+                ScapyDefinitions definitions = ScapyServerClient.await(scapy.get_definitions_async());
+                applyDefinitions(definitions);
+                backgroundExecutor.execute(() ->
+                        definitionsCache.save(scapyVersion, versionHandler, definitions, definitionsCache.hash(definitions)));
             }
+        } catch (Exception e) {
+            logger.error("failed to load protocol defs from scapy: {}", e);
+        }
+    }
 
-            if (definitions.feParameters != null) {
-                feParametersMeta.putAll(definitions.feParameters.stream()
-                        .map(scapyFEParameter -> new FeParameterMeta(scapyFEParameter.id, scapyFEParameter.name, scapyFEParameter.type, scapyFEParameter.defaultValue))
-                        .collect(Collectors.toMap(FeParameterMeta::getId, meta -> meta)));
+    /**
+     * compares cached definitions with the actual ones in background, metadata is replaced only if they differ.
+     * the open document is bound to the replaced metadata, so listeners are told to rebind it
+     */
+    private void revalidateDefinitions(String scapyVersion, String versionHandler, String cachedHash) {
+        scapy.get_definitions_async().thenAcceptAsync(definitions -> {
+            String hash = definitionsCache.hash(definitions);
+            if (hash.equals(cachedHash)) {
+                logger.debug("definitions cache is up to date");
+                return;
             }
+            logger.info("Scapy definitions changed, refreshing metadata");
+            applyDefinitions(definitions);
+            eventBus.post(new ProtocolDefinitionsChangedEvent());
+            definitionsCache.save(scapyVersion, versionHandler, definitions, hash);
+            prefetchPayloadClasses(protocols.keySet());
+        }, backgroundExecutor).exceptionally(e -> {
+            logger.warn("failed to revalidate definitions cache: {}", e.getMessage());
+            return null;
+        });
+    }
 
-            definitions.protocols.forEach(proto -> {
-                // merge definitions with the hand-crafted file. json has priority over metadata from scapy
-                protocols.put(proto.id, new ProtocolMetadata(
-                        proto.id,
-                        proto.name,
-                        proto.fields.stream().map(this::buildFieldMetadata).collect(Collectors.toList()),
-                        feInstructionParameterMetas,
-                        proto.fieldEngineAwareFields
-                ));
-            });
+    /** builds metadata maps from scapy definitions and replaces current ones */
+    private void applyDefinitions(ScapyDefinitions definitions) {
+        Map<String, FEInstructionParameterMeta> instructionParameterMetas = new LinkedTreeMap<>();
+        Map<String, FeParameterMeta> parameterMetas = new HashMap<>();
+        Map<String, ProtocolMetadata> protocolMetas = new ConcurrentHashMap<>();
+        Map<String, InstructionExpressionMeta> instructionMetas = new HashMap<>();
+        List<InstructionsTemplate> templates = new ArrayList<>();
 
-            if (definitions.feInstructions != null) {
-                definitions.feInstructions.stream().forEach(instructionData -> {
-                    List<FEInstructionParameterMeta> parameterMetas = instructionData.parameters.stream()
-                            .map(feInstructionParameterMetas::get).collect(Collectors.toList());
-                    String help = new String(Base64.getDecoder().decode(instructionData.help.getBytes()));
-                    InstructionExpressionMeta meta = new InstructionExpressionMeta(instructionData.id, help, parameterMetas);
-                    feInstructionMetas.put(instructionData.id, meta);
-                });
-            }
+        if (definitions.feInstructionParameters != null) {
+            definitions.feInstructionParameters.stream()
+                    .filter(param -> param.id != null)
+                    .forEach(param -> instructionParameterMetas.put(param.id, new FEInstructionParameterMeta(param.type, param.id, param.name, param.defaultValue, param.dict, param.required, param.editable)));
+        }
 
-            if (definitions.feTemplates != null) {
-                feTemplates = definitions.feTemplates.stream()
-                        .map(this::buildInstructionsTemplate)
-                        .collect(Collectors.toList());
-            }
-        } catch (Exception e) {
-            logger.error("failed to load protocol defs from scapy: {}", e);
+        if (definitions.feParameters != null) {
+            parameterMetas.putAll(definitions.feParameters.stream()
+                    .map(scapyFEParameter -> new FeParameterMeta(scapyFEParameter.id, scapyFEParameter.name, scapyFEParameter.type, scapyFEParameter.defaultValue))
+                    .collect(Collectors.toMap(FeParameterMeta::getId, meta -> meta)));
+        }
+
+        definitions.protocols.forEach(proto -> {
+            // merge definitions with the hand-crafted file. json has priority over metadata from scapy
+            protocolMetas.put(proto.id, new ProtocolMetadata(
+                    proto.id,
+                    proto.name,
+                    proto.fields.stream().map(this::buildFieldMetadata).collect(Collectors.toList()),
+                    instructionParameterMetas,
+                    proto.fieldEngineAwareFields
+            ));
+        });
+
+        if (definitions.feInstructions != null) {
+            definitions.feInstructions.stream().forEach(instructionData -> {
+                List<FEInstructionParameterMeta> instructionParameters = instructionData.parameters.stream()
+                        .map(instructionParameterMetas::get).collect(Collectors.toList());
+                String help = new String(Base64.getDecoder().decode(instructionData.help.getBytes()));
+                InstructionExpressionMeta meta = new InstructionExpressionMeta(instructionData.id, help, instructionParameters);
+                instructionMetas.put(instructionData.id, meta);
+            });
         }
+
+        if (definitions.feTemplates != null) {
+            templates = definitions.feTemplates.stream()
+                    .map(templateData -> buildInstructionsTemplate(templateData, instructionMetas))
+                    .collect(Collectors.toList());
+        }
+
+        feInstructionParameterMetas = instructionParameterMetas;
+        feParametersMeta = parameterMetas;
+        protocols = protocolMetas;
+        feInstructionMetas = instructionMetas;
+        feTemplates = templates;
     }
 
-    private InstructionsTemplate buildInstructionsTemplate(ScapyDefinitions.ScapyFETemplate templateData) {
+    private InstructionsTemplate buildInstructionsTemplate(ScapyDefinitions.ScapyFETemplate templateData, Map<String, InstructionExpressionMeta> instructionMetas) {
         List<InstructionExpressionMeta> instructions = templateData.instructionIds.stream()
-                .map(feInstructionMetas::get)
+                .map(instructionMetas::get)
                 .collect(Collectors.toList());
         return new InstructionsTemplate(templateData.id, templateData.name, instructions);
     }
@@ -157,11 +238,12 @@ public class MetadataService implements IMetadataService {
     }
 
     /** normally should not be used, since we should have get_definitions */
-    private ProtocolMetadata buildProtocolMetaFromScapy(String protocolId) {
-        PacketData pkt = scapy.build_pkt(Arrays.asList(ReconstructProtocol.pass(protocolId)));
-        if (pkt.getProtocols().isEmpty())
-            return null;
-        return buildMetadataFromScapyModel(pkt.getProtocols().get(0));
+    private CompletableFuture<ProtocolMetadata> buildProtocolMetaFromScapyAsync(String protocolId) {
+        return scapy.build_pkt_async(Arrays.asList(ReconstructProtocol.pass(protocolId))).thenApply(pkt -> {
+            if (pkt.getProtocols().isEmpty())
+                return null;
+            return buildMetadataFromScapyModel(pkt.getProtocols().get(0));
+        });
     }
 
     /** normally should not be used, since we should have get_definitions */
@@ -181,24 +263,94 @@ public class MetadataService implements IMetadataService {
 
     @Override
     public ProtocolMetadata getProtocolMetadataById(String protocolId) {
+        return ScapyServerClient.await(getProtocolMetadataByIdAsync(protocolId));
+    }
+
+    @Override
+    public CompletableFuture<ProtocolMetadata> getProtocolMetadataByIdAsync(String protocolId) {
         ProtocolMetadata res = protocols.getOrDefault(protocolId, null);
         if (res == null) {
             logger.warn("Generating definition for {} protocol", protocolId);
             // TODO: parametrized get_definitions?
-            res = buildProtocolMetaFromScapy(protocolId);
+            return buildProtocolMetaFromScapyAsync(protocolId);
         }
-        return res;
+        return CompletableFuture.completedFuture(res);
     }
 
     @Override
     public List<String> getAllowedPayloadForProtocol(String protocolId) {
+        return ScapyServerClient.await(getAllowedPayloadForProtocolAsync(protocolId));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> getAllowedPayloadForProtocolAsync(String protocolId) {
         List<String> res = payload_classes_cache.getOrDefault(protocolId, null);
         if (res == null) {
-            // Too slow, so getting lazily with cache
-            res = scapy.get_payload_classes(protocolId);
-            payload_classes_cache.put(protocolId, res);
+            // not prefetched yet, request it or join the request which is in flight
+            CompletableFuture<List<String>> request = new CompletableFuture<>();
+            CompletableFuture<List<String>> inFlight = payload_classes_requests.putIfAbsent(protocolId, request);
+            if (inFlight != null) {
+                return inFlight;
+            }
+            scapy.get_payload_classes_async(protocolId).whenComplete((payloads, e) -> {
+                if (payloads != null) {
+                    payload_classes_cache.put(protocolId, payloads);
+                }
+                payload_classes_requests.remove(protocolId);
+                if (e != null) {
+                    request.completeExceptionally(PacketDataService.unwrap(e));
+                } else {
+                    request.complete(payloads);
+                }
+            });
+            return request;
+        }
+        return CompletableFuture.completedFuture(res);
+    }
+
+    /**
+     * fills payload classes cache for all protocols in background.
+     * scapy_server has no bulk method for the payload graph and it shares the channels with the editor,
+     * so there is one request at a time and only while no other requests are pending
+     */
+    private void prefetchPayloadClasses(Collection<String> protocolIds) {
+        List<String> ids = new ArrayList<>(protocolIds);
+        backgroundExecutor.execute(() -> {
+            long started = System.currentTimeMillis();
+            int fetched = 0;
+            for (String protocolId : ids) {
+                if (payload_classes_cache.containsKey(protocolId)) {
+                    continue;
+                }
+                if (!waitForIdleConnection()) {
+                    break;
+                }
+                try {
+                    getAllowedPayloadForProtocolAsync(protocolId).join();
+                    fetched++;
+                } catch (Exception e) {
+                    // the server is struggling, the rest is requested lazily
+                    logger.debug("payload classes prefetch stopped: {}", e.getMessage());
+                    break;
+                }
+            }
+            if (fetched > 0) {
+                logger.info("prefetched payload classes for {} protocols in {} ms", fetched, System.currentTimeMillis() - started);
+            }
+        });
+    }
+
+    /** false if disconnected or interrupted while waiting */
+    private boolean waitForIdleConnection() {
+        while (scapy.isConnected() && scapy.getPendingRequestCount() > 0) {
+            try {
+                Thread.sleep(PAYLOAD_PREFETCH_IDLE_WAIT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
         }
-        return res;
+        return scapy.isConnected();
     }
 }
 
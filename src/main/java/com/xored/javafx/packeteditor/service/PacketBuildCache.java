@@ -0,0 +1,112 @@
+package com.xored.javafx.packeteditor.service;
+
+import com.google.common.hash.Hashing;
+import com.xored.javafx.packeteditor.scapy.PacketData;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of build_pkt results, keyed by hash of the serialized build request.
+ * bounded both by number of entries and by approximate size of the cached packets
+ */
+public class PacketBuildCache {
+    /** rough per-field cost of FieldData with its JSON values */
+    static final int FIELD_WEIGHT = 256;
+
+    private final int maxEntries;
+    private final long maxBytes;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeInBytes = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    private static class Entry {
+        final PacketData packet;
+        final long weight;
+
+        Entry(PacketData packet, long weight) {
+            this.packet = packet;
+            this.weight = weight;
+        }
+    }
+
+    public PacketBuildCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /** content hash of the canonical request */
+    public static String key(String request) {
+        return Hashing.sha256().hashString(request, StandardCharsets.UTF_8).toString();
+    }
+
+    /** returns cached packet or null */
+    public synchronized PacketData get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return entry.packet;
+    }
+
+    public synchronized void put(String key, PacketData packet) {
+        long weight = key.length() + estimateSize(packet);
+        if (weight > maxBytes) {
+            return;
+        }
+        Entry old = entries.put(key, new Entry(packet, weight));
+        if (old != null) {
+            sizeInBytes -= old.weight;
+        }
+        sizeInBytes += weight;
+        evict();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        sizeInBytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || sizeInBytes > maxBytes) && it.hasNext()) {
+            sizeInBytes -= it.next().getValue().weight;
+            it.remove();
+        }
+    }
+
+    /** approximate heap size of the packet */
+    public static long estimateSize(PacketData packet) {
+        // decoded bytes plus base64 string of 2-byte chars
+        long size = packet.getPacketLength() * 4L;
+        size += packet.getProtocols().stream().mapToLong(protocol -> protocol.fields.size() * FIELD_WEIGHT).sum();
+        if (packet.getFieldEngine() != null) {
+            size += packet.getFieldEngine().toString().length() * 2;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,105 @@
+package com.xored.javafx.packeteditor.service;
+
+import com.xored.javafx.packeteditor.scapy.PacketData;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * coalesces packet builds of rapid edits, like scrolling through a combo box.
+ * edits change the user model right away and request a build, the build is started after a quiet period
+ * and reads the user model at that moment, so a burst of edits costs a single Scapy request.
+ * a newer request cancels the build in flight, only the result of the latest request is delivered.
+ * callbacks are run with the ui executor
+ */
+public class PacketBuildQueue {
+    public static final long DEFAULT_DELAY_MS = 40;
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "packet-build-queue");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Executor uiExecutor;
+    private volatile long delayMillis = DEFAULT_DELAY_MS;
+
+    /** incremented by every request and cancel, builds of older generations are dropped */
+    private long generation = 0;
+    private ScheduledFuture<?> scheduled;
+    private CompletableFuture<PacketData> inFlight;
+
+    public PacketBuildQueue(Executor uiExecutor) {
+        this.uiExecutor = uiExecutor;
+    }
+
+    /** quiet period before the build is started, 0 starts it right away */
+    public void setDelay(long delay, TimeUnit unit) {
+        delayMillis = unit.toMillis(delay);
+    }
+
+    /** replaces pending request. build supplier is called when the quiet period is over */
+    public synchronized void submit(Supplier<CompletableFuture<PacketData>> build, Consumer<PacketData> onBuilt, Consumer<Throwable> onFailed) {
+        cancel();
+        long requestGeneration = generation;
+        Runnable start = () -> start(requestGeneration, build, onBuilt, onFailed);
+        if (delayMillis <= 0) {
+            start.run();
+        } else {
+            scheduled = timer.schedule(() -> uiExecutor.execute(start), delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void start(long requestGeneration, Supplier<CompletableFuture<PacketData>> build, Consumer<PacketData> onBuilt, Consumer<Throwable> onFailed) {
+        if (requestGeneration != generation) {
+            return;
+        }
+        scheduled = null;
+        CompletableFuture<PacketData> future;
+        try {
+            future = build.get();
+        } catch (RuntimeException e) {
+            onFailed.accept(e);
+            return;
+        }
+        inFlight = future;
+        future.whenComplete((pkt, e) -> uiExecutor.execute(() -> complete(requestGeneration, pkt, e, onBuilt, onFailed)));
+    }
+
+    private synchronized void complete(long requestGeneration, PacketData pkt, Throwable e, Consumer<PacketData> onBuilt, Consumer<Throwable> onFailed) {
+        if (requestGeneration != generation) {
+            // superseded, the newer build includes this edit
+            return;
+        }
+        inFlight = null;
+        if (e != null) {
+            onFailed.accept(PacketDataService.unwrap(e));
+        } else {
+            onBuilt.accept(pkt);
+        }
+    }
+
+    /** drops pending and in-flight builds, e.g. when the packet was built by other means */
+    public synchronized void cancel() {
+        generation++;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+        if (inFlight != null) {
+            inFlight.cancel(false);
+            inFlight = null;
+        }
+    }
+
+    /** true if there are edits which are not built yet */
+    public synchronized boolean isPending() {
+        return scheduled != null || inFlight != null;
+    }
+}
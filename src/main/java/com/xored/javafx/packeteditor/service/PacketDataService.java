@@ -1,6 +1,7 @@
 package com.xored.javafx.packeteditor.service;
 
 import com.google.common.eventbus.Subscribe;
+import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.inject.Inject;
 import com.xored.javafx.packeteditor.events.ScapyClientConnectedEvent;
@@ -12,59 +13,162 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static com.xored.javafx.packeteditor.scapy.ScapyUtils.createReconstructPktPayload;
 
 public class PacketDataService {
     static Logger logger = LoggerFactory.getLogger(PacketDataService.class);
+
+    static final int BUILD_CACHE_MAX_ENTRIES = 256;
+    static final long BUILD_CACHE_MAX_BYTES = 32 * 1024 * 1024;
     
     @Inject
     ScapyServerClient scapy;
+
+    @Inject
+    LocalDissector localDissector;
+
+    private final Gson gson = new Gson();
+
+    private final PacketBuildCache buildCache = new PacketBuildCache(BUILD_CACHE_MAX_ENTRIES, BUILD_CACHE_MAX_BYTES);
     
     private boolean initialized = false;
 
     @Subscribe
     public void handleScapyConnectedEvent(ScapyClientConnectedEvent event) {
+        // server could be changed
+        buildCache.clear();
         initialized = true;
     }
+
+    /** cache of build_pkt results, undo/redo and reverted edits are served from it */
+    public PacketBuildCache getBuildCache() {
+        return buildCache;
+    }
     
     public PacketData buildPacket(List<ReconstructProtocol> pktStructure) {
-        return scapy.build_pkt(pktStructure);
+        return ScapyServerClient.await(buildPacketAsync(pktStructure));
     }
     
+    public CompletableFuture<PacketData> buildPacketAsync(List<ReconstructProtocol> pktStructure) {
+        return cachedBuild(pktStructure, gson.toJson(pktStructure), () -> scapy.build_pkt_async(pktStructure));
+    }
+
     public PacketData buildPacket(List<ReconstructProtocol> pktStructure, JsonElement extra_options) {
-        try {
-            return scapy.build_pkt_ex(pktStructure, extra_options);
-        } catch (MethodNotFoundException e) {
-            return buildPacket(pktStructure);
-        }
+        return ScapyServerClient.await(buildPacketAsync(pktStructure, extra_options));
+    }
+
+    public CompletableFuture<PacketData> buildPacketAsync(List<ReconstructProtocol> pktStructure, JsonElement extra_options) {
+        String request = gson.toJson(pktStructure) + "\n" + extra_options;
+        return cachedBuild(pktStructure, request, () -> buildPacketExAsync(pktStructure, extra_options));
+    }
+
+    private CompletableFuture<PacketData> buildPacketExAsync(List<ReconstructProtocol> pktStructure, JsonElement extra_options) {
+        CompletableFuture<PacketData> res = new CompletableFuture<>();
+        CompletableFuture<PacketData> request = scapy.build_pkt_ex_async(pktStructure, extra_options);
+        request.whenComplete((pkt, e) -> {
+            if (e == null) {
+                res.complete(pkt);
+            } else if (unwrap(e) instanceof MethodNotFoundException) {
+                // old scapy_server without build_pkt_ex
+                buildPacketAsync(pktStructure).whenComplete((fallbackPkt, fallbackError) -> {
+                    if (fallbackError == null) {
+                        res.complete(fallbackPkt);
+                    } else {
+                        res.completeExceptionally(unwrap(fallbackError));
+                    }
+                });
+            } else {
+                res.completeExceptionally(unwrap(e));
+            }
+        });
+        return cancellable(res, request);
     }
     
+    /** random values and python expressions are evaluated by Scapy on every build, such results are not cached */
+    private CompletableFuture<PacketData> cachedBuild(List<ReconstructProtocol> pktStructure, String request, Supplier<CompletableFuture<PacketData>> build) {
+        if (isEvaluatedOnBuild(pktStructure)) {
+            return build.get();
+        }
+        String key = PacketBuildCache.key(request);
+        PacketData cached = buildCache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<PacketData> built = build.get();
+        return cancellable(built.thenApply(pkt -> {
+            buildCache.put(key, pkt);
+            return pkt;
+        }), built);
+    }
+
+    static boolean isEvaluatedOnBuild(List<ReconstructProtocol> pktStructure) {
+        return pktStructure.stream()
+                .filter(protocol -> protocol.fields != null)
+                .flatMap(protocol -> protocol.fields.stream())
+                .anyMatch(field -> field.isRandom() || field.isExpression());
+    }
+
+    /** cancelling the derived future cancels the request, superseded builds are not sent if they are still queued */
+    private static <T> CompletableFuture<T> cancellable(CompletableFuture<T> derived, CompletableFuture<?> request) {
+        derived.whenComplete((res, e) -> {
+            if (derived.isCancelled()) {
+                request.cancel(false);
+            }
+        });
+        return derived;
+    }
+
     public PacketData reconstructPacket(PacketData currentPkt, List<ReconstructProtocol> modify) {
-        return scapy.reconstruct_pkt(currentPkt.getPacketBytes(), modify);
+        return ScapyServerClient.await(scapy.reconstruct_pkt_async(currentPkt, modify));
+    }
+
+    public CompletableFuture<PacketData> reconstructPacketAsync(PacketData currentPkt, List<ReconstructProtocol> modify) {
+        return scapy.reconstruct_pkt_async(currentPkt, modify);
     }
 
     public PacketData reconstructPacketField(PacketData currentPkt, List<String> path, ReconstructField newValue) {
         return reconstructPacket(currentPkt, createReconstructPktPayload(path, newValue));
     }
 
+    public CompletableFuture<PacketData> reconstructPacketFieldAsync(PacketData currentPkt, List<String> path, ReconstructField newValue) {
+        return reconstructPacketAsync(currentPkt, createReconstructPktPayload(path, newValue));
+    }
+
+    /** common protocol stacks are dissected locally, other packets are dissected by Scapy */
     public PacketData reconstructPacketFromBinary(byte[] bytes) {
-        return scapy.reconstruct_pkt(bytes);
+        PacketData local = localDissector.dissect(bytes);
+        return local != null ? local : scapy.reconstruct_pkt(bytes);
+    }
+
+    public CompletableFuture<PacketData> reconstructPacketFromBinaryAsync(byte[] bytes) {
+        PacketData local = localDissector.dissect(bytes);
+        return local != null ? CompletableFuture.completedFuture(local) : scapy.reconstruct_pkt_async(bytes);
     }
 
     public FieldData getRandomFieldValue(String protocolId, String fieldId) {
-        PacketData pd = scapy.build_pkt(Arrays.asList(ReconstructProtocol.modify(
+        return ScapyServerClient.await(getRandomFieldValueAsync(protocolId, fieldId));
+    }
+
+    public CompletableFuture<FieldData> getRandomFieldValueAsync(String protocolId, String fieldId) {
+        return scapy.build_pkt_async(Arrays.asList(ReconstructProtocol.modify(
                 protocolId,
                 Arrays.asList(ReconstructField.randomizeValue(fieldId))
-        )));
-        return pd.getProtocols().get(0).getFieldById(fieldId);
+        ))).thenApply(pd -> pd.getProtocols().get(0).getFieldById(fieldId));
     }
 
     /** appends protocol to the stack */
     public PacketData appendProtocol(PacketData currentPkt, String protocolId) {
+        return ScapyServerClient.await(appendProtocolAsync(currentPkt, protocolId));
+    }
+
+    public CompletableFuture<PacketData> appendProtocolAsync(PacketData currentPkt, String protocolId) {
         if (currentPkt == null) {
-            return scapy.build_pkt(Arrays.asList(ReconstructProtocol.pass(protocolId)));
+            return scapy.build_pkt_async(Arrays.asList(ReconstructProtocol.pass(protocolId)));
         }
         List<ReconstructProtocol> modify = currentPkt.getProtocols().stream().map(protocol ->
                 ReconstructProtocol.pass(protocol.id)
@@ -75,20 +179,24 @@ public class PacketDataService {
         } else {
             modify.add(ReconstructProtocol.pass(protocolId));
         }
-        return reconstructPacket(currentPkt, modify);
+        return reconstructPacketAsync(currentPkt, modify);
     }
 
     /** removes inner protocol */
     public PacketData removeLastProtocol(PacketData pkt) {
+        return ScapyServerClient.await(removeLastProtocolAsync(pkt));
+    }
+
+    public CompletableFuture<PacketData> removeLastProtocolAsync(PacketData pkt) {
         List<ReconstructProtocol> protocols = pkt.getProtocols().stream().map(protocol ->
                 ReconstructProtocol.pass(protocol.id)
         ).collect(Collectors.toList());
 
         if (protocols.size() > 1)  {
             protocols.get(protocols.size() - 1).delete = true;
-            return reconstructPacket(pkt, protocols);
+            return reconstructPacketAsync(pkt, protocols);
         } else {
-           return new PacketData();
+           return CompletableFuture.completedFuture(new PacketData());
         }
     }
 
@@ -96,14 +204,26 @@ public class PacketDataService {
         return scapy.write_pcap_packet(binaryData);
     }
 
+    public CompletableFuture<byte[]> writePcapPacketAsync(byte[] binaryData) {
+        return scapy.write_pcap_packet_async(binaryData);
+    }
+
     public PacketData read_pcap_packet(byte[] binaryData) {
         return scapy.read_pcap_packet(binaryData);
     }
 
+    public CompletableFuture<PacketData> readPcapPacketAsync(byte[] binaryData) {
+        return scapy.read_pcap_packet_async(binaryData);
+    }
+
     public String decompileVmRaw(byte[] binaryData, String vmRaw) {
         return scapy.decompile_vm_raw(binaryData, vmRaw);
     }
 
+    public CompletableFuture<String> decompileVmRawAsync(byte[] binaryData, String vmRaw) {
+        return scapy.decompile_vm_raw_async(binaryData, vmRaw);
+    }
+
     public void closeConnection() {
         scapy.closeConnection();
     }
@@ -113,7 +233,16 @@ public class PacketDataService {
     }
 
     public Map<String, String> loadInstructionParameterValues(List<ReconstructProtocol> pktStructure, JsonElement vmInstructionsModel, String parameterId) {
-        ScapyData values =  scapy.loadInstructionParameterValues(pktStructure, vmInstructionsModel, parameterId);
-        return values.map == null ? Collections.emptyMap() : values.map;
+        return ScapyServerClient.await(loadInstructionParameterValuesAsync(pktStructure, vmInstructionsModel, parameterId));
+    }
+
+    public CompletableFuture<Map<String, String>> loadInstructionParameterValuesAsync(List<ReconstructProtocol> pktStructure, JsonElement vmInstructionsModel, String parameterId) {
+        return scapy.loadInstructionParameterValuesAsync(pktStructure, vmInstructionsModel, parameterId)
+                .thenApply(values -> values.map == null ? Collections.<String, String>emptyMap() : values.map);
+    }
+
+    /** CompletableFuture wraps errors of dependent stages into CompletionException */
+    static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
     }
 }
@@ -3,39 +3,82 @@ package com.xored.javafx.packeteditor.service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Stack;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
 
 /**
- * Manages application undo records
+ * Manages application undo records.
+ * history is bounded by number of records and by their estimated size, the oldest records are dropped first
  */
 public class PacketUndoController<T> {
     private Logger logger = LoggerFactory.getLogger(PacketUndoController.class);
 
-    Stack<T> undoRecords = new Stack<>();
-    Stack<T> redoRecords = new Stack<>();
-    Stack<T> undoingFrom = null;
-    Stack<T> undoingTo = null;
+    public static final int DEFAULT_MAX_DEPTH = 100;
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static class Record<T> {
+        final T state;
+        final long size;
+
+        Record(T state, long size) {
+            this.state = state;
+            this.size = size;
+        }
+    }
+
+    /** most recent records are at the head */
+    Deque<Record<T>> undoRecords = new ArrayDeque<>();
+    Deque<Record<T>> redoRecords = new ArrayDeque<>();
+    Deque<Record<T>> undoingFrom = null;
+    Deque<Record<T>> undoingTo = null;
     Consumer<T> undoLoad;
+    ToLongFunction<T> sizeOf;
+
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long sizeInBytes = 0;
 
     public PacketUndoController(Consumer<T> undoLoad) {
-        this.undoLoad = undoLoad;
+        this(undoLoad, state -> 0);
+    }
 
+    public PacketUndoController(Consumer<T> undoLoad, ToLongFunction<T> sizeOf) {
+        this.undoLoad = undoLoad;
+        this.sizeOf = sizeOf;
     }
+
     /** sets a callback to reload undo data */
     public void setUndoLoad(Consumer<T> undoLoad) { this.undoLoad = undoLoad; }
 
-    private void doUndo(Stack<T> from, Stack<T> to) {
-        if (from.empty()) {
+    public void setLimits(int maxDepth, long maxBytes) {
+        this.maxDepth = Math.max(1, maxDepth);
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    private void doUndo(Deque<Record<T>> from, Deque<Record<T>> to) {
+        if (from.isEmpty()) {
             logger.debug("Nothing to undo/redo");
             return;
         }
+        Record<T> record = from.pop();
+        sizeInBytes -= record.size;
+        int reverseDepth = to.size();
         try {
             undoingFrom = from;
             undoingTo = to;
-            undoLoad.accept(from.pop());
+            undoLoad.accept(record.state);
         } catch (Exception e) {
             logger.error("undo/redo failed", e);
+            // keep the history as it was, the record can be loaded again
+            while (to.size() > reverseDepth) {
+                sizeInBytes -= to.pop().size;
+            }
+            from.push(record);
+            sizeInBytes += record.size;
         } finally {
             undoingFrom = null;
             undoingTo = null;
@@ -44,14 +87,31 @@ public class PacketUndoController<T> {
 
     /** should be called when modification is done */
     public void beforeContentReplace(T currentState) {
+        Record<T> record = new Record<>(currentState, sizeOf.applyAsLong(currentState));
         if (undoingFrom == null) {
             // new user change
-            undoRecords.push(currentState);
-            redoRecords.clear();
-        } else if (undoingFrom != null) {
+            undoRecords.push(record);
+            clear(redoRecords);
+        } else {
             // undoing or redoing
-            undoingTo.push(currentState);
+            undoingTo.push(record);
+        }
+        sizeInBytes += record.size;
+        evict();
+    }
+
+    /**
+     * drops the latest undo record if it matches, for a change which was reverted without undo.
+     * redo records are not restored, they were cleared by the change
+     */
+    public boolean discardLast(Predicate<T> matches) {
+        Record<T> record = undoRecords.peek();
+        if (record == null || !matches.test(record.state)) {
+            return false;
         }
+        undoRecords.pop();
+        sizeInBytes -= record.size;
+        return true;
     }
 
     public void undo() {
@@ -65,6 +125,37 @@ public class PacketUndoController<T> {
     public void clearHistory() {
         undoRecords.clear();
         redoRecords.clear();
+        sizeInBytes = 0;
+    }
+
+    public int getUndoDepth() {
+        return undoRecords.size();
+    }
+
+    public int getRedoDepth() {
+        return redoRecords.size();
+    }
+
+    public long getSizeInBytes() {
+        return sizeInBytes;
     }
-}
 
+    private void clear(Deque<Record<T>> records) {
+        records.forEach(record -> sizeInBytes -= record.size);
+        records.clear();
+    }
+
+    /** drops the oldest undo records first, then the farthest redo records */
+    private void evict() {
+        while (undoRecords.size() > maxDepth) {
+            sizeInBytes -= undoRecords.removeLast().size;
+        }
+        while (redoRecords.size() > maxDepth) {
+            sizeInBytes -= redoRecords.removeLast().size;
+        }
+        while (sizeInBytes > maxBytes && undoRecords.size() + redoRecords.size() > 1) {
+            Deque<Record<T>> records = undoRecords.size() > 1 || redoRecords.isEmpty() ? undoRecords : redoRecords;
+            sizeInBytes -= records.removeLast().size;
+        }
+    }
+}
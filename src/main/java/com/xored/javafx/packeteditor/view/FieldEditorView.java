@@ -5,19 +5,23 @@ import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.name.Named;
 import com.xored.javafx.packeteditor.controllers.FieldEditorController;
+import com.xored.javafx.packeteditor.controls.ControlPool;
 import com.xored.javafx.packeteditor.controls.ProtocolField;
 import com.xored.javafx.packeteditor.data.PacketEditorModel;
 import com.xored.javafx.packeteditor.data.combined.CombinedField;
 import com.xored.javafx.packeteditor.data.combined.CombinedProtocol;
+import com.xored.javafx.packeteditor.data.combined.CombinedProtocolModelDiff.Change;
 import com.xored.javafx.packeteditor.data.user.UserProtocol;
+import com.xored.javafx.packeteditor.events.ProtocolExpandCollapseEvent;
 import com.xored.javafx.packeteditor.metatdata.BitFlagMetadata;
 import com.xored.javafx.packeteditor.metatdata.FieldMetadata;
 import com.xored.javafx.packeteditor.metatdata.FieldMetadata.FieldType;
 import com.xored.javafx.packeteditor.metatdata.ProtocolMetadata;
 import com.xored.javafx.packeteditor.scapy.FieldData;
 import com.xored.javafx.packeteditor.scapy.ProtocolData;
-import com.xored.javafx.packeteditor.scapy.ScapyServerClient;
+import com.xored.javafx.packeteditor.scapy.ScapyClientMetrics;
 import com.xored.javafx.packeteditor.scapy.TCPOptionsData;
+import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.scene.Node;
@@ -33,6 +37,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.ResourceBundle;
 import java.util.Set;
@@ -47,7 +52,7 @@ public class FieldEditorView {
     protected FieldEditorController controller;
 
     @Inject
-    ScapyServerClient scapyServerClient;
+    ScapyClientMetrics metrics;
 
     protected Pane rootPane;
     protected Pane breadCrumbPane;
@@ -61,13 +66,56 @@ public class FieldEditorView {
 
     @Inject
     protected Injector injector;
+
+    @Inject
+    protected ControlPool controlPool;
     private AutoCompletionBinding<String> protoAutoCompleter;
 
-    public List<TitledPane> getProtocolTitledPanes() {
-        return protocolTitledPanes;
+    /** virtualized list of layer headers and field rows, only visible rows have controls */
+    private ListView<FieldRow> fieldList;
+
+    /** layers shown in the list, in the protocol stack order */
+    private List<LayerRows> layers = new ArrayList<>();
+
+    /** last clicked row, the highlight follows the item when cells are reused */
+    private FieldRow selectedItem;
+
+    private static class LayerRows {
+        final CombinedProtocol protocol;
+        final FieldRow header;
+        boolean expanded;
+        /** rows of the fields, built only while the layer is expanded */
+        List<FieldRow> rows = Collections.emptyList();
+
+        LayerRows(CombinedProtocol protocol) {
+            this.protocol = protocol;
+            this.header = new FieldRow(FieldRow.Kind.LAYER, this, null);
+        }
+
+        int size() {
+            return 1 + rows.size();
+        }
     }
 
-    private List<TitledPane> protocolTitledPanes = new ArrayList<>();
+    /** item of the field list: a layer header, a field or a nested row of a field */
+    private static class FieldRow {
+        enum Kind { LAYER, FIELD, BIT_FLAG, TCP_OPTION }
+
+        final Kind kind;
+        final LayerRows layer;
+        final CombinedField field;
+        BitFlagMetadata bitFlag;
+        TCPOptionsData tcpOption;
+        String styleClass;
+        /** even/odd counter at the row, field rows are rebuilt from it */
+        int oddIndex;
+
+        FieldRow(Kind kind, LayerRows layer, CombinedField field) {
+            this.kind = kind;
+            this.layer = layer;
+            this.field = field;
+        }
+    }
 
     // For even/odd background, this is NOT any real field index
     static protected int oddIndex = 0;
@@ -163,31 +211,54 @@ public class FieldEditorView {
         return layerPane;
     }
     
-    protected List<Node> buildLayerRows(CombinedProtocol protocol) {
-        List<Node> rows = new ArrayList<>();
-        protocol.getFields().stream().forEach(field -> {
-            rows.add(buildFieldRow(field));
-            FieldType type = field.getType();
-            if(BITMASK.equals(type)) {
-                rows.addAll(createBitFlagRows(field));
+    private List<FieldRow> buildLayerRows(LayerRows layer) {
+        List<FieldRow> rows = new ArrayList<>();
+        int oddIndex = 0;
+        for (CombinedField field : layer.protocol.getFields()) {
+            oddIndex = addFieldRows(rows, layer, field, oddIndex);
+        }
+        return rows;
+    }
+
+    /** adds the row of the field followed by its bit flags or TCP options, returns the next even/odd counter */
+    private int addFieldRows(List<FieldRow> rows, LayerRows layer, CombinedField field, int oddIndex) {
+        FieldRow fieldRow = new FieldRow(FieldRow.Kind.FIELD, layer, field);
+        fieldRow.oddIndex = oddIndex;
+        fieldRow.styleClass = !BYTES.equals(field.getType()) && oddIndex % 2 != 0 ? "field-row-odd" : "field-row-even";
+        oddIndex++;
+        rows.add(fieldRow);
+
+        FieldType type = field.getType();
+        if (BITMASK.equals(type)) {
+            for (BitFlagMetadata bitFlag : field.getMeta().getBits()) {
+                FieldRow row = new FieldRow(FieldRow.Kind.BIT_FLAG, layer, field);
+                row.bitFlag = bitFlag;
+                row.styleClass = "field-row-flags";
+                if (oddIndex % 2 == 0) oddIndex++;
+                rows.add(row);
             }
-            if(TCP_OPTIONS.equals(type) && field.getScapyFieldData() != null) {
-                rows.addAll(createTCPOptionRows(field));
+        }
+        if (TCP_OPTIONS.equals(type) && field.getScapyFieldData() != null) {
+            for (TCPOptionsData option : TCPOptionsData.fromFieldData(field.getScapyFieldData())) {
+                FieldRow row = new FieldRow(FieldRow.Kind.TCP_OPTION, layer, field);
+                row.tcpOption = option;
+                row.styleClass = "field-row";
+                rows.add(row);
             }
-        });
-        return rows;
+        }
+        return oddIndex;
     }
-    
-    protected void configureExpandCollapse(TitledPane layerPane, CombinedProtocol protocol) {
+
+    private LayerRows buildLayerRows(CombinedProtocol protocol) {
+        LayerRows layer = new LayerRows(protocol);
         UserProtocol userProtocol = protocol.getUserProtocol();
-        if(userProtocol != null) {
-            layerPane.setExpanded(controller.isViewOnly() || !userProtocol.isCollapsed());
-            layerPane.expandedProperty().addListener(val->
-                    userProtocol.setCollapsed(!layerPane.isExpanded())
-            );
+        layer.expanded = controller.isViewOnly() || userProtocol == null || !userProtocol.isCollapsed();
+        if (layer.expanded) {
+            layer.rows = buildLayerRows(layer);
         }
+        return layer;
     }
-    
+
     protected ContextMenu getLayerContextMenu(CombinedProtocol protocol) {
         UserProtocol userProtocol = protocol.getUserProtocol();    
         PacketEditorModel model = getModel();
@@ -239,7 +310,7 @@ public class FieldEditorView {
     }
 
     private Node buildProtocolStructureLayer() {
-        String szsize = String.format("%d bytes", getModel().getPkt().getPacketBytes().length + 4);
+        String szsize = String.format("%d bytes", getModel().getPkt().getPacketLength() + 4);
         BreadCrumbBar<Object> pktStructure = new BreadCrumbBar<>();
         TreeItem<Object> first = new TreeItem<Object>(szsize);
         TreeItem<Object> other = buildProtocolStructure(first);
@@ -302,9 +373,11 @@ public class FieldEditorView {
     }
 
     public void rebuild(boolean rebuld_breadcrumb) {
+        long start = System.nanoTime();
         try {
-            protocolTitledPanes = getModel().getCombinedProtocolModel().getProtocolStack().stream()
-                    .map(this::buildLayer)
+            selectedItem = null;
+            layers = getModel().getCombinedProtocolModel().getProtocolStack().stream()
+                    .map(this::buildLayerRows)
                     .collect(Collectors.toList());
 
             if (rebuld_breadcrumb) {
@@ -314,52 +387,190 @@ public class FieldEditorView {
                     bottomPane.getChildren().add(buildAppendProtocolPane());
                 }
             }
-            //protocolTitledPanes.add(buildAppendProtocolPane());
-            VBox protocolsPaneVbox = new VBox();
-            protocolsPaneVbox.getChildren().setAll(protocolTitledPanes);
-            rootPane.getChildren().setAll(protocolsPaneVbox);
+            List<FieldRow> items = new ArrayList<>();
+            layers.forEach(layer -> addLayerItems(items, layer));
+            // the list is kept between rebuilds, so cells and the scroll position survive
+            if (fieldList == null) {
+                fieldList = createFieldList();
+            }
+            fieldList.getItems().setAll(items);
+            if (!rootPane.getChildren().contains(fieldList)) {
+                rootPane.getChildren().setAll(fieldList);
+            }
         } catch(Exception e) {
             logger.error("Error occurred during rebuilding view. Error {}", e);
+        } finally {
+            metrics.recordLocal("view.rebuild", System.nanoTime() - start);
         }
     }
 
-    private TitledPane buildLayer(CombinedProtocol protocol) {
-        LayerContext layerContext = new LayerContext() {
-            @Override
-            public String getLayerId() {
-                return protocol.getPath().stream().collect(Collectors.joining("-")) + "-pane";
-            }
-            @Override
-            public String getTitle() {
-                return getLayerTitle(protocol);
-            }
-            @Override
-            public String getStyleClass() {
-                return getLayerStyleClass(protocol);
+    private ListView<FieldRow> createFieldList() {
+        ListView<FieldRow> list = new ListView<>();
+        list.setId("field-list");
+        list.getStyleClass().add("field-list");
+        // rows handle clicks and highlight themselves, the list only scrolls
+        list.setFocusTraversable(false);
+        list.setCellFactory(l -> new FieldRowCell());
+        return list;
+    }
+
+    /** true if the view shows layers of the current model, so changes can be applied incrementally */
+    public boolean canApplyChanges() {
+        return fieldList != null && rootPane.getChildren().contains(fieldList);
+    }
+
+    /**
+     * updates only items of changed layers and fields, cells of the rest of the list are kept as is
+     */
+    public void applyChanges(List<Change> changes) {
+        long start = System.nanoTime();
+        try {
+            boolean structureChanged = false;
+            for (Change change : changes) {
+                switch (change.getType()) {
+                    case FIELD_VALUE_CHANGED:
+                        rebuildFieldRows(layers.get(change.getIndex()), change.getField());
+                        break;
+                    case LAYER_CHANGED: {
+                        LayerRows layer = buildLayerRows(change.getProtocol());
+                        LayerRows oldLayer = layers.set(change.getIndex(), layer);
+                        replaceItems(itemIndex(layer), layerItems(oldLayer), layerItems(layer));
+                        structureChanged = true;
+                        break;
+                    }
+                    case LAYER_REMOVED: {
+                        int from = itemIndex(layers.get(change.getIndex()));
+                        LayerRows oldLayer = layers.remove(change.getIndex());
+                        fieldList.getItems().remove(from, from + oldLayer.size());
+                        structureChanged = true;
+                        break;
+                    }
+                    case LAYER_ADDED: {
+                        LayerRows layer = buildLayerRows(change.getProtocol());
+                        layers.add(change.getIndex(), layer);
+                        fieldList.getItems().addAll(itemIndex(layer), layerItems(layer));
+                        structureChanged = true;
+                        break;
+                    }
+                }
             }
-            @Override
-            public List<Node> getRows() {
-                return buildLayerRows(protocol);
+
+            // packet size is shown in the breadcrumb, so it's updated on every change
+            buildProtocolStructureLayer();
+            if (structureChanged && !controller.isViewOnly()) {
+                bottomPane.getChildren().clear();
+                bottomPane.getChildren().add(buildAppendProtocolPane());
             }
-            @Override
-            public ContextMenu getContextMenu() {
-                return getLayerContextMenu(protocol);
+        } catch(Exception e) {
+            logger.error("Error occurred during updating view. Error {}", e);
+        } finally {
+            metrics.recordLocal("view.applyChanges", System.nanoTime() - start);
+        }
+    }
+
+    public void expandCollapse(ProtocolExpandCollapseEvent.Action action) {
+        if (layers.isEmpty() || controller.isViewOnly()) {
+            return;
+        }
+        LayerRows lastLayer = layers.get(layers.size() - 1);
+        List<FieldRow> items = new ArrayList<>();
+        for (LayerRows layer : layers) {
+            switch (action) {
+                case EXPAND_ALL:
+                    updateLayerExpanded(layer, true);
+                    break;
+                case COLLAPSE_ALL:
+                    updateLayerExpanded(layer, false);
+                    break;
+                case EXPAND_ONLY_LAST:
+                    updateLayerExpanded(layer, layer == lastLayer);
+                    break;
             }
-            @Override
-            public boolean isCollapsed() {
-                return false;
+            addLayerItems(items, layer);
+        }
+        fieldList.getItems().setAll(items);
+    }
+
+    private void setLayerExpanded(LayerRows layer, boolean expanded) {
+        if (layer.expanded == expanded || !layers.contains(layer)) {
+            return;
+        }
+        int from = itemIndex(layer) + 1;
+        fieldList.getItems().remove(from, from + layer.rows.size());
+        updateLayerExpanded(layer, expanded);
+        fieldList.getItems().addAll(from, layer.rows);
+    }
+
+    private void updateLayerExpanded(LayerRows layer, boolean expanded) {
+        UserProtocol userProtocol = layer.protocol.getUserProtocol();
+        if (userProtocol != null) {
+            userProtocol.setCollapsed(!expanded);
+        }
+        if (layer.expanded != expanded) {
+            layer.expanded = expanded;
+            layer.rows = expanded ? buildLayerRows(layer) : Collections.emptyList();
+        }
+    }
+
+    private void rebuildFieldRows(LayerRows layer, CombinedField field) {
+        int from = -1;
+        int to = -1;
+        for (int i = 0; i < layer.rows.size(); i++) {
+            if (layer.rows.get(i).field == field) {
+                if (from < 0) {
+                    from = i;
+                }
+                to = i + 1;
             }
-            @Override
-            public void setCollapsed(boolean collapsed) {
-                protocol.getUserProtocol().setCollapsed(collapsed);
+        }
+        if (from < 0) {
+            // collapsed layer, rows are built on expand
+            return;
+        }
+        List<FieldRow> newRows = new ArrayList<>();
+        addFieldRows(newRows, layer, field, layer.rows.get(from).oddIndex);
+        List<FieldRow> oldRows = new ArrayList<>(layer.rows.subList(from, to));
+
+        List<FieldRow> rows = new ArrayList<>(layer.rows);
+        rows.subList(from, to).clear();
+        rows.addAll(from, newRows);
+        layer.rows = rows;
+        replaceItems(itemIndex(layer) + 1 + from, oldRows, newRows);
+    }
+
+    /** index of the layer header in the list items */
+    private int itemIndex(LayerRows layer) {
+        int index = 0;
+        for (LayerRows l : layers) {
+            if (l == layer) {
+                return index;
             }
-            @Override
-            public void configureLayerExpandCollapse(TitledPane layerPane) {
-                configureExpandCollapse(layerPane, protocol);
+            index += l.size();
+        }
+        throw new IllegalStateException("Layer is not shown: " + layer.protocol.getId());
+    }
+
+    private void replaceItems(int from, List<FieldRow> oldItems, List<FieldRow> newItems) {
+        ObservableList<FieldRow> items = fieldList.getItems();
+        if (oldItems.size() == newItems.size()) {
+            for (int i = 0; i < newItems.size(); i++) {
+                items.set(from + i, newItems.get(i));
             }
-        };
-        
-        return buildLayer(layerContext);
+        } else {
+            items.remove(from, from + oldItems.size());
+            items.addAll(from, newItems);
+        }
+    }
+
+    private static List<FieldRow> layerItems(LayerRows layer) {
+        List<FieldRow> items = new ArrayList<>();
+        addLayerItems(items, layer);
+        return items;
+    }
+
+    private static void addLayerItems(List<FieldRow> items, LayerRows layer) {
+        items.add(layer.header);
+        items.addAll(layer.rows);
     }
 
     public TitledPane buildAppendProtocolPane() {
@@ -458,201 +669,241 @@ public class FieldEditorView {
         return controller.getModel();
     }
 
-    private Node getFieldLabel(CombinedField field) {
-        HBox row = new HBox();
-        Label lblInfo = new Label();
-        Label lblName = new Label(field.getMeta().getName());
-
-        FieldData scapyData = field.getScapyFieldData();
-
-        if (scapyData != null && scapyData.hasPosition()) {
-            int protocolOffset = field.getProtocol().getScapyProtocol().offset.intValue();
-            int len = scapyData.getLength();
-            int begin = protocolOffset + scapyData.getOffset();
-            int end = begin + Math.max(len - 1, 0);
-
-            if (len > 0) {
-                lblInfo.setText(String.format("%04x-%04x [%04d]", begin, end, len));
-            } else {
-                lblInfo.setText(String.format("%04x-%04x [bits]", begin, end));
-            }
-        } else {
-            lblInfo.setText("meta-field");
-        }
-
-        lblInfo.setOnMouseClicked(e -> controller.selectField(field));
-        lblName.setOnMouseClicked(e -> controller.selectField(field));
-        lblName.setTooltip(new Tooltip(field.getMeta().getId()));
-        lblName.setId(getUniqueIdFor(field) + "-label");
-
-        if (scapyData != null && scapyData.isIgnored()) {
-            lblInfo.getStyleClass().add("ignored-field");
-            lblInfo.setText("ignored");
-        }
-
-        lblInfo.getStyleClass().add("field-label-info");
-        lblName.getStyleClass().add("field-label-name");
-        row.getChildren().add(lblInfo);
-        row.getChildren().add(lblName);
-        return row;
-    }
-
-    private Node buildIndentedFieldLabel(String info, String name, Boolean isBitFlag) {
-        HBox row = new HBox();
-        Label lblInfo = new Label(info);
-        Label lblName = new Label(name);
-
-        lblInfo.getStyleClass().add("field-label-info");
-        if (isBitFlag) {
-            lblName.getStyleClass().add("bitflag-label-name");
-        } else {
-            lblName.getStyleClass().add("field-label-name");
-        }
-        lblName.getStyleClass().add("indented");
-        row.getChildren().add(lblInfo);
-        row.getChildren().add(lblName);
-        return row;
-    }
-
-    private Node buildIndentedFieldLabel(String info, String name) {
-        return buildIndentedFieldLabel(info, name, false);
-    }
-
     public String getUniqueIdFor(CombinedField field) {
         List<String> fullpath = new ArrayList<>(field.getProtocol().getPath());
         fullpath.add(field.getMeta().getId());
         return fullpath.stream().collect(Collectors.joining("-"));
     }
 
-    protected Node buildFieldRow(CombinedField field) {
-        FieldMetadata meta = field.getMeta();
-        FieldType type = meta.getType();
-
-        HBox row = new HBox();
-        row.setOnMouseClicked(e -> setSelectedRow(row));
-
-        String even = "-even";
-        if (!BYTES.equals(type) && oddIndex % 2 != 0) {
-            even = "-odd";
-        }
-        row.getStyleClass().addAll("field-row" + even);
-        oddIndex++;
+    private void selectRow(FieldRow item, HBox row) {
+        selectedItem = item;
+        setSelectedRow(row);
+    }
 
-        BorderPane titlePane = new BorderPane();
-        titlePane.setLeft(getFieldLabel(field));
-        titlePane.getStyleClass().add("title-pane");
+    /** cell of the field list, the header and row nodes are kept and rebound to whatever item the cell shows */
+    private class FieldRowCell extends ListCell<FieldRow> {
+        private TitledPane layerPane;
+        /** expanded state and bit flag value are set from the item, not by the user */
+        private boolean binding;
 
-        ProtocolField fieldControl = injector.getInstance(ProtocolField.class);
-        fieldControl.init(field, controller.isViewOnly());
+        private final HBox row = new HBox();
+        private final BorderPane valuePane = new BorderPane();
+        private final Label lblInfo = new Label();
+        private final Label lblName = new Label();
+        private final Tooltip nameTooltip = new Tooltip();
+        /** value control of a field row, returned to the pool while the cell shows other rows */
+        private ProtocolField fieldControl;
+        /** row fieldControl is bound to, the same row is not rebound */
+        private FieldRow boundItem;
+        private final ComboBox<ComboBoxItem> bitFlagCombo = new ComboBox<>();
+        private final Text tcpOptionValue = new Text();
 
-        BorderPane valuePane = new BorderPane();
-        valuePane.setCenter(fieldControl);
-        row.getChildren().addAll(titlePane, valuePane);
-        
-        if (!controller.isViewOnly()) {
-            row.setOnContextMenuRequested(e -> {
-                ContextMenu contextMenu = fieldControl.getContextMenu();
-                if (contextMenu != null) {
-                    e.consume();
-                    contextMenu.show(row, e.getScreenX(), e.getScreenY());
+        FieldRowCell() {
+            setContentDisplay(ContentDisplay.GRAPHIC_ONLY);
+            BorderPane titlePane = new BorderPane();
+            titlePane.setLeft(new HBox(lblInfo, lblName));
+            titlePane.getStyleClass().add("title-pane");
+            titlePane.setOnMouseClicked(e -> {
+                if (getItem() != null && getItem().field != null) {
+                    controller.selectField(getItem().field);
+                }
+            });
+            row.getChildren().addAll(titlePane, valuePane);
+            row.setOnMouseClicked(e -> selectRow(getItem(), row));
+
+            bitFlagCombo.getStyleClass().setAll("control", "bitflag");
+            bitFlagCombo.setOnAction(e -> {
+                FieldRow item = getItem();
+                ComboBoxItem val = bitFlagCombo.getSelectionModel().getSelectedItem();
+                if (binding || val == null || item == null || item.kind != FieldRow.Kind.BIT_FLAG) {
+                    return;
                 }
+                CombinedField field = item.field;
+                int selected = val.getValue().getAsInt();
+                int current = field.getValue().getAsInt();
+                String newVal = String.valueOf(current & ~(item.bitFlag.getMask()) | selected);
+                getModel().editField(field, newVal);
             });
         }
-        return row;
-    }
 
-    private List<Node> createTCPOptionRows(CombinedField field) {
-        return TCPOptionsData.fromFieldData(field.getScapyFieldData()).stream().map(fd -> {
-            BorderPane titlePane = new BorderPane();
-            titlePane.setLeft(buildIndentedFieldLabel("", fd.getName()));
-            titlePane.getStyleClass().add("title-pane");
-            titlePane.setOnMouseClicked(e -> controller.selectField(field));
-
-            HBox row = new HBox();
-            row.setOnMouseClicked(e -> setSelectedRow(row));
-            row.getStyleClass().addAll("field-row");
-
-            BorderPane valuePane = new BorderPane();
-            Text valueCtrl = new Text();
-            if (fd.hasValue()) {
-                valueCtrl.setText(fd.getDisplayValue());
+        @Override
+        protected void updateItem(FieldRow item, boolean empty) {
+            super.updateItem(item, empty);
+            setText(null);
+            if (item == null || item.kind != FieldRow.Kind.FIELD) {
+                releaseFieldControl();
+            }
+            if (empty || item == null) {
+                setGraphic(null);
+            } else if (item.kind == FieldRow.Kind.LAYER) {
+                setGraphic(bindLayer(item.layer));
             } else {
-                valueCtrl.setText("-");
+                bindRow(item);
+                setGraphic(row);
             }
-            valuePane.setLeft(valueCtrl);
-            row.getChildren().addAll(titlePane, valuePane);
-            return row;
-        }).collect(Collectors.toList());
-    }
+        }
 
-    private String maskToString(int mask) {
-        return String.format("%8s", Integer.toBinaryString(mask)).replace(' ', '.').replace('0', '.');
-    }
+        @Override
+        protected double computePrefWidth(double height) {
+            // rows prefer a huge width to fill the line, the list should scroll only past their minimum
+            return minWidth(height);
+        }
 
-    private List<Node> createBitFlagRows(CombinedField field) {
-        return field.getMeta().getBits().stream().map(bitFlagMetadata -> {
-            String flagName = bitFlagMetadata.getName();
-            int flagMask = bitFlagMetadata.getMask();
-            Node label = buildIndentedFieldLabel(maskToString(flagMask), flagName, true);
-            ComboBox<ComboBoxItem> combo = createBitFlagComboBox(field, bitFlagMetadata, flagName, flagMask);
-            return createRow(label, combo, field);
-        }).collect(Collectors.toList());
-    }
+        private TitledPane bindLayer(LayerRows layer) {
+            if (layerPane == null) {
+                layerPane = new TitledPane();
+                layerPane.setAnimated(false);
+                layerPane.expandedProperty().addListener((observable, oldValue, expanded) -> {
+                    FieldRow item = getItem();
+                    if (!binding && item != null && item.kind == FieldRow.Kind.LAYER) {
+                        setLayerExpanded(item.layer, expanded);
+                    }
+                });
+            }
+            CombinedProtocol protocol = layer.protocol;
+            binding = true;
+            layerPane.setId(getLayerId(protocol) + "-pane");
+            layerPane.getStyleClass().setAll("titled-pane");
+            String styleClass = getLayerStyleClass(protocol);
+            if (!styleClass.isEmpty()) {
+                layerPane.getStyleClass().add(styleClass);
+            }
+            layerPane.setText(getLayerTitle(protocol));
+            layerPane.setCollapsible(!controller.isViewOnly());
+            layerPane.setExpanded(layer.expanded);
+            layerPane.setContextMenu(controller.isViewOnly() ? null : getLayerContextMenu(protocol));
+            binding = false;
+            return layerPane;
+        }
 
-    private Node createRow(Node label, Node control, CombinedField field) {
-        BorderPane titlePane = new BorderPane();
-        
-        titlePane.setLeft(label);
-        titlePane.getStyleClass().add("title-pane");
-        if (field != null) {
-            titlePane.setOnMouseClicked(e -> controller.selectField(field));
+        private void bindRow(FieldRow item) {
+            row.getStyleClass().setAll(item.styleClass);
+            if (item == selectedItem) {
+                setSelectedRow(row);
+            } else {
+                row.setStyle("");
+                if (selected_row == row) {
+                    selected_row = null;
+                }
+            }
+            row.setOnContextMenuRequested(null);
+            lblInfo.getStyleClass().setAll("label", "field-label-info");
+            lblName.getStyleClass().setAll("label");
+            lblName.setId(null);
+            lblName.setTooltip(null);
+            valuePane.setLeft(null);
+            valuePane.setCenter(null);
+
+            switch (item.kind) {
+                case FIELD:
+                    bindFieldRow(item);
+                    break;
+                case BIT_FLAG: {
+                    BitFlagMetadata bitFlag = item.bitFlag;
+                    lblInfo.setText(maskToString(bitFlag.getMask()));
+                    lblName.setText(bitFlag.getName());
+                    lblName.getStyleClass().addAll("bitflag-label-name", "indented");
+                    bindBitFlagCombo(item.field, bitFlag);
+                    valuePane.setLeft(bitFlagCombo);
+                    break;
+                }
+                case TCP_OPTION:
+                    lblInfo.setText("");
+                    lblName.setText(item.tcpOption.getName());
+                    lblName.getStyleClass().addAll("field-label-name", "indented");
+                    tcpOptionValue.setText(item.tcpOption.hasValue() ? item.tcpOption.getDisplayValue() : "-");
+                    valuePane.setLeft(tcpOptionValue);
+                    break;
+            }
         }
 
-        HBox row = new HBox();
-        row.setOnMouseClicked(e -> setSelectedRow(row));
-        row.getStyleClass().addAll("field-row-flags");
-        if (oddIndex %2 == 0) oddIndex++;
+        private void bindBitFlagCombo(CombinedField field, BitFlagMetadata bitFlagMetadata) {
+            List<ComboBoxItem> items = bitFlagMetadata.getValues().entrySet().stream()
+                    .map(entry -> new ComboBoxItem(entry.getKey(), entry.getValue()))
+                    .collect(Collectors.toList());
 
-        BorderPane valuePane = new BorderPane();
-        valuePane.setLeft(control);
-        row.getChildren().addAll(titlePane, valuePane);
-        return row;
-    }
-    
-    private ComboBox<ComboBoxItem> createBitFlagComboBox(CombinedField field, BitFlagMetadata bitFlagMetadata, String flagName, int flagMask) {
-        ComboBox<ComboBoxItem> combo = new ComboBox<>();
-        combo.setId(getUniqueIdFor(field));
-        combo.getStyleClass().setAll("control", "bitflag");
+            ComboBoxItem defaultValue = null;
+            if (field.getValue() instanceof JsonPrimitive) {
+                int fieldValue = field.getValue().getAsInt();
+                int flagMask = bitFlagMetadata.getMask();
+                defaultValue = items.stream().filter(item ->
+                        (fieldValue & flagMask) == item.getValue().getAsInt()
+                ).findFirst().orElse(null);
+            }
 
-        List<ComboBoxItem> items = bitFlagMetadata.getValues().entrySet().stream()
-                .map(entry -> new ComboBoxItem(entry.getKey(), entry.getValue()))
-                .collect(Collectors.toList());
-        combo.getItems().addAll(items);
+            binding = true;
+            bitFlagCombo.setId(getUniqueIdFor(field) + "-" + bitFlagMetadata.getName());
+            bitFlagCombo.getItems().setAll(items);
+            bitFlagCombo.setValue(defaultValue);
+            bitFlagCombo.setDisable(controller.isViewOnly());
+            binding = false;
+        }
+
+        private void bindFieldRow(FieldRow item) {
+            CombinedField field = item.field;
+            FieldData scapyData = field.getScapyFieldData();
+            if (scapyData != null && scapyData.hasPosition()) {
+                int protocolOffset = field.getProtocol().getScapyProtocol().offset.intValue();
+                int len = scapyData.getLength();
+                int begin = protocolOffset + scapyData.getOffset();
+                int end = begin + Math.max(len - 1, 0);
+
+                if (len > 0) {
+                    lblInfo.setText(String.format("%04x-%04x [%04d]", begin, end, len));
+                } else {
+                    lblInfo.setText(String.format("%04x-%04x [bits]", begin, end));
+                }
+            } else {
+                lblInfo.setText("meta-field");
+            }
+            if (scapyData != null && scapyData.isIgnored()) {
+                lblInfo.getStyleClass().add("ignored-field");
+                lblInfo.setText("ignored");
+            }
 
-        combo.setId(getUniqueIdFor(field) + "-" + flagName);
+            lblName.setText(field.getMeta().getName());
+            nameTooltip.setText(field.getMeta().getId());
+            lblName.setTooltip(nameTooltip);
+            lblName.setId(getUniqueIdFor(field) + "-label");
+            lblName.getStyleClass().add("field-label-name");
 
-        ComboBoxItem defaultValue = null;
+            if (item != boundItem && fieldControl != null && fieldControl.isEditing()) {
+                // the pool commits the edit, the cell takes another control
+                releaseFieldControl();
+            }
+            if (fieldControl == null) {
+                fieldControl = controlPool.acquire(ProtocolField.class);
+            }
+            if (item != boundItem) {
+                fieldControl.rebind(field, controller.isViewOnly());
+                boundItem = item;
+            }
+            valuePane.setCenter(fieldControl);
+
+            if (!controller.isViewOnly()) {
+                ProtocolField control = fieldControl;
+                row.setOnContextMenuRequested(e -> {
+                    ContextMenu contextMenu = control.getContextMenu();
+                    if (contextMenu != null) {
+                        e.consume();
+                        contextMenu.show(row, e.getScreenX(), e.getScreenY());
+                    }
+                });
+            }
+        }
 
-        if (field.getValue() instanceof JsonPrimitive) {
-            Integer fieldValue = field.getValue().getAsInt();
-            defaultValue = items.stream().filter(item ->
-                    (fieldValue & flagMask) == item.getValue().getAsInt()
-            ).findFirst().orElse(null);
+        private void releaseFieldControl() {
+            if (fieldControl != null) {
+                valuePane.setCenter(null);
+                controlPool.release(fieldControl);
+                fieldControl = null;
+                boundItem = null;
+            }
         }
+    }
 
-        combo.setValue(defaultValue);
-        
-        combo.setDisable(controller.isViewOnly());
-        
-        combo.setOnAction((event) -> {
-            ComboBoxItem val = combo.getSelectionModel().getSelectedItem();
-            int bitFlagMask = bitFlagMetadata.getMask();
-            int selected = val.getValue().getAsInt();
-            int current = field.getValue().getAsInt();
-            String newVal = String.valueOf(current & ~(bitFlagMask) | selected);
-            getModel().editField(field, newVal);
-        });
-        return combo;
+    private String maskToString(int mask) {
+        return String.format("%8s", Integer.toBinaryString(mask)).replace(' ', '.').replace('0', '.');
     }
 
     public void displayConnectionError() {
@@ -680,6 +931,11 @@ public class FieldEditorView {
 
     public void reset(boolean connected) {
         rootPane.getChildren().clear();
+        layers = new ArrayList<>();
+        selectedItem = null;
+        if (fieldList != null) {
+            fieldList.getItems().clear();
+        }
         if (connected) {
             showEmptyPacketContent();
         }
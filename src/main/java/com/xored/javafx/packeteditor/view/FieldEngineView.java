@@ -37,9 +37,12 @@ public class FieldEngineView extends FieldEditorView {
     private VBox topPane;
     private VBox bottomPane;
     private ScrollPane scrollPane;
+    /** controls of the shown content, returned to the pool on rebuild */
+    private List<Node> boundControls = new ArrayList<>();
 
     public void rebuild() {
         try {
+            releaseControls();
             List<Node> layers = new ArrayList<>();
 
             List<Node> instructionLayers = getModel().getInstructionExpressions().stream().map(this::buildLayerData).collect(Collectors.toList());
@@ -74,14 +77,14 @@ public class FieldEngineView extends FieldEditorView {
         grid.add(pktStructure, 1, 0);
         grid.add(new Label("Cache size:"), 0,1);
 
-        FeParameterField feParameterField = injector.getInstance(FeParameterField.class);
+        FeParameterField feParameterField = acquireControl(FeParameterField.class);
         FeParameter cacheSize = getModel().getUserModel().getFeParameter("cache_size");
         if (cacheSize == null) {
             FeParameterMeta meta = controller.getMetadataService().getFeParameters().get("cache_size");
             getModel().getUserModel().createFePrarameter(meta, meta.getDefault());
             cacheSize = getModel().getUserModel().getFeParameter("cache_size");
         }
-        feParameterField.init(cacheSize);
+        feParameterField.rebind(cacheSize);
         
         grid.add(feParameterField, 1,1);
         
@@ -258,9 +261,8 @@ public class FieldEngineView extends FieldEditorView {
             parameterPane.getStyleClass().addAll("field-row" + even);
             oddIndex++;
 
-            FEInstructionParameterField instructionParameter = injector.getInstance(FEInstructionParameterField.class);
-            instructionParameter.init(parameter);
-            instructionParameter.setInstruction(instruction);
+            FEInstructionParameterField instructionParameter = acquireControl(FEInstructionParameterField.class);
+            instructionParameter.rebind(parameter, instruction);
             BorderPane instructionParameterPane = new BorderPane();
             instructionParameterPane.setLeft(instructionParameter);
 
@@ -273,6 +275,17 @@ public class FieldEngineView extends FieldEditorView {
         }).collect(Collectors.toList());
     }
     
+    private <T extends Node> T acquireControl(Class<T> type) {
+        T control = controlPool.acquire(type);
+        boundControls.add(control);
+        return control;
+    }
+
+    private void releaseControls() {
+        boundControls.forEach(controlPool::release);
+        boundControls.clear();
+    }
+
     private MenuItem addMenuItem(ContextMenu ctxMenu, String text, EventHandler<ActionEvent> action) {
         MenuItem menuItem = new MenuItem();
         menuItem.setText(text);
@@ -377,6 +390,7 @@ public class FieldEngineView extends FieldEditorView {
 
     public void reset() {
         rootPane.getChildren().clear();
+        releaseControls();
         showEmptyPacketContent();
     }
 
@@ -0,0 +1,159 @@
+package com.xored.javafx.packeteditor.view;
+
+import com.xored.javafx.packeteditor.pcap.PcapPacket;
+import com.xored.javafx.packeteditor.pcap.PcapReader;
+import javafx.collections.ObservableListBase;
+import javafx.concurrent.Task;
+import javafx.scene.control.*;
+import javafx.scene.layout.BorderPane;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * lets user pick a packet from a multi-packet capture.
+ * the list is virtual: cells read only the visible packets from the reader, packets are counted in background
+ */
+public class PcapBrowserDialog extends Dialog<Long> {
+    private static Logger logger = LoggerFactory.getLogger(PcapBrowserDialog.class);
+
+    static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+            .withZone(ZoneId.systemDefault());
+    static final int SUMMARY_BYTES = 16;
+
+    private final PcapReader reader;
+    private final PacketIndexList packets = new PacketIndexList();
+    private final ListView<Long> listView = new ListView<>(packets);
+    private final Label statusLabel = new Label();
+    private Task<Long> countTask;
+
+    /** indices of packets known so far */
+    private static class PacketIndexList extends ObservableListBase<Long> {
+        private int size = 0;
+
+        @Override
+        public Long get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException();
+            }
+            return (long) index;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        void setSize(int newSize) {
+            if (newSize <= size) {
+                return;
+            }
+            beginChange();
+            nextAdd(size, newSize);
+            size = newSize;
+            endChange();
+        }
+    }
+
+    private class PacketCell extends ListCell<Long> {
+        @Override
+        protected void updateItem(Long index, boolean empty) {
+            super.updateItem(index, empty);
+            if (empty || index == null) {
+                setText(null);
+                return;
+            }
+            try {
+                setText(describe(reader.getPacket(index)));
+            } catch (IOException | RuntimeException e) {
+                setText((index + 1) + "  " + e.getMessage());
+            }
+        }
+    }
+
+    public PcapBrowserDialog(PcapReader reader) {
+        this.reader = reader;
+        setTitle("Select packet");
+        setHeaderText(reader.getFile().getName());
+        setResizable(true);
+
+        listView.setCellFactory(list -> new PacketCell());
+        listView.setFixedCellSize(24);
+        listView.setPrefSize(640, 400);
+        listView.setOnMouseClicked(e -> {
+            if (e.getClickCount() == 2 && listView.getSelectionModel().getSelectedItem() != null) {
+                setResult(listView.getSelectionModel().getSelectedItem());
+                close();
+            }
+        });
+
+        BorderPane content = new BorderPane(listView);
+        content.setBottom(statusLabel);
+        getDialogPane().setContent(content);
+        getDialogPane().getButtonTypes().setAll(ButtonType.OK, ButtonType.CANCEL);
+        getDialogPane().lookupButton(ButtonType.OK).disableProperty()
+                .bind(listView.getSelectionModel().selectedItemProperty().isNull());
+
+        setResultConverter(button -> button == ButtonType.OK ? listView.getSelectionModel().getSelectedItem() : null);
+        setOnHidden(e -> countTask.cancel(false));
+
+        packets.setSize(1);
+        listView.getSelectionModel().selectFirst();
+        startCounting();
+    }
+
+    private void startCounting() {
+        statusLabel.setText("Counting packets...");
+        countTask = new Task<Long>() {
+            @Override
+            protected Long call() throws Exception {
+                // no interruption, it would close the reader channel
+                return reader.countPackets(this::isCancelled);
+            }
+        };
+        countTask.setOnSucceeded(e -> {
+            long count = countTask.getValue();
+            if (count < 0) {
+                return;
+            }
+            if (count > Integer.MAX_VALUE) {
+                statusLabel.setText(count + " packets, only first " + Integer.MAX_VALUE + " are shown");
+            } else {
+                statusLabel.setText(count + " packets");
+            }
+            packets.setSize((int) Math.min(count, Integer.MAX_VALUE));
+        });
+        countTask.setOnFailed(e -> {
+            logger.warn("Failed to count packets", countTask.getException());
+            statusLabel.setText("Error: " + countTask.getException().getMessage());
+        });
+        Thread thread = new Thread(countTask, "pcap-count");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    static String describe(PcapPacket packet) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(packet.getIndex() + 1).append("  ");
+        long nanos = packet.getTimestampNanos();
+        Instant time = Instant.ofEpochSecond(nanos / 1000000000L, nanos % 1000000000L);
+        sb.append(TIME_FORMAT.format(time)).append(String.format(".%09d", nanos % 1000000000L)).append("  ");
+        sb.append(packet.getCapturedLength());
+        if (packet.getOriginalLength() != packet.getCapturedLength()) {
+            sb.append('/').append(packet.getOriginalLength());
+        }
+        sb.append(" bytes ");
+        byte[] data = packet.getData();
+        for (int i = 0; i < Math.min(data.length, SUMMARY_BYTES); i++) {
+            sb.append(String.format(" %02x", data[i]));
+        }
+        if (data.length > SUMMARY_BYTES) {
+            sb.append(" ...");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,148 @@
+package com.xored.javafx.packeteditor.view;
+
+import com.xored.javafx.packeteditor.scapy.ScapyClientMetrics;
+import com.xored.javafx.packeteditor.scapy.ScapyClientMetrics.Histogram;
+import com.xored.javafx.packeteditor.scapy.ScapyClientMetrics.MethodMetrics;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.event.ActionEvent;
+import javafx.scene.control.*;
+import javafx.stage.FileChooser;
+import javafx.stage.Modality;
+import javafx.util.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * live table of Scapy request metrics and local view timings, values can be exported as JSON or Prometheus text
+ */
+public class ScapyMetricsDialog extends Dialog<Void> {
+    private static Logger logger = LoggerFactory.getLogger(ScapyMetricsDialog.class);
+
+    static final double REFRESH_SECONDS = 1;
+
+    private static final ButtonType RESET = new ButtonType("Reset", ButtonBar.ButtonData.LEFT);
+    private static final ButtonType EXPORT_JSON = new ButtonType("Export JSON...", ButtonBar.ButtonData.OTHER);
+    private static final ButtonType EXPORT_PROMETHEUS = new ButtonType("Export Prometheus...", ButtonBar.ButtonData.OTHER);
+
+    private final ScapyClientMetrics metrics;
+    private final TableView<Row> table = new TableView<>();
+    private final Timeline refreshTimeline;
+
+    /** table row: a Scapy method or a local timing */
+    static class Row {
+        final String name;
+        final Histogram latency;
+        final MethodMetrics method;
+
+        Row(String name, Histogram latency, MethodMetrics method) {
+            this.name = name;
+            this.latency = latency;
+            this.method = method;
+        }
+    }
+
+    public ScapyMetricsDialog(ScapyClientMetrics metrics) {
+        this.metrics = metrics;
+        setTitle("Scapy client metrics");
+        setHeaderText("Request latency is measured from sending to the response, local rows are UI timings");
+        setResizable(true);
+        initModality(Modality.NONE);
+
+        table.getColumns().add(column("Method", row -> row.name));
+        table.getColumns().add(column("Count", row -> Long.toString(row.latency.getCount())));
+        table.getColumns().add(column("In flight", row -> row.method != null ? Integer.toString(row.method.getInFlight()) : ""));
+        table.getColumns().add(column("Errors", row -> row.method != null ? Long.toString(row.method.getErrors()) : ""));
+        table.getColumns().add(column("Timeouts", row -> row.method != null ? Long.toString(row.method.getTimeouts()) : ""));
+        table.getColumns().add(column("Mean ms", row -> millis(row.latency.getMean())));
+        table.getColumns().add(column("p50 ms", row -> quantile(row.latency, 0.5)));
+        table.getColumns().add(column("p95 ms", row -> quantile(row.latency, 0.95)));
+        table.getColumns().add(column("p99 ms", row -> quantile(row.latency, 0.99)));
+        table.getColumns().add(column("Request bytes", row -> row.method != null ? bytes(row.method.requestBytes) : ""));
+        table.getColumns().add(column("Response bytes", row -> row.method != null ? bytes(row.method.responseBytes) : ""));
+        table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+        table.setPrefSize(900, 360);
+
+        getDialogPane().setContent(table);
+        getDialogPane().getButtonTypes().setAll(RESET, EXPORT_JSON, EXPORT_PROMETHEUS, ButtonType.CLOSE);
+        onButton(RESET, () -> {
+            metrics.reset();
+            refresh();
+        });
+        onButton(EXPORT_JSON, () -> export("JSON Files", "*.json", metrics::toJson));
+        onButton(EXPORT_PROMETHEUS, () -> export("Prometheus text", "*.prom", metrics::toPrometheus));
+
+        refreshTimeline = new Timeline(new KeyFrame(Duration.seconds(REFRESH_SECONDS), e -> refresh()));
+        refreshTimeline.setCycleCount(Animation.INDEFINITE);
+        setOnShown(e -> refreshTimeline.play());
+        setOnHidden(e -> refreshTimeline.stop());
+        refresh();
+    }
+
+    private void refresh() {
+        List<Row> rows = new ArrayList<>();
+        metrics.getMethods().forEach(m -> rows.add(new Row(m.method, m.latency, m)));
+        metrics.getLocalTimings().forEach((name, histogram) -> rows.add(new Row("local: " + name, histogram, null)));
+        table.getItems().setAll(rows);
+    }
+
+    /** action of the button which keeps the dialog open */
+    private void onButton(ButtonType buttonType, Runnable action) {
+        getDialogPane().lookupButton(buttonType).addEventFilter(ActionEvent.ACTION, e -> {
+            e.consume();
+            action.run();
+        });
+    }
+
+    private void export(String description, String extension, Supplier<String> content) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Export metrics");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(description, extension));
+        File file = chooser.showSaveDialog(getDialogPane().getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.write(file.toPath(), content.get().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            logger.error("Unable to export metrics to {}", file, e);
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setHeaderText("Unable to export metrics");
+            alert.setContentText(e.getMessage());
+            alert.showAndWait();
+        }
+    }
+
+    private static TableColumn<Row, String> column(String title, Function<Row, String> value) {
+        TableColumn<Row, String> column = new TableColumn<>(title);
+        column.setCellValueFactory(cell -> new SimpleStringProperty(value.apply(cell.getValue())));
+        return column;
+    }
+
+    private static String millis(double nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+
+    private static String quantile(Histogram histogram, double quantile) {
+        if (histogram.getCount() == 0) {
+            return "";
+        }
+        long bound = histogram.getQuantile(quantile);
+        return bound == Long.MAX_VALUE ? "> " + millis(histogram.getMaxBound()) : "<= " + millis(bound);
+    }
+
+    private static String bytes(Histogram histogram) {
+        return histogram.getCount() > 0 ? String.format("%.0f avg", histogram.getMean()) : "";
+    }
+}
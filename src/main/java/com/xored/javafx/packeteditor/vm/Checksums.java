@@ -0,0 +1,136 @@
+package com.xored.javafx.packeteditor.vm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * internet checksum (RFC 1071) helpers working in place on packet bytes
+ */
+public class Checksums {
+    public static final int PROTO_TCP = 6;
+    public static final int PROTO_UDP = 17;
+
+    public static final int PROTO_ICMP = 1;
+
+    public static final int IPV4_CHECKSUM_OFFSET = 10;
+    public static final int TCP_CHECKSUM_OFFSET = 16;
+    public static final int UDP_CHECKSUM_OFFSET = 6;
+    public static final int ICMP_CHECKSUM_OFFSET = 2;
+
+    /** ones' complement sum of big-endian 16-bit words, not folded */
+    public static long sum(byte[] data, int offset, int length, long initial) {
+        long sum = initial;
+        int end = offset + (length & ~1);
+        for (int i = offset; i < end; i += 2) {
+            sum += ((data[i] & 0xFF) << 8) | (data[i + 1] & 0xFF);
+        }
+        if ((length & 1) != 0) {
+            sum += (data[offset + length - 1] & 0xFF) << 8;
+        }
+        return sum;
+    }
+
+    /**
+     * ones' complement sum of big-endian 16-bit words read 64 bits at a time, not folded.
+     * the carries of 32-bit halves are folded later, the result is the same as summing 16-bit words
+     */
+    public static long sum(ByteBuffer data, int offset, int length, long initial) {
+        long sum = initial;
+        int end = offset + length;
+        int i = offset;
+        for (; i + 8 <= end; i += 8) {
+            long word = data.getLong(i);
+            sum += (word >>> 32) + (word & 0xFFFFFFFFL);
+        }
+        if (i + 4 <= end) {
+            sum += data.getInt(i) & 0xFFFFFFFFL;
+            i += 4;
+        }
+        if (i + 2 <= end) {
+            sum += data.getShort(i) & 0xFFFF;
+            i += 2;
+        }
+        if (i < end) {
+            sum += (data.get(i) & 0xFF) << 8;
+        }
+        return sum;
+    }
+
+    /**
+     * incremental update (RFC 1624, eqn. 3) of the checksum after the words summing to oldSum
+     * were replaced with the words summing to newSum
+     */
+    public static int update(int checksum, long oldSum, long newSum) {
+        return finish((~checksum & 0xFFFF) + finish(oldSum) + newSum);
+    }
+
+    /** folds the sum to 16 bits and complements it */
+    public static int finish(long sum) {
+        while ((sum >>> 16) != 0) {
+            sum = (sum & 0xFFFF) + (sum >>> 16);
+        }
+        return (int) (~sum & 0xFFFF);
+    }
+
+    public static int getShort(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    public static void putShort(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    /** recalculates IPv4 header checksum, returns false if there is no valid IPv4 header at the offset */
+    public static boolean fixIpv4(byte[] packet, int offset, int packetLength) {
+        if (offset < 0 || offset + 20 > packetLength || (packet[offset] & 0xF0) != 0x40) {
+            return false;
+        }
+        int headerLength = (packet[offset] & 0x0F) * 4;
+        if (headerLength < 20 || offset + headerLength > packetLength) {
+            return false;
+        }
+        putShort(packet, offset + IPV4_CHECKSUM_OFFSET, 0);
+        putShort(packet, offset + IPV4_CHECKSUM_OFFSET, finish(sum(packet, offset, headerLength, 0)));
+        return true;
+    }
+
+    /**
+     * recalculates TCP or UDP checksum including IPv4/IPv6 pseudo header.
+     * l3 is the offset of IP header, l4 the offset of TCP/UDP header
+     */
+    public static boolean fixL4(byte[] packet, int l3, int l4, int protocol, int packetLength) {
+        int checksumOffset;
+        if (protocol == PROTO_TCP) {
+            checksumOffset = l4 + TCP_CHECKSUM_OFFSET;
+        } else if (protocol == PROTO_UDP) {
+            checksumOffset = l4 + UDP_CHECKSUM_OFFSET;
+        } else {
+            return false;
+        }
+        if (l3 < 0 || l4 <= l3 || checksumOffset + 2 > packetLength) {
+            return false;
+        }
+        int version = (packet[l3] & 0xF0) >>> 4;
+        long sum;
+        int l4Length;
+        if (version == 4) {
+            l4Length = getShort(packet, l3 + 2) - (l4 - l3);
+            sum = sum(packet, l3 + 12, 8, 0);
+        } else if (version == 6 && l3 + 40 <= packetLength) {
+            l4Length = getShort(packet, l3 + 4) - (l4 - l3 - 40);
+            sum = sum(packet, l3 + 8, 32, 0);
+        } else {
+            return false;
+        }
+        l4Length = Math.min(Math.max(l4Length, 0), packetLength - l4);
+        sum += protocol + l4Length;
+        putShort(packet, checksumOffset, 0);
+        int checksum = finish(sum(packet, l4, l4Length, sum));
+        if (checksum == 0 && protocol == PROTO_UDP) {
+            // zero means no checksum for UDP
+            checksum = 0xFFFF;
+        }
+        putShort(packet, checksumOffset, checksum);
+        return true;
+    }
+}
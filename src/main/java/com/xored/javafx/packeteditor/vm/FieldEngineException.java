@@ -0,0 +1,5 @@
+package com.xored.javafx.packeteditor.vm;
+
+public class FieldEngineException extends RuntimeException {
+    FieldEngineException(String message) { super(message); }
+}
@@ -0,0 +1,421 @@
+package com.xored.javafx.packeteditor.vm;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.xored.javafx.packeteditor.pcap.PcapWriter;
+import com.xored.javafx.packeteditor.scapy.PacketData;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * interprets compiled field engine program (field_engine.instructions of build_pkt result)
+ * and generates the packets TRex would emit.
+ * instructions are compiled to flat arrays once, generating a packet doesn't allocate
+ */
+public class FieldEngineSimulator {
+
+    /** receives generated packets, the array is reused for the next packet */
+    public interface PacketConsumer {
+        void accept(long index, byte[] packet, int length) throws IOException;
+    }
+
+    static final int OP_FLOW_VAR = 0;
+    static final int OP_WRITE = 1;
+    static final int OP_WRITE_MASK = 2;
+    static final int OP_FIX_IPV4 = 3;
+    static final int OP_FIX_HW = 4;
+
+    static final int VAR_INC = 0;
+    static final int VAR_DEC = 1;
+    static final int VAR_RANDOM = 2;
+
+    /** l4_type values of fix_checksum_hw */
+    static final int L4_TYPE_UDP = 11;
+    static final int L4_TYPE_TCP = 13;
+    static final int L4_TYPE_IP = 17;
+
+    /** inter packet gap of pcap export */
+    static final long PACKET_GAP_NANOS = 1000;
+
+    private final byte[] template;
+    private final byte[] packet;
+
+    // instruction table
+    private int[] opcodes = new int[0];
+    /** variable index for flow_var/write instructions */
+    private int[] vars = new int[0];
+    private int[] offsets = new int[0];
+    /** write size, l3 length for fix_checksum_hw */
+    private int[] sizes = new int[0];
+    private boolean[] bigEndian = new boolean[0];
+    private long[] addValues = new long[0];
+    private long[] masks = new long[0];
+    /** shift for write_mask, l4 type for fix_checksum_hw */
+    private int[] shifts = new int[0];
+
+    // variables
+    private final List<String> varNames = new ArrayList<>();
+    private int[] varOps = new int[0];
+    private int[] varSizes = new int[0];
+    private long[] varInit = new long[0];
+    private long[] varMin = new long[0];
+    private long[] varMax = new long[0];
+    private long[] varStep = new long[0];
+    private long[] values = new long[0];
+    private boolean[] started = new boolean[0];
+
+    private long seed;
+    private long random;
+    private long index = 0;
+
+    public FieldEngineSimulator(PacketData packet) {
+        this(packet.getPacketBytes(), getProgram(packet));
+    }
+
+    /** program is a list of TRex VM instructions */
+    public FieldEngineSimulator(byte[] packet, JsonArray program) {
+        this.template = packet;
+        this.packet = packet.clone();
+        compile(program);
+        setSeed(0x5EED);
+    }
+
+    /** instructions array of the build_pkt result, empty if packet has no field engine */
+    static JsonArray getProgram(PacketData packet) {
+        JsonObject fieldEngine = packet.getFieldEngine();
+        JsonElement vm = fieldEngine != null ? fieldEngine.get("instructions") : null;
+        if (vm != null && vm.isJsonObject()) {
+            vm = vm.getAsJsonObject().get("instructions");
+        }
+        return vm != null && vm.isJsonArray() ? vm.getAsJsonArray() : new JsonArray();
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+        reset();
+    }
+
+    /** starts over from the first packet */
+    public void reset() {
+        index = 0;
+        random = seed != 0 ? seed : 1;
+        System.arraycopy(template, 0, packet, 0, template.length);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = varInit[i];
+            started[i] = false;
+        }
+    }
+
+    public int getPacketLength() {
+        return packet.length;
+    }
+
+    /**
+     * number of distinct packets before the sequence repeats,
+     * -1 if it is random or too long to be counted
+     */
+    public long getCycleLength() {
+        BigInteger cycle = BigInteger.ONE;
+        for (int i = 0; i < varOps.length; i++) {
+            if (varOps[i] == VAR_RANDOM) {
+                return -1;
+            }
+            BigInteger range = unsigned(varMax[i]).subtract(unsigned(varMin[i])).add(BigInteger.ONE);
+            if (range.signum() <= 0) {
+                continue;
+            }
+            BigInteger step = unsigned(varStep[i]).mod(range);
+            BigInteger period = step.signum() == 0 ? BigInteger.ONE : range.divide(range.gcd(step));
+            cycle = cycle.divide(cycle.gcd(period)).multiply(period);
+        }
+        return cycle.bitLength() < 63 ? cycle.longValue() : -1;
+    }
+
+    /** generates next packet, the returned array is reused */
+    public byte[] next() {
+        for (int i = 0; i < opcodes.length; i++) {
+            switch (opcodes[i]) {
+                case OP_FLOW_VAR:
+                    updateVar(vars[i]);
+                    break;
+                case OP_WRITE:
+                    write(offsets[i], sizes[i], values[vars[i]] + addValues[i], bigEndian[i]);
+                    break;
+                case OP_WRITE_MASK: {
+                    long value = values[vars[i]] + addValues[i];
+                    value = shifts[i] >= 0 ? value << shifts[i] : value >>> -shifts[i];
+                    long current = read(offsets[i], sizes[i], bigEndian[i]);
+                    write(offsets[i], sizes[i], (current & ~masks[i]) | (value & masks[i]), bigEndian[i]);
+                    break;
+                }
+                case OP_FIX_IPV4:
+                    Checksums.fixIpv4(packet, offsets[i], packet.length);
+                    break;
+                case OP_FIX_HW: {
+                    int l3 = offsets[i];
+                    int l4 = l3 + sizes[i];
+                    Checksums.fixIpv4(packet, l3, packet.length);
+                    if (shifts[i] == L4_TYPE_TCP) {
+                        Checksums.fixL4(packet, l3, l4, Checksums.PROTO_TCP, packet.length);
+                    } else if (shifts[i] == L4_TYPE_UDP) {
+                        Checksums.fixL4(packet, l3, l4, Checksums.PROTO_UDP, packet.length);
+                    }
+                    break;
+                }
+            }
+        }
+        index++;
+        return packet;
+    }
+
+    /** generates count packets, all of them if count is negative and the sequence is finite */
+    public long generate(long count, PacketConsumer consumer) throws IOException {
+        if (count < 0) {
+            count = getCycleLength();
+            if (count < 0) {
+                throw new FieldEngineException("Field engine program generates an endless sequence, number of packets is required");
+            }
+        }
+        for (long i = 0; i < count; i++) {
+            next();
+            consumer.accept(i, packet, packet.length);
+        }
+        return count;
+    }
+
+    /** writes count packets to pcap or pcapng file, all of them if count is negative */
+    public long writePcap(File file, long count) throws IOException {
+        long start = System.currentTimeMillis() * 1000000L;
+        try (PcapWriter writer = new PcapWriter(file)) {
+            return generate(count, (i, data, length) -> writer.write(data, 0, length, start + i * PACKET_GAP_NANOS));
+        }
+    }
+
+    private void updateVar(int var) {
+        if (!started[var]) {
+            // the first packet gets init value
+            started[var] = true;
+            if (varOps[var] != VAR_RANDOM) {
+                return;
+            }
+        }
+        long value = values[var];
+        long min = varMin[var];
+        long max = varMax[var];
+        long step = varStep[var];
+        switch (varOps[var]) {
+            case VAR_INC:
+                if (Long.compareUnsigned(value, max - step) > 0 || Long.compareUnsigned(max - step, max) > 0) {
+                    value = min + (step - (max - value) - 1);
+                } else {
+                    value += step;
+                }
+                break;
+            case VAR_DEC:
+                if (Long.compareUnsigned(value, min + step) < 0 || Long.compareUnsigned(min + step, min) < 0) {
+                    value = max - (step - (value - min) - 1);
+                } else {
+                    value -= step;
+                }
+                break;
+            case VAR_RANDOM: {
+                long range = max - min + 1;
+                long r = nextRandom();
+                value = range == 0 ? r : min + Long.remainderUnsigned(r, range);
+                break;
+            }
+        }
+        values[var] = value & sizeMask(varSizes[var]);
+    }
+
+    /** xorshift64* */
+    private long nextRandom() {
+        random ^= random >>> 12;
+        random ^= random << 25;
+        random ^= random >>> 27;
+        return random * 0x2545F4914F6CDD1DL;
+    }
+
+    private void write(int offset, int size, long value, boolean bigEndian) {
+        for (int i = 0; i < size; i++) {
+            int shift = bigEndian ? (size - 1 - i) * 8 : i * 8;
+            packet[offset + i] = (byte) (value >>> shift);
+        }
+    }
+
+    private long read(int offset, int size, boolean bigEndian) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            int shift = bigEndian ? (size - 1 - i) * 8 : i * 8;
+            value |= (packet[offset + i] & 0xFFL) << shift;
+        }
+        return value;
+    }
+
+    private static long sizeMask(int size) {
+        return size >= 8 ? -1L : (1L << (size * 8)) - 1;
+    }
+
+    private static BigInteger unsigned(long value) {
+        return new BigInteger(Long.toUnsignedString(value));
+    }
+
+    private void compile(JsonArray program) {
+        Map<String, Integer> varIndex = new HashMap<>();
+        List<JsonObject> instructions = new ArrayList<>();
+        program.forEach(element -> instructions.add(element.getAsJsonObject()));
+
+        // variables first, so writes may refer to them by name
+        for (JsonObject instruction : instructions) {
+            if ("flow_var".equals(getString(instruction, "type"))) {
+                String name = getString(instruction, "name");
+                if (varIndex.containsKey(name)) {
+                    throw new FieldEngineException("Duplicate flow variable " + name);
+                }
+                varIndex.put(name, varNames.size());
+                varNames.add(name);
+            }
+        }
+        int varCount = varNames.size();
+        varOps = new int[varCount];
+        varSizes = new int[varCount];
+        varInit = new long[varCount];
+        varMin = new long[varCount];
+        varMax = new long[varCount];
+        varStep = new long[varCount];
+        values = new long[varCount];
+        started = new boolean[varCount];
+
+        int count = instructions.size();
+        opcodes = new int[count];
+        vars = new int[count];
+        offsets = new int[count];
+        sizes = new int[count];
+        bigEndian = new boolean[count];
+        addValues = new long[count];
+        masks = new long[count];
+        shifts = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            JsonObject instruction = instructions.get(i);
+            String type = getString(instruction, "type");
+            switch (type) {
+                case "flow_var": {
+                    int var = varIndex.get(getString(instruction, "name"));
+                    opcodes[i] = OP_FLOW_VAR;
+                    vars[i] = var;
+                    varSizes[var] = checkSize(getInt(instruction, "size"), type);
+                    varMin[var] = getLong(instruction, "min_value", 0);
+                    varMax[var] = getLong(instruction, "max_value", sizeMask(varSizes[var]));
+                    varInit[var] = getLong(instruction, "init_value", varMin[var]);
+                    varStep[var] = getLong(instruction, "step", 1);
+                    String op = getString(instruction, "op");
+                    if ("inc".equals(op)) {
+                        varOps[var] = VAR_INC;
+                    } else if ("dec".equals(op)) {
+                        varOps[var] = VAR_DEC;
+                    } else if ("random".equals(op)) {
+                        varOps[var] = VAR_RANDOM;
+                    } else {
+                        throw new FieldEngineException("Unsupported flow_var operation " + op);
+                    }
+                    break;
+                }
+                case "write_flow_var": {
+                    int var = getVar(varIndex, instruction);
+                    opcodes[i] = OP_WRITE;
+                    vars[i] = var;
+                    sizes[i] = varSizes[var];
+                    offsets[i] = checkOffset(getInt(instruction, "pkt_offset"), sizes[i], type);
+                    addValues[i] = getLong(instruction, "add_value", 0);
+                    bigEndian[i] = getBoolean(instruction, "is_big_endian", true);
+                    break;
+                }
+                case "write_mask_flow_var": {
+                    int var = getVar(varIndex, instruction);
+                    opcodes[i] = OP_WRITE_MASK;
+                    vars[i] = var;
+                    sizes[i] = checkSize(getInt(instruction, "pkt_cast_size"), type);
+                    offsets[i] = checkOffset(getInt(instruction, "pkt_offset"), sizes[i], type);
+                    addValues[i] = getLong(instruction, "add_value", 0);
+                    masks[i] = getLong(instruction, "mask", sizeMask(sizes[i]));
+                    shifts[i] = (int) getLong(instruction, "shift", 0);
+                    bigEndian[i] = getBoolean(instruction, "is_big_endian", true);
+                    break;
+                }
+                case "fix_checksum_ipv4":
+                    opcodes[i] = OP_FIX_IPV4;
+                    offsets[i] = checkOffset(getInt(instruction, "pkt_offset"), 20, type);
+                    break;
+                case "fix_checksum_hw":
+                    opcodes[i] = OP_FIX_HW;
+                    offsets[i] = checkOffset(getInt(instruction, "l2_len"), 20, type);
+                    sizes[i] = getInt(instruction, "l3_len");
+                    shifts[i] = getInt(instruction, "l4_type");
+                    break;
+                default:
+                    throw new FieldEngineException("Unsupported field engine instruction " + type);
+            }
+        }
+    }
+
+    private int getVar(Map<String, Integer> varIndex, JsonObject instruction) {
+        String name = getString(instruction, "name");
+        Integer var = varIndex.get(name);
+        if (var == null) {
+            throw new FieldEngineException("Unknown flow variable " + name);
+        }
+        return var;
+    }
+
+    private int checkSize(int size, String type) {
+        if (size != 1 && size != 2 && size != 4 && size != 8) {
+            throw new FieldEngineException("Invalid size " + size + " in " + type);
+        }
+        return size;
+    }
+
+    private int checkOffset(int offset, int size, String type) {
+        if (offset < 0 || offset + size > packet.length) {
+            throw new FieldEngineException("Offset " + offset + " of " + type + " is out of packet");
+        }
+        return offset;
+    }
+
+    private static String getString(JsonObject instruction, String name) {
+        JsonElement value = instruction.get(name);
+        if (value == null || value.isJsonNull()) {
+            throw new FieldEngineException("Missing " + name + " in field engine instruction " + instruction);
+        }
+        return value.getAsString();
+    }
+
+    private static int getInt(JsonObject instruction, String name) {
+        JsonElement value = instruction.get(name);
+        if (value == null || value.isJsonNull()) {
+            throw new FieldEngineException("Missing " + name + " in field engine instruction " + instruction);
+        }
+        return value.getAsInt();
+    }
+
+    private static long getLong(JsonObject instruction, String name, long defaultValue) {
+        JsonElement value = instruction.get(name);
+        if (value == null || value.isJsonNull()) {
+            return defaultValue;
+        }
+        // values of 8 byte variables may not fit signed long
+        return value.getAsBigInteger().longValue();
+    }
+
+    private static boolean getBoolean(JsonObject instruction, String name, boolean defaultValue) {
+        JsonElement value = instruction.get(name);
+        return value == null || value.isJsonNull() ? defaultValue : value.getAsBoolean();
+    }
+}
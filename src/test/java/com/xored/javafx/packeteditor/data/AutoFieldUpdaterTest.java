@@ -0,0 +1,147 @@
+package com.xored.javafx.packeteditor.data;
+
+import com.xored.javafx.packeteditor.scapy.ProtocolData;
+import com.xored.javafx.packeteditor.vm.Checksums;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AutoFieldUpdaterTest {
+    // Ether / IP / UDP / VXLAN / Ether / IP / TCP / payload
+    static final int OUTER_IP = 14;
+    static final int OUTER_UDP = 34;
+    static final int INNER_IP = 64;
+    static final int INNER_TCP = 84;
+    static final int LENGTH = 141;
+
+    List<ProtocolData> protocols = new ArrayList<>();
+
+    public AutoFieldUpdaterTest() {
+        String[] ids = {"Ether", "IP", "UDP", "VXLAN", "Ether", "IP", "TCP", "Raw"};
+        int[] offsets = {0, OUTER_IP, OUTER_UDP, 42, 50, INNER_IP, INNER_TCP, 104};
+        for (int i = 0; i < ids.length; i++) {
+            ProtocolData protocol = new ProtocolData();
+            protocol.id = ids[i];
+            protocol.offset = offsets[i];
+            protocols.add(protocol);
+        }
+    }
+
+    @Test
+    public void should_update_covering_checksums() {
+        Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            byte[] before = packet(random);
+            byte[] after = before.clone();
+            int from = random.nextInt(LENGTH);
+            int length = 1 + random.nextInt(Math.min(8, LENGTH - from));
+            for (int j = from; j < from + length; j++) {
+                after[j] = (byte) random.nextInt();
+            }
+            if (overlapsStructure(from, length)) {
+                continue;
+            }
+            List<AutoFieldUpdater.Update> updates = AutoFieldUpdater.update(protocols, ByteBuffer.wrap(before), ByteBuffer.wrap(after), from, length, (p, f) -> true);
+
+            byte[] expected = after.clone();
+            if (!overlapsChecksums(from, length)) {
+                fixChecksums(expected);
+                assertArrayEquals(expected, after);
+            }
+            if (from >= INNER_TCP + 20) {
+                // outer UDP checksum covers the payload together with TCP checksum, their changes cancel out
+                assertTrue(updates.stream().allMatch(update -> update.protocol.id.equals("TCP")));
+            }
+        }
+    }
+
+    @Test
+    public void should_recalculate_on_length_change() {
+        byte[] before = packet(new Random(2));
+        byte[] after = before.clone();
+        // inner IP total length, TCP covers less bytes
+        Checksums.putShort(after, INNER_IP + 2, LENGTH - INNER_IP - 10);
+        AutoFieldUpdater.update(protocols, ByteBuffer.wrap(before), ByteBuffer.wrap(after), INNER_IP + 2, 2, (p, f) -> true);
+
+        byte[] expected = after.clone();
+        fixChecksums(expected);
+        assertArrayEquals(expected, after);
+    }
+
+    @Test
+    public void should_keep_user_checksums() {
+        byte[] before = packet(new Random(3));
+        byte[] after = before.clone();
+        after[LENGTH - 1]++;
+        List<AutoFieldUpdater.Update> updates = AutoFieldUpdater.update(protocols, ByteBuffer.wrap(before), ByteBuffer.wrap(after), LENGTH - 1, 1,
+                (p, f) -> !p.id.equals("TCP"));
+        assertEquals(1, updates.size());
+        assertEquals(Checksums.getShort(before, INNER_TCP + 16), Checksums.getShort(after, INNER_TCP + 16));
+
+        // zero UDP checksum is not calculated
+        Checksums.putShort(before, OUTER_UDP + 6, 0);
+        after = before.clone();
+        after[LENGTH - 1]++;
+        updates = AutoFieldUpdater.update(protocols, ByteBuffer.wrap(before), ByteBuffer.wrap(after), LENGTH - 1, 1, (p, f) -> true);
+        assertEquals(1, updates.size());
+        assertEquals(0, Checksums.getShort(after, OUTER_UDP + 6));
+    }
+
+    @Test
+    public void should_sum_words() {
+        Random random = new Random(4);
+        for (int length = 0; length < 40; length++) {
+            byte[] data = new byte[length + 3];
+            random.nextBytes(data);
+            assertEquals(Checksums.finish(Checksums.sum(data, 3, length, 7)),
+                    Checksums.finish(Checksums.sum(ByteBuffer.wrap(data), 3, length, 7)));
+        }
+    }
+
+    private static byte[] packet(Random random) {
+        byte[] packet = new byte[LENGTH];
+        random.nextBytes(packet);
+        ip(packet, OUTER_IP, Checksums.PROTO_UDP);
+        ip(packet, INNER_IP, Checksums.PROTO_TCP);
+        packet[INNER_TCP + 12] = 0x50;
+        fixChecksums(packet);
+        return packet;
+    }
+
+    private static void ip(byte[] packet, int offset, int proto) {
+        packet[offset] = 0x45;
+        Checksums.putShort(packet, offset + 2, LENGTH - offset);
+        packet[offset + 9] = (byte) proto;
+    }
+
+    private static void fixChecksums(byte[] packet) {
+        Checksums.fixIpv4(packet, INNER_IP, packet.length);
+        Checksums.fixL4(packet, INNER_IP, INNER_TCP, Checksums.PROTO_TCP, packet.length);
+        Checksums.fixIpv4(packet, OUTER_IP, packet.length);
+        Checksums.fixL4(packet, OUTER_IP, OUTER_UDP, Checksums.PROTO_UDP, packet.length);
+    }
+
+    private static boolean overlapsStructure(int from, int length) {
+        for (int ip : new int[]{OUTER_IP, INNER_IP}) {
+            // version, header length, total length and protocol
+            if (from < ip + 4 && ip < from + length || from <= ip + 9 && ip + 9 < from + length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean overlapsChecksums(int from, int length) {
+        for (int checksum : new int[]{OUTER_IP + 10, OUTER_UDP + 6, INNER_IP + 10, INNER_TCP + 16}) {
+            if (from < checksum + 2 && checksum < from + length) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
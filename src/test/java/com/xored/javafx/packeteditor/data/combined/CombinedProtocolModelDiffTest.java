@@ -0,0 +1,207 @@
+package com.xored.javafx.packeteditor.data.combined;
+
+import com.google.gson.JsonPrimitive;
+import com.xored.javafx.packeteditor.data.user.Document;
+import com.xored.javafx.packeteditor.metatdata.FEInstructionParameterMeta;
+import com.xored.javafx.packeteditor.metatdata.FeParameterMeta;
+import com.xored.javafx.packeteditor.metatdata.FieldMetadata;
+import com.xored.javafx.packeteditor.metatdata.InstructionExpressionMeta;
+import com.xored.javafx.packeteditor.metatdata.ProtocolMetadata;
+import com.xored.javafx.packeteditor.scapy.FieldData;
+import com.xored.javafx.packeteditor.scapy.ProtocolData;
+import com.xored.javafx.packeteditor.service.IMetadataService;
+import com.xored.javafx.packeteditor.service.InstructionsTemplate;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class CombinedProtocolModelDiffTest {
+    Metadata metadata = new Metadata()
+            .add("Ether", "dst", "src", "type")
+            .add("Dot1Q", "prio", "vlan", "type")
+            .add("IP", "ttl", "proto", "chksum", "src", "dst")
+            .add("TCP", "sport", "dport", "chksum");
+
+    @Test
+    public void should_change_edited_field_values() {
+        Document doc = new Document();
+        Arrays.asList("Ether", "IP", "TCP").forEach(id -> doc.addProtocol(metadata.getProtocolMetadataById(id)));
+        CombinedProtocolModel current = CombinedProtocolModel.fromUserModel(metadata, doc, packet("Ether", "IP", "TCP"));
+        CombinedField ttl = current.protocolStack.get(1).getField("ttl");
+        CombinedProtocol tcp = current.protocolStack.get(2);
+
+        doc.setFieldValue(Arrays.asList("Ether", "IP"), "ttl", new JsonPrimitive(32));
+        List<ProtocolData> edited = packet("Ether", "IP", "TCP");
+        setValue(edited.get(1), "ttl", "32");
+        setValue(edited.get(1), "chksum", "0x1234");
+        CombinedProtocolModel updated = CombinedProtocolModel.fromUserModel(metadata, doc, edited);
+
+        List<CombinedProtocolModelDiff.Change> changes = CombinedProtocolModelDiff.merge(current, updated);
+        assertEquals("[FIELD_VALUE_CHANGED:1:ttl, FIELD_VALUE_CHANGED:1:chksum]", changes.toString());
+        // unchanged layers and fields keep their objects, changed fields get the new data
+        assertSame(ttl, current.protocolStack.get(1).getField("ttl"));
+        assertSame(ttl, changes.get(0).getField());
+        assertEquals("32", ttl.getScapyFieldData().hvalue);
+        assertSame(tcp, current.protocolStack.get(2));
+        assertMerged(updated, current);
+
+        assertEquals("same model has no changes", "[]", CombinedProtocolModelDiff.merge(current, CombinedProtocolModel.fromUserModel(metadata, doc, edited)).toString());
+    }
+
+    @Test
+    public void should_replace_stack_after_inserted_layer() {
+        CombinedProtocolModel current = binaryModel("Ether", "IP", "TCP");
+        CombinedProtocol ether = current.protocolStack.get(0);
+        CombinedProtocolModel updated = binaryModel("Ether", "Dot1Q", "IP", "TCP");
+
+        List<CombinedProtocolModelDiff.Change> changes = CombinedProtocolModelDiff.merge(current, updated);
+        // path of every layer after the inserted one is different
+        assertEquals("[LAYER_REMOVED:2, LAYER_REMOVED:1, LAYER_ADDED:1, LAYER_ADDED:2, LAYER_ADDED:3]", changes.toString());
+        assertEquals("IP", changes.get(1).getProtocol().getId());
+        assertSame(updated.protocolStack.get(1), changes.get(2).getProtocol());
+        assertSame(ether, current.protocolStack.get(0));
+        assertMerged(updated, current);
+    }
+
+    @Test
+    public void should_replace_stack_after_removed_middle_layer() {
+        CombinedProtocolModel current = binaryModel("Ether", "Dot1Q", "IP", "TCP");
+        CombinedProtocol ether = current.protocolStack.get(0);
+        CombinedProtocolModel updated = binaryModel("Ether", "IP", "TCP");
+
+        List<CombinedProtocolModelDiff.Change> changes = CombinedProtocolModelDiff.merge(current, updated);
+        assertEquals("[LAYER_REMOVED:3, LAYER_REMOVED:2, LAYER_REMOVED:1, LAYER_ADDED:1, LAYER_ADDED:2]", changes.toString());
+        assertEquals("Dot1Q", changes.get(2).getProtocol().getId());
+        assertSame(ether, current.protocolStack.get(0));
+        assertMerged(updated, current);
+    }
+
+    @Test
+    public void should_change_layer_with_another_field_set() {
+        CombinedProtocolModel current = binaryModel("Ether", "IP", "TCP");
+        CombinedProtocol oldIp = current.protocolStack.get(1);
+        // definitions reloaded with a new IP field
+        metadata.add("IP", "ttl", "proto", "chksum", "src", "dst", "options");
+        CombinedProtocolModel updated = binaryModel("Ether", "IP", "TCP");
+
+        List<CombinedProtocolModelDiff.Change> changes = CombinedProtocolModelDiff.merge(current, updated);
+        assertEquals("[LAYER_CHANGED:1]", changes.toString());
+        assertSame(oldIp, changes.get(0).getOldProtocol());
+        assertSame(updated.protocolStack.get(1), current.protocolStack.get(1));
+        assertEquals(6, current.protocolStack.get(1).getFields().size());
+        assertMerged(updated, current);
+    }
+
+    @Test
+    public void should_change_fields_missing_from_scapy_layer() {
+        CombinedProtocolModel current = binaryModel("Ether", "IP", "TCP");
+        List<ProtocolData> packet = packet("Ether", "IP", "TCP");
+        // same metadata, but Scapy no longer reports the field
+        packet.get(2).fields.removeIf(field -> field.id.equals("chksum"));
+        CombinedProtocolModel updated = CombinedProtocolModel.fromScapyData(metadata, null, packet);
+
+        List<CombinedProtocolModelDiff.Change> changes = CombinedProtocolModelDiff.merge(current, updated);
+        assertEquals("[FIELD_VALUE_CHANGED:2:chksum]", changes.toString());
+        assertNull(current.protocolStack.get(2).getField("chksum").getScapyFieldData());
+        assertMerged(updated, current);
+    }
+
+    /** merged model shows the same layers and field data as the updated one */
+    private static void assertMerged(CombinedProtocolModel expected, CombinedProtocolModel actual) {
+        assertEquals(expected.protocolStack.size(), actual.protocolStack.size());
+        for (int i = 0; i < expected.protocolStack.size(); i++) {
+            CombinedProtocol expectedProtocol = expected.protocolStack.get(i);
+            CombinedProtocol actualProtocol = actual.protocolStack.get(i);
+            assertEquals(expectedProtocol.getPath(), actualProtocol.getPath());
+            assertSame(expectedProtocol.getScapyProtocol(), actualProtocol.getScapyProtocol());
+            assertEquals(signatures(expectedProtocol), signatures(actualProtocol));
+        }
+    }
+
+    private static List<String> signatures(CombinedProtocol protocol) {
+        return protocol.getFields().stream().map(field -> field.signature).collect(Collectors.toList());
+    }
+
+    private CombinedProtocolModel binaryModel(String... ids) {
+        return CombinedProtocolModel.fromScapyData(metadata, null, packet(ids));
+    }
+
+    /** dissected packet, every layer takes 16 bytes and field values are derived from the position */
+    private List<ProtocolData> packet(String... ids) {
+        List<ProtocolData> res = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            ProtocolData protocol = new ProtocolData();
+            protocol.id = ids[i];
+            protocol.name = ids[i];
+            protocol.offset = i * 16;
+            protocol.fields = new ArrayList<>();
+            List<FieldMetadata> fieldMetas = metadata.getProtocolMetadataById(ids[i]).getFields();
+            for (int idx = 0; idx < fieldMetas.size(); idx++) {
+                FieldData field = new FieldData();
+                field.id = fieldMetas.get(idx).getId();
+                field.offset = idx;
+                field.length = 1;
+                protocol.fields.add(field);
+                setValue(protocol, field.id, String.valueOf(i * 16 + idx));
+            }
+            res.add(protocol);
+        }
+        return res;
+    }
+
+    private static void setValue(ProtocolData protocol, String fieldId, String value) {
+        FieldData field = protocol.getFieldById(fieldId);
+        field.value = new JsonPrimitive(value);
+        field.hvalue = value;
+    }
+
+    static class Metadata implements IMetadataService {
+        private final Map<String, ProtocolMetadata> protocols = new HashMap<>();
+
+        Metadata add(String id, String... fieldIds) {
+            List<FieldMetadata> fields = Arrays.stream(fieldIds)
+                    .map(fieldId -> new FieldMetadata(fieldId, fieldId, FieldMetadata.FieldType.STRING, null, null, false))
+                    .collect(Collectors.toList());
+            protocols.put(id, new ProtocolMetadata(id, id, fields, null, null));
+            return this;
+        }
+
+        @Override
+        public Map<String, ProtocolMetadata> getProtocols() { return protocols; }
+
+        @Override
+        public Map<String, FeParameterMeta> getFeParameters() { return Collections.emptyMap(); }
+
+        @Override
+        public Map<String, InstructionExpressionMeta> getFeInstructions() { return Collections.emptyMap(); }
+
+        @Override
+        public ProtocolMetadata getProtocolMetadata(ProtocolData protocol) { return getProtocolMetadataById(protocol.id); }
+
+        @Override
+        public ProtocolMetadata getProtocolMetadataById(String protocolId) { return protocols.get(protocolId); }
+
+        @Override
+        public CompletableFuture<ProtocolMetadata> getProtocolMetadataByIdAsync(String protocolId) {
+            return CompletableFuture.completedFuture(getProtocolMetadataById(protocolId));
+        }
+
+        @Override
+        public List<String> getAllowedPayloadForProtocol(String protocolId) { return Collections.emptyList(); }
+
+        @Override
+        public CompletableFuture<List<String>> getAllowedPayloadForProtocolAsync(String protocolId) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        @Override
+        public Map<String, FEInstructionParameterMeta> getFeInstructionParameters() { return Collections.emptyMap(); }
+
+        @Override
+        public List<InstructionsTemplate> getFeInstructionsTemplates() { return Collections.emptyList(); }
+    }
+}
@@ -0,0 +1,61 @@
+package com.xored.javafx.packeteditor.metatdata;
+
+import com.xored.javafx.packeteditor.data.user.UserField;
+import com.xored.javafx.packeteditor.data.user.UserProtocol;
+import com.xored.javafx.packeteditor.scapy.FieldData;
+import com.xored.javafx.packeteditor.scapy.ProtocolData;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ProtocolMetadataTest {
+    ProtocolMetadata meta = new ProtocolMetadata("UDP", "UDP", Arrays.asList(field("sport"), field("dport"), field("len"), field("chksum")), null, null);
+
+    @Test
+    public void should_index_fields() {
+        assertEquals(4, meta.getFieldCount());
+        assertEquals(2, meta.indexOf("len"));
+        assertEquals("len", meta.getField(2).getId());
+        assertEquals(-1, meta.indexOf("load"));
+    }
+
+    @Test
+    public void should_resolve_scapy_fields_by_index() {
+        ProtocolData protocol = new ProtocolData();
+        protocol.fields = new ArrayList<>(Arrays.asList(fieldData("chksum"), fieldData("load"), fieldData("sport"), fieldData("sport")));
+        assertSame(protocol.fields.get(0), protocol.getField(meta, 3));
+        assertSame(protocol.fields.get(2), protocol.getField(meta, 0));
+        assertNull(protocol.getField(meta, 1));
+        assertNull(protocol.getField(meta, 4));
+    }
+
+    @Test
+    public void should_resolve_user_fields_by_index() {
+        UserProtocol protocol = new UserProtocol(meta, Collections.singletonList("UDP"));
+        protocol.addField("dport", "53");
+        protocol.addField("extra", "1");
+        assertEquals("53", protocol.getField(1).getStringValue());
+        assertSame(protocol.getField(1), protocol.getField("dport"));
+        assertEquals("1", protocol.getField("extra").getStringValue());
+
+        protocol.deleteField("dport");
+        UserField recreated = protocol.getField(1);
+        assertNotNull(recreated);
+        assertFalse(recreated.isSet());
+        assertSame(recreated, protocol.getField("dport"));
+    }
+
+    private static FieldMetadata field(String id) {
+        return new FieldMetadata(id, id, FieldMetadata.FieldType.NUMBER, null, null, false);
+    }
+
+    private static FieldData fieldData(String id) {
+        FieldData res = new FieldData();
+        res.id = id;
+        return res;
+    }
+}
@@ -0,0 +1,94 @@
+package com.xored.javafx.packeteditor.pcap;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static com.xored.javafx.packeteditor.pcap.PcapFormat.*;
+import static org.junit.Assert.*;
+
+public class PcapReaderTest {
+
+    File resource(String name) throws URISyntaxException {
+        return new File(getClass().getResource("/" + name).toURI());
+    }
+
+    @Test
+    public void should_count_packets() throws Exception {
+        try (PcapReader reader = new PcapReader(resource("http.pcap"))) {
+            assertTrue(reader.hasPacket(42));
+            assertFalse(reader.hasPacket(43));
+            assertEquals(43, reader.getPacketCount());
+        }
+    }
+
+    @Test
+    public void should_read_packets_in_any_order() throws Exception {
+        try (PcapReader reader = new PcapReader(resource("ARP.pcap"))) {
+            PcapPacket second = reader.getPacket(1);
+            PcapPacket first = reader.getPacket(0);
+            assertEquals(42, first.getCapturedLength());
+            assertEquals(46, second.getCapturedLength());
+            assertEquals(LINKTYPE_ETHERNET, first.getLinkType());
+            assertEquals(2, reader.getPacketCount());
+        }
+    }
+
+    @Test
+    public void should_read_large_packet() throws Exception {
+        try (PcapReader reader = new PcapReader(resource("payload_64k.pcap"))) {
+            assertEquals(64054, reader.getPacket(0).getCapturedLength());
+            assertFalse(reader.hasPacket(1));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void should_fail_after_last_packet() throws Exception {
+        try (PcapReader reader = new PcapReader(resource("dot1q_nested.pcap"))) {
+            reader.getPacket(1);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void should_reject_not_pcap() throws Exception {
+        new PcapReader(resource("http.bad-pcap")).close();
+    }
+
+    @Test
+    public void should_read_pcapng() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+        // section header
+        buf.putInt(PCAPNG_SECTION_HEADER_BLOCK).putInt(28).putInt(PCAPNG_BYTE_ORDER_MAGIC)
+                .putShort((short) 1).putShort((short) 0).putLong(-1).putInt(28);
+        // interface with nanosecond resolution
+        buf.putInt(PCAPNG_INTERFACE_DESCRIPTION_BLOCK).putInt(32).putShort((short) LINKTYPE_ETHERNET).putShort((short) 0)
+                .putInt(0).putShort((short) PCAPNG_OPTION_IF_TSRESOL).putShort((short) 1).put((byte) 9).put(new byte[3])
+                .putInt(PCAPNG_OPTION_END).putInt(32);
+        // enhanced packet, 5 bytes padded to 8
+        buf.putInt(PCAPNG_ENHANCED_PACKET_BLOCK).putInt(40).putInt(0).putInt(0).putInt(1500000000)
+                .putInt(5).putInt(60).put(new byte[]{1, 2, 3, 4, 5, 0, 0, 0}).putInt(40);
+        // simple packet
+        buf.putInt(PCAPNG_SIMPLE_PACKET_BLOCK).putInt(20).putInt(4).put(new byte[]{6, 7, 8, 9}).putInt(20);
+
+        File file = File.createTempFile("reader", ".pcapng");
+        file.deleteOnExit();
+        Files.write(file.toPath(), java.util.Arrays.copyOf(buf.array(), buf.position()));
+
+        try (PcapReader reader = new PcapReader(file)) {
+            assertTrue(reader.isPcapng());
+            assertEquals(2, reader.getPacketCount());
+            PcapPacket enhanced = reader.getPacket(0);
+            assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, enhanced.getData());
+            assertEquals(60, enhanced.getOriginalLength());
+            assertEquals(1500000000L, enhanced.getTimestampNanos());
+            assertArrayEquals(new byte[]{6, 7, 8, 9}, reader.getPacket(1).getData());
+        } finally {
+            file.delete();
+        }
+    }
+}
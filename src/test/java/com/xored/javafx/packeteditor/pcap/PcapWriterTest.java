@@ -0,0 +1,47 @@
+package com.xored.javafx.packeteditor.pcap;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class PcapWriterTest {
+
+    void roundTrip(PcapWriter.Format format) throws Exception {
+        File file = File.createTempFile("writer", format == PcapWriter.Format.PCAPNG ? ".pcapng" : ".pcap");
+        file.deleteOnExit();
+        byte[] small = {1, 2, 3, 4, 5};
+        byte[] large = new byte[PcapWriter.BUFFER_SIZE];
+        large[large.length - 1] = 7;
+        try {
+            try (PcapWriter writer = new PcapWriter(file, format, PcapFormat.LINKTYPE_ETHERNET)) {
+                for (int i = 0; i < 1000; i++) {
+                    writer.write(small, 1500000000123456789L + i);
+                }
+                writer.write(large, 1);
+                assertEquals(1001, writer.getPacketCount());
+            }
+            try (PcapReader reader = new PcapReader(file)) {
+                assertEquals(format == PcapWriter.Format.PCAPNG, reader.isPcapng());
+                assertEquals(1001, reader.getPacketCount());
+                PcapPacket packet = reader.getPacket(999);
+                assertArrayEquals(small, packet.getData());
+                assertEquals(1500000000123456789L + 999, packet.getTimestampNanos());
+                assertArrayEquals(large, reader.getPacket(1000).getData());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void should_write_pcap() throws Exception {
+        roundTrip(PcapWriter.Format.PCAP);
+    }
+
+    @Test
+    public void should_write_pcapng() throws Exception {
+        roundTrip(PcapWriter.Format.PCAPNG);
+    }
+}
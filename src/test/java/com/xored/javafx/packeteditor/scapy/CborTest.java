@@ -0,0 +1,74 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class CborTest {
+    final Gson gson = ScapyGson.create();
+
+    @Test
+    public void should_encode_self_described_map() throws IOException {
+        CborWriter writer = new CborWriter();
+        writer.beginObject();
+        writer.name("a").value(1);
+        writer.endObject();
+        byte[] expected = {(byte) 0xd9, (byte) 0xd9, (byte) 0xf7, (byte) 0xbf, 0x61, 0x61, 0x01, (byte) 0xff};
+        assertArrayEquals(expected, writer.toByteArray());
+        assertTrue(CborReader.isCbor(writer.toByteArray()));
+        assertFalse(CborReader.isCbor("{\"a\":1}".getBytes()));
+    }
+
+    @Test
+    public void should_round_trip_json_tree() {
+        JsonElement json = new JsonParser().parse("{\"s\":\"text\",\"i\":-300,\"l\":5000000000,\"d\":1.5,"
+                + "\"b\":true,\"n\":null,\"a\":[1,[],{}],\"u\":\"\\u00e9\\u4e2d\"}");
+        CborWriter writer = new CborWriter();
+        new GsonBuilder().serializeNulls().create().toJson(json, JsonElement.class, writer);
+        JsonElement res = gson.fromJson(new CborReader(writer.toByteArray()), JsonElement.class);
+        assertEquals(json, res);
+    }
+
+    @Test
+    public void should_keep_packet_bytes_native() throws IOException {
+        PacketData packet = new PacketData(Collections.emptyList(), new byte[]{0, 1, 2, (byte) 0xff});
+        CborWriter writer = new CborWriter();
+        gson.toJson(packet, PacketData.class, writer);
+        CborReader reader = new CborReader(writer.toByteArray());
+        PacketData res = gson.fromJson(reader, PacketData.class);
+        assertArrayEquals(packet.getPacketBytes(), res.getPacketBytes());
+        assertEquals(packet.getBinary(), res.getBinary());
+
+        // byte strings are base64 for readers which don't know about them
+        JsonElement tree = gson.fromJson(new CborReader(writer.toByteArray()), JsonElement.class);
+        assertEquals(packet.getBinary(), tree.getAsJsonObject().get("binary").getAsString());
+    }
+
+    @Test
+    public void should_write_binary_with_any_gson() {
+        PacketData packet = new PacketData(Collections.emptyList(), new byte[]{1, 2, 3});
+        JsonObject json = new Gson().toJsonTree(packet).getAsJsonObject();
+        assertEquals("AQID", json.get("binary").getAsString());
+        assertArrayEquals(packet.getPacketBytes(), new Gson().fromJson(json, PacketData.class).getPacketBytes());
+    }
+
+    @Test
+    public void should_write_binary_params() {
+        Object params = Arrays.asList("1", BinaryValue.of(new byte[]{1, 2, 3}));
+        assertEquals("[\"1\",\"AQID\"]", gson.toJson(params));
+
+        CborWriter writer = new CborWriter();
+        gson.toJson(params, params.getClass(), writer);
+        byte[] expected = {(byte) 0xd9, (byte) 0xd9, (byte) 0xf7, (byte) 0x9f, 0x61, 0x31, 0x43, 1, 2, 3, (byte) 0xff};
+        assertArrayEquals(expected, writer.toByteArray());
+    }
+}
@@ -0,0 +1,398 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
+import com.xored.javafx.packeteditor.pcap.PcapPacket;
+import com.xored.javafx.packeteditor.pcap.PcapReader;
+import com.xored.javafx.packeteditor.pcap.PcapWriter;
+import org.zeromq.ZMQ;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * in-process scapy_server replacement for tests and benchmarks.
+ * answers JSON-RPC requests of ScapyServerClient on a local ROUTER socket with canned results,
+ * latency, jitter, errors and dropped replies can be injected. all injected randomness is seeded.
+ * CBOR requests are answered in CBOR, supported encodings can be removed to act as an older server
+ */
+public class MockScapyServer implements Closeable {
+    public static final String VERSION = "2.3.2";
+    public static final String VERSION_HANDLER = "1";
+    public static final int METHOD_NOT_FOUND = -32601;
+    public static final int SERVER_ERROR = -32000;
+    static final int TICK_MS = 1;
+
+    private final Gson gson = ScapyGson.create();
+    private final Base64.Encoder base64Encoder = Base64.getEncoder();
+    private final Base64.Decoder base64Decoder = Base64.getDecoder();
+    private final ZMQ.Context context = ZMQ.context(1);
+    private final Map<String, Function<JsonArray, Object>> handlers = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    private final DelayQueue<Reply> replies = new DelayQueue<>();
+    private final Random random = new Random(0);
+    private final String url;
+    private final Thread thread;
+
+    private volatile boolean stopped;
+    private volatile long latencyNanos;
+    private volatile long jitterNanos;
+    private volatile double failureRate;
+    private volatile double dropRate;
+    private volatile byte[] packetBytes = new byte[64];
+    private volatile JsonElement definitions = defaultDefinitions();
+    private volatile List<String> payloadClasses = Collections.singletonList("Raw");
+
+    /** reply scheduled to be sent after the injected latency */
+    static class Reply implements Delayed {
+        final long due;
+        final byte[] identity;
+        final byte[] response;
+
+        Reply(long due, byte[] identity, byte[] response) {
+            this.due = due;
+            this.identity = identity;
+            this.response = response;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(due, ((Reply) o).due);
+        }
+    }
+
+    public MockScapyServer() {
+        handlers.put("get_version", params -> {
+            JsonObject version = new JsonObject();
+            version.addProperty("version", VERSION);
+            return version;
+        });
+        handlers.put("get_version_handler", params -> VERSION_HANDLER);
+        setEncodings(Arrays.asList(ScapyEncoding.JSON.getId(), ScapyEncoding.CBOR.getId()));
+        handlers.put("get_definitions", params -> definitions);
+        handlers.put("get_payload_classes", params -> payloadClasses);
+        handlers.put("build_pkt", params -> packet(protocols(params.get(1)), packetBytes));
+        handlers.put("build_pkt_ex", params -> packet(protocols(params.get(1)), packetBytes));
+        handlers.put("reconstruct_pkt", params -> packet(protocols(params.get(2)), base64Decoder.decode(params.get(1).getAsString())));
+        handlers.put("read_pcap", params -> readPcap(base64Decoder.decode(params.get(1).getAsString())));
+        handlers.put("write_pcap", params -> writePcap(params.get(1).getAsJsonArray()));
+
+        ZMQ.Socket socket = context.socket(ZMQ.ROUTER);
+        socket.setLinger(0);
+        socket.setReceiveTimeOut(TICK_MS);
+        int port = socket.bindToRandomPort("tcp://127.0.0.1");
+        url = "tcp://127.0.0.1:" + port;
+        thread = new Thread(() -> serve(socket), "mock-scapy-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getPort() {
+        return Integer.parseInt(url.substring(url.lastIndexOf(':') + 1));
+    }
+
+    /** every reply is delayed by latency plus uniformly distributed [0, jitter) */
+    public MockScapyServer setLatency(long latency, long jitter, TimeUnit unit) {
+        latencyNanos = unit.toNanos(latency);
+        jitterNanos = unit.toNanos(jitter);
+        return this;
+    }
+
+    /** share of requests answered with a JSON-RPC error */
+    public MockScapyServer setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    /** share of requests which are never answered */
+    public MockScapyServer setDropRate(double dropRate) {
+        this.dropRate = dropRate;
+        return this;
+    }
+
+    public MockScapyServer setSeed(long seed) {
+        random.setSeed(seed);
+        return this;
+    }
+
+    /** binary of packets returned by build_pkt */
+    public MockScapyServer setPacketBytes(byte[] packetBytes) {
+        this.packetBytes = packetBytes.clone();
+        return this;
+    }
+
+    public MockScapyServer setDefinitions(JsonElement definitions) {
+        this.definitions = definitions;
+        return this;
+    }
+
+    public MockScapyServer setPayloadClasses(List<String> payloadClasses) {
+        this.payloadClasses = payloadClasses;
+        return this;
+    }
+
+    /** encodings returned by get_supported_encodings, null removes the method like in older servers */
+    public MockScapyServer setEncodings(List<String> encodings) {
+        if (encodings == null) {
+            handlers.remove("get_supported_encodings");
+        } else {
+            handlers.put("get_supported_encodings", params -> encodings);
+        }
+        return this;
+    }
+
+    /**
+     * overrides or adds method handler, it receives JSON-RPC params with binary values as base64 strings.
+     * result is serialized with Gson, so byte arrays and packets go as byte strings in CBOR.
+     * null handler removes the method, it is answered with "Method not found"
+     */
+    public MockScapyServer setHandler(String method, Function<JsonArray, Object> handler) {
+        if (handler == null) {
+            handlers.remove(method);
+        } else {
+            handlers.put(method, handler);
+        }
+        return this;
+    }
+
+    public int getRequestCount(String method) {
+        AtomicInteger count = requestCounts.get(method);
+        return count != null ? count.get() : 0;
+    }
+
+    private void serve(ZMQ.Socket socket) {
+        try {
+            while (!stopped) {
+                byte[] identity = socket.recv(0);
+                if (identity != null) {
+                    // DEALER client sends identity, empty delimiter and the request
+                    byte[] frame = socket.recv(0);
+                    while (frame != null && frame.length == 0 && socket.hasReceiveMore()) {
+                        frame = socket.recv(0);
+                    }
+                    if (frame != null) {
+                        receive(identity, frame);
+                    }
+                }
+                Reply reply;
+                while ((reply = replies.poll()) != null) {
+                    socket.sendMore(reply.identity);
+                    socket.sendMore(new byte[0]);
+                    socket.send(reply.response, 0);
+                }
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void receive(byte[] identity, byte[] frame) {
+        boolean cbor = CborReader.isCbor(frame);
+        JsonObject request = cbor
+                ? gson.fromJson(new CborReader(frame), JsonObject.class)
+                : gson.fromJson(new String(frame, StandardCharsets.UTF_8), JsonObject.class);
+        String method = request.get("method").getAsString();
+        requestCounts.computeIfAbsent(method, m -> new AtomicInteger()).incrementAndGet();
+
+        if (random.nextDouble() < dropRate) {
+            return;
+        }
+        Function<JsonArray, Object> handler = handlers.get(method);
+        JsonObject error = null;
+        Object result = null;
+        if (handler == null) {
+            error = error(METHOD_NOT_FOUND, "Method not found");
+        } else if (random.nextDouble() < failureRate) {
+            error = error(SERVER_ERROR, "Injected failure of " + method);
+        } else {
+            JsonElement params = request.get("params");
+            try {
+                result = handler.apply(params instanceof JsonArray ? (JsonArray) params : new JsonArray());
+            } catch (RuntimeException e) {
+                error = error(SERVER_ERROR, String.valueOf(e.getMessage()));
+            }
+        }
+        long jitter = jitterNanos > 0 ? (long) (random.nextDouble() * jitterNanos) : 0;
+        long due = System.nanoTime() + latencyNanos + jitter;
+        replies.add(new Reply(due, identity, response(cbor, request.get("id"), result, error)));
+    }
+
+    /** response envelope is written by hand, so the result is serialized right from the handler objects */
+    private byte[] response(boolean cbor, JsonElement id, Object result, JsonObject error) {
+        StringWriter json = new StringWriter();
+        CborWriter cborWriter = cbor ? new CborWriter() : null;
+        try (JsonWriter writer = cbor ? cborWriter : new JsonWriter(json)) {
+            writer.beginObject();
+            writer.name("jsonrpc").value("2.0");
+            writer.name("id");
+            gson.toJson(id != null ? id : JsonNull.INSTANCE, JsonElement.class, writer);
+            if (error != null) {
+                writer.name("error");
+                gson.toJson(error, JsonElement.class, writer);
+            } else if (result == null) {
+                writer.name("result").nullValue();
+            } else {
+                writer.name("result");
+                gson.toJson(result, result.getClass(), writer);
+            }
+            writer.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return cbor ? cborWriter.toByteArray() : json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static JsonObject error(int code, String message) {
+        JsonObject error = new JsonObject();
+        error.addProperty("code", code);
+        error.addProperty("message", message);
+        return error;
+    }
+
+    private List<ReconstructProtocol> protocols(JsonElement model) {
+        if (model == null || !model.isJsonArray()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(gson.fromJson(model, ReconstructProtocol[].class));
+    }
+
+    /** packet with requested layers and values, unknown bytes go to Raw layer */
+    private PacketData packet(List<ReconstructProtocol> protocols, byte[] bytes) {
+        List<ProtocolData> layers = new ArrayList<>();
+        for (ReconstructProtocol protocol : protocols) {
+            if (Boolean.TRUE.equals(protocol.delete)) {
+                break;
+            }
+            ProtocolData layer = layer(protocol.id, 0);
+            if (protocol.fields != null) {
+                for (ReconstructField field : protocol.fields) {
+                    FieldData fieldData = new FieldData();
+                    fieldData.id = field.id;
+                    fieldData.value = field.value;
+                    fieldData.hvalue = field.value != null && field.value.isJsonPrimitive() ? field.value.getAsString() : String.valueOf(field.value);
+                    layer.fields.add(fieldData);
+                }
+            }
+            layers.add(layer);
+        }
+        if (layers.isEmpty()) {
+            ProtocolData raw = layer("Raw", 0);
+            FieldData load = new FieldData();
+            load.id = "load";
+            load.value = new JsonPrimitive(base64Encoder.encodeToString(bytes));
+            load.hvalue = load.value.getAsString();
+            load.offset = 0;
+            load.length = bytes.length;
+            raw.fields.add(load);
+            layers.add(raw);
+        }
+        return new PacketData(layers, bytes);
+    }
+
+    private static ProtocolData layer(String id, int offset) {
+        ProtocolData layer = new ProtocolData();
+        layer.id = id;
+        layer.name = id;
+        layer.offset = offset;
+        layer.fields = new ArrayList<>();
+        return layer;
+    }
+
+    private List<PacketData> readPcap(byte[] pcap) {
+        List<PacketData> packets = new ArrayList<>();
+        withTempFile(file -> {
+            Files.write(file.toPath(), pcap);
+            try (PcapReader reader = new PcapReader(file)) {
+                for (long i = 0; reader.hasPacket(i); i++) {
+                    PcapPacket packet = reader.getPacket(i);
+                    packets.add(packet(Collections.emptyList(), packet.getData()));
+                }
+            }
+            return null;
+        });
+        return packets;
+    }
+
+    private byte[] writePcap(JsonArray packets) {
+        return withTempFile(file -> {
+            try (PcapWriter writer = new PcapWriter(file)) {
+                for (JsonElement packet : packets) {
+                    writer.write(base64Decoder.decode(packet.getAsString()), 0);
+                }
+            }
+            return Files.readAllBytes(file.toPath());
+        });
+    }
+
+    interface FileFunction<T> {
+        T apply(File file) throws IOException;
+    }
+
+    private static <T> T withTempFile(FileFunction<T> function) {
+        File file = null;
+        try {
+            file = File.createTempFile("mock-scapy", ".pcap");
+            return function.apply(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    private static JsonElement defaultDefinitions() {
+        JsonObject definitions = new JsonObject();
+        JsonArray protocols = new JsonArray();
+        JsonObject raw = new JsonObject();
+        raw.addProperty("id", "Raw");
+        raw.addProperty("name", "Raw");
+        JsonArray fields = new JsonArray();
+        JsonObject load = new JsonObject();
+        load.addProperty("id", "load");
+        load.addProperty("name", "load");
+        load.addProperty("type", "BYTES");
+        fields.add(load);
+        raw.add("fields", fields);
+        protocols.add(raw);
+        definitions.add("protocols", protocols);
+        definitions.add("feInstructionParameters", new JsonArray());
+        definitions.add("feInstructions", new JsonArray());
+        definitions.add("feTemplates", new JsonArray());
+        definitions.add("feParameters", new JsonArray());
+        return definitions;
+    }
+
+    @Override
+    public void close() {
+        stopped = true;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        context.term();
+    }
+}
@@ -0,0 +1,58 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ScapyClientMetricsTest {
+
+    @Test
+    public void should_record_requests() {
+        ScapyClientMetrics metrics = new ScapyClientMetrics();
+        metrics.requestStarted("build_pkt", 100);
+        metrics.requestStarted("build_pkt", 200);
+        metrics.requestStarted("build_pkt", 300);
+        assertEquals(3, metrics.getMethods().get(0).getInFlight());
+
+        metrics.requestCompleted("build_pkt", TimeUnit.MILLISECONDS.toNanos(3), 1000, false);
+        metrics.requestCompleted("build_pkt", TimeUnit.MILLISECONDS.toNanos(30), 2000, true);
+        metrics.requestTimedOut("build_pkt");
+
+        ScapyClientMetrics.MethodMetrics m = metrics.getMethods().get(0);
+        assertEquals(3, m.getRequests());
+        assertEquals(0, m.getInFlight());
+        assertEquals(1, m.getErrors());
+        assertEquals(1, m.getTimeouts());
+        assertEquals(2, m.latency.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), m.latency.getQuantile(0.5));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(50), m.latency.getQuantile(1));
+        assertEquals(1500, m.responseBytes.getMean(), 0);
+    }
+
+    @Test
+    public void should_export() {
+        ScapyClientMetrics metrics = new ScapyClientMetrics();
+        metrics.requestStarted("get_version", 10);
+        metrics.requestCompleted("get_version", TimeUnit.SECONDS.toNanos(20), 10, false);
+        metrics.recordLocal("view.rebuild", TimeUnit.MILLISECONDS.toNanos(1));
+
+        String prometheus = metrics.toPrometheus();
+        assertTrue(prometheus.contains("# TYPE scapy_client_request_duration_seconds histogram\n"));
+        assertTrue(prometheus.contains("scapy_client_request_duration_seconds_bucket{method=\"get_version\",le=\"10\"} 0\n"));
+        assertTrue(prometheus.contains("scapy_client_request_duration_seconds_bucket{method=\"get_version\",le=\"+Inf\"} 1\n"));
+        assertTrue(prometheus.contains("scapy_client_request_duration_seconds_sum{method=\"get_version\"} 20\n"));
+        assertTrue(prometheus.contains("packet_editor_local_duration_seconds_count{name=\"view.rebuild\"} 1\n"));
+
+        JsonObject json = new JsonParser().parse(metrics.toJson()).getAsJsonObject();
+        assertEquals(1, json.getAsJsonObject("methods").getAsJsonObject("get_version").get("requests").getAsInt());
+        assertEquals(1, json.getAsJsonObject("local").getAsJsonObject("view.rebuild").get("count").getAsInt());
+
+        metrics.reset();
+        assertEquals(0, metrics.getMethods().get(0).getRequests());
+        assertTrue(metrics.getLocalTimings().isEmpty());
+    }
+}
@@ -0,0 +1,158 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.common.eventbus.EventBus;
+import com.google.gson.JsonObject;
+import com.xored.javafx.packeteditor.service.ConfigurationService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ScapyServerClientTest {
+    static final int TIMEOUT_MS = 500;
+
+    MockScapyServer server;
+    ScapyServerClient scapy;
+
+    @Before
+    public void init() {
+        server = new MockScapyServer();
+        scapy = new ScapyServerClient();
+        scapy.configurationService = new ConfigurationService("127.0.0.1", String.valueOf(TIMEOUT_MS), String.valueOf(server.getPort()), "tcp", "", "1", "100", "64");
+        scapy.eventBus = new EventBus();
+        scapy.metrics = new ScapyClientMetrics();
+        scapy.connect(server.getUrl(), TIMEOUT_MS);
+    }
+
+    @After
+    public void cleanup() {
+        scapy.closeConnection();
+        server.close();
+    }
+
+    @Test
+    public void should_connect() {
+        assertTrue(scapy.isConnected());
+        assertEquals(MockScapyServer.VERSION, scapy.getScapyVersion());
+        assertEquals(MockScapyServer.VERSION_HANDLER, scapy.getVersionHandler());
+    }
+
+    @Test
+    public void should_build_pkt() {
+        PacketData pd = scapy.build_pkt(Arrays.asList(
+                ReconstructProtocol.pass("Ether"),
+                ReconstructProtocol.modify("TCP", Arrays.asList(ReconstructField.setValue("sport", 888)))
+        ));
+        assertEquals("Ether", pd.getProtocols().get(0).id);
+        assertEquals(888, pd.getProtocols().get(1).getFieldById("sport").getIntValue());
+        assertEquals(64, pd.getPacketLength());
+    }
+
+    @Test
+    public void should_round_trip_pcap() {
+        byte[] packet = {1, 2, 3, 4, 5};
+        byte[] pcap = scapy.write_pcap_packet(packet);
+        assertArrayEquals(packet, scapy.read_pcap_packet(pcap).getPacketBytes());
+    }
+
+    @Test
+    public void should_negotiate_cbor() {
+        assertEquals(ScapyEncoding.CBOR, scapy.getEncoding());
+        assertEquals(1, server.getRequestCount("get_supported_encodings"));
+    }
+
+    @Test
+    public void should_fall_back_to_json() {
+        server.setEncodings(null);
+        scapy.closeConnection();
+        scapy.connect(server.getUrl(), TIMEOUT_MS);
+        assertTrue(scapy.isConnected());
+        assertEquals(ScapyEncoding.JSON, scapy.getEncoding());
+        should_round_trip_pcap();
+    }
+
+    @Test(expected = MethodNotFoundException.class)
+    public void should_fail_unknown_method() {
+        scapy.request("no_such_method", null);
+    }
+
+    @Test(expected = ScapyException.class)
+    public void should_fail_injected_error() {
+        server.setFailureRate(1);
+        scapy.get_payload_classes("Ether");
+    }
+
+    @Test
+    public void should_time_out_dropped_request() {
+        server.setDropRate(1);
+        long start = System.nanoTime();
+        try {
+            scapy.get_payload_classes("Ether");
+            fail("dropped request must time out");
+        } catch (ConnectionException e) {
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS));
+        }
+        // next request reconnects
+        server.setDropRate(0);
+        assertEquals(Arrays.asList("Raw"), scapy.get_payload_classes("Ether"));
+    }
+
+    /** fallback of PacketDataService to build_pkt for servers without build_pkt_ex */
+    @Test
+    public void should_reconnect_from_fallback_after_timeout() throws Exception {
+        List<ReconstructProtocol> model = Arrays.asList(ReconstructProtocol.pass("Ether"));
+        server.setHandler("build_pkt_ex", null);
+        server.setDropRate(1);
+        CompletableFuture<List<String>> dropped = scapy.get_payload_classes_async("Ether");
+        while (server.getRequestCount("get_payload_classes") == 0) {
+            Thread.sleep(1);
+        }
+        server.setDropRate(0);
+        // "Method not found" arrives after the dropped request timed out, so the fallback request reconnects
+        Thread.sleep(TIMEOUT_MS * 9 / 10);
+        server.setLatency(TIMEOUT_MS * 3 / 5, 0, TimeUnit.MILLISECONDS);
+        CompletableFuture<PacketData> res = new CompletableFuture<>();
+        scapy.build_pkt_ex_async(model, new JsonObject()).whenComplete((pkt, e) -> {
+            if (e instanceof MethodNotFoundException) {
+                scapy.build_pkt_async(model).whenComplete((fallbackPkt, fallbackError) -> {
+                    if (fallbackError == null) {
+                        res.complete(fallbackPkt);
+                    } else {
+                        res.completeExceptionally(fallbackError);
+                    }
+                });
+            } else {
+                res.completeExceptionally(e != null ? e : new AssertionError("build_pkt_ex must not be found"));
+            }
+        });
+        assertEquals("Ether", res.get(10, TimeUnit.SECONDS).getProtocols().get(0).id);
+        assertTrue(dropped.isCompletedExceptionally());
+        assertEquals("fallback request reconnects", 2, server.getRequestCount("get_version"));
+        // the client is not blocked by the reconnect either
+        server.setLatency(0, 0, TimeUnit.MILLISECONDS);
+        assertEquals(Arrays.asList("Raw"), scapy.get_payload_classes("Ether"));
+    }
+
+    @Test
+    public void should_pipeline_delayed_requests() {
+        server.setLatency(50, 10, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        List<CompletableFuture<List<String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(scapy.get_payload_classes_async("Ether"));
+        }
+        futures.forEach(ScapyServerClient::await);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(millis >= 50);
+        // replies are delayed concurrently, not one after another
+        assertTrue("took " + millis + " ms", millis < 20 * 50 / 2);
+        assertEquals(20, server.getRequestCount("get_payload_classes"));
+    }
+}
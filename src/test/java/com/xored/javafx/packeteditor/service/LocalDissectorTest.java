@@ -0,0 +1,199 @@
+package com.xored.javafx.packeteditor.service;
+
+import com.google.common.io.BaseEncoding;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import com.xored.javafx.packeteditor.metatdata.*;
+import com.xored.javafx.packeteditor.scapy.FieldData;
+import com.xored.javafx.packeteditor.scapy.PacketData;
+import com.xored.javafx.packeteditor.scapy.ProtocolData;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class LocalDissectorTest {
+    Map<String, ProtocolMetadata> protocols = new HashMap<>();
+
+    LocalDissector dissector = new LocalDissector(new TestMetadataService());
+
+    public LocalDissectorTest() {
+        addProtocol("Ether", LocalDissector.ETHER);
+        addProtocol("Dot1Q", LocalDissector.DOT1Q);
+        addProtocol("IP", LocalDissector.IP);
+        addProtocol("TCP", LocalDissector.TCP);
+        addProtocol("UDP", LocalDissector.UDP);
+        addProtocol("VXLAN", LocalDissector.VXLAN);
+        addProtocol("ARP", LocalDissector.ARP);
+        protocols.put("Raw", new ProtocolMetadata("Raw", "Raw", Arrays.asList(field("load", null)), null, null));
+        protocols.put("Padding", new ProtocolMetadata("Padding", "Padding", Arrays.asList(field("load", null)), null, null));
+        protocols.get("IP").getMetaForField("proto").getDictionary().put("tcp", new JsonPrimitive(6));
+        protocols.get("TCP").getMetaForField("dport").getDictionary().put("http", new JsonPrimitive(80));
+    }
+
+    @Test
+    public void should_dissect_tcp() {
+        PacketData pkt = dissect(
+                "001122334455 66778899aabb 0800" +
+                "4500002f 00014000 40061234 c0a80001 c0a80002" +
+                "04000050 00000001 00000000 6002 07d0 abcd 0000 020405b4" +
+                "474554" +
+                "0000");
+
+        assertEquals(Arrays.asList("Ether", "IP", "TCP", "Raw", "Padding"), ids(pkt));
+        ProtocolData ether = pkt.getProtocols().get(0);
+        assertEquals("66:77:88:99:aa:bb", ether.getFieldById("src").hvalue);
+        assertEquals("0x800", ether.getFieldById("type").hvalue);
+
+        ProtocolData ip = pkt.getProtocols().get(1);
+        assertEquals(14, ip.offset.intValue());
+        assertField(ip.getFieldById("ihl"), 5, "5", 0.5, 0.5);
+        assertField(ip.getFieldById("flags"), 2, "DF", 6.0, 0.375);
+        assertField(ip.getFieldById("proto"), 6, "tcp", 9, 1);
+        assertEquals("0x1234", ip.getFieldById("chksum").hvalue);
+        assertEquals("192.168.0.2", ip.getFieldById("dst").getStringValue());
+
+        ProtocolData tcp = pkt.getProtocols().get(2);
+        assertEquals(34, tcp.offset.intValue());
+        assertEquals("1024", tcp.getFieldById("sport").hvalue);
+        assertEquals("http", tcp.getFieldById("dport").hvalue);
+        assertField(tcp.getFieldById("flags"), 2, "S", 13, 1);
+        assertEquals("[('MSS', 1460)]", tcp.getFieldById("options").getValueExpr());
+        assertEquals(20, tcp.getFieldById("options").getOffset());
+        assertEquals(4, tcp.getFieldById("options").getLength());
+
+        ProtocolData raw = pkt.getProtocols().get(3);
+        assertEquals(58, raw.offset.intValue());
+        assertEquals("GET", new String(raw.getFieldById("load").getBytes()));
+        assertEquals("'GET'", raw.getFieldById("load").hvalue);
+        assertEquals(61, pkt.getProtocols().get(4).offset.intValue());
+    }
+
+    @Test
+    public void should_dissect_vxlan() {
+        PacketData pkt = dissect(
+                "ffffffffffff 020000000001 8100 6064 0800" +
+                "4500004e 00000000 40110000 0a000001 0a000002" +
+                "04d212b5 003a0000" +
+                "08000000 00002a00" +
+                "ffffffffffff 020000000002 0806" +
+                "00010800 06040001 020000000002 0a000003 000000000000 0a000004");
+
+        assertEquals(Arrays.asList("Ether", "Dot1Q", "IP", "UDP", "VXLAN", "Ether", "ARP"), ids(pkt));
+        ProtocolData dot1q = pkt.getProtocols().get(1);
+        assertField(dot1q.getFieldById("prio"), 3, "3", 0, 0.375);
+        assertField(dot1q.getFieldById("vlan"), 100, "100", 0.5, 1.5);
+        ProtocolData vxlan = pkt.getProtocols().get(4);
+        assertEquals("I", vxlan.getFieldById("flags").hvalue);
+        assertEquals(42, vxlan.getFieldById("vni").getIntValue());
+        ProtocolData arp = pkt.getProtocols().get(6);
+        assertEquals(68, arp.offset.intValue());
+        assertEquals("10.0.0.4", arp.getFieldById("pdst").hvalue);
+    }
+
+    @Test
+    public void should_leave_unsupported_packets_to_scapy() {
+        // LLDP
+        assertNull(dissect("0180c200000e 020000000001 88cc 0000"));
+        // IP options
+        assertNull(dissect("001122334455 66778899aabb 0800 46000018 00000000 40110000 0a000001 0a000002 01010100"));
+        // DNS
+        assertNull(dissect("001122334455 66778899aabb 0800 4500001c 00000000 40110000 0a000001 0a000002 d4310035 00080000"));
+        // truncated
+        assertNull(dissect("001122334455 66778899aabb 0800 4500"));
+        // no metadata
+        protocols.remove("VXLAN");
+        assertNull(dissect("ffffffffffff 020000000001 0800 45000024 00000000 40110000 0a000001 0a000002 04d212b5 00100000 08000000 00002a00"));
+    }
+
+    @Test
+    public void should_repr_bytes() {
+        assertEquals("'a\\'b\\x00\\n\"'", LocalDissector.pythonRepr("a'b\0\n\"".getBytes()));
+        assertEquals("\"it's\"", LocalDissector.pythonRepr("it's".getBytes()));
+        assertEquals("'\\\\\\xff'", LocalDissector.pythonRepr(new byte[]{'\\', (byte) 0xff}));
+    }
+
+    private PacketData dissect(String hex) {
+        return dissector.dissect(BaseEncoding.base16().lowerCase().decode(hex.replace(" ", "")));
+    }
+
+    private static List<String> ids(PacketData pkt) {
+        return pkt.getProtocols().stream().map(ProtocolData::getId).collect(Collectors.toList());
+    }
+
+    private static void assertField(FieldData field, long value, String hvalue, double offset, double length) {
+        assertEquals(value, field.getValue().getAsLong());
+        assertEquals(hvalue, field.hvalue);
+        assertEquals(offset, field.offset.doubleValue(), 0);
+        assertEquals(length, field.length.doubleValue(), 0);
+    }
+
+    private void addProtocol(String id, LocalDissector.Field[] fields) {
+        List<FieldMetadata> metas = Arrays.stream(fields)
+                .map(f -> field(f.id, f.format == LocalDissector.Format.ENUM || f.format == LocalDissector.Format.XENUM ? new HashMap<>() : null))
+                .collect(Collectors.toList());
+        if (id.equals("TCP")) {
+            metas.add(field("options", null));
+        }
+        protocols.put(id, new ProtocolMetadata(id, id, metas, null, null));
+    }
+
+    private static FieldMetadata field(String id, Map<String, JsonElement> dictionary) {
+        return new FieldMetadata(id, id, dictionary != null ? FieldMetadata.FieldType.ENUM : FieldMetadata.FieldType.NUMBER, dictionary, null, false);
+    }
+
+    private class TestMetadataService implements IMetadataService {
+        @Override
+        public Map<String, ProtocolMetadata> getProtocols() {
+            return protocols;
+        }
+
+        @Override
+        public ProtocolMetadata getProtocolMetadataById(String protocolId) {
+            return protocols.get(protocolId);
+        }
+
+        @Override
+        public ProtocolMetadata getProtocolMetadata(ProtocolData protocol) {
+            return protocols.get(protocol.id);
+        }
+
+        @Override
+        public CompletableFuture<ProtocolMetadata> getProtocolMetadataByIdAsync(String protocolId) {
+            return CompletableFuture.completedFuture(protocols.get(protocolId));
+        }
+
+        @Override
+        public Map<String, FeParameterMeta> getFeParameters() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Map<String, InstructionExpressionMeta> getFeInstructions() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public List<String> getAllowedPayloadForProtocol(String protocolId) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public CompletableFuture<List<String>> getAllowedPayloadForProtocolAsync(String protocolId) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        @Override
+        public Map<String, FEInstructionParameterMeta> getFeInstructionParameters() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public List<InstructionsTemplate> getFeInstructionsTemplates() {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.xored.javafx.packeteditor.service;
+
+import com.xored.javafx.packeteditor.scapy.PacketData;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PacketBuildQueueTest {
+    List<PacketData> built = new ArrayList<>();
+    List<Throwable> failed = new ArrayList<>();
+
+    PacketBuildQueue queue = new PacketBuildQueue(Runnable::run);
+
+    @Test
+    public void should_coalesce_rapid_requests() throws InterruptedException {
+        queue.setDelay(20, TimeUnit.MILLISECONDS);
+        AtomicInteger builds = new AtomicInteger();
+        AtomicInteger edits = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+        for (int i = 0; i < 10; i++) {
+            edits.incrementAndGet();
+            queue.submit(() -> {
+                builds.incrementAndGet();
+                return CompletableFuture.completedFuture(packet(edits.get()));
+            }, pkt -> {
+                built.add(pkt);
+                done.countDown();
+            }, failed::add);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, builds.get());
+        // the build reads the latest edit
+        assertEquals(10, built.get(0).getPacketLength());
+        assertFalse(queue.isPending());
+    }
+
+    @Test
+    public void should_cancel_superseded_build() {
+        queue.setDelay(0, TimeUnit.MILLISECONDS);
+        CompletableFuture<PacketData> first = new CompletableFuture<>();
+        CompletableFuture<PacketData> second = new CompletableFuture<>();
+        queue.submit(() -> first, built::add, failed::add);
+        queue.submit(() -> second, built::add, failed::add);
+        assertTrue(first.isCancelled());
+        assertTrue(queue.isPending());
+
+        second.complete(packet(2));
+        assertEquals(1, built.size());
+        assertEquals(2, built.get(0).getPacketLength());
+        assertTrue(failed.isEmpty());
+    }
+
+    @Test
+    public void should_report_failure() {
+        queue.setDelay(0, TimeUnit.MILLISECONDS);
+        CompletableFuture<PacketData> build = new CompletableFuture<>();
+        queue.submit(() -> build.thenApply(pkt -> pkt), built::add, failed::add);
+        build.completeExceptionally(new IllegalStateException("bad value"));
+        assertTrue(built.isEmpty());
+        assertEquals("bad value", failed.get(0).getMessage());
+    }
+
+    @Test
+    public void should_drop_cancelled_build() {
+        queue.setDelay(0, TimeUnit.MILLISECONDS);
+        CompletableFuture<PacketData> build = new CompletableFuture<>();
+        queue.submit(() -> build, built::add, failed::add);
+        queue.cancel();
+        build.complete(packet(1));
+        assertTrue(built.isEmpty());
+        assertTrue(failed.isEmpty());
+        assertFalse(queue.isPending());
+    }
+
+    @Test
+    public void should_discard_undo_record_of_failed_build() {
+        queue.setDelay(0, TimeUnit.MILLISECONDS);
+        List<String> loaded = new ArrayList<>();
+        PacketUndoController<String> undoController = new PacketUndoController<>(loaded::add, String::length);
+        undoController.beforeContentReplace("first");
+
+        // the model reverts to the snapshot taken before the failed edit and drops its record
+        String beforeEdit = "second";
+        undoController.beforeContentReplace(beforeEdit);
+        CompletableFuture<PacketData> build = new CompletableFuture<>();
+        queue.submit(() -> build, built::add, cause -> undoController.discardLast(state -> state == beforeEdit));
+        build.completeExceptionally(new IllegalStateException("bad value"));
+
+        assertEquals(1, undoController.getUndoDepth());
+        assertEquals(5, undoController.getSizeInBytes());
+        undoController.undo();
+        assertEquals("first", loaded.get(0));
+        assertFalse(undoController.discardLast(state -> true));
+    }
+
+    private static PacketData packet(int length) {
+        return new PacketData(Collections.emptyList(), new byte[length]);
+    }
+}
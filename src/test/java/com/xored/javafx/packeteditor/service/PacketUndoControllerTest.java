@@ -0,0 +1,109 @@
+package com.xored.javafx.packeteditor.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PacketUndoControllerTest {
+    List<String> loaded = new ArrayList<>();
+
+    /** document state, changed and restored the way the model does it */
+    String current = "";
+
+    boolean failLoad = false;
+
+    PacketUndoController<String> undoController = new PacketUndoController<>(this::load, String::length);
+
+    private void load(String state) {
+        if (failLoad) {
+            throw new IllegalStateException("load failed");
+        }
+        // the model saves the reverse record before replacing its content
+        undoController.beforeContentReplace(current);
+        current = state;
+        loaded.add(state);
+    }
+
+    private void change(String state) {
+        undoController.beforeContentReplace(current);
+        current = state;
+    }
+
+    @Test
+    public void should_undo_and_redo() {
+        change("a");
+        change("b");
+        undoController.undo();
+        assertEquals("a", current);
+        assertEquals(1, undoController.getUndoDepth());
+        assertEquals(1, undoController.getRedoDepth());
+
+        undoController.redo();
+        assertEquals("b", current);
+        assertEquals(2, undoController.getUndoDepth());
+        assertEquals(0, undoController.getRedoDepth());
+
+        undoController.undo();
+        undoController.undo();
+        assertEquals("", current);
+        assertEquals(2, undoController.getRedoDepth());
+    }
+
+    @Test
+    public void should_limit_depth() {
+        undoController.setLimits(2, 1000);
+        change("a");
+        change("b");
+        change("c");
+        assertEquals(2, undoController.getUndoDepth());
+        undoController.undo();
+        undoController.undo();
+        undoController.undo();
+        assertEquals(2, loaded.size());
+        assertEquals("b", loaded.get(0));
+        assertEquals("a", loaded.get(1));
+    }
+
+    @Test
+    public void should_limit_memory() {
+        undoController.setLimits(100, 10);
+        undoController.beforeContentReplace("aaaa");
+        undoController.beforeContentReplace("bbbb");
+        undoController.beforeContentReplace("cccc");
+        assertEquals(2, undoController.getUndoDepth());
+        assertEquals(8, undoController.getSizeInBytes());
+    }
+
+    @Test
+    public void should_clear_redo_on_new_change() {
+        change("a");
+        change("bb");
+        undoController.undo();
+        undoController.undo();
+        assertEquals(2, undoController.getRedoDepth());
+
+        change("c");
+        assertEquals(0, undoController.getRedoDepth());
+        assertEquals(1, undoController.getUndoDepth());
+        assertEquals(0, undoController.getSizeInBytes());
+    }
+
+    @Test
+    public void should_keep_record_when_load_fails() {
+        change("a");
+        change("b");
+        failLoad = true;
+        undoController.undo();
+        assertEquals("b", current);
+        assertEquals(2, undoController.getUndoDepth());
+        assertEquals(0, undoController.getRedoDepth());
+        assertEquals(1, undoController.getSizeInBytes());
+
+        failLoad = false;
+        undoController.undo();
+        assertEquals("a", current);
+    }
+}
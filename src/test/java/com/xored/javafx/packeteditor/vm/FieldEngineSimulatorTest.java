@@ -0,0 +1,72 @@
+package com.xored.javafx.packeteditor.vm;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FieldEngineSimulatorTest {
+
+    /** Ether/IPv4/UDP, 10.0.0.1 -> 10.0.0.2 */
+    byte[] udpPacket() {
+        byte[] p = new byte[60];
+        p[12] = 0x08;
+        p[14] = 0x45;
+        p[17] = 46;
+        p[22] = 64;
+        p[23] = 17;
+        p[26] = 10; p[29] = 1;
+        p[30] = 10; p[33] = 2;
+        p[35] = 53; p[37] = 53;
+        p[39] = 26;
+        return p;
+    }
+
+    JsonArray program(String json) {
+        return new JsonParser().parse(json).getAsJsonArray();
+    }
+
+    @Test
+    public void should_increment_and_wrap_with_step() {
+        FieldEngineSimulator simulator = new FieldEngineSimulator(udpPacket(), program("["
+                + "{'type':'flow_var','name':'src','size':1,'op':'inc','init_value':1,'min_value':1,'max_value':10,'step':3},"
+                + "{'type':'write_flow_var','name':'src','pkt_offset':29,'add_value':0,'is_big_endian':true}]"));
+        int[] expected = {1, 4, 7, 10, 3, 6};
+        for (int value : expected) {
+            assertEquals(value, simulator.next()[29]);
+        }
+        assertEquals(10, simulator.getCycleLength());
+        simulator.reset();
+        assertEquals(1, simulator.next()[29]);
+    }
+
+    @Test
+    public void should_write_masked_value() {
+        FieldEngineSimulator simulator = new FieldEngineSimulator(udpPacket(), program("["
+                + "{'type':'flow_var','name':'v','size':1,'op':'dec','init_value':5,'min_value':1,'max_value':5,'step':1},"
+                + "{'type':'write_mask_flow_var','name':'v','pkt_offset':18,'pkt_cast_size':2,'mask':4080,'shift':4,'add_value':0,'is_big_endian':true}]"));
+        assertEquals(0x50, Checksums.getShort(simulator.next(), 18));
+        assertEquals(0x40, Checksums.getShort(simulator.next(), 18));
+    }
+
+    @Test
+    public void should_fix_checksums() {
+        FieldEngineSimulator simulator = new FieldEngineSimulator(udpPacket(), program("["
+                + "{'type':'flow_var','name':'src','size':4,'op':'random','init_value':0,'min_value':0,'max_value':4294967295,'step':1},"
+                + "{'type':'write_flow_var','name':'src','pkt_offset':26,'add_value':0,'is_big_endian':true},"
+                + "{'type':'fix_checksum_hw','l2_len':14,'l3_len':20,'l4_type':11}]"));
+        assertEquals(-1, simulator.getCycleLength());
+        for (int i = 0; i < 100; i++) {
+            byte[] packet = simulator.next();
+            assertEquals(0, Checksums.finish(Checksums.sum(packet, 14, 20, 0)));
+            long pseudo = Checksums.sum(packet, 26, 8, 0) + Checksums.PROTO_UDP + 26;
+            assertEquals(0, Checksums.finish(Checksums.sum(packet, 34, 26, pseudo)));
+        }
+    }
+
+    @Test(expected = FieldEngineException.class)
+    public void should_reject_unknown_instruction() {
+        new FieldEngineSimulator(udpPacket(), program("[{'type':'trim_pkt_size','name':'x'}]"));
+    }
+}